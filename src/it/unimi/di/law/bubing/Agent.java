@@ -1,7 +1,6 @@
 package it.unimi.di.law.bubing;
 
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetAddress;
@@ -10,7 +9,6 @@ import java.net.URI;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.locks.Lock;
 
 import org.apache.commons.configuration.BaseConfiguration;
 import org.apache.commons.configuration.ConfigurationException;
@@ -217,26 +215,14 @@ public class Agent extends JGroupsJobManager<BubingJob> {
 		frontier.sieve.flush();
 	}
 
-	@ManagedOperation @Description("Add a new IPv4 to the black list; it can be a single IP address or a file (prefixed by file:)")
-	public void addBlackListedIPv4(@org.softee.management.annotation.Parameter("address") @Description("An IPv4 address to be blacklisted") String address) throws ConfigurationException, FileNotFoundException {
-		final Lock lock = rc.blackListedIPv4Lock.writeLock();
-		lock.lock();
-		try {
-			rc.addBlackListedIPv4(address);
-		} finally {
-			lock.unlock();
-		}
+	@ManagedOperation @Description("Add a new IP address to the black list; it can be a single IPv4 or IPv6 address, a CIDR range (e.g., 10.0.0.0/8) or a file (prefixed by file:)")
+	public void addBlackListedIPv4(@org.softee.management.annotation.Parameter("address") @Description("An IP address or CIDR range to be blacklisted") String address) throws ConfigurationException, IOException {
+		rc.addBlackListedIPv4(address);
 	}
 
-	@ManagedOperation @Description("Add a new host to the black list; it can be a single host or a file (prefixed by file:)")
-	public void addBlackListedHost(@org.softee.management.annotation.Parameter("host") @Description("A host to be blacklisted") String host) throws ConfigurationException, FileNotFoundException {
-		final Lock lock = rc.blackListedHostHashesLock.writeLock();
-		lock.lock();
-		try {
-			rc.addBlackListedHost(host);
-		} finally {
-			lock.unlock();
-		}
+	@ManagedOperation @Description("Add a new host to the black list; it can be a single host, a domain prefixed by a dot (e.g., .example.com) or a file (prefixed by file:)")
+	public void addBlackListedHost(@org.softee.management.annotation.Parameter("host") @Description("A host or domain to be blacklisted") String host) throws IOException {
+		rc.addBlackListedHost(host);
 	}
 
 
@@ -369,6 +355,50 @@ public class Agent extends JGroupsJobManager<BubingJob> {
 		return rc.ipDelay;
 	}
 
+	@ManagedAttribute
+	public void setAdaptiveDelayReferenceTime(final long adaptiveDelayReferenceTime) {
+		if (adaptiveDelayReferenceTime < 0) throw new IllegalArgumentException("Negative reference time: " + adaptiveDelayReferenceTime);
+		rc.adaptiveDelayReferenceTime = adaptiveDelayReferenceTime;
+	}
+
+	@ManagedAttribute @Description("Response time in milliseconds at which adaptive politeness delays are equal to the configured delays (0 for static delays)")
+	public long getAdaptiveDelayReferenceTime() {
+		return rc.adaptiveDelayReferenceTime;
+	}
+
+	@ManagedAttribute
+	public void setMaxCrawlDelay(final long maxCrawlDelay) {
+		if (maxCrawlDelay < 0) throw new IllegalArgumentException("Negative maximum crawl delay: " + maxCrawlDelay);
+		rc.maxCrawlDelay = maxCrawlDelay;
+	}
+
+	@ManagedAttribute @Description("Maximum Crawl-delay in milliseconds that will be honored (0 to ignore Crawl-delay)")
+	public long getMaxCrawlDelay() {
+		return rc.maxCrawlDelay;
+	}
+
+	@ManagedAttribute
+	public void setBandwidth(final long bandwidth) {
+		if (bandwidth < 0) throw new IllegalArgumentException("Negative bandwidth: " + bandwidth);
+		rc.bandwidth = bandwidth;
+	}
+
+	@ManagedAttribute @Description("Maximum overall download bandwidth in bytes per second (0 for no limit)")
+	public long getBandwidth() {
+		return rc.bandwidth;
+	}
+
+	@ManagedAttribute
+	public void setBandwidthPerIP(final long bandwidthPerIP) {
+		if (bandwidthPerIP < 0) throw new IllegalArgumentException("Negative bandwidth: " + bandwidthPerIP);
+		rc.bandwidthPerIP = bandwidthPerIP;
+	}
+
+	@ManagedAttribute @Description("Maximum download bandwidth from the same IP address in bytes per second (0 for no limit)")
+	public long getBandwidthPerIP() {
+		return rc.bandwidthPerIP;
+	}
+
 	@ManagedAttribute
 	public void setMaxUrls(final long maxUrls) {
 		rc.maxUrls = maxUrls;
@@ -531,6 +561,52 @@ public class Agent extends JGroupsJobManager<BubingJob> {
 		return frontier.transferredBytes.get();
 	}
 
+	@ManagedAttribute @Description("Number of transferred bytes after decoding compressed responses")
+	public long getDecodedBytes() {
+		return frontier.decodedBytes.get();
+	}
+
+	@ManagedAttribute @Description("Number of responses whose body was not downloaded because their headers sufficed to reject them")
+	public long getSkippedBodies() {
+		return frontier.skippedBodies.get();
+	}
+
+	@ManagedAttribute @Description("Number of 304 Not Modified responses to conditional requests")
+	public long getNotModified() {
+		return frontier.notModified.get();
+	}
+
+	@ManagedAttribute @Description("Number of hosts resolved to an IPv4 address")
+	public long getResolvedIPv4Hosts() {
+		return frontier.resolvedIPv4Hosts.get();
+	}
+
+	@ManagedAttribute @Description("Number of hosts resolved to an IPv6 address")
+	public long getResolvedIPv6Hosts() {
+		return frontier.resolvedIPv6Hosts.get();
+	}
+
+	@ManagedAttribute @Description("Number of resources fetched from an IPv6 address")
+	public long getFetchedResourcesIPv6() {
+		return frontier.fetchedResourcesIPv6.get();
+	}
+
+	@ManagedAttribute @Description("Number of TLS handshakes")
+	public long getTlsHandshakes() {
+		return frontier.tlsHandshakes.get();
+	}
+
+	@ManagedAttribute @Description("Number of TLS handshakes that resumed a cached session")
+	public long getTlsResumedHandshakes() {
+		return frontier.tlsResumedHandshakes.get();
+	}
+
+	@ManagedAttribute @Description("Average duration of a TLS handshake in milliseconds")
+	public double getTlsAverageHandshakeTime() {
+		final long tlsHandshakes = frontier.tlsHandshakes.get();
+		return tlsHandshakes == 0 ? 0 : frontier.tlsHandshakeTimeSum.get() / 1E6 / tlsHandshakes;
+	}
+
 	@ManagedAttribute @Description("Number of URLs received from other agents")
 	public long getReceivedURLs() {
 		return frontier.numberOfReceivedURLs.get();
@@ -611,6 +687,11 @@ public class Agent extends JGroupsJobManager<BubingJob> {
 		return frontier.getStatsThread().getVisitStates();
 	}
 
+	@ManagedAttribute @Description("Number of VisitState instances packed in cold storage")
+	public int getColdVisitStates() {
+		return frontier.getStatsThread().getColdVisitStates();
+	}
+
 	@ManagedAttribute @Description("Number of resolved VisitState instances")
 	public long getResolvedVisitStates() {
 		return frontier.getStatsThread().resolvedVisitStates;
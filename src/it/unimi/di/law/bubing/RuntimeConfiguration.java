@@ -2,23 +2,20 @@ package it.unimi.di.law.bubing;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Modifier;
-import java.net.InetAddress;
 import java.net.URI;
 import java.net.URL;
-import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.TreeMap;
 import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Pattern;
 
 import org.apache.commons.configuration.ConfigurationException;
@@ -28,7 +25,6 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Charsets;
 import com.google.common.collect.Iterators;
-import com.google.common.primitives.Ints;
 
 /*
  * Copyright (C) 2012-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
@@ -48,15 +44,17 @@ import com.google.common.primitives.Ints;
 
 
 import it.unimi.di.law.bubing.frontier.ParsingThread;
+import it.unimi.di.law.bubing.frontier.dns.AddressPreference;
+import it.unimi.di.law.bubing.frontier.priority.PathQueryPriority;
 import it.unimi.di.law.bubing.parser.Parser;
 import it.unimi.di.law.bubing.spam.SpamDetector;
 import it.unimi.di.law.bubing.store.Store;
 import it.unimi.di.law.bubing.util.BURL;
+import it.unimi.di.law.bubing.util.BlackList;
 import it.unimi.di.law.bubing.util.Link;
 import it.unimi.di.law.warc.filters.Filter;
 import it.unimi.di.law.warc.filters.Filters;
 import it.unimi.di.law.warc.filters.URIResponse;
-import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 import it.unimi.dsi.fastutil.io.BinIO;
 import it.unimi.dsi.io.FastBufferedReader;
 import it.unimi.dsi.io.LineIterator;
@@ -102,12 +100,36 @@ public class RuntimeConfiguration {
 	/** @see StartupConfiguration#fetchingThreads */
 	public volatile int fetchingThreads;
 
+	/** @see StartupConfiguration#fetchDataPoolSize */
+	public final int fetchDataPoolSize;
+
 	/** @see StartupConfiguration#parsingThreads */
 	public volatile int parsingThreads;
 
+	/** @see StartupConfiguration#streamingParses */
+	public final int streamingParses;
+
+	/** @see StartupConfiguration#todoThreads */
+	public final int todoThreads;
+
+	/** @see StartupConfiguration#distributorThreads */
+	public final int distributorThreads;
+
 	/** @see StartupConfiguration#dnsThreads */
 	public volatile int dnsThreads;
 
+	/** @see StartupConfiguration#dnsPrefetchThreads */
+	public final int dnsPrefetchThreads;
+
+	/** @see StartupConfiguration#asyncFetching */
+	public final boolean asyncFetching;
+
+	/** @see StartupConfiguration#asyncIoThreads */
+	public final int asyncIoThreads;
+
+	/** @see StartupConfiguration#virtualThreads */
+	public final boolean virtualThreads;
+
 	/** @see StartupConfiguration#fetchFilter */
 	public volatile Filter<URI> fetchFilter;
 
@@ -135,6 +157,18 @@ public class RuntimeConfiguration {
 	/** @see StartupConfiguration#ipDelayFactor */
 	public volatile double ipDelayFactor;
 
+	/** @see StartupConfiguration#adaptiveDelayReferenceTime */
+	public volatile long adaptiveDelayReferenceTime;
+
+	/** @see StartupConfiguration#adaptiveDelayMinRatio */
+	public volatile double adaptiveDelayMinRatio;
+
+	/** @see StartupConfiguration#adaptiveDelayMaxRatio */
+	public volatile double adaptiveDelayMaxRatio;
+
+	/** @see StartupConfiguration#maxCrawlDelay */
+	public volatile long maxCrawlDelay;
+
 	/** @see StartupConfiguration#maxUrls */
 	public volatile long maxUrls;
 
@@ -146,18 +180,11 @@ public class RuntimeConfiguration {
 	 * @see StartupConfiguration#seed */
 	public final Iterator<URI> seed;
 
-	/** @see StartupConfiguration#seed */
-	public final IntOpenHashSet blackListedIPv4Addresses;
-
-	/** A lock used to access {@link #blackListedIPv4Addresses}. */
-	public final ReadWriteLock blackListedIPv4Lock;
-
-	/** The set of hashes of hosts that should be blacklisted.
-	 * @see StartupConfiguration#blackListedHosts */
-	public final IntOpenHashSet blackListedHostHashes;
-
-	/** A lock used to access {@link #blackListedHostHashes}. */
-	public final ReadWriteLock blackListedHostHashesLock;
+	/** The blacklist of hosts, domains and IP addresses. It is immutable, and it is replaced by an updated copy
+	 * when new entries are added, so it can be read without any locking.
+	 * @see StartupConfiguration#blackListedHosts
+	 * @see StartupConfiguration#blackListedIPv4Addresses */
+	public volatile BlackList blackList;
 
 	/** @see StartupConfiguration#socketTimeout */
 	public volatile int socketTimeout;
@@ -165,6 +192,27 @@ public class RuntimeConfiguration {
 	/** @see StartupConfiguration#connectionTimeout */
 	public volatile int connectionTimeout;
 
+	/** @see StartupConfiguration#tlsSessionCacheSize */
+	public final int tlsSessionCacheSize;
+
+	/** @see StartupConfiguration#tlsSessionTimeout */
+	public final long tlsSessionTimeout;
+
+	/** @see StartupConfiguration#connectionPoolMaxTotal */
+	public final int connectionPoolMaxTotal;
+
+	/** @see StartupConfiguration#connectionPoolMaxPerIP */
+	public final int connectionPoolMaxPerIP;
+
+	/** @see StartupConfiguration#connectionPoolIdleTime */
+	public final long connectionPoolIdleTime;
+
+	/** @see StartupConfiguration#bandwidth */
+	public volatile long bandwidth;
+
+	/** @see StartupConfiguration#bandwidthPerIP */
+	public volatile long bandwidthPerIP;
+
 	/** @see StartupConfiguration#fetchDataBufferByteSize */
 	public final int fetchDataBufferByteSize;
 
@@ -198,6 +246,12 @@ public class RuntimeConfiguration {
 	/** @see StartupConfiguration#storeDir */
 	public final File storeDir;
 
+	/** @see StartupConfiguration#storeValidators */
+	public final boolean storeValidators;
+
+	/** @see StartupConfiguration#revisitValidators */
+	public final File revisitValidators;
+
 	/** @see StartupConfiguration#responseCacheDir */
 	public final File responseCacheDir;
 
@@ -210,6 +264,12 @@ public class RuntimeConfiguration {
 	/** @see StartupConfiguration#responseBodyMaxByteSize */
 	public volatile int responseBodyMaxByteSize;
 
+	/** @see StartupConfiguration#acceptEncoding */
+	public final boolean acceptEncoding;
+
+	/** @see StartupConfiguration#decompressionMaxRatio */
+	public volatile int decompressionMaxRatio;
+
 	/** @see StartupConfiguration#digestAlgorithm */
 	public final String digestAlgorithm;
 
@@ -222,12 +282,18 @@ public class RuntimeConfiguration {
 	/** @see StartupConfiguration#workbenchMaxByteSize */
 	public volatile long workbenchMaxByteSize;
 
+	/** @see StartupConfiguration#visitStateColdDelay */
+	public volatile long visitStateColdDelay;
+
 	/** @see StartupConfiguration#virtualizerMaxByteSize */
 	public final long virtualizerMaxByteSize;
 
 	/** @see StartupConfiguration#urlCacheMaxByteSize */
 	public volatile long urlCacheMaxByteSize;
 
+	/** @see StartupConfiguration#hostImportanceByteSize */
+	public final long hostImportanceByteSize;
+
 	/** @see StartupConfiguration#sieveSize */
 	public final int sieveSize;
 
@@ -246,6 +312,12 @@ public class RuntimeConfiguration {
 	/** @see StartupConfiguration#dnsNegativeTtl */
 	public final long dnsNegativeTtl;
 
+	/** @see StartupConfiguration#addressPreference */
+	public final AddressPreference addressPreference;
+
+	/** @see StartupConfiguration#ipv6PolitenessPrefixLength */
+	public final int ipv6PolitenessPrefixLength;
+
 	/** @see StartupConfiguration#crawlIsNew */
 	public final boolean crawlIsNew;
 
@@ -258,6 +330,9 @@ public class RuntimeConfiguration {
 	/** @see StartupConfiguration#spamDetectionPeriodicity */
 	public final int spamDetectionPeriodicity;
 
+	/** @see StartupConfiguration#pathQueryPrioritySpec */
+	public final PathQueryPriority pathQueryPriority;
+
 	/** The parser, instantiated. Parsers used by {@link ParsingThread} instances are obtained by {@linkplain FlyweightPrototype#copy() copying this parsers}. */
 	public final ArrayList<Parser<?>> parsers;
 
@@ -292,61 +367,53 @@ public class RuntimeConfiguration {
 		return null;
 	}
 
-	/** Converts a string specifying an IPv4 address into an integer. The string can be either a single integer (representing
-	 *  the address) or a dot-separated 4-tuple of bytes.
+	/** Returns the list of specifications described by a specification, which can be a file (prefixed by <code>file:</code>)
+	 *  containing a specification on each line.
 	 *
-	 * @param s the string to be converted.
-	 * @return the integer representing the IP address specified by s.
-	 * @throws ConfigurationException
+	 * @param spec a specification, or a file prefixed by <code>file:</code>.
+	 * @return the list of specifications described by {@code spec}.
+	 * @throws IOException
 	 */
-	private int handleIPv4(final String s) throws ConfigurationException {
-		try {
-			if (!RuntimeConfiguration.DOTTED_ADDRESS.matcher(s).matches()) throw new ConfigurationException("Malformed IPv4 " + s + " for blacklisting");
-			// Note that since we're sure this is a dotted-notation address, we pass directly through InetAddress.
-			final byte[] address = InetAddress.getByName(s).getAddress();
-			if (address.length > 4) throw new UnknownHostException("Not IPv4");
-			return Ints.fromByteArray(address);
-		} catch (final UnknownHostException e) {
-			throw new ConfigurationException("Malformed IPv4 " + s + " for blacklisting", e);
+	private static List<String> specs(final String spec) throws IOException {
+		if (! spec.startsWith("file:")) return Collections.singletonList(spec);
+		final List<String> specs = new ArrayList<>();
+		try (final FastBufferedReader reader = new FastBufferedReader(new InputStreamReader(new FileInputStream(spec.substring(5)), Charsets.ISO_8859_1))) {
+			final LineIterator lineIterator = new LineIterator(reader);
+			while (lineIterator.hasNext()) specs.add(lineIterator.next().toString());
 		}
+		return specs;
 	}
 
-	/** Adds a (or a set of) new IPv4 to the black list; the IPv4 can be specified directly or it can be a file (prefixed by
-	 *  <code>file:</code>).
+	/** Adds a (or a set of) new IP address or CIDR range (either IPv4 or IPv6) to the black list; the address can be specified directly
+	 *  or it can be a file (prefixed by <code>file:</code>).
+	 *
+	 * <p>The {@linkplain #blackList black list} is replaced by an updated copy.
 	 *
-	 * @param spec the specification (an IP address, or a file prefixed by <code>file</code>).
+	 * @param spec the specification (an IP address, possibly followed by a slash and a prefix length, or a file prefixed by <code>file</code>).
 	 * @throws ConfigurationException
-	 * @throws FileNotFoundException
+	 * @throws IOException
 	 */
-	public void addBlackListedIPv4(final String spec) throws ConfigurationException, FileNotFoundException {
-			if (spec.length() == 0) return; // Skip empty specs
-			if (spec.startsWith("file:")) {
-				final LineIterator lineIterator = new LineIterator(new FastBufferedReader(new InputStreamReader(new FileInputStream(spec.substring(5)), Charsets.ISO_8859_1)));
-				while (lineIterator.hasNext()) {
-					final MutableString line = lineIterator.next();
-					if (line.length() > 0) blackListedIPv4Addresses.add(handleIPv4(line.toString()));
-				}
-			}
-			else blackListedIPv4Addresses.add(handleIPv4(spec));
+	public synchronized void addBlackListedIPv4(final String spec) throws ConfigurationException, IOException {
+		if (spec.length() == 0) return; // Skip empty specs
+		try {
+			blackList = blackList.addAddresses(specs(spec));
+		}
+		catch(final IllegalArgumentException e) {
+			throw new ConfigurationException("Malformed address specification " + spec + " for blacklisting", e);
+		}
 	}
 
-	/** Adds a (or a set of) new host to the black list; the host can be specified directly or it can be a file (prefixed by
-	 *  <code>file:</code>).
+	/** Adds a (or a set of) new host or domain to the black list; the host can be specified directly or it can be a file (prefixed by
+	 *  <code>file:</code>). Domains are specified by a leading dot (or by <code>*.</code>) and match all their subdomains.
 	 *
-	 * @param spec the specification (a host, or a file prefixed by <code>file</code>).
-	 * @throws ConfigurationException
-	 * @throws FileNotFoundException
+	 * <p>The {@linkplain #blackList black list} is replaced by an updated copy.
+	 *
+	 * @param spec the specification (a host, a domain, or a file prefixed by <code>file</code>).
+	 * @throws IOException
 	 */
-	public void addBlackListedHost(final String spec) throws ConfigurationException, FileNotFoundException 	{
+	public synchronized void addBlackListedHost(final String spec) throws IOException {
 		if (spec.length() == 0) return; // Skip empty specs
-		if (spec.startsWith("file:")) {
-			final LineIterator lineIterator = new LineIterator(new FastBufferedReader(new InputStreamReader(new FileInputStream(spec.substring(5)), Charsets.ISO_8859_1)));
-			while (lineIterator.hasNext()) {
-				final MutableString line = lineIterator.next();
-				blackListedHostHashes.add(line.toString().trim().hashCode());
-			}
-		}
-		else blackListedHostHashes.add(spec.trim().hashCode());
+		blackList = blackList.addHosts(specs(spec));
 	}
 
 	public RuntimeConfiguration(final StartupConfiguration startupConfiguration) throws ConfigurationException, IOException {
@@ -357,8 +424,16 @@ public class RuntimeConfiguration {
 			weight = startupConfiguration.weight;
 			maxUrlsPerSchemeAuthority = startupConfiguration.maxUrlsPerSchemeAuthority;
 			fetchingThreads = startupConfiguration.fetchingThreads;
+			fetchDataPoolSize = startupConfiguration.fetchDataPoolSize;
 			parsingThreads = startupConfiguration.parsingThreads;
+			streamingParses = startupConfiguration.streamingParses;
+			todoThreads = startupConfiguration.todoThreads;
+			distributorThreads = startupConfiguration.distributorThreads;
 			dnsThreads = startupConfiguration.dnsThreads;
+			dnsPrefetchThreads = startupConfiguration.dnsPrefetchThreads;
+			asyncFetching = startupConfiguration.asyncFetching;
+			asyncIoThreads = startupConfiguration.asyncIoThreads;
+			virtualThreads = startupConfiguration.virtualThreads;
 			fetchFilter = startupConfiguration.fetchFilter;
 			scheduleFilter = startupConfiguration.scheduleFilter;
 			parseFilter = startupConfiguration.parseFilter;
@@ -368,19 +443,27 @@ public class RuntimeConfiguration {
 			schemeAuthorityDelay = startupConfiguration.schemeAuthorityDelay;
 			ipDelay = startupConfiguration.ipDelay;
 			ipDelayFactor = startupConfiguration.ipDelayFactor;
+			adaptiveDelayReferenceTime = startupConfiguration.adaptiveDelayReferenceTime;
+			adaptiveDelayMinRatio = startupConfiguration.adaptiveDelayMinRatio;
+			adaptiveDelayMaxRatio = startupConfiguration.adaptiveDelayMaxRatio;
+			maxCrawlDelay = startupConfiguration.maxCrawlDelay;
 			maxUrls = startupConfiguration.maxUrls;
 			bloomFilterPrecision = startupConfiguration.bloomFilterPrecision;
 			startPaused = startupConfiguration.startPaused;
 			storeClass = startupConfiguration.storeClass;
 			workbenchMaxByteSize = startupConfiguration.workbenchMaxByteSize;
+			visitStateColdDelay = startupConfiguration.visitStateColdDelay;
 			virtualizerMaxByteSize = startupConfiguration.virtualizerMaxByteSize;
 			urlCacheMaxByteSize = startupConfiguration.urlCacheMaxByteSize;
+			hostImportanceByteSize = startupConfiguration.hostImportanceByteSize;
 			sieveSize = startupConfiguration.sieveSize & -1 << 3;
 			sieveStoreIOBufferByteSize = startupConfiguration.sieveStoreIOBufferByteSize & -1 << 3;
 			sieveAuxFileIOBufferByteSize = startupConfiguration.sieveStoreIOBufferByteSize & -1 << 3;
 			dnsCacheMaxSize = startupConfiguration.dnsCacheMaxSize;
 			dnsPositiveTtl = startupConfiguration.dnsPositiveTtl;
 			dnsNegativeTtl = startupConfiguration.dnsNegativeTtl;
+			addressPreference = AddressPreference.valueOf(startupConfiguration.addressPreference);
+			ipv6PolitenessPrefixLength = startupConfiguration.ipv6PolitenessPrefixLength;
 
 			try {
 				dnsResolver = startupConfiguration.dnsResolverClass.getConstructor().newInstance();
@@ -416,19 +499,24 @@ public class RuntimeConfiguration {
 				else seedSequence.add(Iterators.singletonIterator(handleSeedURL(new MutableString(spec))));
 			}
 
-			blackListedIPv4Addresses = new IntOpenHashSet();
+			blackList = BlackList.EMPTY;
 			for(final String spec : startupConfiguration.blackListedIPv4Addresses) addBlackListedIPv4(spec);
-			blackListedIPv4Lock = new ReentrantReadWriteLock();
-
-			blackListedHostHashes = new IntOpenHashSet();
 			for(final String spec : startupConfiguration.blackListedHosts) addBlackListedHost(spec);
-			blackListedHostHashesLock = new ReentrantReadWriteLock();
 
 			this.seed = Iterators.concat(seedSequence.iterator());
 			socketTimeout = startupConfiguration.socketTimeout;
 			connectionTimeout = startupConfiguration.connectionTimeout;
+			tlsSessionCacheSize = startupConfiguration.tlsSessionCacheSize;
+			tlsSessionTimeout = startupConfiguration.tlsSessionTimeout;
+			connectionPoolMaxTotal = startupConfiguration.connectionPoolMaxTotal;
+			connectionPoolMaxPerIP = startupConfiguration.connectionPoolMaxPerIP;
+			connectionPoolIdleTime = startupConfiguration.connectionPoolIdleTime;
+			bandwidth = startupConfiguration.bandwidth;
+			bandwidthPerIP = startupConfiguration.bandwidthPerIP;
 			rootDir = new File(startupConfiguration.rootDir);
 			storeDir = StartupConfiguration.subDir(startupConfiguration.rootDir, startupConfiguration.storeDir);
+			storeValidators = startupConfiguration.storeValidators;
+			revisitValidators = startupConfiguration.revisitValidators.length() == 0 ? null : new File(startupConfiguration.revisitValidators);
 			responseCacheDir = StartupConfiguration.subDir(startupConfiguration.rootDir, startupConfiguration.responseCacheDir);
 			sieveDir = StartupConfiguration.subDir(startupConfiguration.rootDir, startupConfiguration.sieveDir);
 			frontierDir = StartupConfiguration.subDir(startupConfiguration.rootDir, startupConfiguration.frontierDir);
@@ -442,8 +530,11 @@ public class RuntimeConfiguration {
 			robotsExpiration = startupConfiguration.robotsExpiration;
 			acceptAllCertificates = startupConfiguration.acceptAllCertificates;
 			responseBodyMaxByteSize = startupConfiguration.responseBodyMaxByteSize;
+			acceptEncoding = startupConfiguration.acceptEncoding;
+			decompressionMaxRatio = startupConfiguration.decompressionMaxRatio;
 			digestAlgorithm = startupConfiguration.digestAlgorithm;
 			parsers = parsersFromSpecs(startupConfiguration.parserSpec); // Try to build parsers just to see if the specs are correct
+			pathQueryPriority = startupConfiguration.pathQueryPrioritySpec.length() == 0 ? null : ObjectParser.fromSpec(startupConfiguration.pathQueryPrioritySpec, PathQueryPriority.class, new String[] { "it.unimi.di.law.bubing.frontier.priority" });
 
 			// State setup
 
@@ -11,6 +11,7 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.net.URI;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.StringTokenizer;
@@ -46,10 +47,19 @@ import com.martiansoftware.jsap.stringparsers.LongSizeStringParser;
  * limitations under the License.
  */
 
+import it.unimi.di.law.bubing.frontier.AsyncFetchingThread;
+import it.unimi.di.law.bubing.frontier.DNSPrefetchThread;
 import it.unimi.di.law.bubing.frontier.DNSThread;
+import it.unimi.di.law.bubing.frontier.Distributor;
 import it.unimi.di.law.bubing.frontier.FetchingThread;
 import it.unimi.di.law.bubing.frontier.Frontier;
 import it.unimi.di.law.bubing.frontier.ParsingThread;
+import it.unimi.di.law.bubing.frontier.TodoThread;
+import it.unimi.di.law.bubing.frontier.VirtualThreads;
+import it.unimi.di.law.bubing.frontier.Workbench;
+import it.unimi.di.law.bubing.frontier.dns.AddressPreference;
+import it.unimi.di.law.bubing.frontier.dns.AsyncDnsResolver;
+import it.unimi.di.law.bubing.frontier.dns.CachingDnsResolver;
 import it.unimi.di.law.bubing.frontier.dns.DnsJavaResolver;
 import it.unimi.di.law.bubing.parser.Parser;
 import it.unimi.di.law.bubing.sieve.AbstractSieve;
@@ -58,6 +68,7 @@ import it.unimi.di.law.bubing.store.Store;
 import it.unimi.di.law.bubing.util.ByteArrayDiskQueue;
 import it.unimi.di.law.bubing.util.FetchData;
 import it.unimi.di.law.bubing.util.Link;
+import it.unimi.di.law.bubing.util.ValidatorMap;
 import it.unimi.di.law.warc.filters.Filter;
 import it.unimi.di.law.warc.filters.URIResponse;
 import it.unimi.di.law.warc.filters.parser.FilterParser;
@@ -169,12 +180,61 @@ public class StartupConfiguration {
 	/** The number of {@linkplain FetchingThread fetching threads} (hundreds or even thousands). */
 	public int fetchingThreads;
 
+	/** The number of {@link FetchData} instances used by each {@linkplain FetchingThread fetching thread}: with more
+	 * than one instance, a fetching thread can go on downloading while its previous responses are being parsed.
+	 * Each instance buffers a response in memory (up to {@link #fetchDataBufferByteSize} bytes), so the memory
+	 * used for buffers grows linearly with this parameter. */
+	@OptionalSpecification(value="2")
+	public int fetchDataPoolSize;
+
 	/** The number of {@linkplain ParsingThread parsing threads} (usually, the number of available cores). */
 	public int parsingThreads;
 
+	/** The maximum number of responses that can be parsed while they are being downloaded, or 0 to disable streaming.
+	 * A streamed response is handed to a {@linkplain ParsingThread parsing thread} as soon as its headers have been received,
+	 * and the thread reads its content as it arrives, so links and digest are available almost as soon as the download
+	 * is over; on the other hand, the parsing thread is busy until the download completes. Thus, this parameter
+	 * should be smaller than {@link #parsingThreads}. */
+	@OptionalSpecification(value="0")
+	public int streamingParses;
+
+	/** The number of {@linkplain TodoThread todo threads}, which is also the number of {@linkplain Workbench#shards() shards} of the
+	 * workbench. A single thread is sufficient for small crawls, but with millions of IP addresses the lock of the workbench
+	 * becomes a bottleneck. */
+	@OptionalSpecification(value="1")
+	public int todoThreads;
+
+	/** The number of {@linkplain Distributor distributors}, each responsible for the schemes+authorities with a given hash. A single
+	 * distributor is sufficient for small crawls, but with millions of schemes+authorities it can become unable to keep the workbench full.
+	 * This value cannot be changed when restoring a crawl. */
+	@OptionalSpecification(value="1")
+	public int distributorThreads;
+
 	/** The number of {@linkplain DNSThread DNS threads} (usually few dozens, depending on the server). */
 	public int dnsThreads;
 
+	/** The number of {@linkplain DNSPrefetchThread DNS prefetch threads}, which resolve in advance the hosts of URLs coming out of the sieve or
+	 * received from other agents, or 0 to disable prefetching. Prefetching is possible only if the {@linkplain #dnsResolverClass resolver}
+	 * is a {@link CachingDnsResolver}; with an {@link AsyncDnsResolver} a single thread is sufficient. */
+	@OptionalSpecification(value="2")
+	public int dnsPrefetchThreads;
+
+	/** Whether to fetch pages using a single {@link AsyncFetchingThread} driving non-blocking connections in lieu of
+	 * {@link #fetchingThreads} {@linkplain FetchingThread fetching threads}; in this case, {@link #fetchingThreads} is
+	 * the maximum number of concurrent requests. */
+	@OptionalSpecification(value="false")
+	public boolean asyncFetching;
+
+	/** The number of I/O dispatch threads (i.e., of selectors) used when {@link #asyncFetching} is true (usually, the number of available cores). */
+	@OptionalSpecification(value="2")
+	public int asyncIoThreads;
+
+	/** Whether {@linkplain DNSThread DNS}, {@linkplain DNSPrefetchThread DNS prefetch}, {@linkplain FetchingThread fetching} and {@linkplain ParsingThread parsing} threads
+	 * should be run as virtual threads, so that blocking calls unmount cheaply from carrier threads. Requires Java 21 or later;
+	 * otherwise, a warning is logged and platform threads are used. */
+	@OptionalSpecification(value="false")
+	public boolean virtualThreads;
+
 	/** A filter that will be applied to all ready URLs to decide whether to fetch them. */
 	@FilterSpecification(type = URI.class)
 	public Filter<URI> fetchFilter;
@@ -225,6 +285,29 @@ public class StartupConfiguration {
 	@OptionalSpecification(value="0")
 	public double ipDelayFactor;
 
+	/** If nonzero, politeness delays are adaptive: {@link #schemeAuthorityDelay} (respectively, {@link #ipDelay}) is multiplied by the ratio
+	 * between a moving average of the response time of the scheme+authority (respectively, of the IP address) and this reference time,
+	 * clamped between {@link #adaptiveDelayMinRatio} and {@link #adaptiveDelayMaxRatio}. In this way, fast servers are visited
+	 * more often, and slow servers are automatically backed off. */
+	@OptionalSpecification(value="0")
+	@TimeSpecification
+	public long adaptiveDelayReferenceTime;
+
+	/** The minimum ratio by which politeness delays can be multiplied (see {@link #adaptiveDelayReferenceTime}). */
+	@OptionalSpecification(value="0.5")
+	public double adaptiveDelayMinRatio;
+
+	/** The maximum ratio by which politeness delays can be multiplied (see {@link #adaptiveDelayReferenceTime}). */
+	@OptionalSpecification(value="10")
+	public double adaptiveDelayMaxRatio;
+
+	/** The maximum <code>Crawl-delay</code> specified in a <code>robots.txt</code> file that will be honored; larger
+	 * values will be truncated. If zero, <code>Crawl-delay</code> is ignored. Note that <code>Crawl-delay</code> can only make
+	 * the delay between two consecutive fetches from the same scheme+authority larger. */
+	@OptionalSpecification(value="1m")
+	@TimeSpecification
+	public long maxCrawlDelay;
+
 	/** The maximum number of URLs to crawl. */
 	public long maxUrls;
 
@@ -236,14 +319,14 @@ public class StartupConfiguration {
 	@ManyValuesSpecification
 	public String[] seed;
 
-	/** An IPv4 address that should be blacklisted (i.e., not crawled). If it starts with <code>file:</code>,
-	 * it is assumed to point to an ASCII file containing on each line a blacklisted IPv4 address. */
+	/** An IP address (IPv4 or IPv6, possibly followed by a slash and a prefix length to specify a CIDR range) that should be blacklisted (i.e., not crawled).
+	 * If it starts with <code>file:</code>, it is assumed to point to an ASCII file containing on each line a blacklisted address. */
 	@ManyValuesSpecification
 	@OptionalSpecification(value="")
 	public String[] blackListedIPv4Addresses;
 
-	/** A host that should be blacklisted (i.e., not crawled). If it starts with <code>file:</code>,
-	 * it is assumed to point to an ASCII file containing on each line a blacklisted host. */
+	/** A host that should be blacklisted (i.e., not crawled); if it starts with a dot (or with <code>*.</code>), all hosts in the
+	 * domain are blacklisted. If it starts with <code>file:</code>, it is assumed to point to an ASCII file containing on each line a blacklisted host. */
 	@ManyValuesSpecification
 	@OptionalSpecification(value="")
 	public String[] blackListedHosts;
@@ -256,6 +339,37 @@ public class StartupConfiguration {
 	@TimeSpecification
 	public int connectionTimeout;
 
+	/** The maximum number of TLS sessions cached (and shared) by all {@linkplain FetchingThread fetching threads}; 0 means no limit. */
+	@OptionalSpecification(value="32768")
+	public int tlsSessionCacheSize;
+
+	/** The time after which a cached TLS session cannot be resumed any longer (it is rounded down to seconds). */
+	@OptionalSpecification(value="1h")
+	@TimeSpecification
+	public long tlsSessionTimeout;
+
+	/** The maximum number of open connections (leased or idle) shared by all {@linkplain FetchingThread fetching threads}. */
+	@OptionalSpecification(value="8192")
+	public int connectionPoolMaxTotal;
+
+	/** The maximum number of open connections to the same IP address (for HTTPS, to the same host and IP address). */
+	@OptionalSpecification(value="2")
+	public int connectionPoolMaxPerIP;
+
+	/** The time after which an idle connection in the pool shared by {@linkplain FetchingThread fetching threads} is closed. */
+	@OptionalSpecification(value="15s")
+	@TimeSpecification
+	public long connectionPoolIdleTime;
+
+	/** The maximum overall bandwidth used for downloads, in bytes per second, or zero for no limit. Since the limit
+	 * is enforced when data is read from sockets, TCP flow control slows down servers, rather than having data piling up in buffers. */
+	@OptionalSpecification(value="0")
+	public long bandwidth;
+
+	/** The maximum bandwidth used for downloads from the same IP address, in bytes per second, or zero for no limit. */
+	@OptionalSpecification(value="0")
+	public long bandwidthPerIP;
+
 	/** Size of the buffer for {@link InspectableFileCachedInputStream} instances, in bytes. Each {@linkplain FetchingThread fetching thread} holds such a buffer. */
 	public int fetchDataBufferByteSize;
 
@@ -297,6 +411,18 @@ public class StartupConfiguration {
 	@OptionalSpecification(value="store")
 	public String storeDir;
 
+	/** Whether to write the validators (<code>ETag</code> and <code>Last-Modified</code> headers) of fetched pages
+	 * to a {@link ValidatorMap} file named {@value ValidatorMap#VALIDATORS_NAME} in {@link #storeDir}, so that they can be used by a later
+	 * crawl (see {@link #revisitValidators}). */
+	@OptionalSpecification(value="true")
+	public boolean storeValidators;
+
+	/** If nonempty, a validators file written by a previous crawl (see {@link #storeValidators}): pages with known validators
+	 * will be fetched using conditional requests, and <code>304 Not Modified</code> responses satisfying the {@link #storeFilter} will be stored
+	 * as revisit records (which count towards {@link #maxUrlsPerSchemeAuthority}). */
+	@OptionalSpecification(value="")
+	public String revisitValidators;
+
 	/** A directory where the content overflowing the in-memory buffers of {@link FetchData} instances
 	 *  (of {@link #fetchDataBufferByteSize} bytes) will be stored using an {@link InspectableFileCachedInputStream}.  It must <em>not</em> exist. */
 	@OptionalSpecification(value="cache")
@@ -313,6 +439,16 @@ public class StartupConfiguration {
 	/** The maximum size (in bytes) of a response body. The exceeding part will not be stored. */
 	public int responseBodyMaxByteSize;
 
+	/** Whether to ask servers to compress responses using <code>gzip</code> or <code>deflate</code>. Compressed responses
+	 * are decoded while they are downloaded, and {@link #responseBodyMaxByteSize} applies to the decoded body. */
+	@OptionalSpecification(value="true")
+	public boolean acceptEncoding;
+
+	/** The maximum ratio between the length of a decoded response body and the length of the encoded body; the exceeding
+	 * part of the decoded body will not be stored (this avoids decompression bombs). */
+	@OptionalSpecification(value="100")
+	public int decompressionMaxRatio;
+
 	/** The algorithm used for digesting pages (for duplicate filtering). */
 	public String digestAlgorithm;
 
@@ -320,6 +456,12 @@ public class StartupConfiguration {
 	@ManyValuesSpecification
 	public String[] parserSpec;
 
+	/** An optional {@link it.unimi.di.law.bubing.frontier.priority.PathQueryPriority} specification that will be parsed using an {@link ObjectParser}
+	 * (classes in the package {@code it.unimi.di.law.bubing.frontier.priority} need not be fully qualified); if empty, the path+queries
+	 * of each scheme+authority are visited in FIFO order. */
+	@OptionalSpecification(value="")
+	public String pathQueryPrioritySpec;
+
 	/** Whether we should start in paused state. */
 	public boolean startPaused;
 
@@ -328,9 +470,16 @@ public class StartupConfiguration {
 	@OptionalSpecification(value="it.unimi.di.law.bubing.store.WarcStore")
 	public Class<? extends Store> storeClass;
 
-	/** The maximum size of the workbench in bytes. */
+	/** The maximum size of the workbench in bytes (path+queries are counted with their {@linkplain it.unimi.di.law.bubing.frontier.PathQueryQueue front-coded} size). */
 	public long workbenchMaxByteSize;
 
+	/** The time that must elapse after the last fetch from an empty, resolved {@linkplain it.unimi.di.law.bubing.frontier.VisitState visit state}
+	 * with no path+queries on disk before it is made {@linkplain it.unimi.di.law.bubing.frontier.VisitStateSet#freeze(it.unimi.di.law.bubing.frontier.VisitState) cold},
+	 * that is, packed into a byte array (it will be unpacked as soon as a new path+query for its scheme+authority appears), or 0 to keep all visit states hot. */
+	@OptionalSpecification(value="1h")
+	@TimeSpecification
+	public long visitStateColdDelay;
+
 	/** The maximum size of the virtualizer in bytes; this field is ignored if the virtualizer does not need to be sized. */
 	@OptionalSpecification(value="1Gi")
 	public long virtualizerMaxByteSize;
@@ -338,6 +487,11 @@ public class StartupConfiguration {
 	/** The maximum size of the URL cache in bytes. */
 	public long urlCacheMaxByteSize;
 
+	/** The size in bytes of the {@linkplain it.unimi.di.law.bubing.frontier.HostImportance estimate of the importance of schemes+authorities}
+	 * used to schedule more important schemes+authorities first; if zero, all schemes+authorities are equally important. */
+	@OptionalSpecification(value="0")
+	public long hostImportanceByteSize;
+
 	/** The number of slots in the sieve. A flush happen when this space is filled with 64-bit hashes. Note that due the needs
 	 * of indirect sorting 12 bytes will be allocated for each slot. */
 	public int sieveSize;
@@ -357,20 +511,32 @@ public class StartupConfiguration {
 	@OptionalSpecification(value="it.unimi.di.law.bubing.frontier.dns.DnsJavaResolver")
 	public Class<? extends DnsResolver> dnsResolverClass;
 
-	/** Maximum number of entries cached by the DNS resolutor when using {@link DnsJavaResolver}. */
-	@OptionalSpecification(value="10000")
+	/** Maximum number of entries cached by the DNS resolutor when using {@link DnsJavaResolver} or {@link AsyncDnsResolver}.
+	 * It should be of the order of the number of hosts visited within {@link #dnsPositiveTtl}, as a restart from a snapshot
+	 * will save only this many resolutions; each entry takes about a hundred bytes. */
+	@OptionalSpecification(value="1Mi")
 	public int dnsCacheMaxSize;
 
-	/** Expiration time for positive DNS answers when using {@link DnsJavaResolver}. */
+	/** Expiration time for positive DNS answers when using {@link DnsJavaResolver} or {@link AsyncDnsResolver}. */
 	@OptionalSpecification(value="1h")
 	@TimeSpecification
 	public long dnsPositiveTtl;
 
-	/** Expiration time for negative DNS answers when using {@link DnsJavaResolver}. */
+	/** Expiration time for negative DNS answers when using {@link DnsJavaResolver} or {@link AsyncDnsResolver}. */
 	@OptionalSpecification(value="1m")
 	@TimeSpecification
 	public long dnsNegativeTtl;
 
+	/** The {@linkplain AddressPreference preference} between IPv4 and IPv6 addresses when a host has both. */
+	@OptionalSpecification(value="IPV4")
+	public String addressPreference;
+
+	/** The length of the prefix of IPv6 addresses that identifies a {@linkplain it.unimi.di.law.bubing.frontier.WorkbenchEntry workbench entry}, and thus a unit of IP-based
+	 * politeness: 128 means that each address has its own entry, whereas, for example, 64 groups all addresses of a /64 network
+	 * (which is typically assigned to a single site or customer, possibly hosting many addresses) in a single entry. */
+	@OptionalSpecification(value="128")
+	public int ipv6PolitenessPrefixLength;
+
 	/** Whether this is a new crawl. */
 	public boolean crawlIsNew;
 
@@ -400,6 +566,89 @@ public class StartupConfiguration {
 		if (ipDelay < 100) LOGGER.warn("You selected a small IP delay (" + ipDelay + "); this is going to disturb people");
 	}
 
+	@SuppressWarnings("unused")
+	private void checkAdaptiveDelay() throws ConfigurationException {
+		if (adaptiveDelayReferenceTime < 0) throw new ConfigurationException("The adaptive delay reference time must be nonnegative (" + adaptiveDelayReferenceTime + ")");
+		if (adaptiveDelayMinRatio <= 0 || adaptiveDelayMinRatio > adaptiveDelayMaxRatio) throw new ConfigurationException("Adaptive delay ratios must satisfy 0 < min <= max (" + adaptiveDelayMinRatio + ", " + adaptiveDelayMaxRatio + ")");
+		if (adaptiveDelayReferenceTime != 0 && adaptiveDelayMinRatio < 1 && Math.min(schemeAuthorityDelay, ipDelay) * adaptiveDelayMinRatio < 100) LOGGER.warn("Adaptive delays might become very small (" + adaptiveDelayMinRatio + " times your delays); this is going to disturb people");
+		if (maxCrawlDelay < 0) throw new ConfigurationException("The maximum crawl delay must be nonnegative (" + maxCrawlDelay + ")");
+	}
+
+	@SuppressWarnings("unused")
+	private void checkDecompressionMaxRatio() throws ConfigurationException {
+		if (decompressionMaxRatio < 1) throw new ConfigurationException("The maximum decompression ratio must be positive (" + decompressionMaxRatio + ")");
+	}
+
+	@SuppressWarnings("unused")
+	private void checkRevisitValidators() throws ConfigurationException {
+		if (revisitValidators.length() != 0 && ! new File(revisitValidators).isFile()) throw new ConfigurationException("The validators file " + revisitValidators + " does not exist");
+	}
+
+	@SuppressWarnings("unused")
+	private void checkFetchDataPoolSize() throws ConfigurationException {
+		if (fetchDataPoolSize < 1) throw new ConfigurationException("The FetchData pool size must be positive (" + fetchDataPoolSize + ")");
+	}
+
+	@SuppressWarnings("unused")
+	private void checkStreamingParses() throws ConfigurationException {
+		if (streamingParses < 0) throw new ConfigurationException("The number of streaming parses must be nonnegative (" + streamingParses + ")");
+	}
+
+	@SuppressWarnings("unused")
+	private void checkTodoThreads() throws ConfigurationException {
+		if (todoThreads < 1) throw new ConfigurationException("The number of todo threads must be positive (" + todoThreads + ")");
+	}
+
+	@SuppressWarnings("unused")
+	private void checkDistributorThreads() throws ConfigurationException {
+		if (distributorThreads < 1) throw new ConfigurationException("The number of distributor threads must be positive (" + distributorThreads + ")");
+	}
+
+	@SuppressWarnings("unused")
+	private void checkVisitStateColdDelay() throws ConfigurationException {
+		if (visitStateColdDelay < 0) throw new ConfigurationException("The visit state cold delay must be nonnegative (" + visitStateColdDelay + ")");
+	}
+
+	@SuppressWarnings("unused")
+	private void checkHostImportance() throws ConfigurationException {
+		if (hostImportanceByteSize < 0) throw new ConfigurationException("The host importance size must be nonnegative (" + hostImportanceByteSize + ")");
+		if (hostImportanceByteSize != 0 && hostImportanceByteSize < 8) throw new ConfigurationException("The host importance size must be zero or at least eight bytes (" + hostImportanceByteSize + ")");
+	}
+
+	@SuppressWarnings("unused")
+	private void checkDns() throws ConfigurationException {
+		if (dnsPrefetchThreads < 0) throw new ConfigurationException("The number of DNS prefetch threads must be nonnegative (" + dnsPrefetchThreads + ")");
+		try {
+			AddressPreference.valueOf(addressPreference);
+		}
+		catch(final IllegalArgumentException e) {
+			throw new ConfigurationException("Unknown address preference " + addressPreference + " (should be one of " + Arrays.toString(AddressPreference.values()) + ")");
+		}
+		if (ipv6PolitenessPrefixLength < 1 || ipv6PolitenessPrefixLength > 128) throw new ConfigurationException("The IPv6 politeness prefix length must be between 1 and 128 (" + ipv6PolitenessPrefixLength + ")");
+	}
+
+	@SuppressWarnings("unused")
+	private void checkTlsSessionCache() throws ConfigurationException {
+		if (tlsSessionCacheSize < 0) throw new ConfigurationException("The TLS session cache size must be nonnegative (" + tlsSessionCacheSize + ")");
+		if (tlsSessionTimeout < 1000) throw new ConfigurationException("The TLS session timeout must be at least one second (" + tlsSessionTimeout + ")");
+	}
+
+	@SuppressWarnings("unused")
+	private void checkBandwidth() throws ConfigurationException {
+		if (bandwidth < 0 || bandwidthPerIP < 0) throw new ConfigurationException("Bandwidth limits must be nonnegative (" + bandwidth + ", " + bandwidthPerIP + ")");
+	}
+
+	@SuppressWarnings("unused")
+	private void checkConnectionPool() throws ConfigurationException {
+		if (connectionPoolMaxTotal < 1 || connectionPoolMaxPerIP < 1) throw new ConfigurationException("Connection pool sizes must be positive (" + connectionPoolMaxTotal + ", " + connectionPoolMaxPerIP + ")");
+		if (connectionPoolIdleTime <= 0) throw new ConfigurationException("The connection pool idle time must be positive (" + connectionPoolIdleTime + ")");
+	}
+
+	@SuppressWarnings("unused")
+	private void checkVirtualThreads() throws ConfigurationException {
+		if (virtualThreads && ! VirtualThreads.AVAILABLE) LOGGER.warn("Virtual threads are not supported by this JVM: platform threads will be used");
+	}
+
 	@SuppressWarnings("unused")
 	private void checkBloomFilterPrecision() throws ConfigurationException {
 		if (bloomFilterPrecision > 1) {
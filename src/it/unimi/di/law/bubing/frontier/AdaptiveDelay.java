@@ -0,0 +1,108 @@
+package it.unimi.di.law.bubing.frontier;
+
+/*
+ * Copyright (C) 2012-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import it.unimi.di.law.bubing.RuntimeConfiguration;
+import it.unimi.di.law.bubing.util.FetchData;
+
+//RELEASE-STATUS: DIST
+
+/** Static methods computing politeness delays.
+ *
+ * <p>The response time of each fetch (the time elapsed between the request and the reception of the response headers,
+ * so that it does not depend on the length of the response) is used to update an exponential moving average
+ * in the {@link VisitState} and in the {@link WorkbenchEntry} involved. If {@link RuntimeConfiguration#adaptiveDelayReferenceTime} is
+ * nonzero, {@link RuntimeConfiguration#schemeAuthorityDelay} and {@link RuntimeConfiguration#ipDelay} are multiplied
+ * by the ratio between the respective average and the reference time, clamped between {@link RuntimeConfiguration#adaptiveDelayMinRatio}
+ * and {@link RuntimeConfiguration#adaptiveDelayMaxRatio}. Moreover, the delay between fetches from the same scheme+authority is
+ * never smaller than its <code>Crawl-delay</code>, truncated at {@link RuntimeConfiguration#maxCrawlDelay}.
+ *
+ * <p>Moving averages are updated without synchronization: since the average of a workbench entry might be updated
+ * concurrently by different {@linkplain ParsingThread parsing threads}, some sample might occasionally get lost, which is harmless.
+ */
+public final class AdaptiveDelay {
+	/** The weight of a new sample in moving averages. */
+	private static final float ALPHA = 0.25f;
+
+	private AdaptiveDelay() {}
+
+	/** Returns the response time of a fetched response.
+	 *
+	 * @param fetchData a fetched response.
+	 * @return the number of milliseconds elapsed between the request and the reception of the response headers (or the end
+	 * of the fetch, if no headers were received); at least one.
+	 */
+	public static long responseTime(final FetchData fetchData) {
+		return Math.max(1, (fetchData.responseTime != 0 ? fetchData.responseTime : fetchData.endTime) - fetchData.startTime);
+	}
+
+	/** Updates the moving averages of the response time of a visit state and of its workbench entry.
+	 *
+	 * @param visitState a visit state.
+	 * @param responseTime the response time of the last fetch from {@code visitState}.
+	 */
+	public static void update(final VisitState visitState, final long responseTime) {
+		visitState.averageResponseTime = update(visitState.averageResponseTime, responseTime);
+		final WorkbenchEntry workbenchEntry = visitState.workbenchEntry;
+		if (workbenchEntry != null) workbenchEntry.averageResponseTime = update(workbenchEntry.averageResponseTime, responseTime);
+	}
+
+	/** Updates a moving average.
+	 *
+	 * @param average the current average, or zero if there are no samples.
+	 * @param sample a new sample.
+	 * @return the updated average.
+	 */
+	private static float update(final float average, final long sample) {
+		return average == 0 ? sample : average + ALPHA * (sample - average);
+	}
+
+	/** Scales a delay depending on an average response time.
+	 *
+	 * @param rc the runtime configuration.
+	 * @param delay a delay.
+	 * @param averageResponseTime an average response time, or zero if unknown.
+	 * @return {@code delay} scaled as explained in the {@linkplain AdaptiveDelay class documentation}.
+	 */
+	private static long scale(final RuntimeConfiguration rc, final long delay, final float averageResponseTime) {
+		final long referenceTime = rc.adaptiveDelayReferenceTime;
+		if (referenceTime == 0 || averageResponseTime == 0) return delay;
+		final double ratio = Math.min(rc.adaptiveDelayMaxRatio, Math.max(rc.adaptiveDelayMinRatio, averageResponseTime / referenceTime));
+		return (long)(delay * ratio);
+	}
+
+	/** Returns the delay between two consecutive fetches from the scheme+authority of a visit state.
+	 *
+	 * @param rc the runtime configuration.
+	 * @param visitState a visit state.
+	 * @return the delay between two consecutive fetches from the scheme+authority of {@code visitState}.
+	 */
+	public static long schemeAuthorityDelay(final RuntimeConfiguration rc, final VisitState visitState) {
+		return Math.max(scale(rc, rc.schemeAuthorityDelay, visitState.averageResponseTime), Math.min(visitState.crawlDelay, rc.maxCrawlDelay));
+	}
+
+	/** Returns the delay between two consecutive fetches from the IP address of a workbench entry, before
+	 * applying {@link RuntimeConfiguration#ipDelayFactor}.
+	 *
+	 * @param rc the runtime configuration.
+	 * @param workbenchEntry a workbench entry.
+	 * @return the delay between two consecutive fetches from the IP address of {@code workbenchEntry}.
+	 */
+	public static long ipDelay(final RuntimeConfiguration rc, final WorkbenchEntry workbenchEntry) {
+		return scale(rc, rc.ipDelay, workbenchEntry.averageResponseTime);
+	}
+}
@@ -0,0 +1,310 @@
+package it.unimi.di.law.bubing.frontier;
+
+/*
+ * Copyright (C) 2012-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.impl.DefaultConnectionReuseStrategy;
+import org.apache.http.impl.NoConnectionReuseStrategy;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import it.unimi.di.law.bubing.RuntimeConfiguration;
+import it.unimi.di.law.bubing.util.FetchData;
+import it.unimi.di.law.bubing.util.LockFreeQueue;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
+
+//RELEASE-STATUS: DIST
+
+/**
+ * A thread fetching pages asynchronously, as an alternative to a pool of {@link FetchingThread} instances.
+ *
+ * <p>An instance of this class is used in lieu of {@link FetchingThread} instances when
+ * {@link RuntimeConfiguration#asyncFetching} is true. It extracts from {@link Frontier#todo} ready
+ * {@linkplain VisitState visit states} and issues a non-blocking request for their first fetchable
+ * URL using an asynchronous client whose sockets are driven by {@link RuntimeConfiguration#asyncIoThreads}
+ * I/O dispatch threads. Each request uses a {@link FetchData} of its own, which is added to
+ * {@link Frontier#results} when the request is over, and returned by the {@link ParsingThread}
+ * that analyzed it to the {@linkplain FetchData#recycleQueue recycle queue} of this thread. At that point,
+ * depending on {@link RuntimeConfiguration#keepAliveTime}, the next URL of the same visit state
+ * is fetched, or the visit state is released to {@link Frontier#done}.
+ *
+ * <p>The maximum number of concurrent requests (i.e., of visit states acquired by this thread)
+ * is given by {@link RuntimeConfiguration#fetchingThreads}; the number of {@link FetchData} instances
+ * is adjusted lazily when this number changes. Thus, the memory used is proportional to the number of connections,
+ * rather than to the number of connections times the size of a thread stack.
+ *
+ * <p>All data structures of this thread but the queue of recycled {@link FetchData} instances are accessed only by this thread.
+ */
+public final class AsyncFetchingThread extends Thread implements Closeable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(AsyncFetchingThread.class);
+
+	/** A {@link FetchData} used by this thread, together with the data needed to manage a visit state. */
+	private static final class Slot {
+		/** The fetched response. */
+		private final FetchData fetchData;
+		/** The cookie store used by requests issued using {@link #fetchData}. */
+		private final BasicCookieStore cookieStore;
+		/** The context (containing {@link #cookieStore}) of requests issued using {@link #fetchData}. */
+		private final HttpClientContext context;
+		/** The time at which the current visit state was acquired. */
+		private long acquisitionTime;
+		/** The path+query being fetched. */
+		private byte[] path;
+
+		private Slot(final RuntimeConfiguration rc, final LockFreeQueue<FetchData> recycleQueue) throws NoSuchAlgorithmException, IllegalArgumentException, IOException {
+			fetchData = new FetchData(rc);
+			fetchData.recycleQueue = recycleQueue;
+			cookieStore = new BasicCookieStore();
+			context = HttpClientContext.create();
+			context.setCookieStore(cookieStore);
+		}
+	}
+
+	/** Whether we should stop. Outstanding requests will be completed nonetheless. */
+	public volatile boolean stop;
+
+	/** A reference to the frontier. */
+	private final Frontier frontier;
+	/** The connection manager of {@link #httpAsyncClient}. */
+	private final PoolingNHttpClientConnectionManager connManager;
+	/** The asynchronous HTTP client used by this thread. */
+	private final CloseableHttpAsyncClient httpAsyncClient;
+	/** The queue of {@link FetchData} instances that have been analyzed by a {@link ParsingThread}. */
+	private final LockFreeQueue<FetchData> recycled;
+	/** A map from {@link FetchData} instances to their slots. */
+	private final Reference2ObjectOpenHashMap<FetchData, Slot> slots;
+	/** The slots that are not currently in use. */
+	private final ObjectArrayList<Slot> free;
+
+	/** Creates a new asynchronous fetching thread.
+	 *
+	 * @param frontier a reference to the {@link Frontier}.
+	 */
+	public AsyncFetchingThread(final Frontier frontier) throws IOException {
+		setName(this.getClass().getSimpleName());
+		this.frontier = frontier;
+		final RuntimeConfiguration rc = frontier.rc;
+
+		final IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+				.setIoThreadCount(rc.asyncIoThreads)
+				.setConnectTimeout(rc.connectionTimeout)
+				.setSoTimeout(rc.socketTimeout)
+				.build();
+
+		connManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(ioReactorConfig), null,
+				RegistryBuilder.<SchemeIOSessionStrategy>create()
+				.register("http", NoopIOSessionStrategy.INSTANCE)
+				.register("https", new SSLIOSessionStrategy(frontier.sslContext,
+						FetchingThread.SSL_PROTOCOLS, null, NoopHostnameVerifier.INSTANCE))
+				.build(),
+				rc.dnsResolver);
+		connManager.setMaxTotal(rc.fetchingThreads);
+
+		httpAsyncClient = HttpAsyncClients.custom()
+				.setConnectionManager(connManager)
+				.setConnectionReuseStrategy(rc.keepAliveTime == 0 ? NoConnectionReuseStrategy.INSTANCE : DefaultConnectionReuseStrategy.INSTANCE)
+				.setUserAgent(rc.userAgent)
+				.setDefaultHeaders(ObjectArrayList.wrap(FetchingThread.defaultHeaders(rc)))
+				.build();
+		httpAsyncClient.start();
+
+		recycled = new LockFreeQueue<>();
+		slots = new Reference2ObjectOpenHashMap<>();
+		free = new ObjectArrayList<>();
+	}
+
+	/** Issues a request for the first fetchable URL of a visit state.
+	 *
+	 * @param visitState an acquired visit state.
+	 * @param slot the slot that will be used to issue the request.
+	 * @return true if a request has been issued; false if there is nothing to fetch and the visit state must be released.
+	 */
+	private boolean fetchNext(final VisitState visitState, final Slot slot) {
+		final URI url = FetchingThread.nextFetchableURL(frontier, visitState);
+		if (url == null) return false;
+		final boolean robots = (slot.path = visitState.firstPath()) == VisitState.ROBOTS_PATH;
+
+		slot.cookieStore.clear();
+		if (! robots && visitState.cookies != null) for(final Cookie cookie: visitState.cookies) slot.cookieStore.addCookie(cookie);
+
+		slot.fetchData.validators = FetchingThread.validators(frontier, url, robots);
+
+		try {
+			slot.fetchData.fetch(url, httpAsyncClient, robots ? frontier.robotsRequestConfig : frontier.defaultRequestConfig, slot.context, visitState, robots, frontier.results);
+			return true;
+		}
+		catch (final Exception shouldntHappen) {
+			LOGGER.error("Unexpected exception during fetch of " + url, shouldntHappen);
+			FetchingThread.unexpectedFetchException(frontier.rc, visitState, robots);
+			return false;
+		}
+	}
+
+	/** Releases a visit state and frees its slot (or disposes of it, if there are too many slots).
+	 *
+	 * @param visitState the visit state to be released.
+	 * @param slot the slot used by {@code visitState}.
+	 */
+	private void release(final VisitState visitState, final Slot slot) {
+		if (LOGGER.isTraceEnabled()) LOGGER.trace("Releasing visit state {}", visitState);
+		frontier.done.add(visitState);
+
+		if (slots.size() > frontier.rc.fetchingThreads) {
+			slots.remove(slot.fetchData);
+			try {
+				slot.fetchData.close();
+			}
+			catch (final IOException e) {
+				LOGGER.error("Exception while closing FetchData", e);
+			}
+		}
+		else free.push(slot);
+	}
+
+	/** Charges the bytes received for a response to the {@linkplain Frontier#bandwidthBucket global} and
+	 * {@linkplain WorkbenchEntry#bandwidthBucket per-IP} token buckets. Since the reactor threads cannot
+	 * wait, bandwidth is limited by delaying further requests: if the per-IP bucket is in debt, the
+	 * next fetch of the visit state is postponed accordingly.
+	 *
+	 * @param fetchData a {@link FetchData} instance returned by a {@link ParsingThread}.
+	 * @return true if some bucket is in debt, and thus no further request should be issued immediately for the visit state of {@code fetchData}.
+	 */
+	private boolean throttle(final FetchData fetchData) {
+		final RuntimeConfiguration rc = frontier.rc;
+		final VisitState visitState = fetchData.visitState;
+		final long length = fetchData.wireLength();
+		final long wait = Math.max(frontier.bandwidthBucket.reserve(length, rc.bandwidth), visitState.workbenchEntry.bandwidthBucket.reserve(length, rc.bandwidthPerIP));
+		if (wait == 0) return false;
+		visitState.nextFetch = Math.max(visitState.nextFetch, System.currentTimeMillis() + TimeUnit.NANOSECONDS.toMillis(wait));
+		return true;
+	}
+
+	/** Handles a {@link FetchData} instance returned by a {@link ParsingThread}.
+	 *
+	 * @param fetchData a {@link FetchData} instance returned by a {@link ParsingThread}.
+	 */
+	private void recycle(final FetchData fetchData) {
+		final RuntimeConfiguration rc = frontier.rc;
+		final Slot slot = slots.get(fetchData);
+		final VisitState visitState = fetchData.visitState;
+
+		frontier.updateTransferStats(fetchData);
+		if (fetchData.exception == null) {
+			if (! fetchData.robots) visitState.cookies = FetchingThread.getCookies(fetchData.uri(), slot.cookieStore, rc.cookieMaxByteSize);
+			// As in the case of a FetchingThread, successfully fetched path+queries are dequeued by the fetching side.
+			if (visitState.lastExceptionClass != null) frontier.brokenVisitStates.decrementAndGet();
+			visitState.lastExceptionClass = null;
+			visitState.dequeue(slot.path);
+		}
+
+		final boolean throttled = throttle(fetchData);
+		if (stop || throttled || fetchData.exception != null || rc.keepAliveTime == 0 || System.currentTimeMillis() - slot.acquisitionTime >= rc.keepAliveTime || ! fetchNext(visitState, slot)) release(visitState, slot);
+	}
+
+	@Override
+	public void run() {
+		try {
+			final RuntimeConfiguration rc = frontier.rc;
+			long waitTime = 0;
+
+			for(int i = 0;;) {
+				boolean progress = false;
+
+				for(FetchData fetchData; (fetchData = recycled.poll()) != null;) {
+					recycle(fetchData);
+					progress = true;
+				}
+
+				if (stop) {
+					// We wait for all outstanding requests to be completed and analyzed.
+					if (free.size() == slots.size()) return;
+				}
+				else {
+					rc.ensureNotPaused();
+
+					// If the global bandwidth bucket is in debt we do not issue new requests
+					if ((free.size() != 0 || slots.size() < rc.fetchingThreads) && frontier.bandwidthBucket.debt(rc.bandwidth) == 0) {
+						final VisitState visitState = frontier.todo.poll();
+						if (visitState != null) {
+							if (waitTime > 0) {
+								frontier.updateRequestedFrontSize();
+								frontier.updateFetchingThreadsWaitingStats(waitTime);
+								waitTime = 0;
+							}
+
+							if (LOGGER.isTraceEnabled()) LOGGER.trace("Acquired visit state {}", visitState);
+
+							final Slot slot;
+							if (free.isEmpty()) {
+								slots.put((slot = new Slot(rc, recycled)).fetchData, slot);
+								connManager.setMaxTotal(Math.max(slots.size(), rc.fetchingThreads));
+							}
+							else slot = free.pop();
+
+							slot.acquisitionTime = System.currentTimeMillis();
+							if (! fetchNext(visitState, slot)) release(visitState, slot);
+							progress = true;
+						}
+						else waitTime += 1 << Math.min(i, 6);
+					}
+				}
+
+				if (progress) i = 0;
+				else Thread.sleep(1 << Math.min(i++, 6));
+			}
+		}
+		catch (final Throwable e) {
+			LOGGER.error("Unexpected exception", e);
+		}
+	}
+
+	/** Causes all outstanding requests to be aborted by shutting down the underlying asynchronous client. */
+	public void abort() {
+		try {
+			httpAsyncClient.close();
+		}
+		catch (final IOException e) {
+			LOGGER.error("Exception while closing asynchronous client", e);
+		}
+	}
+
+	/** Closes the underlying asynchronous client and all {@link FetchData} instances. */
+	@Override
+	public void close() throws IOException {
+		httpAsyncClient.close();
+		for(final FetchData fetchData : slots.keySet()) fetchData.close();
+	}
+}
@@ -0,0 +1,89 @@
+package it.unimi.di.law.bubing.frontier;
+
+/*
+ * Copyright (C) 2012-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import it.unimi.di.law.bubing.RuntimeConfiguration;
+import it.unimi.di.law.bubing.frontier.dns.AsyncDnsResolver;
+import it.unimi.di.law.bubing.frontier.dns.CachingDnsResolver;
+import it.unimi.di.law.bubing.frontier.dns.DnsCache;
+
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.conn.DnsResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+//RELEASE-STATUS: DIST
+
+/** A thread that continuously dequeues a host from the {@linkplain Frontier#hostsToPrefetch queue of hosts to prefetch}
+ *  and resolves it, so that its address ends up in the {@linkplain CachingDnsResolver#cache() cache of the resolver}.
+ *
+ *  <p>Hosts are {@linkplain Frontier#prefetch(byte[]) scheduled for prefetching} when their URLs come out of the sieve
+ *  or are received from other agents, that is, well before the {@link Distributor} creates a {@link VisitState} for them:
+ *  when this happens, the visit state can be {@linkplain DNSThread#resolveFromCache(Frontier, VisitState) put on the workbench
+ *  immediately}, without going through the {@linkplain Frontier#newVisitStates queue of new visit states}. Prefetching is
+ *  a best-effort activity: answers are never waited for if the resolver is an {@link AsyncDnsResolver}, and errors are ignored.
+ *  The number of instances of this thread is {@linkplain RuntimeConfiguration#dnsPrefetchThreads configurable}.
+ */
+
+public final class DNSPrefetchThread extends Thread {
+	private static final Logger LOGGER = LoggerFactory.getLogger(DNSPrefetchThread.class);
+	/** Whether we should stop. */
+	public volatile boolean stop;
+
+	/** A reference to the frontier. */
+	private final Frontier frontier;
+
+	/** A DNS prefetch thread for the given {@link Frontier}, with an index used to set the thread's name.
+	 *
+	 * @param frontier the frontier.
+	 * @param index the index of this thread
+	 */
+	public DNSPrefetchThread(final Frontier frontier, final int index) {
+		setName(this.getClass().getSimpleName() + '-' + index);
+		this.frontier = frontier;
+	}
+
+	@Override
+	public void run() {
+		final DnsResolver resolver = frontier.rc.dnsResolver;
+		final DnsCache cache = ((CachingDnsResolver)resolver).cache();
+
+		while(! stop) {
+			try {
+				frontier.rc.ensureNotPaused();
+				final String host = frontier.hostsToPrefetch.poll(1, TimeUnit.SECONDS);
+				if (host == null || cache.get(host) != null || frontier.rc.blackList.containsHost(host)) continue;
+
+				if (LOGGER.isTraceEnabled()) LOGGER.trace("Prefetching host {}", host);
+				if (resolver instanceof AsyncDnsResolver) ((AsyncDnsResolver)resolver).resolveAsync(host);
+				else {
+					try {
+						resolver.resolve(host);
+					}
+					catch(UnknownHostException e) {}
+				}
+			}
+			catch(Throwable t) {
+				LOGGER.error("Unexpected exception", t);
+			}
+		}
+
+		if (LOGGER.isDebugEnabled()) LOGGER.debug("Completed");
+	}
+}
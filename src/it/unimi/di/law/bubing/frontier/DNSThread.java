@@ -17,24 +17,33 @@ package it.unimi.di.law.bubing.frontier;
  */
 
 import it.unimi.di.law.bubing.RuntimeConfiguration;
+import it.unimi.di.law.bubing.frontier.dns.AsyncDnsResolver;
+import it.unimi.di.law.bubing.frontier.dns.CachingDnsResolver;
+import it.unimi.di.law.bubing.frontier.dns.DnsCache;
 import it.unimi.di.law.bubing.util.BURL;
 
+import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.primitives.Ints;
-
 //RELEASE-STATUS: DIST
 
 /** A thread that continuously dequeues a {@link VisitState} from the {@linkplain Frontier#newVisitStates queue of new visit states} (those that still need a DNS resolution),
  *  resolves its host and puts it on the {@link Workbench}. The number of instances of this thread
  *  is {@linkplain RuntimeConfiguration#dnsThreads configurable}.
  *
+ *  <p>If a host has several addresses, the address is chosen according to {@link RuntimeConfiguration#addressPreference}; the
+ *  workbench entry is then obtained from the {@linkplain Workbench#politenessKey(byte[], int) politeness key} of the address.
+ *
+ *  <p>If the {@linkplain RuntimeConfiguration#dnsResolver resolver} is an {@link AsyncDnsResolver}, instances of this class
+ *  do not wait for answers: visit states are put on the workbench (or scheduled for a new resolution) by the I/O thread of
+ *  the resolver when the answer arrives, so a few threads can keep many resolutions in flight.
+ *
  *  <p>Note that <em>only instances of this class manipulate {@linkplain Workbench#address2WorkbenchEntry the map
  *  from IP address hashes to workbench entries}</em>. The map needs to be updated with a get-and-set atomic
  *  operation, so synchronization is explicit.
@@ -47,6 +56,8 @@ public final class DNSThread extends Thread {
 
 	/** A reference to the frontier. */
 	private final Frontier frontier;
+	/** The number of asynchronous resolutions in flight (used only with an {@link AsyncDnsResolver}). */
+	private final AtomicInteger inFlight = new AtomicInteger();
 
 	/** A DNS thread for the given {@link Frontier}, with an index used to set the thread's name.
 	 *
@@ -73,47 +84,32 @@ public final class DNSThread extends Thread {
 
 				final String host = BURL.hostFromSchemeAndAuthority(visitState.schemeAuthority);
 
-				try {
-					// This is the first point in which DNS resolution happens for new hosts.
-					if (LOGGER.isDebugEnabled()) LOGGER.debug("Resolving host {} with DNS because of URL {}", host, BURL.fromNormalizedSchemeAuthorityAndPathQuery(visitState.schemeAuthority, visitState.firstPath()));
-					final byte[] address = frontier.rc.dnsResolver.resolve(host)[0].getAddress();
+				// This is the first point in which DNS resolution happens for new hosts.
+				if (LOGGER.isDebugEnabled()) LOGGER.debug("Resolving host {} with DNS because of URL {}", host, BURL.fromNormalizedSchemeAuthorityAndPathQuery(visitState.schemeAuthority, visitState.firstPath()));
 
-					if (address.length == 4) {
-						Lock lock = frontier.rc.blackListedIPv4Lock.readLock();
-						lock.lock();
+				if (frontier.rc.dnsResolver instanceof AsyncDnsResolver) {
+					// We do not wait for the answer: the visit state will be handled by the I/O thread of the resolver.
+					final VisitState pendingVisitState = visitState;
+					inFlight.incrementAndGet();
+					((AsyncDnsResolver)frontier.rc.dnsResolver).resolveAsync(host).whenComplete((addresses, t) -> {
 						try {
-							if (frontier.rc.blackListedIPv4Addresses.contains(Ints.fromByteArray(address))) {
-								LOGGER.warn("Visit state for host {} was not created and rather scheduled for purge because its IP {} was blacklisted", host, Arrays.toString(address));
-								visitState.schedulePurge();
-								continue;
-							}
-						} finally {
-							lock.unlock();
+							if (t == null) resolved(pendingVisitState, host, addresses);
+							else unknownHost(pendingVisitState, host);
 						}
-					}
-
-					visitState.lastExceptionClass = null; // In case we had previously set UnknownHostException.class
-					// Fetch or create atomically a new workbench entry.
-					visitState.setWorkbenchEntry(frontier.workbench.getWorkbenchEntry(address));
+						catch(Throwable e) {
+							LOGGER.error("Unexpected exception", e);
+						}
+						finally {
+							inFlight.decrementAndGet();
+						}
+					});
 				}
-				catch(UnknownHostException e) {
-					LOGGER.warn("Unknown host " + host + " for visit state " + visitState);
-
-					if (visitState.lastExceptionClass != UnknownHostException.class) visitState.retries = 0;
-					else visitState.retries++;
-
-					visitState.lastExceptionClass = UnknownHostException.class;
-
-					if (visitState.retries < ParsingThread.EXCEPTION_TO_MAX_RETRIES.getInt(UnknownHostException.class)) {
-						final long delay = ParsingThread.EXCEPTION_TO_WAIT_TIME.getLong(UnknownHostException.class) << visitState.retries;
-						// Exponentially growing delay
-						visitState.nextFetch = System.currentTimeMillis() + delay;
-						LOGGER.info("Will retry DNS resolution of state " + visitState + " with delay " + delay);
-						frontier.unknownHosts.add(visitState);
+				else {
+					try {
+						resolved(visitState, host, frontier.rc.dnsResolver.resolve(host));
 					}
-					else {
-						visitState.schedulePurge();
-						LOGGER.warn("Visit state " + visitState + " killed by " + UnknownHostException.class.getSimpleName());
+					catch(UnknownHostException e) {
+						unknownHost(visitState, host);
 					}
 				}
 			}
@@ -122,8 +118,101 @@ public final class DNSThread extends Thread {
 			}
 		}
 
+		// We wait for asynchronous resolutions, so that no visit state is modified after this thread has completed.
+		while(inFlight.get() != 0) {
+			try {
+				Thread.sleep(100);
+			}
+			catch(InterruptedException e) {
+				break;
+			}
+		}
+
 		if (LOGGER.isDebugEnabled()) LOGGER.debug("Completed");
 	}
 
+	/** Tries to resolve the host of a new visit state using the {@linkplain CachingDnsResolver#cache() cache of the resolver},
+	 * which might contain the host because of {@linkplain DNSPrefetchThread prefetching}.
+	 *
+	 * @param frontier the frontier.
+	 * @param visitState a new visit state.
+	 * @return true if the address of the host of {@code visitState} was in the cache, in which case {@code visitState}
+	 * has been put on the workbench (or scheduled for purge, if the address is blacklisted).
+	 */
+	public static boolean resolveFromCache(final Frontier frontier, final VisitState visitState) {
+		if (! (frontier.rc.dnsResolver instanceof CachingDnsResolver)) return false;
+		final String host = BURL.hostFromSchemeAndAuthority(visitState.schemeAuthority);
+		final InetAddress[] addresses = ((CachingDnsResolver)frontier.rc.dnsResolver).cache().get(DnsCache.normalize(host));
+		// Negative answers are left to the DNS threads, which handle retries
+		if (addresses == null || addresses.length == 0 || frontier.rc.addressPreference.select(addresses) == null) return false;
+		resolved(frontier, visitState, host, addresses);
+		return true;
+	}
+
+	/** Puts on the workbench a visit state whose host has been resolved, unless its address is blacklisted.
+	 *
+	 * @param frontier the frontier.
+	 * @param visitState the visit state.
+	 * @param host the host of {@code visitState}.
+	 * @param addresses the addresses of {@code host}, among which one will be chosen according to {@link RuntimeConfiguration#addressPreference}.
+	 */
+	private void resolved(final VisitState visitState, final String host, final InetAddress[] addresses) {
+		if (! resolved(frontier, visitState, host, addresses)) unknownHost(visitState, host);
+	}
+
+	/** Puts on the workbench a visit state whose host has been resolved, unless its address is blacklisted.
+	 *
+	 * @param frontier the frontier.
+	 * @param visitState the visit state.
+	 * @param host the host of {@code visitState}.
+	 * @param addresses the addresses of {@code host}, among which one will be chosen according to {@link RuntimeConfiguration#addressPreference}.
+	 * @return false if no address of {@code host} is acceptable according to {@link RuntimeConfiguration#addressPreference}.
+	 */
+	private static boolean resolved(final Frontier frontier, final VisitState visitState, final String host, final InetAddress[] addresses) {
+		final InetAddress selected = frontier.rc.addressPreference.select(addresses);
+		if (selected == null) return false;
+		final byte[] address = selected.getAddress();
+		if (frontier.rc.blackList.containsAddress(address)) {
+			LOGGER.warn("Visit state for host {} was not created and rather scheduled for purge because its IP {} was blacklisted", host, Arrays.toString(address));
+			visitState.schedulePurge();
+			return true;
+		}
+
+		if (address.length == 4) frontier.resolvedIPv4Hosts.incrementAndGet();
+		else frontier.resolvedIPv6Hosts.incrementAndGet();
+
+		visitState.lastExceptionClass = null; // In case we had previously set UnknownHostException.class
+		// Fetch or create atomically a new workbench entry.
+		visitState.setWorkbenchEntry(address, frontier.workbench.getWorkbenchEntry(Workbench.politenessKey(address, frontier.rc.ipv6PolitenessPrefixLength)));
+		return true;
+	}
+
+	/** Schedules a new resolution of the host of a visit state, with an exponentially growing delay, or purges the visit state
+	 * if too many attempts have been made.
+	 *
+	 * @param visitState the visit state.
+	 * @param host the host of {@code visitState}.
+	 */
+	private void unknownHost(final VisitState visitState, final String host) {
+		LOGGER.warn("Unknown host " + host + " for visit state " + visitState);
+
+		if (visitState.lastExceptionClass != UnknownHostException.class) visitState.retries = 0;
+		else visitState.retries++;
+
+		visitState.lastExceptionClass = UnknownHostException.class;
+
+		if (visitState.retries < ParsingThread.EXCEPTION_TO_MAX_RETRIES.getInt(UnknownHostException.class)) {
+			final long delay = ParsingThread.EXCEPTION_TO_WAIT_TIME.getLong(UnknownHostException.class) << visitState.retries;
+			// Exponentially growing delay
+			visitState.nextFetch = System.currentTimeMillis() + delay;
+			LOGGER.info("Will retry DNS resolution of state " + visitState + " with delay " + delay);
+			frontier.unknownHosts.add(visitState);
+		}
+		else {
+			visitState.schedulePurge();
+			LOGGER.warn("Visit state " + visitState + " killed by " + UnknownHostException.class.getSimpleName());
+		}
+	}
+
 
 }
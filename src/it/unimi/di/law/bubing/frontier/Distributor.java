@@ -17,11 +17,16 @@ package it.unimi.di.law.bubing.frontier;
  */
 
 
+import it.unimi.di.law.bubing.RuntimeConfiguration;
 import it.unimi.di.law.bubing.util.BURL;
+import it.unimi.di.law.bubing.util.LockFreeQueue;
 import it.unimi.dsi.Util;
-import it.unimi.dsi.fastutil.bytes.ByteArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 
+import java.io.IOException;
+import java.util.PriorityQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -48,15 +53,28 @@ import org.slf4j.LoggerFactory;
  *  	fails, there is no point in doing I/O.
  *  	<li>If the conditions are fulfilled, the distributor checks the {@link Frontier#refill} queue
  *		to see whether there are visit states requiring a refill from the {@link WorkbenchVirtualizer},
- *		in which case it performs a refill.
+ *		in which case it performs a refill (if {@link Frontier#hostImportance} is not {@code null}, the most
+ *		{@linkplain VisitState#importance important} visit state is refilled first).
  *  	<li>Otherwise, if there are no ready URLs and it is too early to force a flush of the sieve, this thread is put
  *      to sleep with an exponential backoff.
- *      <li>Otherwise, (possibly after a flush) a ready URL is loaded from {@link Frontier#readyURLs} and either deleted
+ *      <li>Otherwise, (possibly after a flush) a ready URL is loaded from {@link Frontier#readyURLQueues} and either deleted
  *      (if we already have too many URLs for its scheme+authority),
  *      or enqueued to the workbench (if its visit state has no virtualized URLs and has not reached {@link VisitState#pathQueryLimit()}),
  *      or otherwise enqueued to the {@link WorkbenchVirtualizer}.
  *  </ul>
  *
+ *  <h2>Shards</h2>
+ *
+ *  <p>There are {@linkplain RuntimeConfiguration#distributorThreads several} distributors, each being a <em>shard</em>
+ *  responsible for the schemes+authorities of a given {@linkplain ReadyURLQueues#shard(byte[], int, int, int) shard}: each
+ *  distributor owns the {@linkplain #schemeAuthority2VisitState visit states}, the {@linkplain #virtualizer virtualizer} and the
+ *  {@linkplain #refill refill queue} of its schemes+authorities, so distributors never contend on these structures.
+ *  The only shared resource is {@link Frontier#readyURLs}: a distributor whose queue in {@link Frontier#readyURLQueues} is empty
+ *  {@linkplain #moveReadyURLs(long) moves} a batch of URLs from {@link Frontier#readyURLs} to the queues of all shards. Only the
+ *  dequeues from the disk queue (and possibly a flush of the sieve) happen while holding {@link Frontier#readyURLsLock}; the
+ *  expensive part of the work&mdash;looking up and creating visit states, and writing to the virtualizer&mdash;is performed in parallel.
+ *
+ *  <p>Each distributor updates its own counters, but statistics are summed over all distributors and logged by the first distributor only.
  */
 public final class Distributor extends Thread {
 	private static final Logger LOGGER = LoggerFactory.getLogger(Distributor.class);
@@ -69,36 +87,143 @@ public final class Distributor extends Thread {
 	private static final long HIGH_COST_STATS_INTERVAL = TimeUnit.MINUTES.toMillis(1);
 	/** We check for visit states to be purged at this interval. */
 	private static final long PURGE_CHECK_INTERVAL = TimeUnit.MINUTES.toMillis(15);
+	/** The number of ready URLs processed at each iteration. */
+	private static final int READY_URLS_BATCH = 100;
+	/** We do not {@linkplain #moveReadyURLs(long) move ready URLs} if {@link Frontier#readyURLQueues} contains
+	 * this number of URLs times the number of distributors. */
+	private static final int MAX_PENDING_READY_URLS = 10 * READY_URLS_BATCH;
 
 	/** A reference to the frontier. */
 	private final Frontier frontier;
+	/** The index of this distributor in {@link Frontier#distributors}. */
+	public final int shard;
 	/** An <strong>unsynchronized</strong> map from scheme+authorities to the corresponding {@link VisitState}. */
 	protected final VisitStateSet schemeAuthority2VisitState;
-	/** The thread printing statistics. */
-	protected final StatsThread statsThread;
-	/** The last time we produced a high-cost statistics. */
-	protected volatile long lastHighCostStat;
+	/** The workbench virtualizer of the visit states of this distributor. */
+	protected final WorkbenchVirtualizer virtualizer;
+	/** A queue of visit states of this distributor ready to be refilled; it is filled by the {@link DoneThread} and emptied by this distributor. */
+	protected final LockFreeQueue<VisitState> refill;
 	/** The last time we checked for visit states to be purged. */
 	protected volatile long lastPurgeCheck;
+	/** The visit states polled from {@link #refill}, in decreasing order of {@linkplain VisitState#importance importance};
+	 * used only if {@link Frontier#hostImportance} is not {@code null}. */
+	private final PriorityQueue<VisitState> refillByImportance;
+
+	/** The number of URLs moved from the virtualizer to the workbench since the last statistics. */
+	private final AtomicLong movedFromQueues = new AtomicLong();
+	/** The number of URLs deleted from the virtualizer since the last statistics. */
+	private final AtomicLong deletedFromQueues = new AtomicLong();
+	/** The number of ready URLs moved to the virtualizer since the last statistics. */
+	private final AtomicLong movedFromSieveToVirtualizer = new AtomicLong();
+	/** The number of ready URLs moved to the overflow since the last statistics. */
+	private final AtomicLong movedFromSieveToOverflow = new AtomicLong();
+	/** The number of ready URLs moved to the workbench since the last statistics. */
+	private final AtomicLong movedFromSieveToWorkbench = new AtomicLong();
+	/** The number of ready URLs deleted since the last statistics. */
+	private final AtomicLong deletedFromSieve = new AtomicLong();
+	/** The time slept because the workbench was full since the last statistics. */
+	private final AtomicLong fullWorkbenchSleepTime = new AtomicLong();
+	/** The time slept because the front was large since the last statistics. */
+	private final AtomicLong largeFrontSleepTime = new AtomicLong();
+	/** The time slept because there were no ready URLs since the last statistics. */
+	private final AtomicLong noReadyURLsSleepTime = new AtomicLong();
 
 	/** Creates a distributor for the given frontier.
 	 *
 	 * @param frontier the frontier instantiating this distribution.
+	 * @param shard the index of this distributor in {@link Frontier#distributors}.
 	 */
-	public Distributor(final Frontier frontier) {
+	public Distributor(final Frontier frontier, final int shard) {
 		this.frontier = frontier;
-		this.schemeAuthority2VisitState = new VisitStateSet();
-		setName(this.getClass().getSimpleName());
+		this.shard = shard;
+		this.schemeAuthority2VisitState = new VisitStateSet(frontier);
+		this.virtualizer = new WorkbenchVirtualizer(frontier, shard);
+		this.refill = new LockFreeQueue<>();
+		setName(this.getClass().getSimpleName() + '-' + shard);
 		setPriority(Thread.MAX_PRIORITY);
-		statsThread = new StatsThread(frontier, this);
+		refillByImportance = new PriorityQueue<>(16, (x, y) -> Float.compare(y.importance, x.importance));
+	}
+
+	/** Returns the next visit state to be refilled.
+	 *
+	 * <p>If {@link Frontier#hostImportance} is not {@code null}, all visit states in {@link #refill} are moved to {@link #refillByImportance},
+	 * after {@linkplain VisitState#updateImportance() updating their importance}, and the most important one is returned.
+	 * Note that the update is safe, as a visit state waiting for a refill is empty and has URLs on disk,
+	 * so it cannot be put in its workbench entry before being refilled.
+	 *
+	 * @return the next visit state to be refilled, or {@code null}.
+	 */
+	private VisitState pollRefill() {
+		if (frontier.hostImportance == null) return refill.poll();
+		for(VisitState visitState; (visitState = refill.poll()) != null;) {
+			visitState.updateImportance();
+			refillByImportance.add(visitState);
+		}
+		return refillByImportance.poll();
+	}
+
+	/** Moves a batch of URLs from {@link Frontier#readyURLs} to the {@linkplain Frontier#readyURLQueues queues of ready URLs} of the distributors
+	 * they belong to, forcing a flush of the sieve if there are no ready URLs and enough time has passed since the last flush.
+	 *
+	 * <p>Nothing happens if the queues of ready URLs already contain too many URLs (i.e., some distributor is lagging behind).
+	 *
+	 * @param now the current time.
+	 * @return whether some URL was moved or the sieve was flushed.
+	 */
+	private boolean moveReadyURLs(final long now) throws IOException, InterruptedException {
+		final ReadyURLQueues readyURLQueues = frontier.readyURLQueues;
+		if (readyURLQueues.size() >= (long)MAX_PENDING_READY_URLS * readyURLQueues.shards()) return false;
+
+		final byte[][] batch = new byte[READY_URLS_BATCH * readyURLQueues.shards()][];
+		int moved = 0;
+		boolean flushed = false;
+		// The disk queue is not thread safe: we hold the lock just to flush and dequeue, and distribute the URLs afterwards
+		synchronized(frontier.readyURLsLock) {
+			synchronized(frontier.sieve) {} // We stop here if we are flushing.
+			if (frontier.readyURLs.isEmpty() && now >= frontier.nextFlush) { // No URLs--time for a forced flush
+				frontier.sieve.flush();
+				final long endOfFlush = System.currentTimeMillis();
+				frontier.nextFlush = endOfFlush + Math.max(Frontier.MIN_FLUSH_INTERVAL, (endOfFlush - now) * 10);
+				flushed = true;
+			}
+
+			for(; moved < batch.length && ! frontier.readyURLs.isEmpty(); moved++) {
+				frontier.readyURLs.dequeue();
+				batch[moved] = frontier.readyURLs.buffer().toByteArray();
+			}
+		}
+
+		for(int i = 0; i < moved; i++) readyURLQueues.add(batch[i]);
+		return flushed || moved != 0;
+	}
+
+	/** Logs the distribution statistics, summed over all distributors, and resets the counters. */
+	private void logStats() {
+		long movedFromQueues = 0, deletedFromQueues = 0, fullWorkbenchSleepTime = 0, largeFrontSleepTime = 0, noReadyURLsSleepTime = 0;
+		long movedFromSieveToVirtualizer = 0, movedFromSieveToOverflow = 0, movedFromSieveToWorkbench = 0, deletedFromSieve = 0;
+		for(final Distributor distributor : frontier.distributors) {
+			movedFromQueues += distributor.movedFromQueues.getAndSet(0);
+			deletedFromQueues += distributor.deletedFromQueues.getAndSet(0);
+			movedFromSieveToVirtualizer += distributor.movedFromSieveToVirtualizer.getAndSet(0);
+			movedFromSieveToOverflow += distributor.movedFromSieveToOverflow.getAndSet(0);
+			movedFromSieveToWorkbench += distributor.movedFromSieveToWorkbench.getAndSet(0);
+			deletedFromSieve += distributor.deletedFromSieve.getAndSet(0);
+			fullWorkbenchSleepTime += distributor.fullWorkbenchSleepTime.getAndSet(0);
+			largeFrontSleepTime += distributor.largeFrontSleepTime.getAndSet(0);
+			noReadyURLsSleepTime += distributor.noReadyURLsSleepTime.getAndSet(0);
+		}
+
+		final long overallSieve = movedFromSieveToVirtualizer + movedFromSieveToWorkbench + movedFromSieveToOverflow + deletedFromSieve;
+		final long overallQueues = movedFromQueues + deletedFromQueues;
+		if (overallSieve != 0) LOGGER.info("Moved " + overallSieve  + " URLs from sieve (" + Util.format(100.0 * deletedFromSieve / overallSieve) + "% deleted, " + Util.format(100.0 * movedFromSieveToWorkbench / overallSieve) + "% to workbench, " + Util.format(100.0 * movedFromSieveToVirtualizer / overallSieve) + "% to virtual queues, " + Util.format(100.0 * movedFromSieveToOverflow / overallSieve) + "% to overflow)");
+		if (overallQueues != 0) LOGGER.info("Moved " + overallQueues + " URLs from queues (" + Util.format(100.0 * deletedFromQueues / overallQueues) + "% deleted)");
+		LOGGER.info("Sleeping" + (frontier.distributors.length > 1 ? " (sum over " + frontier.distributors.length + " distributors)" : "") + ": large front " + largeFrontSleepTime + ", full workbench " + fullWorkbenchSleepTime + ", no ready URLs " + noReadyURLsSleepTime);
 	}
 
 	@Override
 	public void run() {
 		try {
-			long movedFromQueues = 0, deletedFromQueues = 0, lastLowCostStat = 0;
-			long fullWorkbenchSleepTime = 0, largeFrontSleepTime = 0, noReadyURLsSleepTime = 0;
-			long movedFromSieveToVirtualizer = 0, movedFromSieveToOverflow = 0, movedFromSieveToWorkbench = 0, deletedFromSieve = 0;
+			long lastLowCostStat = 0;
 			/* During the following loop, you should set round to -1 every time something useful is done (e.g., a URL is read from the sieve, or from the virtual queues etc.) */
 			for(int round = 0; ; round++) {
 				frontier.rc.ensureNotPaused();
@@ -116,35 +241,30 @@ public final class Distributor extends Thread {
 				if (! workbenchIsFull) {
 					synchronized(frontier.sieve) {} // We stop here if we are flushing.
 
-					VisitState visitState = frontier.refill.poll();
+					VisitState visitState = pollRefill();
 					if (visitState != null) { // The priority is given to already started visits
 						round = -1;
-						if (frontier.virtualizer.count(visitState) == 0) LOGGER.info("No URLs on disk during refill: " + visitState);
+						if (virtualizer.count(visitState) == 0) LOGGER.info("No URLs on disk during refill: " + visitState);
 						else {
 							// Note that this might make temporarily the workbench too big by a little bit.
 							final int pathQueryLimit = visitState.pathQueryLimit();
 							if (LOGGER.isDebugEnabled()) LOGGER.debug("Refilling {} with {} URLs", visitState, Integer.valueOf(pathQueryLimit));
 							visitState.checkRobots(now);
-							final int dequeuedURLs = frontier.virtualizer.dequeuePathQueries(visitState, pathQueryLimit);
-							movedFromQueues += dequeuedURLs;
+							final int dequeuedURLs = virtualizer.dequeuePathQueries(visitState, pathQueryLimit);
+							movedFromQueues.addAndGet(dequeuedURLs);
 						}
 					}
 					else if (frontIsSmall){
 						// It is necessary to enrich the workbench picking up URLs from the sieve
-						if (frontier.readyURLs.isEmpty() && now >= frontier.nextFlush) { // No URLs--time for a forced flush
+						if (frontier.readyURLQueues.size(shard) == 0 && moveReadyURLs(now)) {
 							round = -1;
-							frontier.sieve.flush();
-							final long endOfFlush = System.currentTimeMillis();
-							frontier.nextFlush = endOfFlush + Math.max(Frontier.MIN_FLUSH_INTERVAL, (endOfFlush - now) * 10);
-							now = endOfFlush;
+							now = System.currentTimeMillis();
 						}
 
 						// Note that this might make temporarily the workbench too big by a little bit.
-						for(int i = 100; i-- != 0 && ! frontier.readyURLs.isEmpty();) {
+						byte[] urlBuffer;
+						for(int i = READY_URLS_BATCH; i-- != 0 && (urlBuffer = frontier.readyURLQueues.poll(shard)) != null;) {
 							round = -1;
-							frontier.readyURLs.dequeue();
-							final ByteArrayList url = frontier.readyURLs.buffer();
-							final byte[] urlBuffer = url.elements();
 							final int startOfpathAndQuery = BURL.startOfpathAndQuery(urlBuffer);
 
 							final int currentlyInStore = frontier.schemeAuthority2Count.get(urlBuffer, 0, startOfpathAndQuery);
@@ -154,64 +274,63 @@ public final class Distributor extends Thread {
 
 								if (visitState == null) {
 									final byte[] schemeAuthority = BURL.schemeAndAuthorityAsByteArray(urlBuffer);
-									if (LOGGER.isTraceEnabled()) LOGGER.trace("New scheme+authority {} with path+query {}", it.unimi.di.law.bubing.util.Util.toString(schemeAuthority), it.unimi.di.law.bubing.util.Util.toString(BURL.pathAndQueryAsByteArray(url)));
+									if (LOGGER.isTraceEnabled()) LOGGER.trace("New scheme+authority {} with path+query {}", it.unimi.di.law.bubing.util.Util.toString(schemeAuthority), it.unimi.di.law.bubing.util.Util.toString(BURL.pathAndQueryAsByteArray(urlBuffer)));
 									visitState = new VisitState(frontier, schemeAuthority);
 									visitState.lastRobotsFetch = Long.MAX_VALUE; // This inhibits further enqueueing until robots.txt is fetched.
 									visitState.enqueueRobots();
-									visitState.enqueuePathQuery(BURL.pathAndQueryAsByteArray(url));
+									visitState.enqueuePathQuery(BURL.pathAndQueryAsByteArray(urlBuffer));
 									schemeAuthority2VisitState.add(visitState);
-									// Send the visit state to the DNS threads
-									frontier.newVisitStates.add(visitState);
-									movedFromSieveToWorkbench++;
+									// Send the visit state to the DNS threads, unless its host has already been resolved (e.g., by prefetching)
+									if (! DNSThread.resolveFromCache(frontier, visitState)) frontier.newVisitStates.add(visitState);
+									movedFromSieveToWorkbench.incrementAndGet();
 								}
 								else {
-									if (frontier.virtualizer.count(visitState) > 0) {
-										// Safe: there are URLs on disk, and this fact cannot change concurrently.
-										movedFromSieveToVirtualizer++;
-										frontier.virtualizer.enqueueURL(visitState, url);
-									}
-									else if (visitState.size() < visitState.pathQueryLimit() && visitState.workbenchEntry != null && visitState.lastExceptionClass == null) {
+									final boolean sane = visitState.workbenchEntry != null && visitState.lastExceptionClass == null;
+									final byte[] replaced;
+									if (virtualizer.count(visitState) == 0 && visitState.size() < visitState.pathQueryLimit() && sane) {
 										/* Safe: we are enqueueing to a sane (modulo race conditions)
 										 * visit state, which will be necessarily go through the DoneThread later. */
 										visitState.checkRobots(now);
-										visitState.enqueuePathQuery(BURL.pathAndQueryAsByteArray(url));
-										movedFromSieveToWorkbench++;
+										visitState.enqueuePathQuery(BURL.pathAndQueryAsByteArray(urlBuffer));
+										movedFromSieveToWorkbench.incrementAndGet();
+									}
+									else if (frontier.rc.pathQueryPriority != null && sane && (replaced = visitState.enqueuePathQueryReplacingWorse(BURL.pathAndQueryAsByteArray(urlBuffer))) != null) {
+										/* There is no space in memory (or there are URLs on disk), but the visit state contains a path+query
+										 * with a worse level, which is moved to disk in place of the new one. */
+										virtualizer.enqueuePathQuery(visitState, replaced);
+										movedFromSieveToWorkbench.incrementAndGet();
 									}
-									else { // visitState.urlsOnDisk == 0
-										movedFromSieveToVirtualizer++;
-										frontier.virtualizer.enqueueURL(visitState, url);
+									else {
+										// Safe: if there are URLs on disk, this fact cannot change concurrently.
+										movedFromSieveToVirtualizer.incrementAndGet();
+										virtualizer.enqueueURL(visitState, urlBuffer);
 									}
 								}
 							}
-							else deletedFromSieve++;
+							else deletedFromSieve.incrementAndGet();
 						}
 					}
 				}
 
 				if (now - LOW_COST_STATS_INTERVAL > lastLowCostStat) {
-					final long overallSieve = movedFromSieveToVirtualizer + movedFromSieveToWorkbench + movedFromSieveToOverflow + deletedFromSieve;
-					final long overallQueues = movedFromQueues + deletedFromQueues;
-					if (overallSieve != 0) LOGGER.info("Moved " + overallSieve  + " URLs from sieve (" + Util.format(100.0 * deletedFromSieve / overallSieve) + "% deleted, " + Util.format(100.0 * movedFromSieveToWorkbench / overallSieve) + "% to workbench, " + Util.format(100.0 * movedFromSieveToVirtualizer / overallSieve) + "% to virtual queues, " + Util.format(100.0 * movedFromSieveToOverflow / overallSieve) + "% to overflow)");
-					if (overallQueues != 0) LOGGER.info("Moved " + overallQueues + " URLs from queues (" + Util.format(100.0 * deletedFromQueues / overallQueues) + "% deleted)");
-					movedFromSieveToVirtualizer = movedFromSieveToWorkbench = movedFromSieveToOverflow = movedFromQueues = deletedFromSieve = deletedFromQueues = 0;
-
-					LOGGER.info("Sleeping: large front " + largeFrontSleepTime + ", full workbench " + fullWorkbenchSleepTime + ", no ready URLs " + noReadyURLsSleepTime);
-					largeFrontSleepTime = 0;
-					fullWorkbenchSleepTime = 0;
-					noReadyURLsSleepTime = 0;
-					statsThread.emit();
+					if (shard == 0) {
+						logStats();
+						frontier.statsThread.emit();
+					}
 					lastLowCostStat = now;
 
-					frontier.virtualizer.collectIf(.50, .75);
+					virtualizer.collectIf(.50, .75);
 				}
 
-				if (now - HIGH_COST_STATS_INTERVAL > lastHighCostStat) {
-					lastHighCostStat = Long.MAX_VALUE;
-					final Thread thread = new Thread(statsThread, statsThread.getClass().getSimpleName());
+				if (shard == 0 && now - HIGH_COST_STATS_INTERVAL > frontier.statsThread.lastHighCostStat) {
+					frontier.statsThread.lastHighCostStat = Long.MAX_VALUE;
+					final Thread thread = new Thread(frontier.statsThread, frontier.statsThread.getClass().getSimpleName());
 					thread.start();
 				}
 
 				if (now - PURGE_CHECK_INTERVAL > lastPurgeCheck) {
+					final long coldDelay = frontier.rc.visitStateColdDelay;
+					final ObjectArrayList<VisitState> toBeFrozen = new ObjectArrayList<>();
 					for(VisitState visitState: schemeAuthority2VisitState.visitStates())
 						if (visitState != null) {
 							/* We've been scheduled for purge, or we have fetched at least a
@@ -221,18 +340,30 @@ public final class Distributor extends Thread {
 							if (visitState.nextFetch == Long.MAX_VALUE || visitState.nextFetch != 0 && visitState.nextFetch < now - PURGE_DELAY && visitState.isEmpty() && ! visitState.acquired && visitState.lastExceptionClass == null) {
 								LOGGER.info((visitState.nextFetch == Long.MAX_VALUE ? "Purging " : "Purging by delay ") + visitState);
 								// This will modify the backing array on which we are enumerating, but it won't be a serious problem.
-								frontier.virtualizer.remove(visitState);
+								virtualizer.remove(visitState);
 								schemeAuthority2VisitState.remove(visitState);
 							}
+							/* An empty, resolved visit state that has been idle for a while and has no URLs on disk
+							 * is referenced only by schemeAuthority2VisitState, so we can pack it. */
+							else if (coldDelay != 0 && visitState.nextFetch != 0 && visitState.nextFetch < now - coldDelay && visitState.lastRobotsFetch != Long.MAX_VALUE
+									&& visitState.isEmpty() && ! visitState.acquired && visitState.workbenchEntry != null && visitState.lastExceptionClass == null
+									&& virtualizer.count(visitState) == 0) toBeFrozen.add(visitState);
 						}
+
+					// We freeze after the scan, as freezing modifies the backing array
+					int frozen = 0;
+					for(VisitState visitState: toBeFrozen) if (schemeAuthority2VisitState.freeze(visitState)) frozen++;
+					// Cold visit states are empty and have no URLs on disk, so there is nothing else to purge
+					final int purgedCold = schemeAuthority2VisitState.removeCold(now - PURGE_DELAY);
+					LOGGER.info("Made cold " + frozen + " visit states, purged by delay " + purgedCold + " cold visit states (" + schemeAuthority2VisitState.coldSize() + " cold visit states out of " + schemeAuthority2VisitState.size() + ")");
 					lastPurgeCheck = now;
 				}
 
 				if (round != -1) {
 					final int sleepTime = 1 << Math.min(10, round);
-					if (! frontIsSmall) largeFrontSleepTime += sleepTime;
-					else if (workbenchIsFull) fullWorkbenchSleepTime += sleepTime;
-					else noReadyURLsSleepTime += sleepTime;
+					if (! frontIsSmall) largeFrontSleepTime.addAndGet(sleepTime);
+					else if (workbenchIsFull) fullWorkbenchSleepTime.addAndGet(sleepTime);
+					else noReadyURLsSleepTime.addAndGet(sleepTime);
 					if (frontier.rc.stopping) break;
 					Thread.sleep(sleepTime);
 				}
@@ -244,6 +375,10 @@ public final class Distributor extends Thread {
 			LOGGER.error("Unexpected exception", t);
 			return;
 		}
+		finally {
+			// Visit states still waiting for a refill are put back in the refill queue
+			for(VisitState visitState; (visitState = refillByImportance.poll()) != null;) refill.add(visitState);
+		}
 	}
 
 	/** Determines whether the front is small. The front size (in IPs) is obtained by adding the size of the {@link Frontier#todo} list and
@@ -55,8 +55,9 @@ public final class DoneThread extends Thread {
 				}
 
 				do {
+					final Distributor distributor = frontier.distributor(visitState);
 					// We do not schedule for refill purged visit states
-					if (visitState.nextFetch != Long.MAX_VALUE && frontier.virtualizer.count(visitState) > 0 && visitState.isEmpty()) frontier.refill.add(visitState);
+					if (visitState.nextFetch != Long.MAX_VALUE && distributor.virtualizer.count(visitState) > 0 && visitState.isEmpty()) distributor.refill.add(visitState);
 					frontier.workbench.release(visitState);
 				} while((visitState = frontier.done.poll()) != null);
 			}
@@ -5,34 +5,22 @@ import java.io.IOException;
 import java.net.URI;
 import java.security.NoSuchAlgorithmException;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
 
 import javax.net.ssl.SSLContext;
 
 import org.apache.http.client.CookieStore;
 import org.apache.http.client.HttpClient;
-import org.apache.http.config.ConnectionConfig;
-import org.apache.http.config.Registry;
-import org.apache.http.config.RegistryBuilder;
-import org.apache.http.conn.DnsResolver;
-import org.apache.http.conn.socket.ConnectionSocketFactory;
-import org.apache.http.conn.socket.PlainConnectionSocketFactory;
-import org.apache.http.conn.ssl.NoopHostnameVerifier;
-import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.conn.ssl.TrustSelfSignedStrategy;
 import org.apache.http.cookie.Cookie;
 import org.apache.http.impl.DefaultConnectionReuseStrategy;
 import org.apache.http.impl.NoConnectionReuseStrategy;
 import org.apache.http.impl.client.BasicCookieStore;
 import org.apache.http.impl.client.HttpClients;
-import org.apache.http.impl.conn.BasicHttpClientConnectionManager;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.ssl.SSLContexts;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.primitives.Ints;
 
 /*
  * Copyright (C) 2012-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
@@ -52,11 +40,14 @@ import com.google.common.primitives.Ints;
 
 import it.unimi.di.law.bubing.RuntimeConfiguration;
 import it.unimi.di.law.bubing.util.BURL;
+import it.unimi.di.law.bubing.util.BlackList;
 import it.unimi.di.law.bubing.util.FetchData;
 import it.unimi.di.law.bubing.util.LockFreeQueue;
-import it.unimi.di.law.bubing.util.URLRespectsRobots;
-import it.unimi.dsi.bits.Fast;
+import it.unimi.di.law.bubing.util.RobotsFilter;
+import it.unimi.di.law.bubing.util.ValidatorMap;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
 
 //RELEASE-STATUS: DIST
 
@@ -65,13 +56,22 @@ import it.unimi.dsi.fastutil.objects.ObjectArrayList;
  *
  * <p>Instances of this class iteratively extract from {@link Frontier#todo} (using
  * polling and exponential backoff) a ready {@link VisitState} that has been
- * previously enqueued by the {@link TodoThread} and use their embedded
- * {@link FetchData} to fetch the first URL (or possibly the first few URLs, depending on {@link RuntimeConfiguration#keepAliveTime})
- * from the {@link VisitState} queue. Once the fetch is over, the embedded
- * {@link FetchData} is enqueued in {@link Frontier#results} and the thread
- * waits for a signal on the {@link FetchData}. The {@link ParsingThread} that
- * retrieves the {@link FetchData} must signal back that the {@link FetchData}
- * instances can be reused when it has finished to use its contents.
+ * previously enqueued by the {@link TodoThread} and use a {@link FetchData} from a small
+ * pool (of {@link RuntimeConfiguration#fetchDataPoolSize} instances) to fetch the first URL
+ * (or possibly the first few URLs, depending on {@link RuntimeConfiguration#keepAliveTime})
+ * from the {@link VisitState} queue. Once the fetch is over, the {@link FetchData} is
+ * enqueued in {@link Frontier#results}, and the thread moves on with a different {@link FetchData}.
+ * The {@link ParsingThread} that retrieves the {@link FetchData} returns it to the
+ * {@linkplain FetchData#recycleQueue recycle queue} of this thread when it has finished to use its contents.
+ * Thus, parsing overlaps with the next fetch; the thread waits only when the pool is exhausted.
+ *
+ * <p>Successfully fetched path+queries are dequeued by this thread, so that the next URL
+ * can be fetched immediately. However, a {@link VisitState} is released (i.e., enqueued to {@link Frontier#done})
+ * only after all its fetched responses have been parsed, as parsing updates its state.
+ * For the same reason, the fetched <code>robots.txt</code> and failed fetches are handled sequentially:
+ * this thread waits for all pending responses of the visit state to be parsed before proceeding.
+ * The same happens when pending responses might bring the number of stored URLs of the scheme+authority
+ * to {@link RuntimeConfiguration#maxUrlsPerSchemeAuthority} (see {@link #mayFetch(int, int, int)}).
  *
  * <p>The design of the interaction between instances of this class, the
  * {@link TodoThread} and instances of {@link ParsingThread} minimizes
@@ -85,7 +85,7 @@ import it.unimi.dsi.fastutil.objects.ObjectArrayList;
  * logging. It is expected that large instances of BUbiNG use thousands of
  * fetching threads to download from a large number of sites in parallel.
  *
- * <p>This class implements {@link Closeable}: the {@link #close()} methods simply closes the underlying {@link FetchData} instance.
+ * <p>This class implements {@link Closeable}: the {@link #close()} methods simply closes the underlying {@link FetchData} instances.
  */
 public final class FetchingThread extends Thread implements Closeable {
 	private static final Logger LOGGER = LoggerFactory.getLogger(FetchingThread.class);
@@ -98,56 +98,43 @@ public final class FetchingThread extends Thread implements Closeable {
 	private final Frontier frontier;
 	/** The synchronous HTTP client used by this thread. */
 	private final HttpClient httpClient;
-	/** The fetched HTTP response used by this thread. */
-	private final FetchData fetchData;
+	/** The pool of fetched HTTP responses used by this thread. */
+	private final FetchData[] pool;
+	/** The fetched HTTP responses of {@link #pool} that are not currently in use. */
+	private final ObjectArrayList<FetchData> free;
+	/** The queue of fetched HTTP responses that have been analyzed by a {@link ParsingThread}. */
+	private final LockFreeQueue<FetchData> recycled;
+	/** For each visit state acquired by this thread, the number of its fetched HTTP responses that have not been recycled yet. */
+	private final Reference2IntOpenHashMap<VisitState> pending;
+	/** The visit states that will be released as soon as all their fetched HTTP responses will have been recycled. */
+	private final ReferenceOpenHashSet<VisitState> toBeReleased;
 	/** The cookie store used by {@link #httpClient}. */
 	private final BasicCookieStore cookieStore;
 
-	/** An SSL context that accepts all self-signed certificates. */
-	private static final SSLContext TRUST_SELF_SIGNED_SSL_CONTEXT;
-	static {
-		try {
-			TRUST_SELF_SIGNED_SSL_CONTEXT = SSLContexts.custom().loadTrustMaterial(null, new TrustSelfSignedStrategy()).build();
-		}
-		catch (final Exception cantHappen) {
-			throw new RuntimeException(cantHappen.getMessage(), cantHappen);
-		}
-	}
-
-	/** An SSL context that accepts all certificates */
-	private static final SSLContext TRUST_ALL_CERTIFICATES_SSL_CONTEXT;
-	static {
+	/** Builds a new SSL context; each {@link Frontier} builds its own, as its client session cache is configured by the agent.
+	 *
+	 * @param acceptAllCertificates whether the context should accept all certificates, rather than just self-signed ones.
+	 * @return a new SSL context.
+	 */
+	static SSLContext sslContext(final boolean acceptAllCertificates) {
 		try {
-			TRUST_ALL_CERTIFICATES_SSL_CONTEXT = SSLContexts.custom().loadTrustMaterial(null, (arg0, arg1) -> true).build();
+			return acceptAllCertificates
+					? SSLContexts.custom().loadTrustMaterial(null, (arg0, arg1) -> true).build()
+					: SSLContexts.custom().loadTrustMaterial(null, new TrustSelfSignedStrategy()).build();
 		}
 		catch (final Exception cantHappen) {
 			throw new RuntimeException(cantHappen.getMessage(), cantHappen);
 		}
 	}
 
-	/** A support class that makes it possible to plug in a custom DNS resolver. */
-	protected static final class BasicHttpClientConnectionManagerWithAlternateDNS
-			extends BasicHttpClientConnectionManager {
-
-		static Registry<ConnectionSocketFactory> getDefaultRegistry() {
-			return RegistryBuilder.<ConnectionSocketFactory> create()
-					.register("http", PlainConnectionSocketFactory.getSocketFactory())
-					.register("https",
-							new SSLConnectionSocketFactory(SSLContexts.createSystemDefault(),
-									new String[] {
-											"TLSv1.2",
-											"TLSv1.1",
-											"TLSv1",
-											"SSLv3",
-											"SSLv2Hello",
-									}, null, new NoopHostnameVerifier()))
-					.build();
-		}
-
-		public BasicHttpClientConnectionManagerWithAlternateDNS(final DnsResolver dnsResolver) {
-			super(getDefaultRegistry(), null, null, dnsResolver);
-		}
-	}
+	/** The SSL/TLS protocols we support. */
+	static final String[] SSL_PROTOCOLS = {
+		"TLSv1.2",
+		"TLSv1.1",
+		"TLSv1",
+		"SSLv3",
+		"SSLv2Hello",
+	};
 
 
 	private static int length(final String s) {
@@ -183,6 +170,113 @@ public final class FetchingThread extends Thread implements Closeable {
 		return cookies.toArray(new Cookie[cookies.size()]);
 	}
 
+	/** Returns the default headers sent with every request.
+	 *
+	 * @param rc the runtime configuration.
+	 * @return the default headers sent with every request.
+	 */
+	static BasicHeader[] defaultHeaders(final RuntimeConfiguration rc) {
+		return new BasicHeader[] {
+			new BasicHeader("From", rc.userAgentFrom),
+			new BasicHeader("Accept","text/html,application/xhtml+xml,application/xml;q=0.95,text/*;q=0.9,*/*;q=0.8")
+		};
+	}
+
+	/** The header asking for compressed responses, which are decoded by {@link FetchData}. */
+	private static final BasicHeader ACCEPT_ENCODING_HEADER = new BasicHeader("Accept-Encoding", "gzip, deflate");
+
+	/** Returns the first fetchable URL of a visit state, dequeuing in the process all URLs that
+	 * cannot be fetched because of the fetch filter, of the robots filter or of blacklisting.
+	 *
+	 * <p>If the returned URL is the <code>robots.txt</code> URL, {@link VisitState#firstPath()}
+	 * will return {@link VisitState#ROBOTS_PATH}.
+	 *
+	 * @param frontier the frontier.
+	 * @param visitState an acquired visit state.
+	 * @return the first fetchable URL of {@code visitState}, or {@code null} if there are no more fetchable URLs.
+	 */
+	static URI nextFetchableURL(final Frontier frontier, final VisitState visitState) {
+		final RuntimeConfiguration rc = frontier.rc;
+		while(! visitState.isEmpty()) {
+			final byte[] path = visitState.firstPath();
+
+			// The robots filter works on the path+query directly, so we can avoid building URLs that are disallowed
+			if (path != VisitState.ROBOTS_PATH && visitState.robots != null && ! visitState.robots.apply(path)) {
+				if (LOGGER.isDebugEnabled()) LOGGER.debug("URL {} disallowed by robots filter", BURL.fromNormalizedSchemeAuthorityAndPathQuery(visitState.schemeAuthority, path));
+				visitState.dequeue();
+				continue;
+			}
+
+			final URI url = BURL.fromNormalizedSchemeAuthorityAndPathQuery(visitState.schemeAuthority, path);
+
+			if (LOGGER.isDebugEnabled()) LOGGER.debug("Next URL: {}", url);
+
+			if (path == VisitState.ROBOTS_PATH) return url;
+
+			if (! rc.fetchFilter.apply(url)) {
+				if (LOGGER.isDebugEnabled()) LOGGER.debug("I'm not fetching URL {}", url);
+				visitState.dequeue();
+				continue;
+			}
+
+			if (RuntimeConfiguration.FETCH_ROBOTS && visitState.robots == null) LOGGER.error("Null robots filter for " + it.unimi.di.law.bubing.util.Util.toString(visitState.schemeAuthority));
+
+			// Check for blacklisting (host)
+			final BlackList blackList = rc.blackList;
+			if (blackList.containsHost(url.getHost())) {
+				if (LOGGER.isDebugEnabled()) LOGGER.debug("URL {} disallowed by last-minute check for host blacklisting", url);
+				visitState.dequeue();
+				continue;
+			}
+
+			// Check for blacklisting (IP)
+			if (blackList.containsAddress(visitState.ipAddress)) {
+				if (LOGGER.isDebugEnabled()) LOGGER.debug("URL {} disallowed by last-minute check for IP blacklisting", url);
+				visitState.dequeue();
+				continue;
+			}
+
+			return url;
+		}
+
+		return null;
+	}
+
+	/** Returns the validators to be used to issue a conditional request for a URL, if the frontier
+	 * {@linkplain Frontier#revisitValidators is revisiting} a previous crawl.
+	 *
+	 * @param frontier the frontier.
+	 * @param url the URL to be fetched.
+	 * @param robots whether {@code url} is the <code>robots.txt</code> URL.
+	 * @return the validators of {@code url}, or {@code null} if a regular request must be issued.
+	 */
+	static ValidatorMap.Validators validators(final Frontier frontier, final URI url, final boolean robots) {
+		if (robots || frontier.revisitValidators == null) return null;
+		try {
+			return frontier.revisitValidators.get(url);
+		}
+		catch (final IOException e) {
+			LOGGER.error("Unexpected exception while reading validators of " + url, e);
+			return null;
+		}
+	}
+
+	/** Performs the bookkeeping usually performed by a {@link ParsingThread} after an unexpected exception
+	 * during a fetch. We cannot rely on the internal state of the {@link FetchData} being OK, so we
+	 * just discard it. If the URL was the <code>robots.txt</code> URL we assume an empty filter (as in the case of a 5xx status).
+	 *
+	 * @param rc the runtime configuration.
+	 * @param visitState the visit state whose first URL could not be fetched.
+	 * @param robots whether the URL was the <code>robots.txt</code> URL.
+	 */
+	static void unexpectedFetchException(final RuntimeConfiguration rc, final VisitState visitState, final boolean robots) {
+		if (robots) visitState.robots = RobotsFilter.EMPTY;
+		final long endTime = System.currentTimeMillis();
+		visitState.workbenchEntry.nextFetch = endTime + AdaptiveDelay.ipDelay(rc, visitState.workbenchEntry);
+		visitState.nextFetch = endTime + AdaptiveDelay.schemeAuthorityDelay(rc, visitState);
+		visitState.dequeue();
+	}
+
 	/** Creates a new fetching thread.
 	 *
 	 * @param frontier a reference to the {@link Frontier}.
@@ -193,31 +287,88 @@ public final class FetchingThread extends Thread implements Closeable {
 		setPriority(Thread.MIN_PRIORITY); // Low priority; there will be thousands of this guys around.
 		this.frontier = frontier;
 
-		final BasicHttpClientConnectionManager connManager = new BasicHttpClientConnectionManagerWithAlternateDNS(frontier.rc.dnsResolver);
-		connManager.closeIdleConnections(0, TimeUnit.MILLISECONDS);
-		connManager.setConnectionConfig(ConnectionConfig.custom().setBufferSize(8 * 1024).build()); // TODO: make this configurable
-
 		cookieStore = new BasicCookieStore();
 
-		final BasicHeader[] headers = {
-			new BasicHeader("From", frontier.rc.userAgentFrom),
-			new BasicHeader("Accept","text/html,application/xhtml+xml,application/xml;q=0.95,text/*;q=0.9,*/*;q=0.8")
-		};
+		final ObjectArrayList<BasicHeader> defaultHeaders = ObjectArrayList.wrap(defaultHeaders(frontier.rc));
+		if (frontier.rc.acceptEncoding) defaultHeaders.add(ACCEPT_ENCODING_HEADER);
 
 		httpClient = HttpClients.custom()
-				.setSSLContext(frontier.rc.acceptAllCertificates ? TRUST_ALL_CERTIFICATES_SSL_CONTEXT : TRUST_SELF_SIGNED_SSL_CONTEXT)
-				.setConnectionManager(connManager)
+				.setConnectionManager(frontier.connManager)
+				.setConnectionManagerShared(true)
 				.setConnectionReuseStrategy(frontier.rc.keepAliveTime == 0 ? NoConnectionReuseStrategy.INSTANCE : DefaultConnectionReuseStrategy.INSTANCE)
 				.setUserAgent(frontier.rc.userAgent)
 				.setDefaultCookieStore(cookieStore)
-				.setDefaultHeaders(ObjectArrayList.wrap(headers))
+				.setDefaultHeaders(defaultHeaders)
+				.disableContentCompression() // FetchData decodes content by itself, keeping track of the received bytes
 				.build();
-   		fetchData = new FetchData(frontier.rc);
+		recycled = new LockFreeQueue<>();
+		pool = new FetchData[frontier.rc.fetchDataPoolSize];
+		free = new ObjectArrayList<>(pool.length);
+		for(int i = 0; i < pool.length; i++) {
+			free.push(pool[i] = new FetchData(frontier.rc));
+			pool[i].recycleQueue = recycled;
+		}
+		pending = new Reference2IntOpenHashMap<>();
+		toBeReleased = new ReferenceOpenHashSet<>();
 	}
 
-	/** Causes the {@link FetchData} used by this thread to be {@linkplain FetchData#abort()} (whence, the corresponding connection to be closed). */
+	/** Causes the {@link FetchData} instances used by this thread to be {@linkplain FetchData#abort()} (whence, the corresponding connection to be closed). */
 	public void abort() {
-		fetchData.abort();
+		for(final FetchData fetchData : pool) fetchData.abort();
+	}
+
+	/** Handles the {@link FetchData} instances that have been recycled by {@link ParsingThread} instances,
+	 * possibly releasing visit states that have no longer pending fetched responses.
+	 *
+	 * @return true if some {@link FetchData} has been recycled.
+	 */
+	private boolean recycle() {
+		FetchData fetchData = recycled.poll();
+		if (fetchData == null) return false;
+		do {
+			final VisitState visitState = fetchData.visitState;
+			if (pending.addTo(visitState, -1) == 1) {
+				pending.removeInt(visitState);
+				if (toBeReleased.remove(visitState)) release(visitState);
+			}
+			free.push(fetchData);
+		} while((fetchData = recycled.poll()) != null);
+		return true;
+	}
+
+	/** Waits until a given visit state has no pending fetched responses, or, if the visit state is {@code null},
+	 * until a {@link FetchData} is free.
+	 *
+	 * @param visitState a visit state, or {@code null}.
+	 */
+	private void await(final VisitState visitState) throws InterruptedException {
+		for(int i = 0; visitState != null ? pending.getInt(visitState) != 0 : free.isEmpty(); i++) {
+			if (! recycle()) Thread.sleep(1 << Math.min(i, 6));
+		}
+	}
+
+	/** Returns whether a further URL of a scheme+authority may be fetched without possibly exceeding
+	 * {@link RuntimeConfiguration#maxUrlsPerSchemeAuthority}.
+	 *
+	 * <p>Since the {@linkplain Frontier#schemeAuthority2Count count of stored URLs} is updated by parsing threads,
+	 * each response not yet parsed might still increase the count by one.
+	 *
+	 * @param stored the number of URLs of the scheme+authority that have been stored.
+	 * @param pending the number of fetched responses of the scheme+authority that have not been parsed yet.
+	 * @param maxUrlsPerSchemeAuthority the maximum number of URLs per scheme+authority.
+	 * @return true if a further URL may be fetched.
+	 */
+	static boolean mayFetch(final int stored, final int pending, final int maxUrlsPerSchemeAuthority) {
+		return (long)stored + pending < maxUrlsPerSchemeAuthority;
+	}
+
+	/** Releases a visit state.
+	 *
+	 * @param visitState the visit state to be released.
+	 */
+	private void release(final VisitState visitState) {
+		if (LOGGER.isTraceEnabled()) LOGGER.trace("Releasing visit state {}", visitState);
+		frontier.done.add(visitState);
 	}
 
 	@Override
@@ -227,7 +378,7 @@ public final class FetchingThread extends Thread implements Closeable {
 			final int cookieMaxByteSize = rc.cookieMaxByteSize;
 			final LockFreeQueue<FetchData> results = frontier.results; // Cached
 
-			while (! stop) {
+			main: while (! stop) {
 				// Read
 				VisitState visitState;
 				long waitTime = 0;
@@ -236,7 +387,8 @@ public final class FetchingThread extends Thread implements Closeable {
 
 				for (int i = 0; (visitState = frontier.todo.poll()) == null; i++) {
 					frontier.rc.ensureNotPaused();
-					if (stop) return;
+					if (stop) break main;
+					if (recycle()) continue;
 					waitTime += 1 << Math.min(i, 10);
 					Thread.sleep(1 << Math.min(i, 10));
 				}
@@ -251,148 +403,77 @@ public final class FetchingThread extends Thread implements Closeable {
 				// Try to find a fetchable URL (i.e., that does not violate the fetch filter or robots.txt).
 				final long startTime = System.currentTimeMillis();
 
-				while(! visitState.isEmpty()) {
-					final byte[] path = visitState.firstPath();
-					final URI url = BURL.fromNormalizedSchemeAuthorityAndPathQuery(visitState.schemeAuthority, path);
-
-					if (LOGGER.isDebugEnabled()) LOGGER.debug("Next URL: {}", url);
+				try {
+					for(URI url; (url = nextFetchableURL(frontier, visitState)) != null;) {
+						final byte[] path = visitState.firstPath();
+						final boolean robots = path == VisitState.ROBOTS_PATH;
 
-					if (path == VisitState.ROBOTS_PATH) {
-						fetchData.inUse = true;
-						cookieStore.clear();
-						try {
-							fetchData.fetch(url, httpClient, frontier.robotsRequestConfig, visitState, true);
-						}
-						catch (final Exception shouldntHappen) {
-							/* This shouldn't really happen--it's a bug that must be reported to the
-							 * ASF team. We cannot rely on the internal state of fetchData being OK,
-							 * so we just discard it and stop the keepalive download. We assume an
-							 * empty filter (as in the case of a 5xx status). We must perform some
-							 * bookkeeping usually performed by a ParsingThread. */
-							LOGGER.error("Unexpected exception during fetch of " + url, shouldntHappen);
-							fetchData.inUse = false;
-							visitState.robotsFilter = URLRespectsRobots.EMPTY_ROBOTS_FILTER;
-							final long endTime = System.currentTimeMillis();
-							visitState.workbenchEntry.nextFetch = endTime + rc.ipDelay;
-							visitState.nextFetch = endTime + rc.schemeAuthorityDelay;
-							visitState.dequeue();
-							break;
+						if (! robots && ! mayFetch(frontier.schemeAuthority2Count.get(visitState.schemeAuthority), pending.getInt(visitState), rc.maxUrlsPerSchemeAuthority)) {
+							// Pending responses might exhaust the quota of the scheme+authority: we wait for them to be parsed.
+							await(visitState);
+							if (! mayFetch(frontier.schemeAuthority2Count.get(visitState.schemeAuthority), 0, rc.maxUrlsPerSchemeAuthority)) break;
 						}
 
-						frontier.speedDist.incrementAndGet(Math.min(frontier.speedDist.length() - 1, Fast.mostSignificantBit(8 * fetchData.length() / (1 + fetchData.endTime - fetchData.startTime)) + 1));
-						frontier.transferredBytes.addAndGet(fetchData.length());
+						await(null);
+						final FetchData fetchData = free.pop();
 
-						results.add(fetchData);
-
-						try {
-							synchronized (fetchData) {
-								while (fetchData.inUse) fetchData.wait();
-							}
-						}
-						catch (final InterruptedException e) {
-							// Stopping
-							LOGGER.warn("Interrupted while waiting for ParsingThread to consume robots FetchData");
-							break;
-						}
-
-						if (fetchData.exception != null || frontier.rc.keepAliveTime == 0 || System.currentTimeMillis() - startTime >= frontier.rc.keepAliveTime) break;
-					}
-					else if (!frontier.rc.fetchFilter.apply(url)) {
-						if (LOGGER.isDebugEnabled()) LOGGER.debug("I'm not fetching URL {}", url);
-						visitState.dequeue();
-					}
-					else if (visitState.robotsFilter != null && ! URLRespectsRobots.apply(visitState.robotsFilter, url)) {
-						if (LOGGER.isDebugEnabled()) LOGGER.debug("URL {} disallowed by robots filter", url);
-						visitState.dequeue();
-					}
-					else {
-						if (RuntimeConfiguration.FETCH_ROBOTS && visitState.robotsFilter == null) LOGGER.error("Null robots filter for " + it.unimi.di.law.bubing.util.Util.toString(visitState.schemeAuthority));
-
-						// Check for blacklisting (host)
-						Lock lock = frontier.rc.blackListedHostHashesLock.readLock();
-						boolean dequeued = false;
-						lock.lock();
-						try {
-							if (frontier.rc.blackListedHostHashes.contains(url.getHost().hashCode())) {
-								if (LOGGER.isDebugEnabled()) LOGGER.debug("URL {} disallowed by last-minute check for host blacklisting", url);
-								visitState.dequeue();
-								dequeued = true;
-								continue;
-							} else
-								dequeued = true;
-						} finally {
-							if (!dequeued) visitState.dequeue();
-							lock.unlock();
-						}
-
-						// Check for blacklisting (IP)
-						final byte[] address = visitState.workbenchEntry.ipAddress;
-						if (address.length == 4) {
-							lock = frontier.rc.blackListedIPv4Lock.readLock();
-							dequeued = false;
-							lock.lock();
-							try {
-								// We use Ints.fromBytes() as the array version generates an Object array just to log, possibly, a wrong argument (!)
-								if (frontier.rc.blackListedIPv4Addresses.contains(Ints.fromBytes(address[0], address[1], address[2], address[3]))) {
-									if (LOGGER.isDebugEnabled()) LOGGER.debug("URL {} disallowed by last-minute check for IP blacklisting", url);
-									visitState.dequeue();
-									dequeued = true;
-									continue;
-								} else
-									dequeued = true;
-							} finally {
-								if (!dequeued) visitState.dequeue();
-								lock.unlock();
-							}
-						}
+						cookieStore.clear();
+						if (! robots && visitState.cookies != null) for(final Cookie cookie: visitState.cookies) cookieStore.addCookie(cookie);
 
+						/* A response is streamed only if there are no pending responses for the visit state, as failures
+						 * of a streamed fetch are known only after the response has been enqueued. */
+						final boolean mayStream = rc.streamingParses != 0 && ! robots && pending.getInt(visitState) == 0 && frontier.streamingParsePermits.tryAcquire();
 
-						fetchData.inUse = true;
-						cookieStore.clear();
+						fetchData.validators = validators(frontier, url, robots);
 
-						if (visitState.cookies != null) for(final Cookie cookie: visitState.cookies) cookieStore.addCookie(cookie);
 						try {
-							fetchData.fetch(url, httpClient, frontier.defaultRequestConfig, visitState, false);
+							fetchData.fetch(url, httpClient, robots ? frontier.robotsRequestConfig : frontier.defaultRequestConfig, visitState, robots, mayStream ? results : null);
+							// If the response has been streamed, the parsing thread will release the permit
+							if (mayStream && ! fetchData.streaming()) frontier.streamingParsePermits.release();
 						}
 						catch (final Exception shouldntHappen) {
 							/* This shouldn't really happen--it's a bug that must be reported to the ASF team.
-							 * We cannot rely on the internal state of fetchData being OK, so we just discard it
-							 * and stop the keepalive download. We must perform some bookkeeping usually
-							 * performed by a ParsingThread. */
+							 * We stop the keepalive download. */
 							LOGGER.error("Unexpected exception during fetch of " + url, shouldntHappen);
-							fetchData.inUse = false;
-							final long endTime = System.currentTimeMillis();
-							visitState.workbenchEntry.nextFetch = endTime + rc.ipDelay;
-							visitState.nextFetch = endTime + rc.schemeAuthorityDelay;
-							visitState.dequeue();
+							if (mayStream) frontier.streamingParsePermits.release();
+							free.push(fetchData);
+							await(visitState);
+							unexpectedFetchException(rc, visitState, robots);
 							break;
 						}
 
-						frontier.speedDist.incrementAndGet(Math.min(frontier.speedDist.length() - 1, Fast.mostSignificantBit(8 * fetchData.length() / (1 + fetchData.endTime - fetchData.startTime)) + 1));
-						frontier.transferredBytes.addAndGet(fetchData.length());
-
-						results.add(fetchData);
+						frontier.updateTransferStats(fetchData);
 
 						if (fetchData.exception == null) {
-							visitState.cookies = getCookies(fetchData.uri(), cookieStore, cookieMaxByteSize);
+							if (! robots) visitState.cookies = getCookies(fetchData.uri(), cookieStore, cookieMaxByteSize);
+							if (visitState.lastExceptionClass != null) frontier.brokenVisitStates.decrementAndGet();
+							visitState.lastExceptionClass = null;
+							// A ParsingThread might have concurrently purged the visit state
+							if (visitState.dequeue(path) && LOGGER.isTraceEnabled()) LOGGER.trace("Dequeuing " + it.unimi.di.law.bubing.util.Util.toString(path) + " after fetching " + url + "; " + (visitState.isEmpty() ? "visit state is now empty " : " first path now is " + it.unimi.di.law.bubing.util.Util.toString(visitState.firstPath())));
 						}
+						// Failures are handled by parsing threads using the state of the visit state, so we must wait for pending responses.
+						else if (! fetchData.streaming()) await(visitState);
+
+						pending.addTo(visitState, 1);
+						// Streamed responses have been already enqueued
+						if (! fetchData.streaming()) results.add(fetchData);
 
-						try {
-							synchronized (fetchData) {
-								while (fetchData.inUse) fetchData.wait();
-							}
-						}
-						catch (final InterruptedException e) {
-							// Stopping
-							LOGGER.warn("Interrupted while waiting for ParsingThread to consume FetchData");
-							break;
-						}
 						if (fetchData.exception != null || frontier.rc.keepAliveTime == 0 || System.currentTimeMillis() - startTime >= frontier.rc.keepAliveTime) break;
+						// We need the robots filter to go on.
+						if (robots) await(visitState);
 					}
 				}
-				if (LOGGER.isTraceEnabled()) LOGGER.trace("Releasing visit state {}", visitState);
-				frontier.done.add(visitState);
+				catch (final InterruptedException e) {
+					// Stopping
+					LOGGER.warn("Interrupted while waiting for ParsingThread to consume FetchData");
+				}
+
+				if (pending.getInt(visitState) == 0) release(visitState);
+				else toBeReleased.add(visitState);
 			}
+
+			// We wait for pending fetched responses to be parsed, so that all visit states are released.
+			for(int i = 0; ! pending.isEmpty(); i++) if (! recycle()) Thread.sleep(1 << Math.min(i, 10));
 		} catch (final Throwable e) {
 			LOGGER.error("Unexpected exception", e);
 		}
@@ -400,6 +481,6 @@ public final class FetchingThread extends Thread implements Closeable {
 
 	@Override
 	public void close() throws IOException {
-		fetchData.close();
+		for(final FetchData fetchData : pool) fetchData.close();
 	}
 }
@@ -1,5 +1,8 @@
 package it.unimi.di.law.bubing.frontier;
 
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
@@ -11,12 +14,17 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.security.NoSuchAlgorithmException;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.DelayQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicLongArray;
 
+import javax.net.ssl.SSLContext;
+
 import org.apache.commons.configuration2.ex.ConfigurationException;
 import org.apache.http.HttpHost;
 import org.apache.http.client.config.RequestConfig;
@@ -43,6 +51,9 @@ import org.xbill.DNS.Lookup;
 
 import it.unimi.di.law.bubing.Agent;
 import it.unimi.di.law.bubing.RuntimeConfiguration;
+import it.unimi.di.law.bubing.frontier.dns.AsyncDnsResolver;
+import it.unimi.di.law.bubing.frontier.dns.CachingDnsResolver;
+import it.unimi.di.law.bubing.frontier.dns.DnsCache;
 import it.unimi.di.law.bubing.sieve.AbstractSieve;
 import it.unimi.di.law.bubing.sieve.ByteArrayListByteSerializerDeserializer;
 import it.unimi.di.law.bubing.sieve.ByteSerializerDeserializer;
@@ -57,8 +68,11 @@ import it.unimi.di.law.bubing.util.FastApproximateByteArrayCache;
 import it.unimi.di.law.bubing.util.FetchData;
 import it.unimi.di.law.bubing.util.LockFreeQueue;
 import it.unimi.di.law.bubing.util.MurmurHash3;
+import it.unimi.di.law.bubing.util.TokenBucket;
 import it.unimi.di.law.bubing.util.Util;
+import it.unimi.di.law.bubing.util.ValidatorMap;
 import it.unimi.di.law.warc.io.ParallelBufferedWarcWriter;
+import it.unimi.dsi.bits.Fast;
 import it.unimi.dsi.fastutil.bytes.ByteArrayList;
 import it.unimi.dsi.fastutil.io.BinIO;
 import it.unimi.dsi.fastutil.io.FastBufferedInputStream;
@@ -84,7 +98,7 @@ import net.htmlparser.jericho.LoggerProvider;
  * <p>Every BUbiNG agent contains an instance of this class, which is responsible for starting and
  * orchestrating the mutual interaction of many different elements: <ul> <li>the
  * {@linkplain #workbench workbench} (described below), that contains the {@link VisitState}s to be
- * visited next; <li>the {@link Distributor}, that fills the workbench, possibly virtualizing part
+ * visited next; <li>the {@linkplain #distributors distributors}, that fill the workbench, possibly virtualizing part
  * of it through a {@link WorkbenchVirtualizer}; <li>the {@link TodoThread} and the
  * {@link DoneThread}, that move around {@link VisitState}s during the crawl; <li>a number of worker
  * threads doing useful work, like {@link DNSThread}, {@link FetchingThread} and
@@ -117,7 +131,7 @@ import net.htmlparser.jericho.LoggerProvider;
  *
  * <p>All ready URLs are initially stored in a {@link ByteArrayDiskQueue} called {@link #readyURLs},
  * from which they are moved to the FIFO queue of their {@link VisitState} by the
- * {@link Distributor}. Inside a {@link VisitState}, we only store a byte-array represention of the
+ * {@linkplain Distributor distributor} responsible for their scheme+authority. Inside a {@link VisitState}, we only store a byte-array represention of the
  * path+query of ready URLs. Some of them may be stored outside of the visit state, through
  * {@linkplain WorkbenchVirtualizer virtualization}. Keeping path+queries in byte-array form in all
  * components reduces enormously object creation, and provides a simple form of compression by
@@ -148,6 +162,12 @@ public class Frontier implements JobListener<BubingJob>, AbstractSieve.NewFlowRe
 	/** The size of the buffer used for {@link Frontier#readyURLs}. */
 	public static final int READY_URLS_BUFFER_SIZE = 64 * 1024 * 1024;
 
+	/** The maximum number of hosts waiting for {@linkplain DNSPrefetchThread prefetching}. */
+	public static final int DNS_PREFETCH_QUEUE_SIZE = 64 * 1024;
+
+	/** The size in bytes of the cache of hosts recently scheduled for {@linkplain DNSPrefetchThread prefetching}. */
+	public static final long DNS_PREFETCH_CACHE_BYTE_SIZE = 16 * 1024 * 1024;
+
 	/** Names of the scalar fields saved by {@link #snap()}. */
 	public static enum PropertyKeys {
 		PATHQUERIESINQUEUES,
@@ -167,6 +187,8 @@ public class Frontier implements JobListener<BubingJob>, AbstractSieve.NewFlowRe
 		FETCHEDRESOURCES,
 		FETCHEDROBOTS,
 		TRANSFERREDBYTES,
+		DECODEDBYTES,
+		NOTMODIFIED,
 		AVERAGESPEED,
 		// ALERT: we should keep also:
 		// outDegree, outHostDegree, contentLength, contentTypeText, contentTypeImage,
@@ -180,6 +202,7 @@ public class Frontier implements JobListener<BubingJob>, AbstractSieve.NewFlowRe
 		// DISTRIBUTOR EXTRAS
 		DISTRIBUTORWARMUP,
 		DISTRIBUTORVISITSTATESONDISK,
+		DISTRIBUTORTHREADS,
 		// METADATA
 		EPOCH,
 		CRAWLDURATION,
@@ -244,12 +267,27 @@ public class Frontier implements JobListener<BubingJob>, AbstractSieve.NewFlowRe
 	/** A queue to store URLs coming out of the {@link #sieve}. */
 	public ByteArrayDiskQueue readyURLs;
 
+	/** A lock that must be held by {@linkplain #distributors distributors} to dequeue from {@link #readyURLs}. */
+	protected final Object readyURLsLock = new Object();
+
+	/** The URLs dequeued from {@link #readyURLs} but not yet processed, in the queues of the shards of the {@linkplain #distributors distributors}. */
+	protected final ReadyURLQueues readyURLQueues;
+
 	/** A queue to quickly buffer URLs communicated by {@link #receive(BubingJob)}. */
 	public ArrayBlockingQueue<ByteArrayList> quickReceivedURLs;
 
 	/** A queue to buffer in the long run URLs communicated by {@link #receive(BubingJob)}. */
 	public ByteArrayDiskQueue receivedURLs;
 
+	/** The hosts waiting to be resolved by the {@linkplain DNSPrefetchThread DNS prefetch threads}, or {@code null} if prefetching is disabled. */
+	public final ArrayBlockingQueue<String> hostsToPrefetch;
+
+	/** A cache of the hosts recently {@linkplain #prefetch(byte[]) scheduled for prefetching}, or {@code null} if prefetching is disabled. */
+	private final FastApproximateByteArrayCache prefetchedHosts;
+
+	/** The estimate of the importance of schemes+authorities, or {@code null} if all schemes+authorities are equally important. */
+	public final HostImportance hostImportance;
+
 	/** The parsing threads. */
 	public final ObjectArrayList<ParsingThread> parsingThreads;
 
@@ -259,8 +297,8 @@ public class Frontier implements JobListener<BubingJob>, AbstractSieve.NewFlowRe
 	/** The overall number of path+queries stored in {@link VisitState} queues. */
 	public final AtomicLong pathQueriesInQueues;
 
-	/** The overall {@linkplain BURL#memoryUsageOf(byte[]) memory} (in bytes) used by path+queries
-	 * stored in {@link VisitState} queues. */
+	/** An estimate of the overall memory (in bytes) used by path+queries stored in {@link VisitState} queues, as
+	 * given by the {@linkplain PathQueryQueue#footprint() footprint} of the queues (including buffers, decoded elements and fixed overhead). */
 	public final AtomicLong weightOfpathQueriesInQueues;
 
 	/** The number of broken {@linkplain VisitState visit states}. */
@@ -280,7 +318,7 @@ public class Frontier implements JobListener<BubingJob>, AbstractSieve.NewFlowRe
 	public final DelayQueue<VisitState> unknownHosts;
 
 	/** The queue of new {@linkplain VisitState visit states}; filled by the
-	 * {@linkplain #distributor} and emptied by the {@linkplain #dnsThreads DNS threads}. */
+	 * {@linkplain #distributors distributors} and emptied by the {@linkplain #dnsThreads DNS threads}. */
 	public final LinkedBlockingQueue<VisitState> newVisitStates;
 
 	/** A Bloom filter storing page digests for duplicate detection. */
@@ -289,20 +327,57 @@ public class Frontier implements JobListener<BubingJob>, AbstractSieve.NewFlowRe
 	/** The threads resolving DNS for new {@linkplain VisitState visit states}. */
 	protected final ObjectArrayList<DNSThread> dnsThreads;
 
+	/** The threads resolving in advance the hosts of URLs that will generate new {@linkplain VisitState visit states}. */
+	protected final ObjectArrayList<DNSPrefetchThread> dnsPrefetchThreads;
+
 	/** The threads fetching data. */
 	private final ObjectArrayList<FetchingThread> fetchingThreads;
 
-	/** The thread constantly moving ready URLs into the {@linkplain #workbench}. */
-	protected final Distributor distributor;
+	/** The permits for {@linkplain RuntimeConfiguration#streamingParses streaming parses}: a {@linkplain FetchingThread fetching thread}
+	 * must acquire a permit to stream a response, and the {@linkplain ParsingThread parsing thread} parsing it releases the permit
+	 * when the download is over. */
+	public final Semaphore streamingParsePermits;
+
+	/** The token bucket enforcing {@link RuntimeConfiguration#bandwidth}, shared by all fetching threads. */
+	public final TokenBucket bandwidthBucket;
+
+	/** The SSL context shared by all fetching threads, whose client session cache makes TLS session resumption possible. */
+	public final SSLContext sslContext;
+	/** The number of hosts resolved to an IPv4 address by {@linkplain #dnsThreads DNS threads}. */
+	public final AtomicLong resolvedIPv4Hosts;
+	/** The number of hosts resolved to an IPv6 address by {@linkplain #dnsThreads DNS threads}. */
+	public final AtomicLong resolvedIPv6Hosts;
+	/** The number of resources fetched from an IPv6 address. */
+	public final AtomicLong fetchedResourcesIPv6;
+	/** The number of TLS handshakes performed by {@linkplain #fetchingThreads fetching threads}. */
+	public final AtomicLong tlsHandshakes;
+	/** The number of TLS handshakes performed by {@linkplain #fetchingThreads fetching threads} that resumed a cached session. */
+	public final AtomicLong tlsResumedHandshakes;
+	/** The overall time spent in TLS handshakes by {@linkplain #fetchingThreads fetching threads}, in nanoseconds. */
+	public final AtomicLong tlsHandshakeTimeSum;
+
+	/** The connection manager shared by all {@linkplain #fetchingThreads fetching threads}; {@code null} if {@link RuntimeConfiguration#asyncFetching} is true. */
+	public final PerIPHttpClientConnectionManager connManager;
+
+	/** The thread fetching data asynchronously, if {@link RuntimeConfiguration#asyncFetching} is true; {@code null} otherwise. */
+	private AsyncFetchingThread asyncFetchingThread;
+
+	/** A map from {@linkplain DNSThread DNS}, {@linkplain FetchingThread fetching} and {@linkplain ParsingThread parsing}
+	 * threads to the virtual threads running them, if {@link RuntimeConfiguration#virtualThreads} is true (empty otherwise). */
+	private final ConcurrentHashMap<Thread, Thread> virtualThreads;
+
+	/** The threads constantly moving ready URLs into the {@linkplain #workbench}, each responsible for the schemes+authorities
+	 * of a {@linkplain ReadyURLQueues#shard(byte[], int, int, int) shard}. */
+	protected final Distributor[] distributors;
+
+	/** The thread printing statistics. */
+	protected final StatsThread statsThread;
 
 	/** The URL cache. This cache stores the most recent URLs that have been
 	 * {@linkplain Frontier#enqueue(ByteArrayList) enqueued}. */
 	public final FastApproximateByteArrayCache urlCache;
 
-	/** The workbench virtualizer used by this frontier. */
-	protected final WorkbenchVirtualizer virtualizer;
-
-	/** A lock-free list of visit states ready to be visited; it is filled by the {@link TodoThread}
+	/** A lock-free list of visit states ready to be visited; it is filled by the {@linkplain TodoThread todo threads}
 	 * and emptied by the {@linkplain FetchingThread fetching threads}. */
 	public final LockFreeQueue<VisitState> todo;
 
@@ -310,10 +385,6 @@ public class Frontier implements JobListener<BubingJob>, AbstractSieve.NewFlowRe
 	 * {@linkplain FetchingThread fetching threads} and emptied by the {@link DoneThread}. */
 	public final LockFreeQueue<VisitState> done;
 
-	/** A queue of visit states ready to be reilled; it is filled by {@linkplain DoneThread fetching
-	 * threads} and emptied by the {@link Distributor}. */
-	protected final LockFreeQueue<VisitState> refill;
-
 	/** The current estimation for the size of the front in IP addresses. It is adaptively increased
 	 * when a {@link FetchingThread} has to wait to retrieve a {@link VisitState} from the
 	 * {@link #todo} queue. It is never more than half the {@linkplain #workbenchSizeInPathQueries
@@ -332,13 +403,13 @@ public class Frontier implements JobListener<BubingJob>, AbstractSieve.NewFlowRe
 	 * parsing threads}. */
 	public final LockFreeQueue<FetchData> results;
 
-	/** The thread moving {@linkplain VisitState visit states} ready to be visited from the
-	 * {@linkplain #workbench} to the {@link #todo} queue. */
-	private TodoThread todoThread;
+	/** The threads moving {@linkplain VisitState visit states} ready to be visited from the
+	 * {@linkplain #workbench} to the {@link #todo} queue, one for each shard of the workbench. */
+	private final ObjectArrayList<TodoThread> todoThreads;
 
 	/** The thread moving {@linkplain VisitState visit states} that have been visited from the
 	 * {@link #done} queue to the {@linkplain #workbench}. */
-	private DoneThread doneThread;
+	protected DoneThread doneThread;
 
 	/** In position <var>i</var>, with 0 &lt; <var>i</var> &lt;6, the number of pages stored (does
 	 * not include duplicates) having status <var>i</var>xx. In position 0, the number of pages with
@@ -378,9 +449,24 @@ public class Frontier implements JobListener<BubingJob>, AbstractSieve.NewFlowRe
 	 * instances). */
 	public final AtomicLong fetchedRobots;
 
-	/** The overall number of transferred bytes. */
+	/** The overall number of transferred bytes, as received from the network (see {@link FetchData#wireLength()}). */
 	public final AtomicLong transferredBytes;
 
+	/** The overall number of transferred bytes, after decoding compressed responses (see {@link FetchData#length()}). */
+	public final AtomicLong decodedBytes;
+
+	/** The number of responses whose body was not downloaded because their headers sufficed to reject them (see {@link FetchData#bodySkipped()}). */
+	public final AtomicLong skippedBodies;
+
+	/** The number of <code>304 Not Modified</code> responses to conditional requests (see {@link RuntimeConfiguration#revisitValidators}). */
+	public final AtomicLong notModified;
+
+	/** The validators of a previous crawl used to issue conditional requests, or {@code null} (see {@link RuntimeConfiguration#revisitValidators}). */
+	public final ValidatorMap revisitValidators;
+
+	/** The writer recording the validators of fetched pages, or {@code null} (see {@link RuntimeConfiguration#storeValidators}). */
+	public final ValidatorMap.Writer validatorWriter;
+
 	/** A synchronized, highly concurrent map from scheme+authorities to number of stored URLs. */
 	public ConcurrentCountingMap schemeAuthority2Count;
 
@@ -417,15 +503,23 @@ public class Frontier implements JobListener<BubingJob>, AbstractSieve.NewFlowRe
 
 		this.store = store;
 
+		if (rc.revisitValidators != null) {
+			LOGGER.info("Opening validators file " + rc.revisitValidators);
+			revisitValidators = new ValidatorMap(rc.revisitValidators);
+			LOGGER.info("Loaded validators of " + revisitValidators.size() + " URLs");
+		}
+		else revisitValidators = null;
+		validatorWriter = rc.storeValidators ? new ValidatorMap.Writer(new File(rc.storeDir, ValidatorMap.VALIDATORS_NAME), !rc.crawlIsNew) : null;
+
 		if (rc.sieveSize == 0) sieve = new IdentitySieve<>(this, new ByteArrayListByteSerializerDeserializer(), ByteSerializerDeserializer.VOID,
 				BYTE_ARRAY_LIST_HASHING_STRATEGY, null);
 		else sieve = new MercatorSieve<>(rc.crawlIsNew, rc.sieveDir, rc.sieveSize, rc.sieveStoreIOBufferByteSize, rc.sieveAuxFileIOBufferByteSize, this,
 				new ByteArrayListByteSerializerDeserializer(), ByteSerializerDeserializer.VOID, BYTE_ARRAY_LIST_HASHING_STRATEGY, null);
 
 		this.agent = agent;
-		this.workbench = new Workbench();
+		this.workbench = new Workbench(rc.todoThreads);
+		this.todoThreads = new ObjectArrayList<>();
 		this.unknownHosts = new DelayQueue<>();
-		this.virtualizer = new WorkbenchVirtualizer(this);
 
 		pathQueriesInQueues = new AtomicLong();
 		weightOfpathQueriesInQueues = new AtomicLong();
@@ -433,6 +527,9 @@ public class Frontier implements JobListener<BubingJob>, AbstractSieve.NewFlowRe
 		fetchedResources = new AtomicLong();
 		fetchedRobots = new AtomicLong();
 		transferredBytes = new AtomicLong();
+		decodedBytes = new AtomicLong();
+		skippedBodies = new AtomicLong();
+		notModified = new AtomicLong();
 		speedDist = new AtomicLongArray(40);
 		archetypesStatus = new AtomicLong[6];
 		for (int i = 0; i < 6; i++) archetypesStatus[i] = new AtomicLong();
@@ -470,35 +567,79 @@ public class Frontier implements JobListener<BubingJob>, AbstractSieve.NewFlowRe
 				.build();
 
 
+		streamingParsePermits = new Semaphore(rc.streamingParses);
+		bandwidthBucket = new TokenBucket();
+
+		sslContext = FetchingThread.sslContext(rc.acceptAllCertificates);
+		sslContext.getClientSessionContext().setSessionCacheSize(rc.tlsSessionCacheSize);
+		sslContext.getClientSessionContext().setSessionTimeout((int)Math.min(Integer.MAX_VALUE, rc.tlsSessionTimeout / 1000));
+		resolvedIPv4Hosts = new AtomicLong();
+		resolvedIPv6Hosts = new AtomicLong();
+		fetchedResourcesIPv6 = new AtomicLong();
+		tlsHandshakes = new AtomicLong();
+		tlsResumedHandshakes = new AtomicLong();
+		tlsHandshakeTimeSum = new AtomicLong();
+		connManager = rc.asyncFetching ? null : new PerIPHttpClientConnectionManager(this);
 		dnsThreads = new ObjectArrayList<>();
 		fetchingThreads = new ObjectArrayList<>();
 		parsingThreads = new ObjectArrayList<>();
+		virtualThreads = new ConcurrentHashMap<>();
 		newVisitStates = new LinkedBlockingQueue<>();
 		todo = new LockFreeQueue<>();
 		done = new LockFreeQueue<>();
-		refill = new LockFreeQueue<>();
 		results = new LockFreeQueue<>();
-		distributor = new Distributor(this);
+		readyURLQueues = new ReadyURLQueues(rc.distributorThreads);
+		distributors = new Distributor[rc.distributorThreads];
+		for(int i = 0; i < distributors.length; i++) distributors[i] = new Distributor(this, i);
+		statsThread = new StatsThread(this);
 
 		// Configures Jericho to use SLF4J
 		Config.LoggerProvider = LoggerProvider.SLF4J;
 
 		quickReceivedURLs = new ArrayBlockingQueue<>(1024);
 
+		hostImportance = rc.hostImportanceByteSize == 0 ? null : new HostImportance(rc.hostImportanceByteSize);
+
+		dnsPrefetchThreads = new ObjectArrayList<>();
+		if (rc.dnsPrefetchThreads > 0 && ! (rc.dnsResolver instanceof CachingDnsResolver)) LOGGER.warn("DNS prefetching disabled because " + rc.dnsResolver.getClass().getSimpleName() + " is not a " + CachingDnsResolver.class.getSimpleName());
+		if (rc.dnsPrefetchThreads > 0 && rc.dnsResolver instanceof CachingDnsResolver) {
+			hostsToPrefetch = new ArrayBlockingQueue<>(DNS_PREFETCH_QUEUE_SIZE);
+			prefetchedHosts = new FastApproximateByteArrayCache(DNS_PREFETCH_CACHE_BYTE_SIZE);
+		}
+		else {
+			hostsToPrefetch = null;
+			prefetchedHosts = null;
+		}
+
+		// This must happen before restore(), which reloads the cache.
+		if (rc.dnsResolver instanceof CachingDnsResolver) ((CachingDnsResolver)rc.dnsResolver).cache().configure(rc.dnsCacheMaxSize, rc.dnsPositiveTtl, rc.dnsNegativeTtl);
+		if (rc.dnsResolver instanceof AsyncDnsResolver) ((AsyncDnsResolver)rc.dnsResolver).preferIPv6(rc.addressPreference.prefersIPv6());
+
 		if (rc.crawlIsNew) {
 			digests = BloomFilter.create(Math.max(1, rc.maxUrls), rc.bloomFilterPrecision);
 			readyURLs = ByteArrayDiskQueue.createNew(new File(rc.frontierDir, "ready"), READY_URLS_BUFFER_SIZE, true);
 			receivedURLs = ByteArrayDiskQueue.createNew(new File(rc.frontierDir, "received"), 16 * 1024, true);
-			distributor.statsThread.start(0);
+			statsThread.start(0);
 		}
 		else {
 			restore();
 		}
 
 		// Never start child threads before every data structure is created or restored
-		distributor.start();
-		(todoThread = new TodoThread(this)).start();
+		for(final Distributor distributor : distributors) distributor.start();
+		for(int i = 0; i < workbench.shards(); i++) {
+			final TodoThread thread = new TodoThread(this, i);
+			todoThreads.add(thread);
+			thread.start();
+		}
 		(doneThread = new DoneThread(this)).start();
+		if (hostsToPrefetch != null) {
+			for(int i = 0; i < rc.dnsPrefetchThreads; i++) {
+				final DNSPrefetchThread thread = new DNSPrefetchThread(this, i);
+				dnsPrefetchThreads.add(thread);
+				start(thread);
+			}
+		}
 
 		// These must be coordinated with bind's settings, if any.
 		Lookup.getDefaultCache(DClass.IN).setMaxEntries(rc.dnsCacheMaxSize);
@@ -507,6 +648,27 @@ public class Frontier implements JobListener<BubingJob>, AbstractSieve.NewFlowRe
 		Lookup.getDefaultResolver().setTimeout(60);
 	}
 
+	/** Starts a worker thread. If {@link RuntimeConfiguration#virtualThreads} is true (and virtual threads are
+	 * {@linkplain VirtualThreads#AVAILABLE available}) the worker is not started, but rather run by a new virtual thread.
+	 *
+	 * @param worker a worker thread.
+	 */
+	private void start(final Thread worker) {
+		if (rc.virtualThreads && VirtualThreads.AVAILABLE) virtualThreads.put(worker, VirtualThreads.start(worker.getName(), worker));
+		else worker.start();
+	}
+
+	/** Returns the thread actually running a worker thread.
+	 *
+	 * @param worker a worker thread.
+	 * @return the virtual thread running {@code worker}, if any, or {@code worker} itself.
+	 * @see #start(Thread)
+	 */
+	private Thread runner(final Thread worker) {
+		final Thread virtualThread = virtualThreads.get(worker);
+		return virtualThread == null ? worker : virtualThread;
+	}
+
 	/** Changes the number of DNS threads.
 	 *
 	 * <p>Note that when the number of thread is reduced, the stopped thread will actually terminate
@@ -518,15 +680,17 @@ public class Frontier implements JobListener<BubingJob>, AbstractSieve.NewFlowRe
 
 		synchronized (dnsThreads) {
 			if (newDnsThreads < dnsThreads.size()) {
-				for (int i = newDnsThreads; i < dnsThreads.size(); i++)
+				for (int i = newDnsThreads; i < dnsThreads.size(); i++) {
 					dnsThreads.get(i).stop = true;
+					virtualThreads.remove(dnsThreads.get(i));
+				}
 				dnsThreads.size(newDnsThreads);
 				return;
 			}
 
 			for (int i = newDnsThreads - dnsThreads.size(); i-- != 0;) {
 				final DNSThread thread = new DNSThread(this, dnsThreads.size());
-				thread.start();
+				start(thread);
 				dnsThreads.add(thread);
 			}
 		}
@@ -540,22 +704,34 @@ public class Frontier implements JobListener<BubingJob>, AbstractSieve.NewFlowRe
 	 * <p>Note that when the number of thread is reduced, the stopped thread will actually terminate
 	 * their execution as soon as they check the {@link ParsingThread#stop} field.
 	 *
+	 * <p>If {@link RuntimeConfiguration#asyncFetching} is true, this method starts, if necessary, the
+	 * {@link AsyncFetchingThread}, which uses {@link RuntimeConfiguration#fetchingThreads} as maximum number
+	 * of concurrent requests.
+	 *
 	 * @param numFetchingThreads the new number of threads. */
 	public void fetchingThreads(final int numFetchingThreads) throws IllegalArgumentException, NoSuchAlgorithmException, IOException {
 		if (numFetchingThreads <= 0) throw new IllegalArgumentException();
 
 		synchronized (fetchingThreads) {
+			if (rc.asyncFetching) {
+				if (asyncFetchingThread == null) (asyncFetchingThread = new AsyncFetchingThread(this)).start();
+				LOGGER.info("Maximum number of asynchronous requests set to " + numFetchingThreads);
+				return;
+			}
+
 			if (numFetchingThreads < fetchingThreads.size()) {
 				// ALERT: add emergency interrupt
-				for (int i = numFetchingThreads; i < fetchingThreads.size(); i++)
+				for (int i = numFetchingThreads; i < fetchingThreads.size(); i++) {
 					fetchingThreads.get(i).stop = true;
+					virtualThreads.remove(fetchingThreads.get(i));
+				}
 				fetchingThreads.size(numFetchingThreads);
 				return;
 			}
 
 			for (int i = numFetchingThreads - fetchingThreads.size(); i-- != 0;) {
 				final FetchingThread thread = new FetchingThread(this, fetchingThreads.size());
-				thread.start();
+				start(thread);
 				fetchingThreads.add(thread);
 			}
 		}
@@ -575,15 +751,17 @@ public class Frontier implements JobListener<BubingJob>, AbstractSieve.NewFlowRe
 
 		synchronized (parsingThreads) {
 			if (newParsingThreads < parsingThreads.size()) {
-				for (int i = newParsingThreads; i < parsingThreads.size(); i++)
+				for (int i = newParsingThreads; i < parsingThreads.size(); i++) {
 					parsingThreads.get(i).stop = true;
+					virtualThreads.remove(parsingThreads.get(i));
+				}
 				parsingThreads.size(newParsingThreads);
 				return;
 			}
 
 			for (int i = newParsingThreads - parsingThreads.size(); i-- != 0;) {
 				final ParsingThread thread = new ParsingThread(this, store, parsingThreads.size());
-				thread.start();
+				start(thread);
 				parsingThreads.add(thread);
 			}
 		}
@@ -682,6 +860,7 @@ public class Frontier implements JobListener<BubingJob>, AbstractSieve.NewFlowRe
 		try {
 			// Note that this is blocking, but blocking should be very rare and short.
 			quickReceivedURLs.put(job.url);
+			prefetch(job.url.elements());
 		}
 		catch (final Exception e) {
 			LOGGER.error("Error while enqueueing " + job.url, e);
@@ -694,23 +873,26 @@ public class Frontier implements JobListener<BubingJob>, AbstractSieve.NewFlowRe
 	 * @throws IOException
 	 * @throws InterruptedException */
 	public void close() throws IOException, InterruptedException {
-		/* First we wait for all high-level threads to complete. Note that only the workbench thread
-		 * needs to be interrupted--all other threads check regularly for rc.stopping. Note that
+		/* First we wait for all high-level threads to complete. Note that only the todo threads
+		 * need to be interrupted--all other threads check regularly for rc.stopping. Note that
 		 * visit states in the todo and done list will be moved by snap() back into the workbench. */
-		todoThread.interrupt();
+		for (final TodoThread t : todoThreads) t.interrupt();
 
-		distributor.join();
-		LOGGER.info("Joined distributor");
-		todoThread.join();
-		LOGGER.info("Joined todo thread");
+		for (final Distributor t : distributors) t.join();
+		LOGGER.info("Joined distributors");
+		for (final TodoThread t : todoThreads) t.join();
+		LOGGER.info("Joined todo threads");
 
 		/* First we stop DNS threads; note that we have to set explicitly stop. */
+		for (final DNSPrefetchThread t : dnsPrefetchThreads) t.stop = true;
 		for (final DNSThread t : dnsThreads) t.stop = true;
-		for (final DNSThread t : dnsThreads) t.join();
+		for (final DNSPrefetchThread t : dnsPrefetchThreads) runner(t).join();
+		for (final DNSThread t : dnsThreads) runner(t).join();
 		LOGGER.info("Joined DNS threads");
 
 		/* We wait for all fetching activity to come to a stop. */
 		for (final FetchingThread t : fetchingThreads) t.stop = true;
+		if (asyncFetchingThread != null) asyncFetchingThread.stop = true;
 
 		/* This extremely poor form of timeout waiting for fetching threads is motivated by threads
 		 * hanging in ininterruptible, native socket I/O, and by the difficult to perform sensible
@@ -721,25 +903,33 @@ public class Frontier implements JobListener<BubingJob>, AbstractSieve.NewFlowRe
 		do {
 			Thread.sleep(1000);
 			someAlive = false;
-			for (final FetchingThread t : fetchingThreads) someAlive |= t.isAlive();
+			for (final FetchingThread t : fetchingThreads) someAlive |= runner(t).isAlive();
+			if (asyncFetchingThread != null) someAlive |= asyncFetchingThread.isAlive();
 		} while (someAlive && System.currentTimeMillis() - time < rc.socketTimeout * 2);
 
-		if (someAlive) for (final FetchingThread t : fetchingThreads) t.abort(); // Abort any still open requests.
+		if (someAlive) {
+			// Abort any still open requests.
+			for (final FetchingThread t : fetchingThreads) t.abort();
+			if (asyncFetchingThread != null) asyncFetchingThread.abort();
+		}
 
 		time = System.currentTimeMillis();
 		do {
 			Thread.sleep(1000);
 			someAlive = false;
-			for (final FetchingThread t : fetchingThreads) someAlive |= t.isAlive();
+			for (final FetchingThread t : fetchingThreads) someAlive |= runner(t).isAlive();
+			if (asyncFetchingThread != null) someAlive |= asyncFetchingThread.isAlive();
 		} while (someAlive && System.currentTimeMillis() - time < rc.socketTimeout * 2);
 
 		if (someAlive) {
 			LOGGER.error("Some fetching threads are still alive");
-			for (final FetchingThread t : fetchingThreads) t.interrupt();
+			for (final FetchingThread t : fetchingThreads) runner(t).interrupt();
+			if (asyncFetchingThread != null) asyncFetchingThread.interrupt();
 		}
 
 		// This catches fetching threads stuck because all parsing threads crashed
-		for (final FetchingThread t : fetchingThreads) t.join();
+		for (final FetchingThread t : fetchingThreads) runner(t).join();
+		if (asyncFetchingThread != null) asyncFetchingThread.join();
 
 		LOGGER.info("Joined fetching threads");
 
@@ -752,7 +942,7 @@ public class Frontier implements JobListener<BubingJob>, AbstractSieve.NewFlowRe
 		// Wait for all results to be parsed, unless there are no more parsing threads alive
 		while (results.size() != 0) {
 			someAlive = false;
-			for (final ParsingThread t : parsingThreads) someAlive |= t.isAlive();
+			for (final ParsingThread t : parsingThreads) someAlive |= runner(t).isAlive();
 			if (! someAlive) {
 				LOGGER.error("No parsing thread alive: some results might not have been parsed");
 				break;
@@ -763,37 +953,51 @@ public class Frontier implements JobListener<BubingJob>, AbstractSieve.NewFlowRe
 
 		/* Then we stop parsing threads; note that we have to set explicitly stop. */
 		for (final ParsingThread t : parsingThreads) t.stop = true;
-		for (final ParsingThread t : parsingThreads) t.join();
+		for (final ParsingThread t : parsingThreads) runner(t).join();
 
 		robotsWarcParallelOutputStream.close();
 		store.close();
+		if (validatorWriter != null) validatorWriter.close();
+		if (revisitValidators != null) revisitValidators.close();
 		LOGGER.info("Joined parsing threads and closed stores");
 
 		for (final FetchingThread t : fetchingThreads) t.close();
+		if (asyncFetchingThread != null) asyncFetchingThread.close();
+		if (connManager != null) connManager.close();
 		LOGGER.info("Closed fetching threads");
 
+		// The resolver is used also by connection managers, so it must be closed last.
+		if (rc.dnsResolver instanceof Closeable) ((Closeable)rc.dnsResolver).close();
+
 		// Move the todo list back into the workbench
 		for (VisitState visitState; (visitState = todo.poll()) != null;) workbench.release(visitState);
 		// Move the done list back into the workbench (here we catch visit states released by the interrupts on the fetching threads, if any)
 		for (VisitState visitState; (visitState = done.poll()) != null;) {
+			final Distributor distributor = distributor(visitState);
 			// We do not schedule for refill purged visit states
-			if (visitState.nextFetch != Long.MAX_VALUE && virtualizer.count(visitState) > 0 && visitState.isEmpty()) refill.add(visitState);
+			if (visitState.nextFetch != Long.MAX_VALUE && distributor.virtualizer.count(visitState) > 0 && visitState.isEmpty()) distributor.refill.add(visitState);
 			workbench.release(visitState);
 		}
 
-		// Fix all visit states in the refill queue
-		for (VisitState visitState; (visitState = refill.poll()) != null;) {
-			// Note that this might make temporarily the workbench too big by a little bit.
-			final int dequeuedURLs = virtualizer.dequeuePathQueries(visitState, visitState.pathQueryLimit());
-			if (dequeuedURLs == 0) LOGGER.info("No URLs on disk during last refill: " + visitState);
-			if (visitState.acquired) LOGGER.warn("Visit state in the poll queue is acquired: " + visitState);
+		// Fix all visit states in the refill queues
+		for (final Distributor distributor : distributors)
+			for (VisitState visitState; (visitState = distributor.refill.poll()) != null;) {
+				// Note that this might make temporarily the workbench too big by a little bit.
+				final int dequeuedURLs = distributor.virtualizer.dequeuePathQueries(visitState, visitState.pathQueryLimit());
+				if (dequeuedURLs == 0) LOGGER.info("No URLs on disk during last refill: " + visitState);
+				if (visitState.acquired) LOGGER.warn("Visit state in the poll queue is acquired: " + visitState);
+			}
+
+		// Ready URLs moved to the queues of the distributors but not yet distributed are given back to readyURLs
+		synchronized(sieve) {
+			readyURLQueues.drainTo(readyURLs);
 		}
 
 		// Finally, we close disk-based resources (sieve, queues, etc.).
 		sieve.close();
 
 		// We invoke done() here so the final stats are the last thing printed.
-		distributor.statsThread.done();
+		statsThread.done();
 	}
 
 	// NewFlowReceiver implementation.
@@ -810,7 +1014,26 @@ public class Frontier implements JobListener<BubingJob>, AbstractSieve.NewFlowRe
 	public void append(final long hash, final ByteArrayList list) throws IOException {
 		final byte[] urlBuffer = list.elements();
 		final int length = list.size();
-		if (lockedMap.get(urlBuffer, 0, BURL.startOfpathAndQuery(urlBuffer)) < rc.maxUrlsPerSchemeAuthority) readyURLs.enqueue(urlBuffer, 0, length);
+		if (lockedMap.get(urlBuffer, 0, BURL.startOfpathAndQuery(urlBuffer)) < rc.maxUrlsPerSchemeAuthority) {
+			readyURLs.enqueue(urlBuffer, 0, length);
+			prefetch(urlBuffer);
+		}
+	}
+
+	/** Schedules the host of a URL for {@linkplain DNSPrefetchThread DNS prefetching}, unless prefetching is disabled, the host has
+	 * been scheduled recently or its scheme+authority has already a {@link VisitState} (which is, or is being, resolved).
+	 * This method never blocks: if the queue of hosts to prefetch is full, the host is discarded.
+	 *
+	 * @param url a BUbiNG URL in byte-array representation.
+	 */
+	public void prefetch(final byte[] url) {
+		if (hostsToPrefetch == null) return;
+		final int startOfPathAndQuery = BURL.startOfpathAndQuery(url);
+		if (distributor(url, 0, startOfPathAndQuery).schemeAuthority2VisitState.contains(url, 0, startOfPathAndQuery)) return;
+		final int startOfHost = BURL.startOfHost(url);
+		final int lengthOfHost = BURL.lengthOfHost(url, startOfHost);
+		if (! prefetchedHosts.add(url, startOfHost, lengthOfHost)) return;
+		hostsToPrefetch.offer(DnsCache.normalize(Util.toString(url, startOfHost, lengthOfHost)));
 	}
 
 	@Override
@@ -848,6 +1071,16 @@ public class Frontier implements JobListener<BubingJob>, AbstractSieve.NewFlowRe
 		fetchingThreadWaitingTimeSum.set(0);
 	}
 
+	/** Updates the statistics relative to download speed and transferred bytes.
+	 *
+	 * @param fetchData a fetched response. */
+	public void updateTransferStats(final FetchData fetchData) {
+		if (fetchData.bodySkipped()) skippedBodies.incrementAndGet(); // The speed would be meaningless
+		else speedDist.incrementAndGet(Math.min(speedDist.length() - 1, Fast.mostSignificantBit(8 * fetchData.wireLength() / (1 + fetchData.endTime - fetchData.startTime)) + 1));
+		transferredBytes.addAndGet(fetchData.wireLength());
+		decodedBytes.addAndGet(fetchData.length());
+	}
+
 	/** Snaps fields to files in the given directory. Fields that are of scalar are written into a
 	 * single file named <code>frontier.data</code>. Other fields are written each in a file of its
 	 * own, named with the name of the field. */
@@ -855,12 +1088,13 @@ public class Frontier implements JobListener<BubingJob>, AbstractSieve.NewFlowRe
 
 		// Purge ROBOTS_PATH path+queries and set a fake last robots fetch so that ROBOTS_PATH will
 		// be put back immediately after restart.
-		for (final VisitState visitState : distributor.schemeAuthority2VisitState.visitStates())
-			if (visitState != null) visitState.removeRobots();
+		for (final Distributor distributor : distributors)
+			for (final VisitState visitState : distributor.schemeAuthority2VisitState.visitStates())
+				if (visitState != null) visitState.removeRobots();
 
 		LOGGER.info("Final statistics");
-		distributor.statsThread.emit();
-		distributor.statsThread.run();
+		statsThread.emit();
+		statsThread.run();
 
 		final File snapDir = new File(rc.frontierDir, "snap");
 		LOGGER.info("Started snapping to " + snapDir);
@@ -895,16 +1129,20 @@ public class Frontier implements JobListener<BubingJob>, AbstractSieve.NewFlowRe
 		scalarData.addProperty(PropertyKeys.FETCHEDRESOURCES, fetchedResources.get());
 		scalarData.addProperty(PropertyKeys.FETCHEDROBOTS, fetchedRobots.get());
 		scalarData.addProperty(PropertyKeys.TRANSFERREDBYTES, transferredBytes.get());
+		scalarData.addProperty(PropertyKeys.DECODEDBYTES, decodedBytes.get());
+		scalarData.addProperty(PropertyKeys.NOTMODIFIED, notModified.get());
 		scalarData.addProperty(PropertyKeys.AVERAGESPEED, averageSpeed);
 		// scalarData.addProperty(PropertyKeys.DISTRIBUTORWARMUP, distributor.warmup);
-		scalarData.addProperty(PropertyKeys.CRAWLDURATION, distributor.statsThread.requestLogger.millis());
+		scalarData.addProperty(PropertyKeys.CRAWLDURATION, statsThread.requestLogger.millis());
 
-		scalarData.addProperty(PropertyKeys.VISITSTATESETSIZE, distributor.schemeAuthority2VisitState.size());
+		// Cold visit states are restored as cold, so they do not need space in the hash table of hot visit states
+		scalarData.addProperty(PropertyKeys.VISITSTATESETSIZE, statsThread.getVisitStates() - statsThread.getColdVisitStates());
 		scalarData.addProperty(PropertyKeys.WORKBENCHENTRYSETSIZE, workbench.numberOfWorkbenchEntries());
+		scalarData.addProperty(PropertyKeys.DISTRIBUTORTHREADS, distributors.length);
 
 
 		LOGGER.info("Storing virtualizer states");
-		virtualizer.close();
+		for (final Distributor distributor : distributors) distributor.virtualizer.close();
 
 		// readyURLs and receivedURLs
 		LOGGER.info("Freezing byte disk queues");
@@ -922,24 +1160,41 @@ public class Frontier implements JobListener<BubingJob>, AbstractSieve.NewFlowRe
 		LOGGER.info("Storing counts");
 		BinIO.storeObject(schemeAuthority2Count, new File(snapDir, "schemeAuthority2Count"));
 
+		if (rc.dnsResolver instanceof CachingDnsResolver) {
+			LOGGER.info("Storing DNS cache");
+			final DataOutputStream dnsCacheStream = new DataOutputStream(new FastBufferedOutputStream(new FileOutputStream(new File(snapDir, "dnsCache"))));
+			final int entries = ((CachingDnsResolver)rc.dnsResolver).cache().store(dnsCacheStream);
+			dnsCacheStream.close();
+			LOGGER.info("Stored " + entries + " DNS cache entries");
+		}
+
 		LOGGER.info("Storing visit states");
 		final ObjectOutputStream workbenchStream = new ObjectOutputStream(new FastBufferedOutputStream(new FileOutputStream(new File(snapDir, "workbench"))));
 
 		long c = 0;
-		for (final VisitState visitState : distributor.schemeAuthority2VisitState.visitStates())
-			if (visitState != null) {
-				if (visitState.acquired) LOGGER.error("Acquired visit state: " + visitState);
-				c++;
-			}
+		for (final Distributor distributor : distributors)
+			for (final VisitState visitState : distributor.schemeAuthority2VisitState.visitStates())
+				if (visitState != null) {
+					if (visitState.acquired) LOGGER.error("Acquired visit state: " + visitState);
+					c++;
+				}
 
 		workbenchStream.writeLong(c);
 
-		for (final VisitState visitState : distributor.schemeAuthority2VisitState.visitStates())
-			if (visitState != null) {
-				workbenchStream.writeObject(visitState);
-				workbenchStream.writeBoolean(visitState.workbenchEntry != null);
-				if (visitState.workbenchEntry != null) Util.writeByteArray(visitState.workbenchEntry.ipAddress, workbenchStream);
-			}
+		for (final Distributor distributor : distributors)
+			for (final VisitState visitState : distributor.schemeAuthority2VisitState.visitStates())
+				if (visitState != null) {
+					workbenchStream.writeObject(visitState);
+					workbenchStream.writeBoolean(visitState.workbenchEntry != null);
+					if (visitState.workbenchEntry != null) Util.writeByteArray(visitState.ipAddress, workbenchStream);
+				}
+
+		/* Cold visit states are written in packed form, without unpacking them (writing objects would keep
+		 * them all in the handle table of the stream), and they will be restored as cold. */
+		workbenchStream.writeLong(statsThread.getColdVisitStates());
+		for (final Distributor distributor : distributors)
+			for (final Iterator<byte[]> iterator = distributor.schemeAuthority2VisitState.packedColdVisitStates(); iterator.hasNext();)
+				Util.writeByteArray(iterator.next(), workbenchStream);
 
 		workbenchStream.close();
 	}
@@ -982,10 +1237,16 @@ public class Frontier implements JobListener<BubingJob>, AbstractSieve.NewFlowRe
 		fetchedResources.set(scalarData.getLong(PropertyKeys.FETCHEDRESOURCES));
 		fetchedRobots.set(scalarData.getLong(PropertyKeys.FETCHEDROBOTS));
 		transferredBytes.set(scalarData.getLong(PropertyKeys.TRANSFERREDBYTES));
+		// Snapshots taken before decoded bytes were counted separately
+		decodedBytes.set(scalarData.getLong(PropertyKeys.DECODEDBYTES, transferredBytes.get()));
+		notModified.set(scalarData.getLong(PropertyKeys.NOTMODIFIED, 0));
 		averageSpeed = scalarData.getDouble(PropertyKeys.AVERAGESPEED);
 		// distributor.warmup = scalarData.getBoolean(PropertyKeys.DISTRIBUTORWARMUP);
 
-		distributor.schemeAuthority2VisitState.ensureCapacity(scalarData.getInt(PropertyKeys.VISITSTATESETSIZE));
+		// Visit states on disk are stored in the virtualizer of their distributor, so the number of distributors cannot change
+		final int distributorThreads = scalarData.getInt(PropertyKeys.DISTRIBUTORTHREADS, 1);
+		if (distributorThreads != distributors.length) throw new ConfigurationException("The snap was taken with " + distributorThreads + " distributor threads, but " + distributors.length + " are configured");
+		for (final Distributor distributor : distributors) distributor.schemeAuthority2VisitState.ensureCapacity(scalarData.getInt(PropertyKeys.VISITSTATESETSIZE) / distributors.length);
 		workbench.address2WorkbenchEntry.ensureCapacity(scalarData.getInt(PropertyKeys.WORKBENCHENTRYSETSIZE));
 
 		// TODO makes this optional
@@ -1006,33 +1267,68 @@ public class Frontier implements JobListener<BubingJob>, AbstractSieve.NewFlowRe
 		LOGGER.info("Restoring counts");
 		schemeAuthority2Count = (ConcurrentCountingMap)BinIO.loadObject(new File(snapDir, "schemeAuthority2Count"));
 
+		// Snapshots taken before the DNS cache was stored do not contain it
+		final File dnsCacheFile = new File(snapDir, "dnsCache");
+		if (rc.dnsResolver instanceof CachingDnsResolver && dnsCacheFile.exists()) {
+			LOGGER.info("Restoring DNS cache");
+			final DataInputStream dnsCacheStream = new DataInputStream(new FastBufferedInputStream(new FileInputStream(dnsCacheFile)));
+			final int entries = ((CachingDnsResolver)rc.dnsResolver).cache().load(dnsCacheStream);
+			dnsCacheStream.close();
+			LOGGER.info("Restored " + entries + " valid DNS cache entries");
+		}
+
 		LOGGER.info("Restoring workbench");
 		final ObjectInputStream workbenchStream = new ObjectInputStream(new FastBufferedInputStream(new FileInputStream(new File(snapDir, "workbench"))));
 
 		final long workbenchSize = workbenchStream.readLong();
-		long w = workbenchSize;
+		long w = workbenchSize, weight = 0;
 		try {
 			while(w-- != 0) {
 				final VisitState visitState = (VisitState)workbenchStream.readObject();
 				visitState.frontier = this;
+				final Distributor distributor = distributor(visitState);
 				distributor.schemeAuthority2VisitState.add(visitState);
 				final boolean nonNullWorkbenchEntry = workbenchStream.readBoolean();
 				if (visitState.lastRobotsFetch == Long.MAX_VALUE) visitState.forciblyEnqueueRobotsFirst();
-				if (nonNullWorkbenchEntry) visitState.setWorkbenchEntry(workbench.getWorkbenchEntry(Util.readByteArray(workbenchStream)));
+				weight += visitState.weight();
+				if (nonNullWorkbenchEntry) {
+					final byte[] address = Util.readByteArray(workbenchStream);
+					visitState.setWorkbenchEntry(address, workbench.getWorkbenchEntry(Workbench.politenessKey(address, rc.ipv6PolitenessPrefixLength)));
+				}
 				else newVisitStates.add(visitState);
 
-				if (visitState.isEmpty() && virtualizer.count(visitState) > 0) {
+				if (visitState.isEmpty() && distributor.virtualizer.count(visitState) > 0) {
 					LOGGER.error("Empty visit state, URLs on disk: " + visitState);
-					refill.add(visitState);
+					distributor.refill.add(visitState);
 				}
 			}
 		}
 		catch(final EOFException e) {
 			LOGGER.error("Workbench stream too short: " + w + " visit states missing out of " + workbenchSize);
 		}
+
+		long coldSize = 0;
+		try {
+			coldSize = workbenchStream.readLong();
+		}
+		catch(final EOFException e) {
+			// Snapshots taken before visit states could be cold
+		}
+		long cold = coldSize;
+		try {
+			while(cold-- != 0) {
+				final byte[] p = Util.readByteArray(workbenchStream);
+				distributor(p, VisitStateSet.KEY_OFFSET, VisitStateSet.keyLength(p)).schemeAuthority2VisitState.addPacked(p);
+			}
+		}
+		catch(final EOFException e) {
+			LOGGER.error("Workbench stream too short: " + cold + " cold visit states missing out of " + coldSize);
+		}
 		workbenchStream.close();
+		// The weight depends on the way path+queries are coded, so we recompute it rather than trusting the saved value
+		weightOfpathQueriesInQueues.set(weight);
 
-		virtualizer.readMetadata();
+		for (final Distributor distributor : distributors) distributor.virtualizer.readMetadata();
 
 		// readyURLs and receivedURLs
 		LOGGER.info("Defreezing byte disk queues");
@@ -1047,17 +1343,37 @@ public class Frontier implements JobListener<BubingJob>, AbstractSieve.NewFlowRe
 		if (!snapDir.renameTo(renameDir)) LOGGER.error("Could not rename snap directory");
 
 		// Starting stats
-		distributor.statsThread.start(scalarData.getLong(PropertyKeys.CRAWLDURATION));
+		statsThread.start(scalarData.getLong(PropertyKeys.CRAWLDURATION));
 		LOGGER.info("Starting statistics");
-		distributor.statsThread.emit();
-		distributor.statsThread.run();
+		statsThread.emit();
+		statsThread.run();
 	}
 
 	/** Returns the {@link StatsThread}.
 	 *
 	 * @return the stats thread. */
 	public StatsThread getStatsThread() {
-		return distributor.statsThread;
+		return statsThread;
+	}
+
+	/** Returns the distributor responsible for a scheme+authority.
+	 *
+	 * @param array a byte array containing a scheme+authority (possibly followed by other data, e.g., a path+query).
+	 * @param offset the offset of the scheme+authority in {@code array}.
+	 * @param length the length of the scheme+authority.
+	 * @return the distributor responsible for the scheme+authority.
+	 */
+	protected Distributor distributor(final byte[] array, final int offset, final int length) {
+		return distributors[ReadyURLQueues.shard(array, offset, length, distributors.length)];
+	}
+
+	/** Returns the distributor responsible for a visit state.
+	 *
+	 * @param visitState a visit state.
+	 * @return the distributor responsible for {@code visitState}.
+	 */
+	protected Distributor distributor(final VisitState visitState) {
+		return distributor(visitState.schemeAuthority, 0, visitState.schemeAuthority.length);
 	}
 
 	/** The number of pages stored (does not include duplicates).
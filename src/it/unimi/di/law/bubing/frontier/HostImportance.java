@@ -0,0 +1,125 @@
+package it.unimi.di.law.bubing.frontier;
+
+/*
+ * Copyright (C) 2012-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import it.unimi.di.law.bubing.RuntimeConfiguration;
+import it.unimi.di.law.bubing.util.MurmurHash3;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+//RELEASE-STATUS: DIST
+
+/** An approximate, concurrent estimate of the importance of schemes+authorities, computed by a variant
+ * of OPIC (<em>On-line Page Importance Computation</em>) in which the unit is the scheme+authority, rather than the page.
+ *
+ * <p>Every scheme+authority has some <em>cash</em> and some <em>history</em>. When a page is parsed, its scheme+authority
+ * {@linkplain #spend(byte[], int) spends} a share of its cash, which is moved to its history; the share, increased by one unit of fresh cash,
+ * is then {@linkplain #credit(int, float) credited} in equal parts to the schemes+authorities of the links of the page
+ * that point to a different scheme+authority. The {@linkplain #importance(byte[]) importance} of a scheme+authority is the sum of its cash and of its history:
+ * thus, schemes+authorities with many in-links from important schemes+authorities become quickly important, even before
+ * any of their pages has been fetched.
+ *
+ * <p>Memory is bounded: cash and history are stored in two arrays of floats indexed by a hash of the scheme+authority, so
+ * colliding schemes+authorities share their importance. All updates are lock-free. The importance of schemes+authorities
+ * is not saved with the frontier, and it is rebuilt from scratch when a crawl is resumed.
+ *
+ * @see RuntimeConfiguration#hostImportanceByteSize
+ */
+
+public final class HostImportance {
+	/** The cash of each slot, as float bits. */
+	private final AtomicIntegerArray cash;
+	/** The history of each slot, as float bits. */
+	private final AtomicIntegerArray history;
+	/** The number of slots minus one. */
+	private final int mask;
+
+	/** Creates a new importance estimate.
+	 *
+	 * @param byteSize the approximate size in bytes of the estimate (it will be rounded to a power of two).
+	 */
+	public HostImportance(final long byteSize) {
+		if (byteSize < 2 * Integer.BYTES) throw new IllegalArgumentException("Size too small: " + byteSize);
+		final int slots = Integer.highestOneBit((int)Math.min(1 << 30, byteSize / (2 * Integer.BYTES)));
+		cash = new AtomicIntegerArray(slots);
+		history = new AtomicIntegerArray(slots);
+		mask = slots - 1;
+	}
+
+	/** Adds atomically a value to a float stored in an array of integers.
+	 *
+	 * @param array an array of float bits.
+	 * @param index an index.
+	 * @param delta the value to be added.
+	 */
+	private static void add(final AtomicIntegerArray array, final int index, final float delta) {
+		for(;;) {
+			final int bits = array.get(index);
+			if (array.compareAndSet(index, bits, Float.floatToRawIntBits(Float.intBitsToFloat(bits) + delta))) return;
+		}
+	}
+
+	/** Returns the slot associated with a scheme+authority.
+	 *
+	 * @param array a byte array containing a scheme+authority.
+	 * @param offset the first valid byte of the scheme+authority.
+	 * @param length the length of the scheme+authority.
+	 * @return the slot associated with the scheme+authority.
+	 */
+	public int slot(final byte[] array, final int offset, final int length) {
+		return (int)MurmurHash3.hash(array, offset, length) & mask;
+	}
+
+	/** Returns the importance of a scheme+authority.
+	 *
+	 * @param schemeAuthority a scheme+authority.
+	 * @return the importance of {@code schemeAuthority} (the sum of its cash and of its history).
+	 */
+	public float importance(final byte[] schemeAuthority) {
+		final int slot = slot(schemeAuthority, 0, schemeAuthority.length);
+		return Float.intBitsToFloat(cash.get(slot)) + Float.intBitsToFloat(history.get(slot));
+	}
+
+	/** Spends a share of the cash of a scheme+authority, moving it to its history.
+	 *
+	 * @param schemeAuthority a scheme+authority.
+	 * @param pages the number of pages among which the cash of {@code schemeAuthority} should be split (e.g., the number of
+	 * path+queries waiting to be fetched plus one); the share spent is the cash divided by this number.
+	 * @return the share spent plus one unit of fresh cash, that is, the amount that should be {@linkplain #credit(int, float) credited}
+	 * to the schemes+authorities pointed by the page being parsed.
+	 */
+	public float spend(final byte[] schemeAuthority, final int pages) {
+		final int slot = slot(schemeAuthority, 0, schemeAuthority.length);
+		for(;;) {
+			final int bits = cash.get(slot);
+			final float share = Float.intBitsToFloat(bits) / Math.max(1, pages);
+			if (cash.compareAndSet(slot, bits, Float.floatToRawIntBits(Float.intBitsToFloat(bits) - share))) {
+				add(history, slot, share);
+				return share + 1;
+			}
+		}
+	}
+
+	/** Credits some cash to a slot.
+	 *
+	 * @param slot a slot returned by {@link #slot(byte[], int, int)}.
+	 * @param amount the amount of cash to be credited.
+	 */
+	public void credit(final int slot, final float amount) {
+		add(cash, slot, amount);
+	}
+}
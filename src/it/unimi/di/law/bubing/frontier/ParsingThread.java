@@ -1,15 +1,16 @@
 package it.unimi.di.law.bubing.frontier;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.URI;
 import java.nio.BufferOverflowException;
 import java.util.ArrayList;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.http.Header;
 import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -39,11 +40,14 @@ import it.unimi.di.law.bubing.store.Store;
 import it.unimi.di.law.bubing.util.BURL;
 import it.unimi.di.law.bubing.util.FetchData;
 import it.unimi.di.law.bubing.util.Link;
+import it.unimi.di.law.bubing.util.RobotsFilter;
 import it.unimi.di.law.bubing.util.URLRespectsRobots;
+import it.unimi.di.law.bubing.util.ValidatorMap;
 import it.unimi.di.law.warc.filters.Filter;
 import it.unimi.di.law.warc.records.HttpResponseWarcRecord;
 import it.unimi.dsi.Util;
 import it.unimi.dsi.fastutil.bytes.ByteArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
 import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
@@ -58,8 +62,9 @@ import it.unimi.dsi.fastutil.shorts.Short2ShortMap;
  * The content of the response is analyzed and the body of the response is possibly parsed, and its
  * digest is computed.
  * Newly discovered (during parsing) URLs are {@linkplain Frontier#enqueue(ByteArrayList) enqueued to the frontier}. Then,
- * a signal is issued on the {@link FetchData}, so that the owner (a {@link FetchingThread}}
- * can work on a different URL or possibly {@link Workbench#release(VisitState) release the visit state}.
+ * the {@link FetchData} is returned to the {@linkplain FetchData#recycleQueue recycle queue} of its owner (a {@link FetchingThread}),
+ * so that it can be reused and, when all fetched responses of a visit state have been analyzed,
+ * the visit state can be {@linkplain Workbench#release(VisitState) released}.
  *
  * <p>At each step (fetching, parsing, following the URLs of a page, scheduling new URLs, storing) a
  * configurable {@link Filter} selects whether a URL is eligible for a specific activity.
@@ -115,10 +120,10 @@ public class ParsingThread extends Thread {
 		EXCEPTION_HOST_KILLER.add(org.apache.http.conn.ConnectTimeoutException.class);
 	}
 
-	/** A small gadget used to insert links in the frontier. It should be {@linkplain #init(URI, byte[], char[][]) initialized}
+	/** A small gadget used to insert links in the frontier. It should be {@linkplain #init(URI, byte[], RobotsFilter) initialized}
 	 *  specifying URI and scheme/authority of the page being visited and the robot filter to be
-	 *  applied. Then, one or more URLs can be {@linkplain #enqueue(URI) enqueued}: the actual
-	 *  enqueuing takes place only if the URL passes both the schedule and the robots filter.
+	 *  applied. Then, one or more URLs can be {@linkplain #enqueue(URI) enqueued}, possibly in {@linkplain #enqueue(byte[]) byte-array representation}:
+	 *  the actual enqueuing takes place only if the URL passes both the schedule and the robots filter.
 	 */
 	protected static final class FrontierEnqueuer {
 		private static final boolean ASSERTS = false;
@@ -126,8 +131,10 @@ public class ParsingThread extends Thread {
 		private final Filter<Link> scheduleFilter;
 		private byte[] schemeAuthority;
 		private URI uri;
-		private char[][] robotsFilter;
+		private RobotsFilter robotsFilter;
 		private final ByteArrayList byteList;
+		/** The {@linkplain HostImportance#slot(byte[], int, int) slots} of the schemes+authorities different from {@link #schemeAuthority} of the links enqueued since the last call to {@link #init(URI, byte[], RobotsFilter)}. */
+		private final IntArrayList importanceSlots;
 		public int outlinks;
 		public int scheduledLinks;
 
@@ -140,6 +147,7 @@ public class ParsingThread extends Thread {
 			this.frontier = frontier;
 			this.scheduleFilter = rc.scheduleFilter;
 			byteList = new ByteArrayList();
+			importanceSlots = new IntArrayList();
 		}
 
 		/** Initializes the enqueuer for parsing a page with a specific scheme+authority and robots filter.
@@ -147,67 +155,91 @@ public class ParsingThread extends Thread {
 		 * @param schemeAuthority the scheme+authority of the page to be parsed.
 		 * @param robotsFilter the robots filter of the (authority of the) page to be parsed.
 		 */
-		public void init(final URI uri, final byte[] schemeAuthority, final char[][] robotsFilter) {
+		public void init(final URI uri, final byte[] schemeAuthority, final RobotsFilter robotsFilter) {
 			scheduledLinks = outlinks = 0;
+			importanceSlots.clear();
 			this.uri = uri;
 			this.schemeAuthority = schemeAuthority;
 			this.robotsFilter = robotsFilter;
 		}
 
-		private static boolean sameSchemeAuthority(final byte[] schemeAuthority, final URI url) {
-			final String scheme = url.getScheme();
-			int schemeLength = scheme.length();
-			if (schemeAuthority.length < schemeLength + 3) return false;
-			for(int i = schemeLength; i-- != 0;) if (schemeAuthority[i] != (byte)scheme.charAt(i)) return false;
-			if (schemeAuthority[schemeLength++] != (byte)':') return false;
-			if (schemeAuthority[schemeLength++] != (byte)'/') return false;
-			if (schemeAuthority[schemeLength++] != (byte)'/') return false;
-
-			final String authority = url.getRawAuthority();
-			if (schemeAuthority.length != schemeLength + authority.length()) return false;
-			for(int i = authority.length(); i-- != 0;) if (schemeAuthority[schemeLength + i] != (byte)authority.charAt(i)) return false;
+		private static boolean sameSchemeAuthority(final byte[] schemeAuthority, final byte[] url) {
+			if (url.length <= schemeAuthority.length || url[schemeAuthority.length] != (byte)'/') return false;
+			for(int i = schemeAuthority.length; i-- != 0;) if (schemeAuthority[i] != url[i]) return false;
 			return true;
 		}
 
-		/** Enqueues the given URL, provided that it passes the schedule filter, its host is {@link RuntimeConfiguration#blackListedHostHashes blacklisted}.
+		/** Enqueues the given URL, provided that it passes the schedule filter and its host is not {@linkplain RuntimeConfiguration#blackList blacklisted}.
 		 *  Moreover, if the scheme+authority is the same as the one of the page being parsed, we check that the URL respects the robots filter.
 		 *
 		 * @param url the URL to be enqueued.
 		 */
 		public void enqueue(final URI url) {
 			if (ASSERTS) assert url != null;
-			if (LOGGER.isDebugEnabled()) LOGGER.debug("Analyzing " + url + " for enqueuing");
+			final byte[] array = BURL.toByteArray(url);
 			outlinks++;
-			if (! scheduleFilter.apply(new Link(uri, url))) {
-				if (LOGGER.isDebugEnabled()) LOGGER.debug("I'm not scheduling URL " + url + ": not accepted by scheduleFilter");
-				return;
-			}
+			if (accepted(array)) enqueue(url, array);
+		}
 
-			final Lock lock = frontier.rc.blackListedHostHashesLock.readLock();
-			lock.lock();
-			try {
-				if (frontier.rc.blackListedHostHashes.contains(url.getHost().hashCode())) {
-					if (LOGGER.isDebugEnabled()) LOGGER.debug("I'm not scheduling URL " + url + ": host " + url.getHost() + " is blacklisted");
-					return;
-				}
-			} finally {
-				lock.unlock();
-			}
+		/** Enqueues the given URL in byte-array representation, provided that it passes the schedule filter and its host is not {@linkplain RuntimeConfiguration#blackList blacklisted}.
+		 *  Moreover, if the scheme+authority is the same as the one of the page being parsed, we check that the URL respects the robots filter.
+		 *
+		 * <p>All checks but the schedule filter, which needs a {@link Link}, are performed directly on the byte array,
+		 * and the {@link URI} needed by the schedule filter is built only for URLs passing them.
+		 *
+		 * @param url the {@linkplain BURL#toByteArray(URI) byte-array representation} of the URL to be enqueued.
+		 */
+		public void enqueue(final byte[] url) {
+			outlinks++;
+			if (accepted(url)) enqueue(BURL.fromNormalizedByteArray(url), url);
+		}
 
-			final boolean sameSchemeAuthority = sameSchemeAuthority(schemeAuthority, url);
-			assert it.unimi.di.law.bubing.util.Util.toString(schemeAuthority).equals(BURL.schemeAndAuthority(url)) == sameSchemeAuthority : "(" + it.unimi.di.law.bubing.util.Util.toString(schemeAuthority) + ").equals(" + BURL.schemeAndAuthority(url) + ") != " + sameSchemeAuthority;
+		/** Checks that the host of a URL in byte-array representation is not {@linkplain RuntimeConfiguration#blackList blacklisted} and,
+		 * if the scheme+authority is the same as the one of the page being parsed, that the URL respects the robots filter.
+		 *
+		 * @param array the byte-array representation of a URL.
+		 * @return true if the URL passes the checks.
+		 */
+		private boolean accepted(final byte[] array) {
+			final int startOfHost = BURL.startOfHost(array);
+			if (frontier.rc.blackList.containsHost(array, startOfHost, BURL.lengthOfHost(array, startOfHost))) {
+				if (LOGGER.isDebugEnabled()) LOGGER.debug("I'm not scheduling URL " + it.unimi.di.law.bubing.util.Util.toString(array) + ": host is blacklisted");
+				return false;
+			}
 
 			if (RuntimeConfiguration.FETCH_ROBOTS) {
 				if (robotsFilter == null) LOGGER.error("Null robots filter for " + it.unimi.di.law.bubing.util.Util.toString(schemeAuthority));
-				else if (sameSchemeAuthority && ! URLRespectsRobots.apply(robotsFilter, url)) {
-					if (LOGGER.isDebugEnabled()) LOGGER.debug("I'm not scheduling URL " + url + ": forbidden by robots");
-					return;
+				// If the scheme+authority is the same, the path+query starts right after it
+				else if (sameSchemeAuthority(schemeAuthority, array) && ! robotsFilter.apply(array, schemeAuthority.length, array.length - schemeAuthority.length)) {
+					if (LOGGER.isDebugEnabled()) LOGGER.debug("I'm not scheduling URL " + it.unimi.di.law.bubing.util.Util.toString(array) + ": forbidden by robots");
+					return false;
 				}
 			}
 
+			return true;
+		}
+
+		/** Enqueues a URL that has been {@linkplain #accepted(byte[]) accepted}, provided that it passes the schedule filter.
+		 *
+		 * @param url the URL to be enqueued.
+		 * @param array the byte-array representation of {@code url}.
+		 */
+		private void enqueue(final URI url, final byte[] array) {
+			if (LOGGER.isDebugEnabled()) LOGGER.debug("Analyzing " + url + " for enqueuing");
+			if (! scheduleFilter.apply(new Link(uri, url))) {
+				if (LOGGER.isDebugEnabled()) LOGGER.debug("I'm not scheduling URL " + url + ": not accepted by scheduleFilter");
+				return;
+			}
+
+			final boolean sameSchemeAuthority = sameSchemeAuthority(schemeAuthority, array);
+			assert it.unimi.di.law.bubing.util.Util.toString(schemeAuthority).equals(BURL.schemeAndAuthority(url)) == sameSchemeAuthority : "(" + it.unimi.di.law.bubing.util.Util.toString(schemeAuthority) + ").equals(" + BURL.schemeAndAuthority(url) + ") != " + sameSchemeAuthority;
+
+			if (! sameSchemeAuthority && frontier.hostImportance != null) importanceSlots.add(frontier.hostImportance.slot(array, 0, BURL.startOfpathAndQuery(array)));
+
 			try {
 				if (LOGGER.isDebugEnabled()) LOGGER.debug("I'm scheduling URL " + url);
-				BURL.toByteArrayList(url, byteList);
+				byteList.size(array.length);
+				System.arraycopy(array, 0, byteList.elements(), 0, array.length);
 				frontier.enqueue(byteList);
 				scheduledLinks++;
 			}
@@ -216,6 +248,19 @@ public class ParsingThread extends Thread {
 				throw new RuntimeException(e);
 			}
 		}
+
+		/** Distributes the importance of the scheme+authority of the page being parsed among the schemes+authorities
+		 * of the links enqueued since the last call to {@link #init(URI, byte[], RobotsFilter)}, if {@link Frontier#hostImportance} is not {@code null}.
+		 *
+		 * @param visitState the visit state of the page being parsed.
+		 * @see HostImportance
+		 */
+		public void distributeImportance(final VisitState visitState) {
+			final HostImportance hostImportance = frontier.hostImportance;
+			if (hostImportance == null || importanceSlots.isEmpty()) return;
+			final float share = hostImportance.spend(visitState.schemeAuthority, visitState.size() + 1) / importanceSlots.size();
+			for(int i = importanceSlots.size(); i-- != 0;) hostImportance.credit(importanceSlots.getInt(i), share);
+		}
 	}
 
 	/** Whether we should stop (used also to reduce the number of threads). */
@@ -229,6 +274,13 @@ public class ParsingThread extends Thread {
 	private final Store store;
 	/** The parsers used by this thread. */
 	public final ArrayList<Parser<?>> parsers;
+	/** The charset guessed during the last call to {@link #parse(FetchData, LinkReceiver)}, or {@code null}. */
+	private String guessedCharset;
+	/** The term count computed by the parser during the last call to {@link #parse(FetchData, LinkReceiver)}, if it must be used
+	 * for spam detection, or {@code null}. */
+	private SpamTextProcessor.TermCount termCount;
+	/** A one-element array used to retrieve the <code>Crawl-delay</code> of <code>robots.txt</code> files. */
+	private final long[] crawlDelay = new long[1];
 
 	/** Creates a thread.
 	 *
@@ -245,7 +297,125 @@ public class ParsingThread extends Thread {
 		setPriority((Thread.NORM_PRIORITY + Thread.MIN_PRIORITY) / 2); // Below main threads
 	}
 
+	/** Returns whether the host of a URL is equal to a given host, without creating objects.
+	 *
+	 * @param url a byte-array representation of a BUbiNG URL.
+	 * @param host a host.
+	 * @return whether the host of {@code url} is {@code host}.
+	 */
+	private static boolean hasHost(final byte[] url, final String host) {
+		final int startOfHost = BURL.startOfHost(url);
+		final int length = host.length();
+		if (url.length <= startOfHost + length) return false;
+		for(int i = length; i-- != 0;) if (url[startOfHost + i] != (byte)host.charAt(i)) return false;
+		return url[startOfHost + length] == (byte)':' || url[startOfHost + length] == (byte)'/';
+	}
+
+	/** Parses a fetched response, if the {@linkplain RuntimeConfiguration#parseFilter parse filter} accepts it,
+	 * updating the related statistics.
+	 *
+	 * <p>The charset guessed by the parser (or {@code null}) is stored in {@link #guessedCharset}. The term count
+	 * to be used for spam detection (or {@code null}) is stored in {@link #termCount}: it must be passed to
+	 * {@link #updateSpammicity(VisitState, SpamTextProcessor.TermCount)} only if the fetch completes successfully,
+	 * as the response might be still being downloaded.
+	 *
+	 * @param fetchData a fetched response.
+	 * @param linkReceiver a link receiver for the links of the response.
+	 * @return the digest computed by the parser, or {@code null}.
+	 */
+	private byte[] parse(final FetchData fetchData, final LinkReceiver linkReceiver) {
+		final RuntimeConfiguration rc = frontier.rc;
+		final VisitState visitState = fetchData.visitState;
+		final URI url = fetchData.uri();
+		byte[] digest = null;
+		guessedCharset = null;
+		termCount = null;
+
+		final Header locationHeader = fetchData.response().getFirstHeader(HttpHeaders.LOCATION);
+		if (locationHeader != null) {
+			final URI location = BURL.parse(locationHeader.getValue());
+			if (location != null) {
+				// This shouldn't happen by standard, but people unfortunately does it.
+				if (! location.isAbsolute() && LOGGER.isDebugEnabled()) LOGGER.debug("Found relative header location URL: \"{}\"", location);
+				linkReceiver.location(fetchData.uri().resolve(location));
+			}
+		}
+
+		try {
+			if (rc.parseFilter.apply(fetchData)) {
+				boolean parserFound = false;
+				for (final Parser<?> parser: parsers)
+					if (parser.apply(fetchData)) {
+						parserFound = true;
+						try {
+							digest = parser.parse(fetchData.uri(), fetchData.response(), linkReceiver);
+							// Spam detection (NOTE: skipped if the parse() method throws an exception)
+							if (rc.spamDetector != null && (visitState.termCountUpdates < rc.spamDetectionThreshold || rc.spamDetectionPeriodicity != Integer.MAX_VALUE)) {
+								final Object result = parser.result();
+								if (result instanceof SpamTextProcessor.TermCount) termCount = (SpamTextProcessor.TermCount)result;
+							}
+						} catch(final BufferOverflowException e) {
+							LOGGER.warn("Buffer overflow during parsing of " + url + " with " + parser);
+						} catch(final IOException e) {
+							LOGGER.warn("An exception occurred while parsing " + url + " with " + parser, e);
+						}
+						guessedCharset = parser.guessedCharset();
+						break;
+					}
+				if (!parserFound) LOGGER.info("I'm not parsing page " + url + " because I could not find a suitable parser");
+
+				frontier.outdegree.add(linkReceiver.size());
+				final String currentHost = url.getHost();
+				int currentOutHostDegree = 0;
+				if (linkReceiver instanceof HTMLParser.ByteArraySetLinkReceiver) {
+					for(final byte[] u: ((HTMLParser.ByteArraySetLinkReceiver)linkReceiver).urls) if (! hasHost(u, currentHost)) currentOutHostDegree++;
+				}
+				else for(final URI u: linkReceiver) if(! currentHost.equals(u.getHost())) currentOutHostDegree++;
+				frontier.externalOutdegree.add(currentOutHostDegree);
+			}
+			else if (LOGGER.isDebugEnabled()) LOGGER.debug("I'm not parsing page " + url);
+		}
+		catch(final Exception e) {
+			// This mainly catches Jericho and network problems
+			LOGGER.warn("Exception during parsing of " + url, e);
+		}
+
+		return digest;
+	}
+
+	/** Updates the term count of a visit state with the term count of one of its pages, estimating again its spammicity if necessary.
+	 *
+	 * @param visitState a visit state.
+	 * @param termCount the term count of a page of {@code visitState}, as computed by {@link #parse(FetchData, LinkReceiver)}.
+	 */
 	@SuppressWarnings("unchecked")
+	private void updateSpammicity(final VisitState visitState, final SpamTextProcessor.TermCount termCount) {
+		final RuntimeConfiguration rc = frontier.rc;
+		final int termCountUpdates;
+		final float spammicity;
+		// Several parsing threads might be parsing pages of the same visit state.
+		synchronized (visitState) {
+			visitState.updateTermCount(termCount);
+			termCountUpdates = visitState.termCountUpdates;
+			if ((termCountUpdates - rc.spamDetectionThreshold) % rc.spamDetectionPeriodicity != 0) return;
+			spammicity = visitState.spammicity = (float)((SpamDetector<Short2ShortMap>)rc.spamDetector).estimate(visitState.termCount);
+		}
+		LOGGER.info("Spammicity for " + visitState + ": " + spammicity + " (" + termCountUpdates + " updates)");
+	}
+
+	/** Increments the {@linkplain Frontier#schemeAuthority2Count count of stored URLs} of the scheme+authority of a visit state,
+	 * {@linkplain VisitState#schedulePurge() scheduling its purge} if {@link RuntimeConfiguration#maxUrlsPerSchemeAuthority} has been reached.
+	 *
+	 * @param visitState the visit state of a stored URL.
+	 */
+	private void countStored(final VisitState visitState) {
+		// Soft, so we can change maxUrlsPerSchemeAuthority at runtime sensibly.
+		if (frontier.schemeAuthority2Count.addTo(visitState.schemeAuthority, 1) >= frontier.rc.maxUrlsPerSchemeAuthority - 1) {
+			LOGGER.info("Reached maximum number of URLs for scheme+authority " + it.unimi.di.law.bubing.util.Util.toString(visitState.schemeAuthority));
+			visitState.schedulePurge();
+		}
+	}
+
 	@Override
 	public void run() {
 		try {
@@ -262,16 +432,39 @@ public class ParsingThread extends Thread {
 					Thread.sleep(1 << Math.min(i, 10));
 				}
 
-				try { // This try/finally guarantees that we will release the visit state and signal back.
+				try { // This try/finally guarantees that we will give back the fetched response.
 					final VisitState visitState = fetchData.visitState;
 					if (LOGGER.isTraceEnabled()) LOGGER.trace("Got fetched response for visit state " + visitState);
 
+					HTMLParser.ByteArraySetLinkReceiver linkReceiver = null;
+					byte[] digest = null;
+
+					if (fetchData.streaming()) {
+						/* The response is still being downloaded: we parse it as it arrives, and then wait for
+						 * the download to complete. Filters and parsers have been already checked to be decidable
+						 * on the basis of headers only. If the fetch fails, the results of parsing (links and term count)
+						 * are discarded, as they are used only after the failure check below. */
+						try {
+							linkReceiver = rc.followFilter.apply(fetchData) ? new HTMLParser.ByteArraySetLinkReceiver() : null;
+							digest = parse(fetchData, linkReceiver != null ? linkReceiver : Parser.NULL_LINK_RECEIVER);
+						}
+						finally {
+							fetchData.awaitCompletion();
+							frontier.streamingParsePermits.release();
+						}
+					}
+
+					// Timeouts are the most telling sign of a struggling server
+					if (fetchData.responseTime != 0 || fetchData.exception instanceof InterruptedIOException) AdaptiveDelay.update(visitState, AdaptiveDelay.responseTime(fetchData));
+
 					// This is always the same, independently of what will happen.
 					final int entrySize = visitState.workbenchEntry.size();
-					long ipDelay = rc.ipDelay;
+					final long baseIpDelay = AdaptiveDelay.ipDelay(rc, visitState.workbenchEntry);
+					long ipDelay = baseIpDelay;
 					final int knownCount = frontier.agent.getKnownCount();
-					if (knownCount > 1 && rc.ipDelayFactor != 0) ipDelay = Math.max(ipDelay, (long)(rc.ipDelay * rc.ipDelayFactor * frontier.agent.getKnownCount() * entrySize / (entrySize + 1.)));
-							visitState.workbenchEntry.nextFetch = fetchData.endTime + ipDelay;
+					if (knownCount > 1 && rc.ipDelayFactor != 0) ipDelay = Math.max(ipDelay, (long)(baseIpDelay * rc.ipDelayFactor * frontier.agent.getKnownCount() * entrySize / (entrySize + 1.)));
+					// Responses of the same entry might be parsed out of order.
+					visitState.workbenchEntry.nextFetch = Math.max(visitState.workbenchEntry.nextFetch, fetchData.endTime + ipDelay);
 
 					if (fetchData.exception != null) {
 						LOGGER.warn("Exception while fetching " + fetchData.uri(), fetchData.exception);
@@ -304,32 +497,28 @@ public class ParsingThread extends Thread {
 								visitState.dequeue();
 								visitState.lastExceptionClass = null;
 								// Regular delay
-								visitState.nextFetch = fetchData.endTime + rc.schemeAuthorityDelay;
+								visitState.nextFetch = fetchData.endTime + AdaptiveDelay.schemeAuthorityDelay(rc, visitState);
 								LOGGER.info("URL " + fetchData.uri() + " killed by " + exceptionClass.getSimpleName());
 							}
 						}
 
 						continue;
 					}
-					else {
-						final byte[] firstPath = visitState.dequeue();
-						if (LOGGER.isTraceEnabled()) LOGGER.trace("Dequeuing " + it.unimi.di.law.bubing.util.Util.toString(firstPath) + " after fetching " + fetchData.uri() + "; " + (visitState.isEmpty() ? "visit state is now empty " : " first path now is " + it.unimi.di.law.bubing.util.Util.toString(visitState.firstPath())));
-						visitState.nextFetch = fetchData.endTime + rc.schemeAuthorityDelay; // Regular delay
-					}
-
-					if (visitState.lastExceptionClass != null) frontier.brokenVisitStates.decrementAndGet();
-					visitState.lastExceptionClass = null;
+					// The fetched path+query has been already dequeued by the fetching thread.
+					else visitState.nextFetch = Math.max(visitState.nextFetch, fetchData.endTime + AdaptiveDelay.schemeAuthorityDelay(rc, visitState)); // Regular delay
 
 					if (fetchData.robots) {
 						frontier.fetchedRobots.incrementAndGet();
 						frontier.robotsWarcParallelOutputStream.write(new HttpResponseWarcRecord(fetchData.uri(), fetchData.response()));
 
-						if ((visitState.robotsFilter = URLRespectsRobots.parseRobotsResponse(fetchData, rc.userAgent)) == null) {
+						if ((visitState.robots = URLRespectsRobots.compileRobotsResponse(fetchData, rc.userAgent, crawlDelay)) == null) {
 							// We go on getting/creating a workbench entry only if we have robots permissions.
 							visitState.schedulePurge();
 							LOGGER.warn("Visit state " + visitState + " killed by null robots.txt");
 						}
 
+						visitState.crawlDelay = crawlDelay[0];
+						if (crawlDelay[0] != 0 && LOGGER.isDebugEnabled()) LOGGER.debug("Crawl-delay for visit state " + visitState + " is " + crawlDelay[0] + " ms");
 						visitState.lastRobotsFetch = fetchData.endTime;
 						continue;
 					}
@@ -337,64 +526,40 @@ public class ParsingThread extends Thread {
 					final URI url = fetchData.uri();
 
 					frontier.fetchedResources.incrementAndGet();
-
-					byte[] digest = null;
-					String guessedCharset = null;
-					final LinkReceiver linkReceiver = rc.followFilter.apply(fetchData) ? new HTMLParser.SetLinkReceiver() : Parser.NULL_LINK_RECEIVER;
-
-					frontierLinkReceiver.init(fetchData.uri(), visitState.schemeAuthority, visitState.robotsFilter);
-					final long streamLength = fetchData.response().getEntity().getContentLength();
-
-					final Header locationHeader = fetchData.response().getFirstHeader(HttpHeaders.LOCATION);
-					if (locationHeader != null) {
-						final URI location = BURL.parse(locationHeader.getValue());
-						if (location != null) {
-							// This shouldn't happen by standard, but people unfortunately does it.
-							if (! location.isAbsolute() && LOGGER.isDebugEnabled()) LOGGER.debug("Found relative header location URL: \"{}\"", location);
-							linkReceiver.location(fetchData.uri().resolve(location));
+					if (visitState.ipAddress.length == 16) frontier.fetchedResourcesIPv6.incrementAndGet();
+
+					final int status = fetchData.response().getStatusLine().getStatusCode();
+					if (status == HttpStatus.SC_NOT_MODIFIED && fetchData.validators != null) {
+						/* The page has not changed since the previous crawl: we just record a revisit. Since the page
+						 * is not parsed, its outlinks are not enqueued again. */
+						frontier.notModified.incrementAndGet();
+						if (frontier.validatorWriter != null) {
+							final ValidatorMap.Validators validators = ValidatorMap.Validators.of(fetchData.response());
+							frontier.validatorWriter.add(url, validators != null ? validators : fetchData.validators);
 						}
-					}
-
-					try {
-						if (rc.parseFilter.apply(fetchData)) {
-							boolean parserFound = false;
-							for (final Parser<?> parser: parsers)
-								if (parser.apply(fetchData)) {
-									parserFound = true;
-									try {
-										digest = parser.parse(fetchData.uri(), fetchData.response(), linkReceiver);
-										// Spam detection (NOTE: skipped if the parse() method throws an exception)
-										if (rc.spamDetector != null && (visitState.termCountUpdates < rc.spamDetectionThreshold || rc.spamDetectionPeriodicity != Integer.MAX_VALUE)) {
-											final Object result = parser.result();
-											if (result instanceof SpamTextProcessor.TermCount) visitState.updateTermCount((SpamTextProcessor.TermCount)result);
-											if ((visitState.termCountUpdates - rc.spamDetectionThreshold) % rc.spamDetectionPeriodicity == 0) {
-												visitState.spammicity = (float)((SpamDetector<Short2ShortMap>)rc.spamDetector).estimate(visitState.termCount);
-												LOGGER.info("Spammicity for " + visitState + ": " + visitState.spammicity + " (" + visitState.termCountUpdates + " updates)");
-											}
-										}
-									} catch(final BufferOverflowException e) {
-										LOGGER.warn("Buffer overflow during parsing of " + url + " with " + parser);
-									} catch(final IOException e) {
-										LOGGER.warn("An exception occurred while parsing " + url + " with " + parser, e);
-									}
-									guessedCharset = parser.guessedCharset();
-									break;
-								}
-							if (!parserFound) LOGGER.info("I'm not parsing page " + url + " because I could not find a suitable parser");
-
-							frontier.outdegree.add(linkReceiver.size());
-							final String currentHost = url.getHost();
-							int currentOutHostDegree = 0;
-							for(final URI u: linkReceiver) if(! currentHost.equals(u.getHost())) currentOutHostDegree++;
-							frontier.externalOutdegree.add(currentOutHostDegree);
+						final boolean mustBeStored = rc.storeFilter.apply(fetchData);
+						if (mustBeStored) {
+							// A revisit stands for a stored page, so it counts towards the limit of the scheme+authority.
+							countStored(visitState);
+							store.storeRevisit(url, fetchData.response());
 						}
-						else if (LOGGER.isDebugEnabled()) LOGGER.debug("I'm not parsing page " + url);
+						if (LOGGER.isDebugEnabled()) LOGGER.debug("Fetched " + url + " (not modified; " + (mustBeStored ? "stored" : "not stored") + ")");
+						continue;
 					}
-					catch(final Exception e) {
-						// This mainly catches Jericho and network problems
-						LOGGER.warn("Exception during parsing of " + url, e);
+
+					if (frontier.validatorWriter != null && status / 100 == 2) frontier.validatorWriter.add(url, ValidatorMap.Validators.of(fetchData.response()));
+
+					if (! fetchData.streaming()) {
+						linkReceiver = rc.followFilter.apply(fetchData) ? new HTMLParser.ByteArraySetLinkReceiver() : null;
+						digest = parse(fetchData, linkReceiver != null ? linkReceiver : Parser.NULL_LINK_RECEIVER);
 					}
 
+					// Only now we know that the fetch of a streamed response was successful
+					if (termCount != null) updateSpammicity(visitState, termCount);
+
+					frontierLinkReceiver.init(fetchData.uri(), visitState.schemeAuthority, visitState.robots);
+					final long streamLength = fetchData.response().getEntity().getContentLength();
+
 					final boolean mustBeStored = rc.storeFilter.apply(fetchData);
 
 					if (digest == null) {
@@ -406,18 +571,17 @@ public class ParsingThread extends Thread {
 
 					final boolean isNotDuplicate = streamLength == 0 || frontier.digests.addHash(digest); // Essentially thread-safe; we do not consider zero-content pages as duplicates
 					if (LOGGER.isTraceEnabled()) LOGGER.trace("Decided that for {} isNotDuplicate={}", url, Boolean.valueOf(isNotDuplicate));
-					if (isNotDuplicate) for(final URI u: linkReceiver) frontierLinkReceiver.enqueue(u);
+					if (isNotDuplicate && linkReceiver != null) {
+						for(final byte[] u: linkReceiver.urls) frontierLinkReceiver.enqueue(u);
+						frontierLinkReceiver.distributeImportance(visitState);
+					}
 					else fetchData.isDuplicate(true);
 
 					// ALERT: store exceptions should cause shutdown.
 					final String result;
 					if (mustBeStored) {
 						if (isNotDuplicate) {
-							// Soft, so we can change maxUrlsPerSchemeAuthority at runtime sensibly.
-							if (frontier.schemeAuthority2Count.addTo(visitState.schemeAuthority, 1) >= rc.maxUrlsPerSchemeAuthority - 1) {
-								LOGGER.info("Reached maximum number of URLs for scheme+authority " + it.unimi.di.law.bubing.util.Util.toString(visitState.schemeAuthority));
-								visitState.schedulePurge();
-							}
+							countStored(visitState);
 							final int code = fetchData.response().getStatusLine().getStatusCode() / 100;
 							if (code > 0 && code < 6) frontier.archetypesStatus[code].incrementAndGet();
 							else frontier.archetypesStatus[0].incrementAndGet();
@@ -446,10 +610,7 @@ public class ParsingThread extends Thread {
 					if (LOGGER.isDebugEnabled()) LOGGER.debug("Fetched " + url + " (" + Util.formatSize((long)(1000.0 * fetchData.length() / (fetchData.endTime - fetchData.startTime + 1)), formatDouble) + "B/s; " + frontierLinkReceiver.scheduledLinks + "/" + frontierLinkReceiver.outlinks + "; " + result + ")");
 				}
 				finally {
-					synchronized(fetchData) {
-						fetchData.inUse = false;
-						fetchData.notify();
-					}
+					fetchData.recycleQueue.add(fetchData);
 				}
 			}
 		}
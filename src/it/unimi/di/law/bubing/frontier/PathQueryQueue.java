@@ -0,0 +1,310 @@
+package it.unimi.di.law.bubing.frontier;
+
+/*
+ * Copyright (C) 2012-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import it.unimi.dsi.fastutil.bytes.ByteArrays;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import java.util.NoSuchElementException;
+
+//RELEASE-STATUS: DIST
+
+/** A compact FIFO queue of path+queries in byte-array representation, used by {@link VisitState}.
+ *
+ * <p>Path+queries are front coded against the previously enqueued path+query (which has the same scheme+authority, and
+ * thus very often shares a long prefix) and stored back to back in a single byte array: each path+query
+ * is represented by the length of the common prefix and by the length of the remaining suffix (both in variable-length
+ * format), followed by the suffix. Thus, there are no per-path+query object headers or references.
+ *
+ * <p>The first element of the queue is always kept decoded, and it is returned by {@link #first()} and {@link #dequeue()}
+ * <em>by reference</em> (i.e., the same array is returned until the element is dequeued), as {@link VisitState#dequeue(byte[])} relies
+ * on reference comparison. Elements can be put at the front of the queue using {@link #enqueueFirst(byte[], int)}: they are kept
+ * decoded in a separate stack, as they are usually very few (e.g., the <code>/robots.txt</code> path).
+ *
+ * <p>Every element has a <em>cost</em>, which is the number of bytes it uses in the encoded representation (for elements enqueued
+ * by {@link #enqueue(byte[])}), or a cost specified by the caller (for elements enqueued by {@link #enqueueFirst(byte[], int)}).
+ * The overall cost of the elements in the queue is returned by {@link #weight()}.
+ *
+ * <p>The cost does not include the decoded first and last elements, the internal objects and the free space of the internal buffer:
+ * an estimate of the overall memory used by the queue is returned by {@link #footprint()}. The buffer is released when the coded part
+ * of the queue becomes empty, and it is shrunk when it is less than one fourth full, so the footprint of a queue is bounded by a
+ * constant factor of the memory actually needed.
+ *
+ * <p>Instances of this class are not synchronized.
+ */
+
+public final class PathQueryQueue {
+	/** The minimum length of a nonempty {@link #buffer}. */
+	private static final int MIN_BUFFER_LENGTH = 64;
+	/** An estimate of the memory used by a nonempty queue besides its arrays (the queue itself and its two lists). */
+	public static final int FIXED_FOOTPRINT = 128;
+	/** An estimate of the memory used by the header of an array. */
+	private static final int ARRAY_HEADER = 16;
+
+	/** Elements put at the front of the queue by {@link #enqueueFirst(byte[], int)}; the last element is the first of the queue. */
+	private final ObjectArrayList<byte[]> front;
+	/** The costs of the elements of {@link #front}. */
+	private final IntArrayList frontCost;
+	/** The first element of the coded part of the queue, decoded, or {@code null} if the coded part is empty. */
+	private byte[] head;
+	/** The cost of {@link #head}. */
+	private int headCost;
+	/** The last element of the coded part of the queue (the reference for the front coding of the next element). */
+	private byte[] tail;
+	/** The coded elements following {@link #head}, stored between {@link #start} (inclusive) and {@link #end} (exclusive). */
+	private byte[] buffer;
+	/** The start of the coded elements in {@link #buffer}. */
+	private int start;
+	/** The end of the coded elements in {@link #buffer}. */
+	private int end;
+	/** The number of elements in the queue. */
+	private int size;
+	/** The overall cost of the elements in the queue. */
+	private long weight;
+
+	/** Creates a new empty queue. */
+	public PathQueryQueue() {
+		front = new ObjectArrayList<>(0);
+		frontCost = new IntArrayList(0);
+		buffer = ByteArrays.EMPTY_ARRAY;
+	}
+
+	/** Returns the number of bytes used by a natural number in variable-length format.
+	 *
+	 * @param x a natural number.
+	 * @return the number of bytes used by {@code x} in variable-length format.
+	 */
+	private static int vByteLength(int x) {
+		int length = 1;
+		while((x >>>= 7) != 0) length++;
+		return length;
+	}
+
+	/** Writes a natural number in variable-length format (seven bits per byte, least significant first, with the most significant bit set
+	 * if more bytes follow).
+	 *
+	 * @param x a natural number.
+	 */
+	private void writeVByte(int x) {
+		while((x & ~0x7F) != 0) {
+			buffer[end++] = (byte)(x & 0x7F | 0x80);
+			x >>>= 7;
+		}
+		buffer[end++] = (byte)x;
+	}
+
+	/** Reads a natural number in variable-length format at {@link #start}, advancing {@link #start}.
+	 *
+	 * @return the natural number.
+	 */
+	private int readVByte() {
+		int x = 0;
+		for(int shift = 0;; shift += 7) {
+			final byte b = buffer[start++];
+			x |= (b & 0x7F) << shift;
+			if (b >= 0) return x;
+		}
+	}
+
+	/** Ensures that the buffer can contain a given number of additional bytes, compacting it or enlarging it if necessary.
+	 *
+	 * @param needed the number of additional bytes.
+	 */
+	private void ensureFree(final int needed) {
+		if (end + needed <= buffer.length) return;
+		final int used = end - start;
+		final byte[] newBuffer = used + needed <= buffer.length / 2 ? buffer : new byte[Math.max(MIN_BUFFER_LENGTH, Math.max(buffer.length * 2, used + needed))];
+		System.arraycopy(buffer, start, newBuffer, 0, used);
+		buffer = newBuffer;
+		start = 0;
+		end = used;
+	}
+
+	/** Enqueues a path+query at the end of the queue.
+	 *
+	 * <p>Note that a reference to {@code pathQuery} might be kept by this queue: the array must not be modified afterwards.
+	 *
+	 * @param pathQuery a path+query.
+	 * @return the cost of {@code pathQuery}, that is, the number of bytes it uses in this queue.
+	 */
+	public int enqueue(final byte[] pathQuery) {
+		final int length = pathQuery.length;
+		final int cost;
+		if (head == null) {
+			// The coded part is empty: the element becomes the head
+			head = tail = pathQuery;
+			headCost = cost = vByteLength(0) + vByteLength(length) + length;
+		}
+		else {
+			final byte[] tail = this.tail;
+			final int maxPrefix = Math.min(tail.length, length);
+			int prefix = 0;
+			while(prefix < maxPrefix && tail[prefix] == pathQuery[prefix]) prefix++;
+			final int suffix = length - prefix;
+			cost = vByteLength(prefix) + vByteLength(suffix) + suffix;
+			ensureFree(cost);
+			writeVByte(prefix);
+			writeVByte(suffix);
+			System.arraycopy(pathQuery, prefix, buffer, end, suffix);
+			end += suffix;
+			this.tail = pathQuery;
+		}
+		size++;
+		weight += cost;
+		return cost;
+	}
+
+	/** Enqueues a path+query at the front of the queue.
+	 *
+	 * @param pathQuery a path+query.
+	 * @param cost the cost to be associated with {@code pathQuery} (usually, the cost returned by {@link #firstCost()} when {@code pathQuery}
+	 * was previously dequeued, or zero).
+	 */
+	public void enqueueFirst(final byte[] pathQuery, final int cost) {
+		front.add(pathQuery);
+		frontCost.add(cost);
+		size++;
+		weight += cost;
+	}
+
+	/** Returns the first path+query of the queue.
+	 *
+	 * @return the first path+query of the queue.
+	 * @throws NoSuchElementException if the queue is empty.
+	 */
+	public byte[] first() {
+		if (size == 0) throw new NoSuchElementException();
+		return front.isEmpty() ? head : front.get(front.size() - 1);
+	}
+
+	/** Returns the cost of the first path+query of the queue.
+	 *
+	 * @return the cost of the first path+query of the queue.
+	 * @throws NoSuchElementException if the queue is empty.
+	 */
+	public int firstCost() {
+		if (size == 0) throw new NoSuchElementException();
+		return front.isEmpty() ? headCost : frontCost.getInt(frontCost.size() - 1);
+	}
+
+	/** Removes the first path+query of the queue.
+	 *
+	 * @return the first path+query of the queue (the same array returned by {@link #first()}).
+	 * @throws NoSuchElementException if the queue is empty.
+	 */
+	public byte[] dequeue() {
+		if (size == 0) throw new NoSuchElementException();
+		size--;
+		if (! front.isEmpty()) {
+			weight -= frontCost.removeInt(frontCost.size() - 1);
+			return front.remove(front.size() - 1);
+		}
+
+		final byte[] result = head;
+		weight -= headCost;
+		if (start == end) {
+			head = tail = null;
+			buffer = ByteArrays.EMPTY_ARRAY;
+			start = end = 0;
+		}
+		else {
+			// We decode the next element
+			final int p = start;
+			final int prefix = readVByte();
+			final int suffix = readVByte();
+			head = new byte[prefix + suffix];
+			System.arraycopy(result, 0, head, 0, prefix);
+			System.arraycopy(buffer, start, head, prefix, suffix);
+			start += suffix;
+			headCost = start - p;
+			if (start == end) {
+				// The head is also the tail: we avoid keeping a reference to a different array with the same content
+				tail = head;
+				buffer = ByteArrays.EMPTY_ARRAY;
+				start = end = 0;
+			}
+			else shrink();
+		}
+		return result;
+	}
+
+	/** Shrinks the buffer if it is less than one fourth full, leaving it half full. */
+	private void shrink() {
+		final int used = end - start;
+		if (buffer.length <= MIN_BUFFER_LENGTH || used >= buffer.length / 4) return;
+		final byte[] newBuffer = new byte[Math.max(MIN_BUFFER_LENGTH, 2 * used)];
+		System.arraycopy(buffer, start, newBuffer, 0, used);
+		buffer = newBuffer;
+		start = 0;
+		end = used;
+	}
+
+	/** Returns the number of path+queries in the queue.
+	 *
+	 * @return the number of path+queries in the queue.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/** Returns whether the queue is empty.
+	 *
+	 * @return whether the queue is empty.
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/** Returns the overall cost of the path+queries in the queue.
+	 *
+	 * @return the overall cost of the path+queries in the queue.
+	 */
+	public long weight() {
+		return weight;
+	}
+
+	/** Returns an estimate of the memory used by this queue, in bytes.
+	 *
+	 * <p>The estimate includes the internal buffer (including its free space), the decoded first and last elements,
+	 * the elements put at the front of the queue and {@link #FIXED_FOOTPRINT}. It is zero if the queue is empty.
+	 *
+	 * @return an estimate of the memory used by this queue, in bytes.
+	 */
+	public long footprint() {
+		if (size == 0) return 0;
+		long footprint = FIXED_FOOTPRINT;
+		if (buffer.length != 0) footprint += ARRAY_HEADER + buffer.length;
+		if (head != null) footprint += ARRAY_HEADER + head.length;
+		if (tail != null && tail != head) footprint += ARRAY_HEADER + tail.length;
+		for(int i = front.size(); i-- != 0;) footprint += ARRAY_HEADER + front.get(i).length;
+		return footprint;
+	}
+
+	/** Trims the internal buffer so that it contains exactly the coded path+queries. */
+	public void trim() {
+		final int used = end - start;
+		if (used == buffer.length) return;
+		final byte[] newBuffer = used == 0 ? ByteArrays.EMPTY_ARRAY : new byte[used];
+		System.arraycopy(buffer, start, newBuffer, 0, used);
+		buffer = newBuffer;
+		start = 0;
+		end = used;
+		front.trim();
+		frontCost.trim();
+	}
+}
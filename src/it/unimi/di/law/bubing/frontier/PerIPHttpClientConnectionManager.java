@@ -0,0 +1,283 @@
+package it.unimi.di.law.bubing.frontier;
+
+/*
+ * Copyright (C) 2012-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.config.ConnectionConfig;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.IdleConnectionEvictor;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+
+import it.unimi.di.law.bubing.RuntimeConfiguration;
+import it.unimi.di.law.bubing.util.TokenBucket;
+
+//RELEASE-STATUS: DIST
+
+/** A connection manager shared by all {@linkplain FetchingThread fetching threads} that pools connections by IP address.
+ *
+ * <p>Routes are keyed by the IP address embedded in the target host (which is set by {@link it.unimi.di.law.bubing.util.FetchData}
+ * to the address of the {@link WorkbenchEntry} of the visit state): plain HTTP routes are canonicalized so that
+ * their target is the IP address, and thus all schemes+authorities sharing an IP address share their connections, too.
+ * In this way, a connection left open by a thread can be reused by a different thread fetching
+ * from the same {@link WorkbenchEntry}, saving a TCP handshake. Routes using TLS or a proxy are left unchanged,
+ * as their connections depend on the host name.
+ *
+ * <p>TLS connections are created using the {@linkplain Frontier#sslContext SSL context of the frontier}, whose client
+ * session cache is thus shared by all threads: repeated visits to the same scheme+authority can resume a previous
+ * TLS session using an abbreviated handshake. The number and duration of full and resumed handshakes
+ * are recorded in {@link Frontier#tlsHandshakes}, {@link Frontier#tlsResumedHandshakes} and {@link Frontier#tlsHandshakeTimeSum}.
+ *
+ * <p>All sockets read data through the {@linkplain Frontier#bandwidthBucket bandwidth bucket of the frontier} and,
+ * if the context of the request contains a {@link TokenBucket} under the attribute {@link #IP_BANDWIDTH_BUCKET}, through it, too
+ * (usually, the {@linkplain WorkbenchEntry#bandwidthBucket bucket of the workbench entry}); in this way,
+ * {@link RuntimeConfiguration#bandwidth} and {@link RuntimeConfiguration#bandwidthPerIP} are enforced on the bytes actually
+ * received from the network, headers and TLS overhead included. Since a connection is bound to an IP address, the per-IP
+ * bucket of a pooled connection is the one of the request that created it.
+ *
+ * <p>The number of connections is bounded by {@link RuntimeConfiguration#connectionPoolMaxTotal} and by
+ * {@link RuntimeConfiguration#connectionPoolMaxPerIP} for each IP address; connections idle for more
+ * than {@link RuntimeConfiguration#connectionPoolIdleTime} milliseconds are closed by a background thread.
+ */
+public final class PerIPHttpClientConnectionManager implements HttpClientConnectionManager, Closeable {
+	/** The context attribute containing the {@link TokenBucket} used to enforce {@link RuntimeConfiguration#bandwidthPerIP}. */
+	public static final String IP_BANDWIDTH_BUCKET = "bubing.ip-bandwidth-bucket";
+
+	/** The underlying pooling connection manager. */
+	private final PoolingHttpClientConnectionManager connManager;
+	/** The thread closing idle connections. */
+	private final IdleConnectionEvictor idleConnectionEvictor;
+
+	/** An input stream reading data from a socket at a rate limited by token buckets. */
+	private static final class ThrottledInputStream extends FilterInputStream {
+		/** The runtime configuration. */
+		private final RuntimeConfiguration rc;
+		/** The bucket enforcing {@link RuntimeConfiguration#bandwidth}. */
+		private final TokenBucket bandwidthBucket;
+		/** The bucket enforcing {@link RuntimeConfiguration#bandwidthPerIP}, or {@code null}. */
+		private final TokenBucket ipBandwidthBucket;
+
+		public ThrottledInputStream(final InputStream in, final RuntimeConfiguration rc, final TokenBucket bandwidthBucket, final TokenBucket ipBandwidthBucket) {
+			super(in);
+			this.rc = rc;
+			this.bandwidthBucket = bandwidthBucket;
+			this.ipBandwidthBucket = ipBandwidthBucket;
+		}
+
+		/** Consumes tokens for the given number of bytes, waiting if necessary.
+		 *
+		 * @param length the number of bytes just read.
+		 */
+		private void throttle(final long length) throws InterruptedIOException {
+			final long wait = Math.max(bandwidthBucket.reserve(length, rc.bandwidth), ipBandwidthBucket == null ? 0 : ipBandwidthBucket.reserve(length, rc.bandwidthPerIP));
+			try {
+				TokenBucket.sleep(wait);
+			}
+			catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+		}
+
+		@Override
+		public int read() throws IOException {
+			final int b = in.read();
+			if (b != -1) throttle(1);
+			return b;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			final int r = in.read(b, off, len);
+			if (r > 0) throttle(r);
+			return r;
+		}
+	}
+
+	/** A socket whose input stream is a {@link ThrottledInputStream}. Layered (i.e., TLS) sockets read from the underlying socket,
+	 * so they are throttled, too. */
+	private static final class ThrottledSocket extends Socket {
+		/** The runtime configuration. */
+		private final RuntimeConfiguration rc;
+		/** The bucket enforcing {@link RuntimeConfiguration#bandwidth}. */
+		private final TokenBucket bandwidthBucket;
+		/** The bucket enforcing {@link RuntimeConfiguration#bandwidthPerIP}, or {@code null}. */
+		private final TokenBucket ipBandwidthBucket;
+		/** The input stream of this socket, created lazily. */
+		private InputStream inputStream;
+
+		public ThrottledSocket(final Frontier frontier, final HttpContext context) {
+			this.rc = frontier.rc;
+			this.bandwidthBucket = frontier.bandwidthBucket;
+			final Object ipBandwidthBucket = context != null ? context.getAttribute(IP_BANDWIDTH_BUCKET) : null;
+			this.ipBandwidthBucket = ipBandwidthBucket instanceof TokenBucket ? (TokenBucket)ipBandwidthBucket : null;
+		}
+
+		@Override
+		public synchronized InputStream getInputStream() throws IOException {
+			if (inputStream == null) inputStream = new ThrottledInputStream(super.getInputStream(), rc, bandwidthBucket, ipBandwidthBucket);
+			return inputStream;
+		}
+	}
+
+	/** A plain socket factory creating {@linkplain ThrottledSocket throttled sockets}. */
+	private static final class ThrottledPlainConnectionSocketFactory extends PlainConnectionSocketFactory {
+		/** A reference to the frontier. */
+		private final Frontier frontier;
+
+		public ThrottledPlainConnectionSocketFactory(final Frontier frontier) {
+			this.frontier = frontier;
+		}
+
+		@Override
+		public Socket createSocket(final HttpContext context) {
+			return new ThrottledSocket(frontier, context);
+		}
+	}
+
+	/** A TLS socket factory using the SSL context of the frontier that keeps track of handshakes and
+	 * layers TLS on {@linkplain ThrottledSocket throttled sockets}. */
+	private static final class TimingSSLConnectionSocketFactory extends SSLConnectionSocketFactory {
+		/** A reference to the frontier. */
+		private final Frontier frontier;
+
+		public TimingSSLConnectionSocketFactory(final Frontier frontier) {
+			super(frontier.sslContext, FetchingThread.SSL_PROTOCOLS, null, NoopHostnameVerifier.INSTANCE);
+			this.frontier = frontier;
+		}
+
+		@Override
+		public Socket createSocket(final HttpContext context) {
+			return new ThrottledSocket(frontier, context);
+		}
+
+		@Override
+		public Socket createLayeredSocket(final Socket socket, final String target, final int port, final HttpContext context) throws IOException {
+			final long start = System.currentTimeMillis();
+			final long startNanos = System.nanoTime();
+			final Socket layeredSocket = super.createLayeredSocket(socket, target, port, context); // This performs the handshake
+			frontier.tlsHandshakeTimeSum.addAndGet(System.nanoTime() - startNanos);
+			frontier.tlsHandshakes.incrementAndGet();
+			if (layeredSocket instanceof SSLSocket) {
+				final SSLSession session = ((SSLSocket)layeredSocket).getSession();
+				// A session created before the handshake started has been resumed from the cache.
+				if (session.getCreationTime() < start) frontier.tlsResumedHandshakes.incrementAndGet();
+			}
+			return layeredSocket;
+		}
+	}
+
+	/** Creates a new connection manager.
+	 *
+	 * @param frontier the frontier.
+	 */
+	public PerIPHttpClientConnectionManager(final Frontier frontier) {
+		final RuntimeConfiguration rc = frontier.rc;
+		final Registry<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory> create()
+				.register("http", new ThrottledPlainConnectionSocketFactory(frontier))
+				.register("https", new TimingSSLConnectionSocketFactory(frontier))
+				.build();
+		connManager = new PoolingHttpClientConnectionManager(registry, null, null, rc.dnsResolver, -1, TimeUnit.MILLISECONDS);
+		connManager.setDefaultConnectionConfig(ConnectionConfig.custom().setBufferSize(8 * 1024).build()); // TODO: make this configurable
+		connManager.setMaxTotal(rc.connectionPoolMaxTotal);
+		connManager.setDefaultMaxPerRoute(rc.connectionPoolMaxPerIP);
+		// Servers close idle connections without notice: we check pooled connections before reusing them.
+		connManager.setValidateAfterInactivity(1000);
+		idleConnectionEvictor = new IdleConnectionEvictor(connManager, Math.max(1, rc.connectionPoolIdleTime / 2), TimeUnit.MILLISECONDS, rc.connectionPoolIdleTime, TimeUnit.MILLISECONDS);
+		idleConnectionEvictor.start();
+	}
+
+	/** Returns the route actually used to pool connections for a given route.
+	 *
+	 * @param route a route.
+	 * @return {@code route}, if it uses TLS or a proxy, or its target has no embedded IP address; otherwise,
+	 * a route whose target host name is the textual representation of the IP address.
+	 */
+	static HttpRoute canonicalize(final HttpRoute route) {
+		final HttpHost target = route.getTargetHost();
+		final InetAddress address = target.getAddress();
+		if (address == null || route.isSecure() || route.getProxyHost() != null) return route;
+		return new HttpRoute(new HttpHost(address, address.getHostAddress(), target.getPort(), target.getSchemeName()), route.getLocalAddress(), false);
+	}
+
+	@Override
+	public ConnectionRequest requestConnection(final HttpRoute route, final Object state) {
+		return connManager.requestConnection(canonicalize(route), state);
+	}
+
+	@Override
+	public void releaseConnection(final HttpClientConnection conn, final Object newState, final long validDuration, final TimeUnit timeUnit) {
+		connManager.releaseConnection(conn, newState, validDuration, timeUnit);
+	}
+
+	@Override
+	public void connect(final HttpClientConnection conn, final HttpRoute route, final int connectTimeout, final HttpContext context) throws IOException {
+		connManager.connect(conn, canonicalize(route), connectTimeout, context);
+	}
+
+	@Override
+	public void upgrade(final HttpClientConnection conn, final HttpRoute route, final HttpContext context) throws IOException {
+		connManager.upgrade(conn, canonicalize(route), context);
+	}
+
+	@Override
+	public void routeComplete(final HttpClientConnection conn, final HttpRoute route, final HttpContext context) throws IOException {
+		connManager.routeComplete(conn, canonicalize(route), context);
+	}
+
+	@Override
+	public void closeIdleConnections(final long idletime, final TimeUnit tunit) {
+		connManager.closeIdleConnections(idletime, tunit);
+	}
+
+	@Override
+	public void closeExpiredConnections() {
+		connManager.closeExpiredConnections();
+	}
+
+	@Override
+	public void shutdown() {
+		idleConnectionEvictor.shutdown();
+		connManager.shutdown();
+	}
+
+	@Override
+	public void close() {
+		shutdown();
+	}
+}
@@ -0,0 +1,263 @@
+package it.unimi.di.law.bubing.frontier;
+
+/*
+ * Copyright (C) 2012-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import it.unimi.di.law.bubing.frontier.priority.PathQueryPriority;
+import it.unimi.di.law.bubing.util.Util;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+//RELEASE-STATUS: DIST
+
+/** A queue of path+queries with priority levels, used by {@link VisitState}.
+ *
+ * <p>Every path+query is enqueued with a {@linkplain PathQueryPriority#level(byte[]) priority level}: level zero is the highest priority.
+ * Each level is a {@link PathQueryQueue}, so path+queries with the same level are dequeued in FIFO order, and they are front coded.
+ * Queues for levels other than zero are created lazily, so a queue in which all path+queries have level zero (e.g., because no
+ * {@link PathQueryPriority} has been configured) behaves exactly like a {@link PathQueryQueue}.
+ *
+ * <p>The {@linkplain #first() first path+query} never changes as a result of {@link #enqueue(byte[], int)} or
+ * {@link #replaceWorse(byte[], int)}: when a path+query with a better level than the current first path+query is
+ * enqueued, the latter is <em>pinned</em>, that is, it is moved to the front of level zero. This is necessary, as the first path+query
+ * of an {@linkplain VisitState#acquired acquired} visit state might be still being fetched. Elements put at the front of the queue
+ * using {@link #enqueueFirst(byte[], int)} are also put at the front of level zero.
+ *
+ * <p>Instances of this class are not synchronized.
+ */
+
+public final class PriorityPathQueryQueue {
+	/** The queues, one for each level; queues for levels other than zero might be {@code null}. */
+	private PathQueryQueue[] queue;
+
+	/** Creates a new empty queue. */
+	public PriorityPathQueryQueue() {
+		queue = new PathQueryQueue[] { new PathQueryQueue() };
+	}
+
+	/** Returns the queue for a given level, creating it if necessary.
+	 *
+	 * @param level a level.
+	 * @return the queue for {@code level}.
+	 */
+	private PathQueryQueue queue(final int level) {
+		if (level >= queue.length) queue = Arrays.copyOf(queue, level + 1);
+		if (queue[level] == null) queue[level] = new PathQueryQueue();
+		return queue[level];
+	}
+
+	/** Returns the best (i.e., smallest) level with a nonempty queue, that is, the level of the {@linkplain #first() first path+query}
+	 * (which is zero if the first path+query has been pinned).
+	 *
+	 * @return the best level with a nonempty queue, or -1 if this queue is empty.
+	 */
+	public int firstLevel() {
+		for(int level = 0; level < queue.length; level++) if (queue[level] != null && ! queue[level].isEmpty()) return level;
+		return -1;
+	}
+
+	/** Returns the worst (i.e., largest) level with a nonempty queue.
+	 *
+	 * @return the worst level with a nonempty queue, or -1 if this queue is empty.
+	 */
+	private int worstLevel() {
+		for(int level = queue.length; level-- != 0;) if (queue[level] != null && ! queue[level].isEmpty()) return level;
+		return -1;
+	}
+
+	/** Moves the first path+query to the front of level zero, if it is not already at level zero. */
+	private void pinFirst() {
+		final int firstLevel = firstLevel();
+		if (firstLevel <= 0) return;
+		final PathQueryQueue q = queue[firstLevel];
+		final int cost = q.firstCost();
+		queue[0].enqueueFirst(q.dequeue(), cost);
+	}
+
+	/** Enqueues a path+query with a given level.
+	 *
+	 * <p>Note that a reference to {@code pathQuery} might be kept by this queue: the array must not be modified afterwards.
+	 *
+	 * @param pathQuery a path+query.
+	 * @param level the level of {@code pathQuery}.
+	 * @return the cost of {@code pathQuery} (see {@link PathQueryQueue#enqueue(byte[])}).
+	 */
+	public int enqueue(final byte[] pathQuery, final int level) {
+		final int firstLevel = firstLevel();
+		if (firstLevel != -1 && level < firstLevel) pinFirst();
+		return queue(level).enqueue(pathQuery);
+	}
+
+	/** Enqueues a path+query with a given level in place of a path+query with a worse level, if any.
+	 *
+	 * <p>The path+query replaced is the first one of the worst nonempty level, excluding the {@linkplain #first() first path+query}.
+	 *
+	 * @param pathQuery a path+query.
+	 * @param level the level of {@code pathQuery}.
+	 * @return the path+query that has been replaced by {@code pathQuery} and removed from this queue, or {@code null} if
+	 * there is no path+query with a level worse than {@code level}, in which case {@code pathQuery} has not been enqueued.
+	 */
+	public byte[] replaceWorse(final byte[] pathQuery, final int level) {
+		// After pinning, the first path+query is at level zero, so it cannot be replaced
+		pinFirst();
+		final int worstLevel = worstLevel();
+		if (worstLevel <= level) return null;
+		final byte[] replaced = queue[worstLevel].dequeue();
+		queue(level).enqueue(pathQuery);
+		return replaced;
+	}
+
+	/** Enqueues a path+query at the front of the queue.
+	 *
+	 * @param pathQuery a path+query.
+	 * @param cost the cost to be associated with {@code pathQuery} (see {@link PathQueryQueue#enqueueFirst(byte[], int)}).
+	 */
+	public void enqueueFirst(final byte[] pathQuery, final int cost) {
+		queue[0].enqueueFirst(pathQuery, cost);
+	}
+
+	/** Returns the first path+query of the queue.
+	 *
+	 * @return the first path+query of the queue.
+	 * @throws NoSuchElementException if the queue is empty.
+	 */
+	public byte[] first() {
+		final int firstLevel = firstLevel();
+		if (firstLevel == -1) throw new NoSuchElementException();
+		return queue[firstLevel].first();
+	}
+
+	/** Returns the cost of the first path+query of the queue.
+	 *
+	 * @return the cost of the first path+query of the queue.
+	 * @throws NoSuchElementException if the queue is empty.
+	 */
+	public int firstCost() {
+		final int firstLevel = firstLevel();
+		if (firstLevel == -1) throw new NoSuchElementException();
+		return queue[firstLevel].firstCost();
+	}
+
+	/** Removes the first path+query of the queue.
+	 *
+	 * @return the first path+query of the queue (the same array returned by {@link #first()}).
+	 * @throws NoSuchElementException if the queue is empty.
+	 */
+	public byte[] dequeue() {
+		final int firstLevel = firstLevel();
+		if (firstLevel == -1) throw new NoSuchElementException();
+		return queue[firstLevel].dequeue();
+	}
+
+	/** Returns the number of path+queries in the queue.
+	 *
+	 * @return the number of path+queries in the queue.
+	 */
+	public int size() {
+		int size = 0;
+		for(final PathQueryQueue q : queue) if (q != null) size += q.size();
+		return size;
+	}
+
+	/** Returns whether the queue is empty.
+	 *
+	 * @return whether the queue is empty.
+	 */
+	public boolean isEmpty() {
+		return firstLevel() == -1;
+	}
+
+	/** Returns the overall cost of the path+queries in the queue.
+	 *
+	 * @return the overall cost of the path+queries in the queue.
+	 */
+	public long weight() {
+		long weight = 0;
+		for(final PathQueryQueue q : queue) if (q != null) weight += q.weight();
+		return weight;
+	}
+
+	/** Returns an estimate of the memory used by this queue, in bytes.
+	 *
+	 * @return an estimate of the memory used by this queue, in bytes (zero if the queue is empty).
+	 * @see PathQueryQueue#footprint()
+	 */
+	public long footprint() {
+		long footprint = 0;
+		for(final PathQueryQueue q : queue) if (q != null) footprint += q.footprint();
+		return footprint;
+	}
+
+	/** Trims the internal buffers, releasing the queues of empty levels other than zero. */
+	public void trim() {
+		for(int level = queue.length; level-- != 0;) {
+			if (queue[level] == null) continue;
+			if (level != 0 && queue[level].isEmpty()) queue[level] = null;
+			else queue[level].trim();
+		}
+		int length = queue.length;
+		while(length > 1 && queue[length - 1] == null) length--;
+		if (length != queue.length) queue = Arrays.copyOf(queue, length);
+	}
+
+	/** Writes the path+queries of this queue, together with their levels, emptying the queue.
+	 *
+	 * <p>Path+queries are written in the order in which they would be dequeued, and thus in nondecreasing order of level,
+	 * followed by the number of path+queries of each level. In this way, {@link #read(ObjectInputStream)} can
+	 * read also data written before levels were introduced.
+	 *
+	 * @param s an object output stream.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public void write(final ObjectOutputStream s) throws IOException {
+		int size = size();
+		s.writeInt(size);
+		final IntArrayList count = new IntArrayList();
+		while(size-- != 0) {
+			final int level = firstLevel();
+			while(count.size() <= level) count.add(0);
+			count.set(level, count.getInt(level) + 1);
+			Util.writeByteArray(dequeue(), s);
+		}
+		s.writeInt(count.size());
+		for(int level = 0; level < count.size(); level++) s.writeInt(count.getInt(level));
+	}
+
+	/** Enqueues path+queries, with their levels, {@linkplain #write(ObjectOutputStream) written} by another queue.
+	 *
+	 * <p>If the levels are missing, as in snapshots written before levels were introduced, all path+queries are enqueued with level zero.
+	 *
+	 * @param s an object input stream.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public void read(final ObjectInputStream s) throws IOException {
+		final byte[][] pathQuery = new byte[s.readInt()][];
+		for(int i = 0; i < pathQuery.length; i++) pathQuery[i] = Util.readByteArray(s);
+		int p = 0;
+		try {
+			for(int level = 0, levels = s.readInt(); level < levels; level++)
+				for(int count = s.readInt(); count-- != 0;) enqueue(pathQuery[p++], level);
+		}
+		catch(final EOFException noLevels) {}
+		while(p < pathQuery.length) enqueue(pathQuery[p++], 0);
+	}
+}
@@ -0,0 +1,120 @@
+package it.unimi.di.law.bubing.frontier;
+
+/*
+ * Copyright (C) 2013-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import it.unimi.di.law.bubing.util.BURL;
+import it.unimi.di.law.bubing.util.ByteArrayDiskQueue;
+import it.unimi.di.law.bubing.util.LockFreeQueue;
+import it.unimi.di.law.bubing.util.MurmurHash3;
+
+import java.io.IOException;
+
+//RELEASE-STATUS: DIST
+
+/** The in-memory queues of ready URLs of the {@linkplain Distributor distributors}, one for each shard.
+ *
+ * <p>URLs are moved here in batches from {@link Frontier#readyURLs} by any distributor,
+ * and each URL is added to the queue of the shard its scheme+authority {@linkplain #shard(byte[], int, int, int) belongs to}.
+ * The shard of a scheme+authority depends only on its bytes and on the number of shards, so it is the same across restarts:
+ * this is necessary, as the on-disk queues of the {@linkplain WorkbenchVirtualizer virtualizers} are per shard.
+ */
+public final class ReadyURLQueues {
+	/** The queues, one for each shard. */
+	private final LockFreeQueue<byte[]>[] queues;
+
+	/** Creates new queues of ready URLs.
+	 *
+	 * @param shards the number of shards.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public ReadyURLQueues(final int shards) {
+		queues = new LockFreeQueue[shards];
+		for(int i = 0; i < shards; i++) queues[i] = new LockFreeQueue<>();
+	}
+
+	/** Returns the shard of a scheme+authority.
+	 *
+	 * @param array a byte array containing a scheme+authority (possibly followed by other data, e.g., a path+query).
+	 * @param offset the offset of the scheme+authority in {@code array}.
+	 * @param length the length of the scheme+authority.
+	 * @param shards the number of shards.
+	 * @return the shard of the scheme+authority.
+	 */
+	public static int shard(final byte[] array, final int offset, final int length, final int shards) {
+		if (shards == 1) return 0;
+		return (int)((MurmurHash3.hash(array, offset, length) & Long.MAX_VALUE) % shards);
+	}
+
+	/** Returns the number of shards.
+	 *
+	 * @return the number of shards.
+	 */
+	public int shards() {
+		return queues.length;
+	}
+
+	/** Adds a URL to the queue of its shard.
+	 *
+	 * @param url a BUbiNG URL in byte-array representation.
+	 */
+	public void add(final byte[] url) {
+		queues[shard(url, 0, BURL.startOfpathAndQuery(url), queues.length)].add(url);
+	}
+
+	/** Removes a URL from the queue of a shard.
+	 *
+	 * @param shard a shard.
+	 * @return a URL of {@code shard}, or {@code null} if its queue is empty.
+	 */
+	public byte[] poll(final int shard) {
+		return queues[shard].poll();
+	}
+
+	/** Returns the (approximate) number of URLs in the queue of a shard.
+	 *
+	 * @param shard a shard.
+	 * @return the number of URLs in the queue of {@code shard}.
+	 */
+	public long size(final int shard) {
+		return queues[shard].size();
+	}
+
+	/** Returns the (approximate) number of URLs in all queues.
+	 *
+	 * @return the number of URLs in all queues.
+	 */
+	public long size() {
+		long size = 0;
+		for(final LockFreeQueue<byte[]> queue : queues) size += queue.size();
+		return size;
+	}
+
+	/** Empties all queues, giving back their URLs to a disk queue.
+	 *
+	 * <p>The caller must guarantee exclusive access to {@code readyURLs}.
+	 *
+	 * @param readyURLs a disk queue.
+	 * @return the number of URLs enqueued to {@code readyURLs}.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public long drainTo(final ByteArrayDiskQueue readyURLs) throws IOException {
+		long drained = 0;
+		for(final LockFreeQueue<byte[]> queue : queues)
+			for(byte[] url; (url = queue.poll()) != null; drained++) readyURLs.enqueue(url, 0, url.length);
+		return drained;
+	}
+}
@@ -38,8 +38,8 @@ public final class StatsThread implements Runnable {
 	private static final Logger LOGGER = LoggerFactory.getLogger(StatsThread.class);
 	/** A reference to the frontier. */
 	private final Frontier frontier;
-	/** A reference to the distributor. */
-	private final Distributor distributor;
+	/** The last time we produced a high-cost statistics. */
+	protected volatile long lastHighCostStat;
 	/** A global progress logger, measuring the number of completed requests. */
 	public final ProgressLogger requestLogger;
 	/** A global progress logger, measuring the number of non-duplicate resources actually stored. */
@@ -65,11 +65,9 @@ public final class StatsThread implements Runnable {
 	/** Creates the thread.
 	 *
 	 * @param frontier the frontier instantiating the thread.
-	 * @param distributor the distributor used.
 	 */
-	public StatsThread(final Frontier frontier, final Distributor distributor) {
+	public StatsThread(final Frontier frontier) {
 		this.frontier = frontier;
-		this.distributor = distributor;
 
 		requestLogger = new ProgressLogger(LOGGER, Long.MAX_VALUE, TimeUnit.MILLISECONDS, "requests");
 		requestLogger.displayFreeMemory = requestLogger.displayLocalSpeed = true;
@@ -136,6 +134,10 @@ public final class StatsThread implements Runnable {
 		receivedURLsLogger.setAndDisplay(frontier.numberOfReceivedURLs.get());
 
 		LOGGER.info("Duplicates: " + Util.format(duplicates) + " (" + Util.format(100.0 * duplicates / (duplicates + archetypes)) + "%)");
+		final long transferredBytes = frontier.transferredBytes.get(), decodedBytes = frontier.decodedBytes.get();
+		LOGGER.info("Bytes received/decoded: " + Util.format(transferredBytes) + "/" + Util.format(decodedBytes) + " (compression ratio " + Util.format(transferredBytes == 0 ? 1 : (double)decodedBytes / transferredBytes) + ")");
+		LOGGER.info("Responses rejected by headers (body not downloaded): " + Util.format(frontier.skippedBodies.get()));
+		if (frontier.revisitValidators != null) LOGGER.info("Responses not modified since the previous crawl: " + Util.format(frontier.notModified.get()));
 		LOGGER.info("Archetypes 1XX/2XX/3XX/4XX/5XX/Other: "
 				+ Util.format(frontier.archetypesStatus[1].get()) + "/"
 				+ Util.format(frontier.archetypesStatus[2].get()) + "/"
@@ -160,13 +162,14 @@ public final class StatsThread implements Runnable {
 	}
 
 	private boolean checkState() {
-		for(VisitState visitState: distributor.schemeAuthority2VisitState.visitStates())
-			if (visitState != null)
-				synchronized (visitState) {
-					if (visitState.workbenchEntry == null && visitState.acquired) LOGGER.error("Acquired visit state with empty workbench entry: " + visitState);
-					if (visitState.workbenchEntry == null && visitState.nextFetch != Long.MAX_VALUE && visitState.isEmpty()) LOGGER.error("Empty visit state with empty workbench entry: " + visitState);
-					//if (! visitState.acquired && frontier.virtualizer.count(visitState) > 0 && visitState.isEmpty() && visitState.nextFetch != Long.MAX_VALUE && ! frontier.refill.contains(visitState)) LOGGER.error("Empty visit state with URLs on disk not scheduled for refill (not a problem if it doesn't appear again): " + visitState);
-			}
+		for(Distributor distributor: frontier.distributors)
+			for(VisitState visitState: distributor.schemeAuthority2VisitState.visitStates())
+				if (visitState != null)
+					synchronized (visitState) {
+						if (visitState.workbenchEntry == null && visitState.acquired) LOGGER.error("Acquired visit state with empty workbench entry: " + visitState);
+						if (visitState.workbenchEntry == null && visitState.nextFetch != Long.MAX_VALUE && visitState.isEmpty()) LOGGER.error("Empty visit state with empty workbench entry: " + visitState);
+						//if (! visitState.acquired && distributor.virtualizer.count(visitState) > 0 && visitState.isEmpty() && visitState.nextFetch != Long.MAX_VALUE && ! distributor.refill.contains(visitState)) LOGGER.error("Empty visit state with URLs on disk not scheduled for refill (not a problem if it doesn't appear again): " + visitState);
+				}
 
 		long c = 0;
 		for(WorkbenchEntry workbenchEntry: frontier.workbench.workbenchEntries()) {
@@ -195,26 +198,27 @@ public final class StatsThread implements Runnable {
 
 		long resolvedVisitStates = 0, brokenVisitStatesOnWorkbench = 0, unresolved = 0, brokenPathQueryCount = 0;
 
-		for(VisitState visitState: distributor.schemeAuthority2VisitState.visitStates()) { // We own the map.
-			if (visitState == null) continue;
-			final int size = visitState.size();
-			if (visitState.workbenchEntry != null) {
-				resolvedVisitStates++;
-				if (visitState.lastExceptionClass != null) {
-					brokenVisitStatesOnWorkbench++;
-					distBroken[Fast.mostSignificantBit(size) + 1]++;
-					brokenPathQueryCount += size;
+		for(Distributor distributor: frontier.distributors)
+			for(VisitState visitState: distributor.schemeAuthority2VisitState.visitStates()) {
+				if (visitState == null) continue;
+				final int size = visitState.size();
+				if (visitState.workbenchEntry != null) {
+					resolvedVisitStates++;
+					if (visitState.lastExceptionClass != null) {
+						brokenVisitStatesOnWorkbench++;
+						distBroken[Fast.mostSignificantBit(size) + 1]++;
+						brokenPathQueryCount += size;
+					}
+					else {
+						dist[Fast.mostSignificantBit(size) + 1]++;
+						if (size != 0) nonEmptyResolvedVisitStates++;
+					}
 				}
 				else {
-					dist[Fast.mostSignificantBit(size) + 1]++;
-					if (size != 0) nonEmptyResolvedVisitStates++;
+					distUnresolved[Fast.mostSignificantBit(size) + 1]++;
+					unresolved += size;
 				}
 			}
-			else {
-				distUnresolved[Fast.mostSignificantBit(size) + 1]++;
-				unresolved += size;
-			}
-		}
 
 		this.dist = dist;
 		this.unresolved = unresolved;
@@ -240,9 +244,10 @@ public final class StatsThread implements Runnable {
 		this.brokenVisitStatesOnWorkbench = brokenVisitStatesOnWorkbench;
 
 		LOGGER.info("Entry stats: " + entrySummaryStats);
-		LOGGER.info("Virtualizer stats: " + frontier.virtualizer);
+		for(Distributor distributor: frontier.distributors) LOGGER.info("Virtualizer stats" + (frontier.distributors.length == 1 ? "" : " (shard " + distributor.shard + ")") + ": " + distributor.virtualizer);
 
-		LOGGER.info("Visit states: " + distributor.schemeAuthority2VisitState.size()
+		LOGGER.info("Visit states: " + getVisitStates()
+				+ "; cold: " + getColdVisitStates()
 				+ "; resolved: " + resolvedVisitStates
 				+ "; on workbench (IP): " + frontier.workbench.approximatedSize()
 				+ "; broken on workbench (IP): " + frontier.workbench.broken.get()
@@ -253,12 +258,19 @@ public final class StatsThread implements Runnable {
 				+ "; unknown hosts: " + frontier.unknownHosts.size()
 				+ "; broken: " + frontier.brokenVisitStates.get() + " (" + brokenVisitStatesOnWorkbench + " on workbench)"
 				+ "; waiting: " + frontier.newVisitStates.size()
-				+ "; on disk: " + frontier.virtualizer.onDisk());
+				+ (frontier.hostsToPrefetch != null ? "; to prefetch: " + frontier.hostsToPrefetch.size() : "")
+				+ "; on disk: " + getVisitStatesOnDisk());
 		LOGGER.info("Speed dist: " + toString(frontier.speedDist));
 		for(int i = frontier.speedDist.length(); i-- != 0;) frontier.speedDist.set(i, 0); // Cleanup
 		LOGGER.info("Cache hits: " + frontier.urlCache.hits() + " misses: " + frontier.urlCache.misses());
-
-		distributor.lastHighCostStat = System.currentTimeMillis();
+		LOGGER.info("Hosts resolved to IPv4: " + Util.format(frontier.resolvedIPv4Hosts.get()) + "; to IPv6: " + Util.format(frontier.resolvedIPv6Hosts.get())
+				+ "; resources fetched from IPv6: " + Util.format(frontier.fetchedResourcesIPv6.get()));
+		final long tlsHandshakes = frontier.tlsHandshakes.get(), tlsResumedHandshakes = frontier.tlsResumedHandshakes.get();
+		if (tlsHandshakes != 0) LOGGER.info("TLS handshakes: " + Util.format(tlsHandshakes) + "; resumed: " + Util.format(tlsResumedHandshakes)
+				+ " (" + Util.format(100.0 * tlsResumedHandshakes / tlsHandshakes) + "%); average time: "
+				+ Util.format(frontier.tlsHandshakeTimeSum.get() / 1E6 / tlsHandshakes) + "ms");
+
+		lastHighCostStat = System.currentTimeMillis();
 	}
 
 	/** Returns the number of visit states on disk.
@@ -266,7 +278,9 @@ public final class StatsThread implements Runnable {
 	 * @return the number of visit states on disk.
 	 */
 	public long getVisitStatesOnDisk(){
-		return frontier.virtualizer.onDisk();
+		long onDisk = 0;
+		for(Distributor distributor: frontier.distributors) onDisk += distributor.virtualizer.onDisk();
+		return onDisk;
 	}
 
 	/** Returns the overall number of visit states.
@@ -274,7 +288,19 @@ public final class StatsThread implements Runnable {
 	 * @return the overall number of visit states.
 	 */
 	public int getVisitStates(){
-		return  distributor.schemeAuthority2VisitState.size();
+		int visitStates = 0;
+		for(Distributor distributor: frontier.distributors) visitStates += distributor.schemeAuthority2VisitState.size();
+		return visitStates;
+	}
+
+	/** Returns the number of cold visit states.
+	 *
+	 * @return the number of cold visit states.
+	 */
+	public int getColdVisitStates(){
+		int coldVisitStates = 0;
+		for(Distributor distributor: frontier.distributors) coldVisitStates += distributor.schemeAuthority2VisitState.coldSize();
+		return coldVisitStates;
 	}
 
 	/** Terminates the statistics, {@linkplain ProgressLogger#done closing} all the progress loggers.  */
@@ -23,7 +23,7 @@ import org.slf4j.LoggerFactory;
 
 //RELEASE-STATUS: DIST
 
-/** A thread that continuously {@linkplain Workbench#acquire() acquires} a {@link VisitState} from the {@link Workbench} and adds it
+/** A thread that continuously {@linkplain Workbench#acquire(int) acquires} a {@link VisitState} from a shard of the {@link Workbench} and adds it
  *  to the {@link Frontier#todo} queue. Note that we use the {@linkplain DelayQueue#take() blocking dequeue method}, which will take
  *  care of delays due to politeness, so this thread does not need to do any busy polling.
  *  {@link FetchingThread} instances will later remove the {@link VisitState} from the {@link Frontier#todo} queue.
@@ -34,20 +34,27 @@ import org.slf4j.LoggerFactory;
  *  by the {@link Frontier#todo} wait-free queue. As a side-effect, if a {@link VisitState} with a very low {@link VisitState#nextFetch}
  *  value comes back to life, it will be placed in the correct position on the  {@link Workbench},
  *  but not in the {@link Frontier#todo} queue.
+ *
+ *  <p>There is one instance of this thread for each {@linkplain Workbench#shards() shard} of the workbench; their number
+ *  is {@linkplain it.unimi.di.law.bubing.RuntimeConfiguration#todoThreads configurable}.
  */
 public final class TodoThread extends Thread {
 	private static final Logger LOGGER = LoggerFactory.getLogger(TodoThread.class);
 
 	/** A reference to the frontier. */
 	private final Frontier frontier;
+	/** The shard of the workbench drained by this thread. */
+	private final int shard;
 
 	/** Instantiates the thread.
 	 *
 	 * @param frontier the frontier instantiating the thread.
+	 * @param shard the shard of the workbench drained by this thread, which is also used to set the thread's name.
 	 */
-	public TodoThread(final Frontier frontier) {
+	public TodoThread(final Frontier frontier, final int shard) {
 		this.frontier = frontier;
-		setName(this.getClass().getSimpleName());
+		this.shard = shard;
+		setName(this.getClass().getSimpleName() + '-' + shard);
 		setPriority(Thread.MAX_PRIORITY);
 	}
 
@@ -55,7 +62,7 @@ public final class TodoThread extends Thread {
 	public void run() {
 		try {
 			while(! Thread.currentThread().isInterrupted()) {
-				VisitState visitState = frontier.workbench.acquire();
+				VisitState visitState = frontier.workbench.acquire(shard);
 				assert frontier.schemeAuthority2Count.get(visitState.schemeAuthority) <= frontier.rc.maxUrlsPerSchemeAuthority : frontier.schemeAuthority2Count.get(visitState.schemeAuthority) + " > " + frontier.rc.maxUrlsPerSchemeAuthority;
 				frontier.todo.add(visitState);
 			}
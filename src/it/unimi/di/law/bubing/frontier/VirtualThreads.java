@@ -0,0 +1,83 @@
+package it.unimi.di.law.bubing.frontier;
+
+/*
+ * Copyright (C) 2012-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+//RELEASE-STATUS: DIST
+
+/** A reflective bridge to virtual threads.
+ *
+ * <p>Virtual threads are available starting with Java 21, but BUbiNG is compiled for older
+ * releases, so we access the builder API by reflection. If the running JVM does not support
+ * virtual threads, {@link #AVAILABLE} is false.
+ *
+ * <p>Worker threads of the {@link Frontier} are subclasses of {@link Thread}, which cannot be virtual;
+ * however, {@link Thread} implements {@link Runnable}, so an unstarted worker can be
+ * {@linkplain #start(String, Runnable) run} by a virtual thread.
+ */
+public final class VirtualThreads {
+	/** The method <code>Thread.ofVirtual()</code>, or {@code null}. */
+	private static final Method OF_VIRTUAL;
+	/** The method <code>Thread.Builder.name(String)</code>, or {@code null}. */
+	private static final Method NAME;
+	/** The method <code>Thread.Builder.start(Runnable)</code>, or {@code null}. */
+	private static final Method START;
+	/** Whether virtual threads are supported by the running JVM. */
+	public static final boolean AVAILABLE;
+
+	static {
+		Method ofVirtual, name, start;
+		try {
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			final Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			name = builder.getMethod("name", String.class);
+			start = builder.getMethod("start", Runnable.class);
+			/* The methods exist also when virtual threads are a preview feature (Java 19 and 20), in which case they
+			 * throw an UnsupportedOperationException unless preview features are enabled: we probe them by creating
+			 * an unstarted virtual thread. */
+			builder.getMethod("unstarted", Runnable.class).invoke(ofVirtual.invoke(null), (Runnable)() -> {});
+		}
+		catch (final ReflectiveOperationException | RuntimeException | LinkageError e) {
+			ofVirtual = name = start = null;
+		}
+		OF_VIRTUAL = ofVirtual;
+		NAME = name;
+		START = start;
+		AVAILABLE = ofVirtual != null;
+	}
+
+	private VirtualThreads() {}
+
+	/** Starts a new virtual thread.
+	 *
+	 * @param name the name of the new thread.
+	 * @param runnable the code to be run by the new thread.
+	 * @return the new, started virtual thread.
+	 * @throws UnsupportedOperationException if virtual threads are not {@linkplain #AVAILABLE available}.
+	 */
+	public static Thread start(final String name, final Runnable runnable) {
+		if (! AVAILABLE) throw new UnsupportedOperationException("Virtual threads are not supported by this JVM");
+		try {
+			return (Thread)START.invoke(NAME.invoke(OF_VIRTUAL.invoke(null), name), runnable);
+		}
+		catch (final IllegalAccessException | InvocationTargetException e) {
+			throw new RuntimeException(e.getMessage(), e);
+		}
+	}
+}
@@ -17,16 +17,17 @@ package it.unimi.di.law.bubing.frontier;
  */
 
 import it.unimi.di.law.bubing.RuntimeConfiguration;
+import it.unimi.di.law.bubing.frontier.priority.PathQueryPriority;
 import it.unimi.di.law.bubing.sieve.AbstractSieve.NewFlowReceiver;
 import it.unimi.di.law.bubing.util.BURL;
+import it.unimi.di.law.bubing.util.RobotsFilter;
 import it.unimi.di.law.bubing.util.URLRespectsRobots;
 import it.unimi.di.law.bubing.util.Util;
-import it.unimi.dsi.fastutil.objects.ObjectArrayFIFOQueue;
+import it.unimi.di.law.warc.filters.URIResponse;
 import it.unimi.dsi.fastutil.objects.ObjectIterator;
 import it.unimi.dsi.fastutil.shorts.Short2ShortMap;
 import it.unimi.dsi.fastutil.shorts.Short2ShortOpenHashMap;
 
-import java.io.Reader;
 import java.io.Serializable;
 import java.lang.reflect.Field;
 import java.util.NoSuchElementException;
@@ -47,12 +48,17 @@ import org.slf4j.LoggerFactory;
  *
  * <p>An instance of this class also records the {@link #nextFetch} available for its {@link #schemeAuthority},
  * a queue of path+queries and a cached robot filter. The {@link #nextFetch} field is used to implement
- * the {@link Delayed} interface.
+ * the {@link Delayed} interface. Path+queries are kept in a {@link PriorityPathQueryQueue}, using the levels
+ * assigned by {@link RuntimeConfiguration#pathQueryPriority}, if any, and are otherwise visited in FIFO order.
  *
- * <p>Instances of this class are synchronized, and enqueue/dequeue operations can happen concurrently: this is
- * necessary because {@link #firstPath()} is called by a {@link FetchingThread},
- * {@linkplain #dequeue() dequeuing} is performed by a {@link ParsingThread},
- * whereas {@linkplain #enqueuePathQuery(byte[]) enqueing} is performed by the {@link Distributor}.
+ * <p>Enqueue/dequeue operations can happen concurrently: {@link #firstPath()} is called by a {@link FetchingThread},
+ * {@linkplain #dequeue() dequeuing} is performed by a {@link ParsingThread} (or, {@linkplain #dequeue(byte[]) after a successful fetch},
+ * by a {@link FetchingThread}),
+ * whereas {@linkplain #enqueuePathQuery(byte[]) enqueing} is performed by the {@link Distributor}. Modifications of the
+ * queue of path+queries are synchronized, but they are short and they never call other synchronized methods, except for
+ * {@link WorkbenchEntry#add(VisitState, Workbench)}. After each modification, the size and the first element of the queue are published
+ * in volatile fields, so {@link #firstPath()}, {@link #size()} and {@link #isEmpty()}, which are by far the most frequent
+ * operations, do not acquire the monitor of the visit state.
  *
  * <h2>Broken visit states</h2>
  *
@@ -94,14 +100,26 @@ public class VisitState implements Delayed, Serializable {
 	/** The minimum time at which this visit state can be accessed because of host-based politeness, zero at creation.
 	 * If it is equal to {@link Long#MAX_VALUE}, the maximum number of URLs has been reached for this visit state. */
 	public volatile long nextFetch;
-	/** {@link System#currentTimeMillis()} when we fetched the robots we are {@linkplain #robotsFilter caching}. */
+	/** {@link System#currentTimeMillis()} when we fetched the robots we are {@linkplain #robots caching}. */
 	public volatile long lastRobotsFetch;
-	/** The robots-forbidden prefixes we are caching, as returned from the {@link URLRespectsRobots#parseRobotsReader(Reader, String)} method. */
-	public volatile char[][] robotsFilter;
+	/** The robots filter we are caching, as returned from the {@link URLRespectsRobots#compileRobotsResponse(URIResponse, String, long[])} method. */
+	public volatile RobotsFilter robots;
+	/** The <code>Crawl-delay</code> in milliseconds of the robots we are {@linkplain #robots caching}, or zero. */
+	public volatile long crawlDelay;
+	/** An exponential moving average of the response time in milliseconds of this scheme+authority (see {@link AdaptiveDelay}), or zero if unknown. */
+	public transient volatile float averageResponseTime;
+	/** The {@linkplain HostImportance#importance(byte[]) importance} of this scheme+authority, used to break ties in {@link #compareTo(Delayed)};
+	 * it is zero if {@link Frontier#hostImportance} is {@code null}. It is updated only when this visit state is not in the queue of its workbench entry
+	 * (i.e., just before being added to it, or by the {@link Distributor} while this visit state is waiting for a refill). */
+	public transient volatile float importance;
 	/** The workbench entry this visit state belongs to. Note that this field is always
 	 * non-{@code null}, regardless of whether this visit state is actually in the queue of
 	 * its workbench entry, unless {@link #lastExceptionClass} is not {@code null}. */
 	public transient volatile WorkbenchEntry workbenchEntry;
+	/** The IP address used to connect to the host of this visit state, set together with {@link #workbenchEntry}.
+	 * It is not necessarily equal to the {@linkplain WorkbenchEntry#ipAddress address of the workbench entry}, as
+	 * IPv6 addresses may be {@linkplain Workbench#politenessKey(byte[], int) grouped by prefix}. */
+	public transient volatile byte[] ipAddress;
 	/** The cookies of this visit state. */
 	public Cookie[] cookies;
 	/** If not {@code null}, this fields contains the class of the exception that was
@@ -110,12 +128,18 @@ public class VisitState implements Delayed, Serializable {
 	public volatile Class<? extends Throwable> lastExceptionClass;
 	/** If {@link #lastExceptionClass} is not {@code null}, the count of the retries for this type of exception. */
 	public volatile int retries;
-	/** Whether this visit state is currently {@linkplain Workbench#acquire() acquired}. */
+	/** Whether this visit state is currently {@linkplain Workbench#acquire(int) acquired}. */
 	protected volatile transient boolean acquired;
 	/** A reference to the frontier. */
 	public transient Frontier frontier;
 	/** The path+queries that must be visited for this visit state. */
-	private final transient ObjectArrayFIFOQueue<byte[]> pathQueries;
+	private final transient PriorityPathQueryQueue pathQueries;
+	/** The size of {@link #pathQueries}, published after each modification. */
+	private transient volatile int numberOfPathQueries;
+	/** The first element of {@link #pathQueries}, or {@code null} if the queue is empty, published after each modification. */
+	private transient volatile byte[] firstPathQuery;
+	/** The {@linkplain PriorityPathQueryQueue#footprint() footprint} of {@link #pathQueries}, as accounted in {@link Frontier#weightOfpathQueriesInQueues}. */
+	private transient long footprint;
 	/** A map from term indices to counts for the pages of this host. This map is instantiated only if {@link RuntimeConfiguration#spamDetector} is not {@code null}. */
 	public final Short2ShortOpenHashMap termCount;
 	/** The number of calls performed to {@link #updateTermCount(Short2ShortMap)}. */
@@ -132,22 +156,29 @@ public class VisitState implements Delayed, Serializable {
 		this.frontier = frontier;
 		this.schemeAuthority = schemeAuthority;
 		cookies = EMPTY_COOKIE_ARRAY;
-		pathQueries = new ObjectArrayFIFOQueue<>();
+		pathQueries = new PriorityPathQueryQueue();
 		termCount = frontier != null && frontier.rc.spamDetector == null ? null : new Short2ShortOpenHashMap();
 		spammicity = -1;
 	}
 
 
-	/** Sets the workbench entry and put this visit state in its entry if it is nonempty.
+	/** Sets the IP address and the workbench entry and put this visit state in its entry if it is nonempty.
 	 *
 	 * <ul>
 	 * <li>Preconditions: not {{@link #acquired}}.
 	 * </ul>
+	 *
+	 * @param ipAddress the IP address of the host of this visit state.
+	 * @param workbenchEntry the workbench entry for {@code ipAddress}.
 	 */
-	public synchronized void setWorkbenchEntry(final WorkbenchEntry workbenchEntry) {
+	public synchronized void setWorkbenchEntry(final byte[] ipAddress, final WorkbenchEntry workbenchEntry) {
 		assert ! acquired : this;
+		this.ipAddress = ipAddress;
 		this.workbenchEntry = workbenchEntry;
-		if (! isEmpty()) workbenchEntry.add(this, frontier.workbench);
+		if (! isEmpty()) {
+			updateImportance();
+			workbenchEntry.add(this, frontier.workbench);
+		}
 	}
 
 	/** Puts this visit state in its entry, if it is not acquired and it has a non-{@code null} {@link #workbenchEntry}.
@@ -160,7 +191,19 @@ public class VisitState implements Delayed, Serializable {
 	 */
 	private void putInEntryIfNotAcquired() {
 		assert ! isEmpty() : this;
-		if (! acquired && workbenchEntry != null) workbenchEntry.add(this, frontier.workbench);
+		if (! acquired && workbenchEntry != null) {
+			updateImportance();
+			workbenchEntry.add(this, frontier.workbench);
+		}
+	}
+
+	/** Updates {@link #importance} using {@link Frontier#hostImportance}, if not {@code null}.
+	 *
+	 * <p>This method must be called only when this visit state is not in the queue of its workbench entry.
+	 */
+	protected void updateImportance() {
+		final HostImportance hostImportance = frontier.hostImportance;
+		if (hostImportance != null) importance = hostImportance.importance(schemeAuthority);
 	}
 
 	/** Puts this visit state in its entry, if it not empty.
@@ -178,7 +221,10 @@ public class VisitState implements Delayed, Serializable {
 		assert workbenchEntry != null : this;
 		assert acquired : this;
 		assert workbenchEntry.acquired : workbenchEntry;
-		if (! isEmpty()) workbenchEntry.add(this);
+		if (! isEmpty()) {
+			updateImportance();
+			workbenchEntry.add(this);
+		}
 		acquired = false;
 	}
 
@@ -193,16 +239,17 @@ public class VisitState implements Delayed, Serializable {
 	public synchronized void enqueueRobots() {
 		if (! RuntimeConfiguration.FETCH_ROBOTS) return;
 		if (nextFetch == Long.MAX_VALUE) return;
-		synchronized(this) {
-			if (pathQueries.isEmpty()) {
-				pathQueries.enqueueFirst(ROBOTS_PATH);
-				putInEntryIfNotAcquired();
-			}
-			else {
-				final byte[] first = pathQueries.dequeue();
-				pathQueries.enqueueFirst(ROBOTS_PATH);
-				pathQueries.enqueueFirst(first);
-			}
+		if (pathQueries.isEmpty()) {
+			pathQueries.enqueueFirst(ROBOTS_PATH, 0);
+			published();
+			putInEntryIfNotAcquired();
+		}
+		else {
+			final int cost = pathQueries.firstCost();
+			final byte[] first = pathQueries.dequeue();
+			pathQueries.enqueueFirst(ROBOTS_PATH, 0);
+			pathQueries.enqueueFirst(first, cost);
+			published();
 		}
 	}
 
@@ -212,7 +259,8 @@ public class VisitState implements Delayed, Serializable {
 	 */
 	public synchronized void forciblyEnqueueRobotsFirst() {
 		if (! RuntimeConfiguration.FETCH_ROBOTS) return;
-		pathQueries.enqueueFirst(ROBOTS_PATH);
+		pathQueries.enqueueFirst(ROBOTS_PATH, 0);
+		published();
 	}
 
 	/** Remove the <code>/robots.txt</code> path, if present, and in this case sets the last robots fetch
@@ -221,8 +269,13 @@ public class VisitState implements Delayed, Serializable {
 	void removeRobots() {
 		// Nothing to remove
 		if (pathQueries.isEmpty()) return;
+		removeRobotsFromQueue();
+		published();
+	}
 
+	private void removeRobotsFromQueue() {
 		// We test the first path
+		final int firstCost = pathQueries.firstCost();
 		final byte[] firstPath = pathQueries.dequeue();
 		if (firstPath == VisitState.ROBOTS_PATH) {
 			// It's robots.txt: we set the last robots fetch time and don't put it back
@@ -231,24 +284,25 @@ public class VisitState implements Delayed, Serializable {
 		}
 
 		// It's not robots.txt
-		if (isEmpty()) {
+		if (pathQueries.isEmpty()) {
 			// If there are no more paths, we put it back and return
-			pathQueries.enqueueFirst(firstPath);
+			pathQueries.enqueueFirst(firstPath, firstCost);
 			return;
 		}
 
 		// We test the second path
+		final int secondCost = pathQueries.firstCost();
 		final byte[] secondPath = pathQueries.dequeue();
 		if (secondPath == VisitState.ROBOTS_PATH) {
 			// It's robots.txt: we put back the first path and set the last robots fetch time (and don't put back the second path)
-			pathQueries.enqueueFirst(firstPath);
+			pathQueries.enqueueFirst(firstPath, firstCost);
 			lastRobotsFetch = Long.MAX_VALUE;
 			return;
 		}
 
 		// No robots.txt found: we put back everything
-		pathQueries.enqueueFirst(secondPath);
-		pathQueries.enqueueFirst(firstPath);
+		pathQueries.enqueueFirst(secondPath, secondCost);
+		pathQueries.enqueueFirst(firstPath, firstCost);
 	}
 
 	/** Enqueues a path+query in byte-array representation, possibly putting this visit state in its
@@ -266,11 +320,48 @@ public class VisitState implements Delayed, Serializable {
 		synchronized (this) {
 			if (nextFetch == Long.MAX_VALUE) return;
 			final boolean wasEmpty = pathQueries.isEmpty();
-			pathQueries.enqueue(pathQuery);
+			pathQueries.enqueue(pathQuery, level(pathQuery));
+			published();
 			if (wasEmpty) putInEntryIfNotAcquired();
 		}
 		frontier.pathQueriesInQueues.incrementAndGet();
-		frontier.weightOfpathQueriesInQueues.addAndGet(BURL.memoryUsageOf(pathQuery));
+	}
+
+	/** Enqueues a path+query in byte-array representation in place of a path+query with a worse {@linkplain PathQueryPriority#level(byte[]) level},
+	 * if any.
+	 *
+	 * <p>This method is used by the {@link Distributor} when there is no more space in memory for this visit state: in this case,
+	 * the returned path+query must be moved to the {@link WorkbenchVirtualizer}.
+	 *
+	 * <ul>
+	 * <li>Preconditions: not {@link #isEmpty()}.
+	 * </ul>
+	 *
+	 * @param pathQuery a path+query in byte-array representation.
+	 * @return the path+query replaced by {@code pathQuery}, or {@code null} if there is no {@link RuntimeConfiguration#pathQueryPriority}
+	 * or no path+query with a worse level, in which case {@code pathQuery} has not been enqueued.
+	 * @see PriorityPathQueryQueue#replaceWorse(byte[], int)
+	 */
+	public byte[] enqueuePathQueryReplacingWorse(final byte[] pathQuery) {
+		if (frontier.rc.pathQueryPriority == null) return null;
+		final byte[] replaced;
+		synchronized (this) {
+			if (nextFetch == Long.MAX_VALUE) return null;
+			replaced = pathQueries.replaceWorse(pathQuery, level(pathQuery));
+			if (replaced == null) return null;
+			published();
+		}
+		return replaced;
+	}
+
+	/** Returns the level of a path+query according to {@link RuntimeConfiguration#pathQueryPriority}.
+	 *
+	 * @param pathQuery a path+query.
+	 * @return the level of {@code pathQuery}, or zero if there is no {@link RuntimeConfiguration#pathQueryPriority}.
+	 */
+	private int level(final byte[] pathQuery) {
+		final PathQueryPriority pathQueryPriority = frontier.rc.pathQueryPriority;
+		return pathQueryPriority == null ? 0 : pathQueryPriority.level(pathQuery);
 	}
 
 	/** Peeks at the first path in the queue.
@@ -281,8 +372,10 @@ public class VisitState implements Delayed, Serializable {
 	 * @return the first path in the queue.
 	 * @throws NoSuchElementException if the queue of path+queries is empty.
 	 */
-	public synchronized byte[] firstPath() {
-		return pathQueries.first();
+	public byte[] firstPath() {
+		final byte[] firstPathQuery = this.firstPathQuery;
+		if (firstPathQuery == null) throw new NoSuchElementException();
+		return firstPathQuery;
 	}
 
 	/** Removes the first path in the queue.
@@ -294,36 +387,78 @@ public class VisitState implements Delayed, Serializable {
 		final byte[] array;
 		synchronized (this) {
 			array = pathQueries.dequeue();
+			published();
 		}
-		if (array != ROBOTS_PATH) {
-			frontier.pathQueriesInQueues.decrementAndGet();
-			frontier.weightOfpathQueriesInQueues.addAndGet(-BURL.memoryUsageOf(array));
-		}
+		if (array != ROBOTS_PATH) frontier.pathQueriesInQueues.decrementAndGet();
 
 		return array;
 	}
 
+	/** Removes the first path in the queue, provided that it is a given path.
+	 *
+	 * <p>This method is used by a {@link FetchingThread} to dequeue a successfully fetched path+query:
+	 * in the meanwhile, a {@link ParsingThread} might have {@linkplain #clear() cleared} this visit state.
+	 *
+	 * @param path a path+query (compared by reference).
+	 * @return true if {@code path} was the first path in the queue, and it has been removed.
+	 */
+	public boolean dequeue(final byte[] path) {
+		synchronized (this) {
+			if (pathQueries.isEmpty() || pathQueries.first() != path) return false;
+			pathQueries.dequeue();
+			published();
+		}
+		if (path != ROBOTS_PATH) frontier.pathQueriesInQueues.decrementAndGet();
+
+		return true;
+	}
+
 	/** Empties this visit state of all the URLs that it contains. */
 	public synchronized void clear() {
 		while(! isEmpty()) dequeue(); // We cannot invoke pathQueries.clear(), as counters would not be updated.
-		// TODO: we should find a way to release more resources.
 		pathQueries.trim();
+		published();
 	}
 
 	/** Computes the size (i.e., number of URLs) in this visit state.
 	 *
 	 * @return the size.
 	 */
-	public synchronized int size() {
-		return pathQueries.size();
+	public int size() {
+		return numberOfPathQueries;
 	}
 
 	/** Returns whether this visit state is empty.
 	 *
 	 * @return <code>true</code> iff this visit state does not contain any URL.
 	 */
-	public synchronized boolean isEmpty() {
-		return pathQueries.isEmpty();
+	public boolean isEmpty() {
+		return numberOfPathQueries == 0;
+	}
+
+	/** Returns an estimate of the memory used by the queue of path+queries of this visit state, as given by its
+	 * {@linkplain PriorityPathQueryQueue#footprint() footprint}.
+	 *
+	 * @return an estimate of the memory used by the queue of path+queries, in bytes.
+	 * @see Frontier#weightOfpathQueriesInQueues
+	 */
+	public synchronized long weight() {
+		return footprint;
+	}
+
+	/** Publishes the size and the first element of the queue of path+queries, and accounts
+	 * the change of its footprint in {@link Frontier#weightOfpathQueriesInQueues} (if {@link #frontier} is not {@code null}).
+	 *
+	 * <p>This method must be called in a synchronized section after each modification of the queue.
+	 */
+	private void published() {
+		final int size = pathQueries.size();
+		firstPathQuery = size == 0 ? null : pathQueries.first();
+		numberOfPathQueries = size;
+		final long footprint = pathQueries.footprint();
+		final long delta = footprint - this.footprint;
+		this.footprint = footprint;
+		if (delta != 0 && frontier != null) frontier.weightOfpathQueriesInQueues.addAndGet(delta);
 	}
 
 	/** Return whether this visit state is fetchable (i.e., if there is at leas one URL and it is allowed by politeness to fetch it).
@@ -347,7 +482,10 @@ public class VisitState implements Delayed, Serializable {
 
 	@Override
 	public int compareTo(final Delayed o) {
-		return Long.signum(nextFetch - ((VisitState)o).nextFetch);
+		final VisitState visitState = (VisitState)o;
+		final int t = Long.signum(nextFetch - visitState.nextFetch);
+		// Ties are broken in favor of more important visit states
+		return t != 0 ? t : Float.compare(visitState.importance, importance);
 	}
 
 	/** Disables permanently this visit state and schedules its purge
@@ -371,7 +509,7 @@ public class VisitState implements Delayed, Serializable {
 
 		/* Safeguard: if there's no robots filter, and I'm not fetching it, and it's not the first
 		 * path in the queue, then something's wrong. */
-		if (robotsFilter == null && lastRobotsFetch != Long.MAX_VALUE && (isEmpty() || firstPath() != ROBOTS_PATH)) {
+		if (robots == null && lastRobotsFetch != Long.MAX_VALUE && (isEmpty() || firstPath() != ROBOTS_PATH)) {
 			LOGGER.error("No robots filter and no robots path for " + this);
 			lastRobotsFetch = Long.MAX_VALUE; // This inhibits further enqueueing until robots.txt is fetched.
 			enqueueRobots();
@@ -382,7 +520,7 @@ public class VisitState implements Delayed, Serializable {
 			// If we are not retrying an exception, we check whether it is time to reload robots.txt
 			final long robotsExpiration = frontier.rc.robotsExpiration;
 			if (time - robotsExpiration >= lastRobotsFetch) {
-				if (robotsFilter == null) {
+				if (robots == null) {
 					if (lastRobotsFetch == 0) LOGGER.info("Going to get robots for {} for the first time", Util.toString(schemeAuthority));
 					else LOGGER.info("Going to try again to get robots for {}", Util.toString(schemeAuthority));
 				}
@@ -398,10 +536,13 @@ public class VisitState implements Delayed, Serializable {
 	 * @return an estimate of the number of path+queries that this visit state should keep in memory.
 	 */
 	public int pathQueryLimit() {
+		final WorkbenchEntry workbenchEntry = this.workbenchEntry;
+		final long schemeAuthorityDelay = AdaptiveDelay.schemeAuthorityDelay(frontier.rc, this);
+		final long ipDelay = workbenchEntry == null ? frontier.rc.ipDelay : AdaptiveDelay.ipDelay(frontier.rc, workbenchEntry);
 		/* We first compute the ratio beween the delay for scheme+authorities and the IP delay.
 		 * It is usually greater than one and it expresses the number of scheme+authorities
 		 * that can "fit" the IP delay. */
-		final double delayRatio = Math.max(1 , (frontier.rc.schemeAuthorityDelay + 1.) / (frontier.rc.ipDelay + 1.));
+		final double delayRatio = Math.max(1 , (schemeAuthorityDelay + 1.) / (ipDelay + 1.));
 		/* We now establish a scaling factor depending on the size of the workbench entry. Entries of
 		 * size less than or equal to delayRatio have scaling factor one, as there is no scheme+authority
 		 * slowdown due to the IP delay. However, entries with greater size are scaled proportionally.
@@ -413,28 +554,26 @@ public class VisitState implements Delayed, Serializable {
 		/* Finally, we divide the estimated workbench size in path+queries by the size of the required front multiplied
 		 * by the scaling factor. We also maximize with 4 and minimize with the number of path+queries that
 		 * can be fetched in five minutes. */
-		return (int)Math.min(300000 / (frontier.rc.schemeAuthorityDelay + 1),
+		return (int)Math.min(300000 / (schemeAuthorityDelay + 1),
 				Math.max(4, (long)Math.ceil((frontier.workbenchSizeInPathQueries /
 						(scalingFactor * frontier.requiredFrontSize.get())))));
 	}
 
 	private void writeObject(java.io.ObjectOutputStream s) throws java.io.IOException {
 		s.defaultWriteObject();
-		int size = pathQueries.size();
-		s.writeInt(size);
-
-		while(size-- != 0) Util.writeByteArray(pathQueries.dequeue(), s);
+		pathQueries.write(s);
+		published();
 	}
 
 	private void readObject(java.io.ObjectInputStream s) throws java.io.IOException, ClassNotFoundException, NoSuchFieldException, SecurityException, IllegalArgumentException, IllegalAccessException {
 		s.defaultReadObject();
-		int size = s.readInt();
 
 		Field field = getClass().getDeclaredField("pathQueries");
 		field.setAccessible(true);
-		field.set(this, new ObjectArrayFIFOQueue<byte[]>(size));
+		field.set(this, new PriorityPathQueryQueue());
 
-		while(size-- != 0) pathQueries.enqueue(Util.readByteArray(s));
+		pathQueries.read(s);
+		published();
 	}
 
 	private void updateTermCountEntry(Short2ShortMap.Entry e) {
@@ -442,7 +581,7 @@ public class VisitState implements Delayed, Serializable {
 		termCount.put(e.getShortKey(), (short)Math.min(oldValue + e.getShortValue(), Short.MAX_VALUE));
 	}
 
-	public void updateTermCount(final Short2ShortMap termCount) {
+	public synchronized void updateTermCount(final Short2ShortMap termCount) {
 		termCountUpdates++;
 		// In case we have an open hash map, we use the fast iterator to reduce object creation.
 		if (termCount instanceof Short2ShortOpenHashMap)
@@ -18,17 +18,46 @@ package it.unimi.di.law.bubing.frontier;
 
 import static it.unimi.dsi.fastutil.HashCommon.arraySize;
 import it.unimi.di.law.bubing.util.MurmurHash3;
+import it.unimi.di.law.bubing.util.RobotsFilter;
 import it.unimi.dsi.fastutil.Hash;
+import it.unimi.dsi.fastutil.io.FastByteArrayInputStream;
+import it.unimi.dsi.fastutil.io.FastByteArrayOutputStream;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import it.unimi.dsi.fastutil.shorts.Short2ShortMap;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.http.cookie.Cookie;
 
 //RELEASE-STATUS: DIST
 
 /** A data structure representing the set of {@linkplain VisitState visit states} created so far.
  *  It is a lightweight implementation of a map from scheme+authorities to visit states.
+ *
+ *  <p>Since a crawl can touch hundreds of millions of hosts, most of which are idle at any given time, visit states
+ *  are kept in two tiers. <em>Hot</em> visit states are ordinary objects, and they are returned by {@link #visitStates()}.
+ *  A visit state that is empty, resolved and idle can be {@linkplain #freeze(VisitState) frozen}: it is then <em>cold</em>,
+ *  that is, it is packed into a single byte array (whose prefix is the scheme+authority, so that lookups do not need
+ *  any decoding) and kept in a separate table. Cold visit states are unpacked transparently, and become hot again,
+ *  when they are {@linkplain #get(byte[], int, int) looked up}. {@link #size()} counts visit states in both tiers.
  */
 public class VisitStateSet implements java.io.Serializable, Hash {
 	private static final long serialVersionUID = 0L;
+	/** The offset of the scheme+authority in a packed visit state (it is preceded by its length as an unsigned short). */
+	static final int KEY_OFFSET = 2;
+	/** Marker for a {@code null} {@linkplain VisitState#robots robots filter} in a packed visit state. */
+	private static final byte ROBOTS_NULL = 0;
+	/** Marker for an {@linkplain RobotsFilter#EMPTY empty robots filter} in a packed visit state. */
+	private static final byte ROBOTS_EMPTY = 1;
+	/** Marker for a robots filter {@linkplain RobotsFilter#write(java.io.DataOutput) written in binary format} in a packed visit state. */
+	private static final byte ROBOTS_WRITTEN = 2;
 
 	/** The array of keys. */
 	protected transient VisitState[] visitState;
@@ -40,18 +69,49 @@ public class VisitStateSet implements java.io.Serializable, Hash {
 	protected int size;
 	/** The maximum number of entries that can be filled before rehashing. */
 	protected int maxFill;
+	/** The array of packed cold visit states. */
+	protected transient byte[][] cold;
+	/** The mask for wrapping a position counter in {@link #cold}. */
+	protected transient int coldMask;
+	/** Number of cold visit states. */
+	protected transient int coldSize;
+	/** The maximum number of entries of {@link #cold} that can be filled before rehashing. */
+	protected transient int coldMaxFill;
+	/** The frontier to which the visit states belong, used to set their workbench entry when they are unpacked, or {@code null}. */
+	private final transient Frontier frontier;
+	/** The stream used to pack visit states. */
+	private transient FastByteArrayOutputStream packStream;
+	/** A data output writing on {@link #packStream}. */
+	private transient DataOutputStream packDataStream;
 
-	/** Creates an empty visit state set. */
-	public VisitStateSet() {
+	/** Creates an empty visit state set.
+	 *
+	 * @param frontier the frontier to which the visit states belong, or {@code null}, in which case
+	 * unpacked visit states will not have a workbench entry.
+	 */
+	public VisitStateSet(final Frontier frontier) {
+		this.frontier = frontier;
 		n = 1024;
 		mask = n - 1;
 		maxFill = 3 * (n / 4);
 		visitState = new VisitState[n];
+		cold = new byte[n][];
+		coldMask = mask;
+		coldMaxFill = maxFill;
+		packStream = new FastByteArrayOutputStream();
+		packDataStream = new DataOutputStream(packStream);
 	}
 
-	/** Returns the array of visit states; the order is arbitrary. The array may contain {@code null} elements.
+	/** Creates an empty visit state set with no associated frontier. */
+	public VisitStateSet() {
+		this(null);
+	}
+
+	/** Returns the array of hot visit states; the order is arbitrary. The array may contain {@code null} elements.
+	 *
+	 * <p>Note that cold visit states are not included: see {@link #coldVisitStates()}.
 	 *
-	 * @return the array of visit states; it may contain {@code null} entries.
+	 * @return the array of hot visit states; it may contain {@code null} entries.
 	 */
 	public VisitState[] visitStates() {
 		return visitState;
@@ -66,6 +126,10 @@ public class VisitStateSet implements java.io.Serializable, Hash {
 	}
 
 	/** Adds a visit state to the set, if necessary.
+	 *
+	 * <p>Note that only hot visit states are checked: this method must not be called with a visit state
+	 * whose scheme+authority is associated with a cold visit state (this cannot happen if the visit state
+	 * is added after {@link #get(byte[], int, int)} returned {@code null}).
 	 *
 	 * @param v the state to be added.
 	 * @return true if the state set changed as a result of this operation.
@@ -139,7 +203,23 @@ public class VisitStateSet implements java.io.Serializable, Hash {
 		return true;
 	}
 
+	/** Checks that the content of two array fragments of the same length is equal.
+	 *
+	 * @param a an array.
+	 * @param aOffset the first valid byte in {@code a}.
+	 * @param b another array.
+	 * @param bOffset the first valid byte in {@code b}.
+	 * @param length the number of valid elements in both fragments.
+	 * @return true of the content of the two fragments is equal.
+	 */
+	private static final boolean equals(final byte[] a, final int aOffset, final byte[] b, final int bOffset, int length) {
+		while(length-- != 0) if (a[aOffset + length] != b[bOffset + length]) return false;
+		return true;
+	}
+
 	/** Returns the visit state associated to a given scheme+authority, or {@code null}.
+	 *
+	 * <p>If the visit state is cold, it is unpacked and it becomes hot.
 	 *
 	 * @param array a byte array.
 	 * @return the visit state associated to a given scheme+authority, or {@code null}.
@@ -152,12 +232,12 @@ public class VisitStateSet implements java.io.Serializable, Hash {
 			if (Arrays.equals(visitState[pos].schemeAuthority, array)) return visitState[pos];
 			pos = (pos + 1) & mask;
 		}
-		return null;
+		return coldSize == 0 ? null : thaw(array, 0, array.length);
 	}
 
-
-
 	/** Returns the visit state associated to a given scheme+authority specified as a byte-array fragment, or {@code null}.
+	 *
+	 * <p>If the visit state is cold, it is unpacked and it becomes hot.
 	 *
 	 * @param array a byte array.
 	 * @param offset the first valid byte in {@code array}.
@@ -172,25 +252,351 @@ public class VisitStateSet implements java.io.Serializable, Hash {
 			if (visitState[pos].schemeAuthority.length == length && equals(visitState[pos].schemeAuthority, array, offset, length)) return visitState[pos];
 			pos = (pos + 1) & mask;
 		}
+		return coldSize == 0 ? null : thaw(array, offset, length);
+	}
+
+	/** Returns whether a given scheme+authority, specified as a byte-array fragment, is associated with a (hot or cold) visit state.
+	 *
+	 * <p>Contrarily to the other methods of this class, this method can be called by any thread, concurrently with
+	 * modifications. In that case, the result is just a hint: the visit state might have been added or removed in the meanwhile.
+	 * Cold visit states are not unpacked.
+	 *
+	 * @param array a byte array.
+	 * @param offset the first valid byte in {@code array}.
+	 * @param length the number of valid elements in {@code array}.
+	 * @return true if the scheme+authority is (or was recently) associated with a visit state.
+	 */
+	public boolean contains(final byte[] array, final int offset, final int length) {
+		final long hash = MurmurHash3.hash(array, offset, length);
+		// We work on local copies, which might be stale, but are consistent with their lengths.
+		final VisitState[] visitState = this.visitState;
+		final int mask = visitState.length - 1;
+		// There's always an unused entry.
+		VisitState v;
+		for(int pos = (int)(hash & mask); (v = visitState[pos]) != null; pos = (pos + 1) & mask)
+			if (v.schemeAuthority.length == length && equals(v.schemeAuthority, array, offset, length)) return true;
+		final byte[][] cold = this.cold;
+		final int coldMask = cold.length - 1;
+		byte[] p;
+		for(int pos = (int)(hash & coldMask); (p = cold[pos]) != null; pos = (pos + 1) & coldMask)
+			if (keyLength(p) == length && equals(p, KEY_OFFSET, array, offset, length)) return true;
+		return false;
+	}
+
+	/** Returns the length of the scheme+authority of a packed visit state.
+	 *
+	 * @param p a packed visit state.
+	 * @return the length of the scheme+authority of {@code p}, which starts at {@link #KEY_OFFSET}.
+	 */
+	static int keyLength(final byte[] p) {
+		return (p[0] & 0xFF) << 8 | p[1] & 0xFF;
+	}
+
+	/** Returns the {@link VisitState#nextFetch} field of a packed visit state.
+	 *
+	 * @param p a packed visit state.
+	 * @return the {@link VisitState#nextFetch} field of {@code p}.
+	 */
+	private static long nextFetch(final byte[] p) {
+		long nextFetch = 0;
+		for(int i = KEY_OFFSET + keyLength(p), end = i + 8; i < end; i++) nextFetch = nextFetch << 8 | p[i] & 0xFF;
+		return nextFetch;
+	}
+
+	/** Packs a visit state into a byte array.
+	 *
+	 * <p>The array contains the length of the scheme+authority (as an unsigned short), the scheme+authority, {@link VisitState#nextFetch},
+	 * {@link VisitState#lastRobotsFetch}, {@link VisitState#crawlDelay}, {@link VisitState#averageResponseTime}, {@link VisitState#spammicity},
+	 * {@link VisitState#termCountUpdates}, the length and the bytes of {@link VisitState#ipAddress}, a marker describing {@link VisitState#robots}
+	 * (possibly followed by the filter in {@linkplain RobotsFilter#write(java.io.DataOutput) binary format}), the number of entries of
+	 * {@link VisitState#termCount} (or -1 if it is {@code null}) followed by the entries, and finally a boolean specifying whether
+	 * there are cookies, followed in that case by their serialized form. Note that there is no need to store the path+queries or the
+	 * exception state, as only empty visit states with no exception are packed.
+	 *
+	 * @param v a visit state.
+	 * @return the packed form of {@code v}.
+	 */
+	private byte[] pack(final VisitState v) {
+		final DataOutputStream out = packDataStream;
+		packStream.reset();
+		try {
+			out.writeShort(v.schemeAuthority.length);
+			out.write(v.schemeAuthority);
+			out.writeLong(v.nextFetch);
+			out.writeLong(v.lastRobotsFetch);
+			out.writeLong(v.crawlDelay);
+			out.writeFloat(v.averageResponseTime);
+			out.writeFloat(v.spammicity);
+			out.writeInt(v.termCountUpdates);
+			out.writeByte(v.ipAddress.length);
+			out.write(v.ipAddress);
+
+			final RobotsFilter robots = v.robots;
+			if (robots == null) out.writeByte(ROBOTS_NULL);
+			else if (robots == RobotsFilter.EMPTY) out.writeByte(ROBOTS_EMPTY);
+			else {
+				out.writeByte(ROBOTS_WRITTEN);
+				robots.write(out);
+			}
+
+			if (v.termCount == null) out.writeInt(-1);
+			else {
+				out.writeInt(v.termCount.size());
+				for(final ObjectIterator<Short2ShortMap.Entry> fastIterator = v.termCount.short2ShortEntrySet().fastIterator(); fastIterator.hasNext();) {
+					final Short2ShortMap.Entry e = fastIterator.next();
+					out.writeShort(e.getShortKey());
+					out.writeShort(e.getShortValue());
+				}
+			}
+
+			final Cookie[] cookies = v.cookies;
+			out.writeBoolean(cookies != null && cookies.length != 0);
+			if (cookies != null && cookies.length != 0) {
+				final ObjectOutputStream oos = new ObjectOutputStream(out);
+				oos.writeObject(cookies);
+				oos.flush();
+			}
+			out.flush();
+		}
+		catch(final IOException e) {
+			// Cannot happen: we are writing to an array
+			throw new RuntimeException(e);
+		}
+		return Arrays.copyOf(packStream.array, packStream.length);
+	}
+
+	/** Unpacks a visit state.
+	 *
+	 * <p>The resulting visit state has its {@link VisitState#ipAddress} set, but not its {@link VisitState#workbenchEntry}.
+	 *
+	 * @param p a packed visit state.
+	 * @return the unpacked visit state.
+	 * @see #pack(VisitState)
+	 */
+	private VisitState unpack(final byte[] p) {
+		final DataInputStream in = new DataInputStream(new FastByteArrayInputStream(p));
+		try {
+			final byte[] schemeAuthority = new byte[in.readUnsignedShort()];
+			in.readFully(schemeAuthority);
+			final VisitState v = new VisitState(frontier, schemeAuthority);
+			v.nextFetch = in.readLong();
+			v.lastRobotsFetch = in.readLong();
+			v.crawlDelay = in.readLong();
+			v.averageResponseTime = in.readFloat();
+			v.spammicity = in.readFloat();
+			v.termCountUpdates = in.readInt();
+			final byte[] ipAddress = new byte[in.readUnsignedByte()];
+			in.readFully(ipAddress);
+			v.ipAddress = ipAddress;
+
+			final byte robots = in.readByte();
+			if (robots == ROBOTS_EMPTY) v.robots = RobotsFilter.EMPTY;
+			else if (robots == ROBOTS_WRITTEN) v.robots = RobotsFilter.read(in);
+
+			for(int terms = in.readInt(); terms > 0; terms--) {
+				final short term = in.readShort(), count = in.readShort();
+				if (v.termCount != null) v.termCount.put(term, count);
+			}
+
+			if (in.readBoolean()) v.cookies = (Cookie[])new ObjectInputStream(in).readObject();
+			return v;
+		}
+		catch(final IOException | ClassNotFoundException e) {
+			// Cannot happen: we are reading an array we wrote
+			throw new RuntimeException(e);
+		}
+	}
+
+	/** Packs a hot visit state, making it cold.
+	 *
+	 * <p>After this call, {@code v} is no longer part of this set: a new instance with the same state
+	 * will be returned by {@link #get(byte[], int, int)} when its scheme+authority is looked up. Thus, the caller
+	 * must guarantee that no other reference to {@code v} is in use.
+	 *
+	 * <ul>
+	 * <li>Preconditions: {@code v} is empty and not {@linkplain VisitState#acquired acquired},
+	 * it has a non-{@code null} {@link VisitState#workbenchEntry} and a {@code null} {@link VisitState#lastExceptionClass},
+	 * and there are no path+queries on disk for it.
+	 * </ul>
+	 *
+	 * @param v a hot visit state.
+	 * @return true if the visit state was in this set and it has been packed.
+	 */
+	public boolean freeze(final VisitState v) {
+		assert v.isEmpty() : v;
+		assert ! v.acquired : v;
+		assert v.lastExceptionClass == null : v;
+		if (v.ipAddress == null || v.schemeAuthority.length > 0xFFFF) return false;
+		if (! remove(v)) return false;
+		addPacked(pack(v));
+		return true;
+	}
+
+	/** Adds a packed visit state to the cold visit states of this set.
+	 *
+	 * <p>This method is used to restore the cold visit states of a set (see {@link #packedColdVisitStates()}) without unpacking them.
+	 * The caller must guarantee that the scheme+authority of {@code p} is not already part of this set.
+	 *
+	 * @param p a packed visit state, as returned by {@link #packedColdVisitStates()}.
+	 */
+	public void addPacked(final byte[] p) {
+		int pos = (int)(MurmurHash3.hash(p, KEY_OFFSET, keyLength(p)) & coldMask);
+		// There's always an unused entry.
+		while (cold[pos] != null) pos = (pos + 1) & coldMask;
+		cold[pos] = p;
+		if (++coldSize >= coldMaxFill && cold.length < (1 << 30)) rehashCold(2 * cold.length);
+	}
+
+	/** Looks up a cold visit state and, if it is found, makes it hot.
+	 *
+	 * @param array a byte array.
+	 * @param offset the first valid byte in {@code array}.
+	 * @param length the number of valid elements in {@code array}.
+	 * @return the (now hot) visit state associated to a given scheme+authority, or {@code null}.
+	 */
+	private VisitState thaw(final byte[] array, final int offset, final int length) {
+		// The starting point.
+		int pos = (int)(MurmurHash3.hash(array, offset, length) & coldMask);
+		// There's always an unused entry.
+		while (cold[pos] != null) {
+			final byte[] p = cold[pos];
+			if (keyLength(p) == length && equals(p, KEY_OFFSET, array, offset, length)) {
+				coldSize--;
+				shiftColdKeys(pos);
+				final VisitState v = unpack(p);
+				add(v);
+				if (frontier != null) v.setWorkbenchEntry(v.ipAddress, frontier.workbench.getWorkbenchEntry(Workbench.politenessKey(v.ipAddress, frontier.rc.ipv6PolitenessPrefixLength)));
+				return v;
+			}
+			pos = (pos + 1) & coldMask;
+		}
 		return null;
 	}
 
+	/** Shifts left cold entries with the specified hash code, starting at the specified position, and
+	 * empties the resulting free entry.
+	 *
+	 * @param pos a starting position.
+	 * @return the position cleared by the shifting process. */
+	private int shiftColdKeys(int pos) {
+		// Shift entries with the same hash.
+		int last, slot;
+		for (;;) {
+			pos = ((last = pos) + 1) & coldMask;
+			while (cold[pos] != null) {
+				slot = (int)(MurmurHash3.hash(cold[pos], KEY_OFFSET, keyLength(cold[pos])) & coldMask);
+				if (last <= pos ? last >= slot || slot > pos : last >= slot && slot > pos) break;
+				pos = (pos + 1) & coldMask;
+			}
+			if (cold[pos] == null) break;
+			cold[last] = cold[pos];
+		}
+		cold[last] = null;
+		return last;
+	}
+
+	/** Removes the cold visit states whose {@link VisitState#nextFetch} precedes a given time.
+	 *
+	 * @param time a time.
+	 * @return the number of removed cold visit states.
+	 */
+	public int removeCold(final long time) {
+		int removed = 0;
+		for(int pos = 0; pos < cold.length;) {
+			if (cold[pos] != null && nextFetch(cold[pos]) < time) {
+				// Another entry might be shifted in this position, so we do not advance
+				coldSize--;
+				shiftColdKeys(pos);
+				removed++;
+			}
+			else pos++;
+		}
+		return removed;
+	}
+
+	/** Returns an iterator on the cold visit states, which are unpacked on the fly.
+	 *
+	 * <p>The returned visit states are <em>not</em> part of this set, and they remain cold. They have
+	 * their {@link VisitState#ipAddress} set, but not their {@link VisitState#workbenchEntry}. This
+	 * set must not be modified during the iteration.
+	 *
+	 * @return an iterator on the cold visit states.
+	 */
+	public Iterator<VisitState> coldVisitStates() {
+		return new Iterator<VisitState>() {
+			private int pos = -1;
+			private int toGo = coldSize;
+
+			@Override
+			public boolean hasNext() {
+				return toGo != 0;
+			}
+
+			@Override
+			public VisitState next() {
+				if (! hasNext()) throw new NoSuchElementException();
+				while(cold[++pos] == null);
+				toGo--;
+				return unpack(cold[pos]);
+			}
+		};
+	}
+
+	/** Returns an iterator on the packed form of the cold visit states.
+	 *
+	 * <p>The returned arrays can be {@linkplain #addPacked(byte[]) added} to another set; they must not be modified. This
+	 * set must not be modified during the iteration.
+	 *
+	 * @return an iterator on the packed form of the cold visit states.
+	 */
+	public Iterator<byte[]> packedColdVisitStates() {
+		return new Iterator<byte[]>() {
+			private int pos = -1;
+			private int toGo = coldSize;
+
+			@Override
+			public boolean hasNext() {
+				return toGo != 0;
+			}
+
+			@Override
+			public byte[] next() {
+				if (! hasNext()) throw new NoSuchElementException();
+				while(cold[++pos] == null);
+				toGo--;
+				return cold[pos];
+			}
+		};
+	}
+
 	/** Removes all elements from this set.
 	 *
 	 * <P>To increase object reuse, this method does not change the table size.
 	 */
 	public void clear() {
+		if (coldSize != 0) {
+			coldSize = 0;
+			Arrays.fill(cold, null);
+		}
 		if (size == 0) return;
 		size = 0;
 		Arrays.fill(visitState, null);
 	}
 
-	/** The number of visit states.
+	/** The number of visit states, hot or cold.
 	 *
 	 * @return the number of visit states.
 	 */
 	public int size() {
-		return size;
+		return size + coldSize;
+	}
+
+	/** The number of cold visit states.
+	 *
+	 * @return the number of cold visit states.
+	 */
+	public int coldSize() {
+		return coldSize;
 	}
 
 	/** Returns whether the set is empty.
@@ -198,7 +604,7 @@ public class VisitStateSet implements java.io.Serializable, Hash {
 	 * @return whether the set is empty.
 	 */
 	public boolean isEmpty() {
-		return size == 0;
+		return size() == 0;
 	}
 
 	/** Rehashes the state set to a new size.
@@ -225,6 +631,29 @@ public class VisitStateSet implements java.io.Serializable, Hash {
 		this.visitState = newVisitState;
 	}
 
+	/** Rehashes the table of cold visit states to a new size.
+	 *
+	 * @param newN the new size.
+	 */
+	protected void rehashCold(final int newN) {
+		int i = 0, pos;
+		final byte[][] cold = this.cold;
+		final int newMask = newN - 1;
+		final byte[][] newCold = new byte[newN][];
+
+		for (int j = coldSize; j-- != 0;) {
+			while (cold[i] == null) i++;
+			final byte[] p = cold[i];
+			pos = (int)(MurmurHash3.hash(p, KEY_OFFSET, keyLength(p)) & newMask);
+			while (newCold[pos] != null) pos = (pos + 1) & newMask;
+			newCold[pos] = p;
+			i++;
+		}
+		coldMask = newMask;
+		coldMaxFill = 3 * (newN / 4);
+		this.cold = newCold;
+	}
+
 
 	private void writeObject(java.io.ObjectOutputStream s) throws java.io.IOException {
 		s.defaultWriteObject();
@@ -237,6 +666,11 @@ public class VisitStateSet implements java.io.Serializable, Hash {
 		maxFill = 3 * (n / 4);
 		mask = n - 1;
 		final VisitState[] visitState = this.visitState = new VisitState[n];
+		cold = new byte[1024][];
+		coldMask = cold.length - 1;
+		coldMaxFill = 3 * (cold.length / 4);
+		packStream = new FastByteArrayOutputStream();
+		packDataStream = new DataOutputStream(packStream);
 		for (int i = size, pos = 0; i-- != 0;) {
 			VisitState v = (VisitState)s.readObject();
 			pos = (int)(MurmurHash3.hash(v.schemeAuthority) & mask);
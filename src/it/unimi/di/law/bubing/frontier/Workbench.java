@@ -17,6 +17,9 @@ package it.unimi.di.law.bubing.frontier;
  */
 
 
+import static it.unimi.dsi.fastutil.HashCommon.murmurHash3;
+
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.concurrent.DelayQueue;
 import java.util.concurrent.Delayed;
@@ -28,6 +31,11 @@ import com.google.common.collect.Iterators;
 //RELEASE-STATUS: DIST
 
 /** <p>The workbench is a {@link DelayQueue} queue of {@link WorkbenchEntry} instances, each associated with an IP address.
+ *
+ * <p>To reduce contention on the lock of the queue, the workbench is actually split into a fixed number of
+ * {@linkplain #shards() shards}, each being a separate {@link DelayQueue}; a workbench entry always goes into the
+ * same shard, which is determined by a hash of its IP address. Each shard is drained by its own {@link TodoThread}
+ * using {@link #acquire(int)}, so the politeness guarantees below hold shard by shard, and thus globally.
  *
  * <p>Each {@link WorkbenchEntry} contains a priority queue of {@link VisitState} instances ordered
  * by {@link VisitState#nextFetch}&mdash;the closest moment in
@@ -43,10 +51,11 @@ import com.google.common.collect.Iterators;
  * <p>The workbench is sorted by the <em>maximum between {@link WorkbenchEntry#nextFetch} and the
  * {@link VisitState#nextFetch} of the top of the queue of visit states</em>. This guarantees that
  * the top of the visit-state queue of the workbench entry at the top of the workbench contains a
- * URL that can be fetched by (both authority and IP) politeness if an only if a fetchable URL exists. By setting the value
+ * URL that can be fetched by (both authority and IP) politeness if an only if a fetchable URL exists. Ties, which are frequent
+ * early in a crawl, are broken in favor of more {@linkplain HostImportance important} schemes+authorities. By setting the value
  * returned by {@link Delayed#getDelay(TimeUnit)} to the truncated difference between the maximum
  * above and {@link System#currentTimeMillis()} we can just wait on a {@link DelayQueue#take()} until
- * the next {@link WorkbenchEntry} is ready (this is what {@link #acquire()} does).
+ * the next {@link WorkbenchEntry} is ready (this is what {@link #acquire(int)} does).
  *
  * <p>A basic invariant is that <em>all workbench entries on the workbench contains nonempty queues
  * of visit states, and every visit state in a workbench entry has nonempty a URL queue</em>. Workbench
@@ -57,7 +66,7 @@ import com.google.common.collect.Iterators;
  * <h2>Using a visit state</h2>
  *
  * <p>A {@link VisitState} must be
- * {@linkplain #acquire() acquired} and then {@linkplain #release(VisitState) released}.
+ * {@linkplain #acquire(int) acquired} and then {@linkplain #release(VisitState) released}.
  * When a {@link VisitState} is acquired, its {@link WorkbenchEntry} is removed from the workbench,
  * so it is not possible to acquire any other {@link VisitState} with the same IP address. This
  * mechanism guarantees that we never download data using two different {@link FetchingThread} instances
@@ -71,16 +80,27 @@ import com.google.common.collect.Iterators;
 public class Workbench implements Iterable<WorkbenchEntry> {
 	/** The set of {@linkplain WorkbenchEntry workbench entries}. */
 	protected final WorkbenchEntrySet address2WorkbenchEntry;
-	/** The workbench. */
-	private final DelayQueue<WorkbenchEntry> entries;
-	/** The approximate size of {@link #entries}. */
+	/** The shards of the workbench. */
+	private final DelayQueue<WorkbenchEntry>[] entries;
+	/** The approximate overall size of {@link #entries}. */
 	private final AtomicLong approximatedSize;
 	/** The number of entirely broken entries (i.e., entries containing only broken visit states). */
 	public final AtomicLong broken;
 
-	/** Creates the workbench. */
+	/** Creates a workbench with a single shard. */
 	public Workbench() {
-		entries = new DelayQueue<>();
+		this(1);
+	}
+
+	/** Creates the workbench.
+	 *
+	 * @param shards the number of shards.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public Workbench(final int shards) {
+		if (shards <= 0) throw new IllegalArgumentException("Illegal number of shards: " + shards);
+		entries = new DelayQueue[shards];
+		for(int i = shards; i-- != 0;) entries[i] = new DelayQueue<>();
 		address2WorkbenchEntry = new WorkbenchEntrySet();
 		approximatedSize = new AtomicLong();
 		broken = new AtomicLong();
@@ -91,8 +111,28 @@ public class Workbench implements Iterable<WorkbenchEntry> {
 	 * @return an (unmodifiable) iterator over the entries currently on the workbench.
 	 */
 	@Override
+	@SuppressWarnings({ "unchecked", "rawtypes" })
 	public Iterator<WorkbenchEntry> iterator() {
-		return Iterators.unmodifiableIterator(entries.iterator());
+		final Iterator<WorkbenchEntry>[] iterators = new Iterator[entries.length];
+		for(int i = entries.length; i-- != 0;) iterators[i] = entries[i].iterator();
+		return Iterators.unmodifiableIterator(Iterators.concat(iterators));
+	}
+
+	/** Returns the number of shards of this workbench.
+	 *
+	 * @return the number of shards of this workbench.
+	 */
+	public int shards() {
+		return entries.length;
+	}
+
+	/** Returns the shard of a workbench entry.
+	 *
+	 * @param entry a workbench entry.
+	 * @return the index of the shard that contains {@code entry} when it is on the workbench.
+	 */
+	public int shard(final WorkbenchEntry entry) {
+		return (murmurHash3(Arrays.hashCode(entry.ipAddress)) & 0x7FFFFFFF) % entries.length;
 	}
 
 	/** Returns a vector containing the known workbench entries and {@code null}s.
@@ -107,10 +147,28 @@ public class Workbench implements Iterable<WorkbenchEntry> {
 		}
 	}
 
+	/** Returns the key identifying the workbench entry of an IP address.
+	 *
+	 * <p>IPv4 addresses are keys by themselves. IPv6 addresses are truncated to the given prefix length, so that, for example, with
+	 * a prefix length of 64 all addresses of a /64 network (usually assigned to a single site or customer) share
+	 * the same workbench entry, and thus the same IP-based politeness.
+	 *
+	 * @param address an IP address in byte-array form.
+	 * @param ipv6PrefixLength the length in bits of the prefix of IPv6 addresses that identifies a workbench entry.
+	 * @return {@code address}, or a copy of {@code address} in which the bits following the first {@code ipv6PrefixLength} ones are zeroed.
+	 */
+	public static byte[] politenessKey(final byte[] address, final int ipv6PrefixLength) {
+		if (address.length != 16 || ipv6PrefixLength >= 128) return address;
+		final byte[] key = new byte[16];
+		System.arraycopy(address, 0, key, 0, ipv6PrefixLength / 8);
+		if (ipv6PrefixLength % 8 != 0) key[ipv6PrefixLength / 8] = (byte)(address[ipv6PrefixLength / 8] & 0xFF00 >>> ipv6PrefixLength % 8);
+		return key;
+	}
+
 	/** Returns a workbench entry for the given address, possibly creating one. The entry may or may not be on the {@link Workbench}
 	 *  currently.
 	 *
-	 * @param address an IP address in byte-array form.
+	 * @param address an IP address in byte-array form, or a {@linkplain #politenessKey(byte[], int) key} obtained from an IP address.
 	 * @return a workbench entry for {@code address} (possibly a new one).
 	 */
 
@@ -140,20 +198,21 @@ public class Workbench implements Iterable<WorkbenchEntry> {
 	public void add(WorkbenchEntry entry) {
 		assert ! entry.isEmpty() : entry;
 		assert ! entry.acquired : entry;
-		entries.add(entry);
+		entries[shard(entry)].add(entry);
 		approximatedSize.incrementAndGet();
 	}
 
-	/** Acquires a visit state for a scheme+authority accessible by politeness.
+	/** Acquires from a given shard a visit state for a scheme+authority accessible by politeness.
 	 * Note that this is a blocking method that will wait until such a state is available.
 	 *
 	 * <p>You <strong>must</strong> call {@link #release(VisitState)} when you have finished.
 	 *
+	 * @param shard the index of a shard.
 	 * @return a visit state with nonempty URL queue
 	 * for a scheme+authority accessible by politeness.
 	 */
-	public VisitState acquire() throws InterruptedException {
-		final WorkbenchEntry entry = entries.take();
+	public VisitState acquire(final int shard) throws InterruptedException {
+		final WorkbenchEntry entry = entries[shard].take();
 		assert ! entry.isEmpty();
 		// No race condition is possible here, because entry is nonempty.
 		assert ! entry.acquired;
@@ -170,9 +229,9 @@ public class Workbench implements Iterable<WorkbenchEntry> {
 		return visitState;
 	}
 
-	/** Releases a previously {@linkplain #acquire() acquired} visit state.
+	/** Releases a previously {@linkplain #acquire(int) acquired} visit state.
 	 *
-	 * @param visitState a previously {@linkplain #acquire() acquired} visit state.
+	 * @param visitState a previously {@linkplain #acquire(int) acquired} visit state.
 	 */
 	public void release(final VisitState visitState) {
 		assert visitState.acquired: visitState;
@@ -29,25 +29,36 @@ import org.apache.http.conn.DnsResolver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import it.unimi.di.law.bubing.RuntimeConfiguration;
+import it.unimi.di.law.bubing.util.TokenBucket;
+
 //RELEASE-STATUS: DIST
 
 /** An element of the {@link Workbench}.
  *
- * <p>A workbench entry is associated with a single IP address (actually, to a 64-bit <em>{@linkplain #ipAddress hash}</em> of an
- * IP address, to accommodate for IPv6), and contains a queue of all
- * {@linkplain VisitState visit states} associated with that address, prioritized by {@link VisitState#nextFetch}. The queue can
- * be modified using the synchronized methods {@link #add(VisitState)}, {@link #remove()}, {@link #size()} and {@link #isEmpty()}.
+ * <p>A workbench entry is associated with a single IPv4 or IPv6 address (or, if {@link RuntimeConfiguration#ipv6PolitenessPrefixLength}
+ * is smaller than 128, with a {@linkplain Workbench#politenessKey(byte[], int) prefix} of IPv6 addresses), and contains a queue of all
+ * {@linkplain VisitState visit states} associated with that address, prioritized by {@link VisitState#nextFetch} (ties are broken
+ * by {@link VisitState#importance}). The queue can
+ * be modified using the synchronized methods {@link #add(VisitState)} and {@link #remove()}.
  *
  * <p>A <em>{@linkplain #isEmpty() nonempty}</em> workbench entry is a {@link Delayed} object whose priority is
  * given by the maximum between its {@link #nextFetch} and the {@link VisitState#nextFetch} of the top
  * of the queue. The {@linkplain #getDelay(TimeUnit) delay}, if any, is given by the priority minus
- * {@link System#currentTimeMillis()}. This setup makes it possible to just {@linkplain DelayQueue#take() take}
+ * {@link System#currentTimeMillis()}; ties are broken by the {@link VisitState#importance} of the top of the queue.
+ * This setup makes it possible to just {@linkplain DelayQueue#take() take}
  * a {@link WorkbenchEntry} from the {@link Workbench} and remove its top {@link VisitState}, with the guarantee that
  * it is ready to be visited. Moreover, if there at least one {@link VisitState} that is ready to be visited,
  * the method will not block.
  *
  * <p>A workbench entry is either {@link #acquired} or not. If it not acquired, it is on the
  * workbench if and only if it is nonempty.
+ *
+ * <p>Modifications of the queue are synchronized, but after each modification the size and the top of the queue are published
+ * in volatile fields: in this way, {@link #nextFetch()}, which is called by the {@link Workbench} for every comparison
+ * while holding the lock of a {@link DelayQueue}, and {@link #size()} and {@link #isEmpty()}, which are called by all kinds of threads,
+ * never acquire the monitor of the entry (and, in particular, the lock of a shard of the workbench is never held while
+ * waiting for the monitor of an entry).
  */
 public final class WorkbenchEntry implements Delayed {
 	private static final Logger LOGGER = LoggerFactory.getLogger(WorkbenchEntry.class);
@@ -55,18 +66,27 @@ public final class WorkbenchEntry implements Delayed {
 
 	/** The queue of visit states with the IP address associated with this entry. Access to this
 	 * member <strong>must</strong> happen through the synchronized methods
-	 * {@link #add(VisitState)}, {@link #remove()}, {@link #size()} and {@link #isEmpty()}. */
+	 * {@link #add(VisitState)} and {@link #remove()}, which {@linkplain #published() publish} its size and top. */
 	private final PriorityQueue<VisitState> visitStates;
-	/** The IP address of this workbench entry, computed by {@link DnsResolver#resolve(String)}. */
+	/** The size of {@link #visitStates}, published after each modification. */
+	private volatile int numberOfVisitStates;
+	/** The top of {@link #visitStates}, or {@code null} if the queue is empty, published after each modification. */
+	private volatile VisitState top;
+	/** The IP address of this workbench entry, computed by {@link DnsResolver#resolve(String)}, possibly {@linkplain Workbench#politenessKey(byte[], int) truncated}
+	 * to a prefix if it is an IPv6 address. */
 	public final byte[] ipAddress;
 	/** A cached reference to {@link Workbench#broken}. */
 	private final AtomicLong workbenchBroken;
 	/** The number of broken (i.e., {@link VisitState#lastExceptionClass} &ne; {@code null}) visit states in {@link #visitStates}.*/
 	private int brokenVisitStates;
-	/** Whether this entry has been {@linkplain Workbench#acquire() acquired}. */
-	protected boolean acquired;
+	/** Whether this entry has been {@linkplain Workbench#acquire(int) acquired}. */
+	protected volatile boolean acquired;
 	/** The minimum time at which {@linkplain VisitState visit states} in this entry can be accessed because of IP-based politeness. */
 	protected volatile long nextFetch;
+	/** An exponential moving average of the response time in milliseconds of this IP address (see {@link AdaptiveDelay}), or zero if unknown. */
+	protected volatile float averageResponseTime;
+	/** The token bucket enforcing {@link RuntimeConfiguration#bandwidthPerIP} for this IP address. */
+	public final TokenBucket bandwidthBucket;
 
 	/** Creates a workbench entry for a given IP address.
 	 *
@@ -77,6 +97,7 @@ public final class WorkbenchEntry implements Delayed {
 		this.ipAddress = ipAddress;
 		this.workbenchBroken = brokenVisitStates;
 		this.visitStates = new PriorityQueue<>();
+		this.bandwidthBucket = new TokenBucket();
 	}
 
 	/** Returns true if this entry is nonempty and all its visit states are broken (i.e., {@link VisitState#lastExceptionClass} &ne; {@code null})
@@ -98,6 +119,7 @@ public final class WorkbenchEntry implements Delayed {
 		final boolean wasEntirelyBroken = isEntirelyBroken();
 		if (visitState.lastExceptionClass != null) brokenVisitStates++;
 		visitStates.add(visitState);
+		published();
 		assert brokenVisitStates <= visitStates.size();
 		if (wasEntirelyBroken && ! isEntirelyBroken()) workbenchBroken.decrementAndGet();
 		if (! wasEntirelyBroken && isEntirelyBroken()) workbenchBroken.incrementAndGet();
@@ -111,6 +133,7 @@ public final class WorkbenchEntry implements Delayed {
 	public synchronized VisitState remove() {
 		final boolean wasEntirelyBroken = isEntirelyBroken();
 		final VisitState visitState = visitStates.remove();
+		published();
 		if (visitState.lastExceptionClass != null) brokenVisitStates--;
 		assert brokenVisitStates >= 0;
 		assert brokenVisitStates <= visitStates.size();
@@ -153,8 +176,8 @@ public final class WorkbenchEntry implements Delayed {
 	 *
 	 * @return the number of visit states currently in the visit-state queue.
 	 */
-	public synchronized int size() {
-		return visitStates.size();
+	public int size() {
+		return numberOfVisitStates;
 	}
 
 	/** Returns the visit states currently in the queue.
@@ -175,8 +198,17 @@ public final class WorkbenchEntry implements Delayed {
 	 *
 	 * @return true if the visit-state queue is not empty.
 	 */
-	public synchronized boolean isEmpty() {
-		return visitStates.isEmpty();
+	public boolean isEmpty() {
+		return numberOfVisitStates == 0;
+	}
+
+	/** Publishes the size and the top of the visit-state queue.
+	 *
+	 * <p>This method must be called in a synchronized section after each modification of the queue.
+	 */
+	private void published() {
+		top = visitStates.peek();
+		numberOfVisitStates = visitStates.size();
 	}
 
 	/** Returns the minimum time at which some URL in some {@link VisitState} of the visit-state queue
@@ -190,9 +222,10 @@ public final class WorkbenchEntry implements Delayed {
 	 *
 	 * @return the minimum time at which some URL in some {@link VisitState} of this entry can be accessed.
 	 */
-	public synchronized long nextFetch() {
-		assert visitStates.peek() != null;
-		return Math.max(nextFetch, visitStates.peek().nextFetch);
+	public long nextFetch() {
+		final VisitState top = this.top;
+		assert top != null;
+		return Math.max(nextFetch, top.nextFetch);
 	}
 
 	@Override
@@ -202,13 +235,15 @@ public final class WorkbenchEntry implements Delayed {
 
 	@Override
 	public int compareTo(final Delayed o) {
-		return Long.signum(nextFetch() - ((WorkbenchEntry)o).nextFetch());
+		final WorkbenchEntry workbenchEntry = (WorkbenchEntry)o;
+		final int t = Long.signum(nextFetch() - workbenchEntry.nextFetch());
+		return t != 0 ? t : Float.compare(workbenchEntry.top.importance, top.importance);
 	}
 
 	@Override
-	public synchronized String toString() {
+	public String toString() {
 		try {
-			return "[" + InetAddress.getByAddress(ipAddress) + " (" + visitStates.size() + ")]";
+			return "[" + InetAddress.getByAddress(ipAddress) + " (" + size() + ")]";
 		}
 		catch (UnknownHostException e) {
 			throw new RuntimeException(e.getMessage(), e);
@@ -24,7 +24,8 @@ import java.util.Arrays;
 //RELEASE-STATUS: DIST
 
 /** A data structure representing the set of {@linkplain WorkbenchEntry workbench entries} created so far.
- *  It is a lightweight implementation of a map from IP addresses to workbench entries.
+ *  It is a lightweight implementation of a map from IP addresses (IPv4 or IPv6, possibly {@linkplain Workbench#politenessKey(byte[], int)
+ *  truncated to a prefix}) to workbench entries.
  */
 public class WorkbenchEntrySet implements java.io.Serializable, Hash {
 	private static final long serialVersionUID = 0L;
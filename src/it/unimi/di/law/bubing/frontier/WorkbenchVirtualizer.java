@@ -30,11 +30,11 @@ import com.sleepycat.je.Database;
  * limitations under the License.
  */
 
+import it.unimi.di.law.bubing.RuntimeConfiguration;
 import it.unimi.di.law.bubing.util.BURL;
 import it.unimi.di.law.bubing.util.ByteArrayDiskQueues;
 import it.unimi.di.law.bubing.util.ByteArrayDiskQueues.QueueData;
 import it.unimi.di.law.bubing.util.Util;
-import it.unimi.dsi.fastutil.bytes.ByteArrayList;
 import it.unimi.dsi.fastutil.io.FastBufferedInputStream;
 import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
 import it.unimi.dsi.fastutil.objects.ObjectIterator;
@@ -48,9 +48,12 @@ import it.unimi.dsi.fastutil.objects.Reference2ObjectMap;
  * each visit state, stored in a {@link Database}. Each queue is associated with a scheme+authority (the key).
  * Values are given by an increasing timestamp (written as a vByte-encoded integer) followed by a path+query.
  *
- * <p>Path+queries are enqueued using the {@link #enqueueURL(VisitState, ByteArrayList)} method. They can be {@linkplain #dequeuePathQueries(VisitState, int) dequeued in batches}
+ * <p>Path+queries are enqueued using the {@link #enqueueURL(VisitState, byte[])} method. They can be {@linkplain #dequeuePathQueries(VisitState, int) dequeued in batches}
  * (the method uses {@linkplain Cursor cursors}). When a queue is no longer needed, it can be {@linkplain #remove(VisitState) removed}.
  *
+ * <p>Every {@link Distributor} has its own virtualizer, containing the queues of its visit states; the files of the
+ * virtualizer of shard <var>k</var> &gt; 0 are stored in the directory <code>virtualizer-<var>k</var></code>.
+ *
  * @author Sebastiano Vigna
  */
 public class WorkbenchVirtualizer implements Closeable {
@@ -60,16 +63,20 @@ public class WorkbenchVirtualizer implements Closeable {
 	private final ByteArrayDiskQueues byteArrayDiskQueues;
 	/** A reference to the {@link Frontier}. */
 	private final Frontier frontier;
+	/** The index of the {@link Distributor} owning this virtualizer. */
+	private final int shard;
 	/** The directory containing the virtualizer files. */
 	private final File directory;
 
 	/** Creates the virtualizer.
 	 *
 	 * @param frontier the frontier instantiating this virtualizer.
+	 * @param shard the index of the {@link Distributor} owning this virtualizer.
 	 */
-	public WorkbenchVirtualizer(final Frontier frontier) {
+	public WorkbenchVirtualizer(final Frontier frontier, final int shard) {
 		this.frontier = frontier;
-		directory = new File(frontier.rc.frontierDir, "virtualizer");
+		this.shard = shard;
+		directory = new File(frontier.rc.frontierDir, shard == 0 ? "virtualizer" : "virtualizer-" + shard);
 		directory.mkdir();
 		byteArrayDiskQueues = new ByteArrayDiskQueues(directory);
 	}
@@ -79,6 +86,12 @@ public class WorkbenchVirtualizer implements Closeable {
 	 * <p>Note that the path+queries are directly enqueued into the visit state using
 	 * {@link VisitState#enqueuePathQuery(byte[])}.
 	 *
+	 * <p>If a {@link RuntimeConfiguration#pathQueryPriority} has been configured, after dequeueing we look ahead at
+	 * (at most) as many path+queries as we dequeued: each one of them either
+	 * {@linkplain VisitState#enqueuePathQueryReplacingWorse(byte[]) replaces} a path+query with a worse level
+	 * in the visit state, which is then enqueued again on disk, or it is enqueued again on disk. In this way,
+	 * better path+queries gradually come forward even if the disk queue is FIFO.
+	 *
 	 * @param visitState the visitState in which path+queries will be moved.
 	 * @param maxUrls the maximum number of path+queries to move.
 	 * @return the number of actually dequeued path+queries.
@@ -88,6 +101,13 @@ public class WorkbenchVirtualizer implements Closeable {
 		if (maxUrls == 0) return 0;
 		final int dequeued = (int)Math.min(maxUrls, byteArrayDiskQueues.count(visitState));
 		for(int i = dequeued; i-- != 0;) visitState.enqueuePathQuery(byteArrayDiskQueues.dequeue(visitState));
+		if (frontier.rc.pathQueryPriority != null) {
+			for(long i = Math.min(dequeued, byteArrayDiskQueues.count(visitState)); i-- != 0;) {
+				final byte[] pathQuery = byteArrayDiskQueues.dequeue(visitState);
+				final byte[] replaced = visitState.enqueuePathQueryReplacingWorse(pathQuery);
+				byteArrayDiskQueues.enqueue(visitState, replaced != null ? replaced : pathQuery);
+			}
+		}
 		return dequeued;
 	}
 
@@ -123,10 +143,19 @@ public class WorkbenchVirtualizer implements Closeable {
 	 * @param url a {@link BURL BUbiNG URL}.
 	 * @throws IOException
 	 */
-	public void enqueueURL(VisitState visitState, final ByteArrayList url) throws IOException {
-		final byte[] urlBuffer = url.elements();
-		final int pathQueryStart = BURL.startOfpathAndQuery(urlBuffer);
-		byteArrayDiskQueues.enqueue(visitState,  urlBuffer, pathQueryStart, url.size() - pathQueryStart);
+	public void enqueueURL(VisitState visitState, final byte[] url) throws IOException {
+		final int pathQueryStart = BURL.startOfpathAndQuery(url);
+		byteArrayDiskQueues.enqueue(visitState, url, pathQueryStart, url.length - pathQueryStart);
+	}
+
+	/** Enqueues the given path+query associated to the scheme+authority of the given visit state.
+	 *
+ 	 * @param visitState the visitState to which the path+query must be added.
+	 * @param pathQuery a path+query in byte-array representation.
+	 * @throws IOException
+	 */
+	public void enqueuePathQuery(VisitState visitState, final byte[] pathQuery) throws IOException {
+		byteArrayDiskQueues.enqueue(visitState, pathQuery);
 	}
 
 	/** Performs a garbage collection if the space used is below a given threshold, reaching a given target ratio.
@@ -188,7 +217,7 @@ public class WorkbenchVirtualizer implements Closeable {
 		final int n = ois.readInt();
 		byteArrayDiskQueues.buffers.size(n);
 		byteArrayDiskQueues.files.size(n);
-		final VisitStateSet schemeAuthority2VisitState = frontier.distributor.schemeAuthority2VisitState;
+		final VisitStateSet schemeAuthority2VisitState = frontier.distributors[shard].schemeAuthority2VisitState;
 		byte[] schemeAuthority = new byte[1024];
 		for(int i = ois.readInt(); i-- != 0;) {
 			final int length = Util.readVByte(ois);
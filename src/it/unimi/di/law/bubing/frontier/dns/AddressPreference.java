@@ -0,0 +1,56 @@
+package it.unimi.di.law.bubing.frontier.dns;
+
+/*
+ * Copyright (C) 2012-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+
+//RELEASE-STATUS: DIST
+
+/** A preference between IPv4 and IPv6 addresses, used to choose the address of a host among those returned by a resolver. */
+
+public enum AddressPreference {
+	/** Prefer IPv4 addresses, but use IPv6 addresses if there are no IPv4 addresses. */
+	IPV4,
+	/** Prefer IPv6 addresses, but use IPv4 addresses if there are no IPv6 addresses. */
+	IPV6,
+	/** Use only IPv4 addresses. */
+	IPV4_ONLY,
+	/** Use only IPv6 addresses. */
+	IPV6_ONLY;
+
+	/** Returns whether this preference favors IPv6 addresses.
+	 *
+	 * @return whether this preference favors IPv6 addresses.
+	 */
+	public boolean prefersIPv6() {
+		return this == IPV6 || this == IPV6_ONLY;
+	}
+
+	/** Chooses an address.
+	 *
+	 * @param addresses some addresses, in the order returned by a resolver.
+	 * @return the first address of the preferred family or, if there is none and this preference allows it, the first address of the other family;
+	 * {@code null} if no address can be chosen.
+	 */
+	public InetAddress select(final InetAddress[] addresses) {
+		final boolean ipv6 = prefersIPv6();
+		for(final InetAddress address : addresses) if (address instanceof Inet4Address != ipv6) return address;
+		if (this == IPV4_ONLY || this == IPV6_ONLY || addresses.length == 0) return null;
+		return addresses[0];
+	}
+}
@@ -0,0 +1,684 @@
+package it.unimi.di.law.bubing.frontier.dns;
+
+/*
+ * Copyright (C) 2012-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import it.unimi.di.law.bubing.RuntimeConfiguration;
+import it.unimi.di.law.bubing.frontier.Frontier;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.http.conn.DnsResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+//RELEASE-STATUS: DIST
+
+/** An asynchronous resolver that keeps many UDP queries in flight at the same time.
+ *
+ * <p>All UDP traffic is handled by a single I/O thread using a non-blocking {@link DatagramChannel}: queries
+ * are identified by their (random) 16-bit DNS identifier, and are retried round-robin on the available name servers
+ * if no answer arrives within a {@linkplain #AsyncDnsResolver(List, int, long, int) timeout}. Truncated answers
+ * are repeated over TCP by a small pool of auxiliary threads. The number of queries in flight is bounded, so that
+ * {@link #resolveAsync(String)} blocks when too many queries are pending; concurrent requests for the same host
+ * share a single query.
+ *
+ * <p>Answers (including negative answers) are kept in a {@linkplain #cache() cache}. By default, <code>A</code> records are requested
+ * first, and <code>AAAA</code> records are requested only if a host has no IPv4 address, or if no answer about its IPv4 addresses
+ * can be obtained; the order can be reversed using {@link #preferIPv6(boolean)}.
+ *
+ * <p>{@link #resolve(String)} simply waits for the result of {@link #resolveAsync(String)}, so this class can be used
+ * wherever a standard {@link DnsResolver} is required. The {@link it.unimi.di.law.bubing.frontier.DNSThread}, however, recognizes
+ * this resolver and does not wait for answers, so a few threads are sufficient to keep thousands of resolutions going.
+ *
+ * <p>The default constructor reads the name servers from the system property {@value #SERVERS_PROPERTY} (a comma-separated
+ * list of addresses, optionally followed by a colon and a port); if the property is not set, name servers
+ * are read from <code>/etc/resolv.conf</code>.
+ */
+
+public final class AsyncDnsResolver implements CachingDnsResolver, Closeable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(AsyncDnsResolver.class);
+
+	/** The system property containing the list of name servers used by the {@linkplain #AsyncDnsResolver() default constructor}. */
+	public static final String SERVERS_PROPERTY = "it.unimi.di.law.bubing.frontier.dns.servers";
+	/** The default maximum number of queries in flight. */
+	public static final int DEFAULT_MAX_IN_FLIGHT = 1024;
+	/** The default timeout for a single attempt, in milliseconds. */
+	public static final long DEFAULT_TIMEOUT = 2000;
+	/** The default number of attempts before giving up. */
+	public static final int DEFAULT_ATTEMPTS = 4;
+
+	/** The DNS port. */
+	private static final int PORT = 53;
+	/** The length of a DNS header. */
+	private static final int HEADER_LENGTH = 12;
+	/** The <code>A</code> record type. */
+	private static final int TYPE_A = 1;
+	/** The <code>AAAA</code> record type. */
+	private static final int TYPE_AAAA = 28;
+	/** The <code>IN</code> class. */
+	private static final int CLASS_IN = 1;
+	/** The response code for a nonexistent domain. */
+	private static final int RCODE_NXDOMAIN = 3;
+	/** The number of threads used for TCP fallback. */
+	private static final int TCP_THREADS = 4;
+
+	/** A query in progress. All fields but {@link #future} are accessed by a single thread at a time (the I/O thread or a TCP thread). */
+	private static final class Query {
+		/** The (downcased, without trailing dot) host to be resolved. */
+		private final String host;
+		/** The question section of the query. */
+		private byte[] question;
+		/** Whether we are asking for the addresses of the nonpreferred family. */
+		private boolean fallback;
+		/** The future that will be completed by the answer. */
+		private final CompletableFuture<InetAddress[]> future = new CompletableFuture<>();
+		/** The current DNS identifier of this query, or -1 if the query is not waiting for a UDP answer. */
+		private int id = -1;
+		/** The number of attempts made so far for the current question. */
+		private int attempt;
+		/** The number of UDP messages sent so far. */
+		private int sent;
+		/** The server used by the current attempt. */
+		private InetSocketAddress server;
+
+		private Query(final String host, final byte[] question) {
+			this.host = host;
+			this.question = question;
+		}
+	}
+
+	/** A timeout for a specific UDP message of a query. */
+	private static final class Timeout {
+		private final Query query;
+		private final int sent;
+		private final long deadline;
+
+		private Timeout(final Query query, final long deadline) {
+			this.query = query;
+			this.sent = query.sent;
+			this.deadline = deadline;
+		}
+	}
+
+	/** The name servers. */
+	private final InetSocketAddress[] servers;
+	/** The timeout for a single attempt, in milliseconds. */
+	private final long timeout;
+	/** The number of attempts before giving up. */
+	private final int attempts;
+	/** The permits for queries in flight. */
+	private final Semaphore permits;
+	/** The channel used for UDP queries. */
+	private final DatagramChannel channel;
+	/** The selector of the I/O thread. */
+	private final Selector selector;
+	/** The I/O thread. */
+	private final Thread ioThread;
+	/** The executor used for TCP fallback. */
+	private final ExecutorService tcpExecutor;
+	/** Queries that must be sent (or sent again) by the I/O thread. */
+	private final ConcurrentLinkedQueue<Query> toBeSent = new ConcurrentLinkedQueue<>();
+	/** The pending queries, indexed by host. */
+	private final ConcurrentHashMap<String, Query> pending = new ConcurrentHashMap<>();
+	/** The cache. */
+	private final DnsCache cache = new DnsCache();
+	/** The queries waiting for a UDP answer, indexed by DNS identifier; accessed only by the I/O thread. */
+	private final Query[] id2Query = new Query[1 << 16];
+	/** The timeouts of the queries waiting for a UDP answer, in deadline order; accessed only by the I/O thread. */
+	private final ArrayDeque<Timeout> timeouts = new ArrayDeque<>();
+	/** Whether <code>AAAA</code> records should be requested first. */
+	private volatile boolean preferIPv6;
+	/** Whether this resolver has been closed. */
+	private volatile boolean closed;
+
+	/** Creates a resolver using the name servers specified by the system property {@value #SERVERS_PROPERTY} or, if the property is not set,
+	 * in <code>/etc/resolv.conf</code>, and default parameters.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public AsyncDnsResolver() throws IOException {
+		this(defaultServers(), DEFAULT_MAX_IN_FLIGHT, DEFAULT_TIMEOUT, DEFAULT_ATTEMPTS);
+	}
+
+	/** Creates a resolver.
+	 *
+	 * @param servers the name servers.
+	 * @param maxInFlight the maximum number of queries in flight.
+	 * @param timeout the timeout for a single attempt, in milliseconds.
+	 * @param attempts the number of attempts before giving up.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public AsyncDnsResolver(final List<InetSocketAddress> servers, final int maxInFlight, final long timeout, final int attempts) throws IOException {
+		if (servers.isEmpty()) throw new IllegalArgumentException("No name servers");
+		if (maxInFlight <= 0 || maxInFlight > 1 << 15) throw new IllegalArgumentException("Illegal maximum number of queries in flight: " + maxInFlight);
+		if (timeout <= 0) throw new IllegalArgumentException("Illegal timeout: " + timeout);
+		if (attempts <= 0) throw new IllegalArgumentException("Illegal number of attempts: " + attempts);
+		this.servers = servers.toArray(new InetSocketAddress[servers.size()]);
+		this.timeout = timeout;
+		this.attempts = attempts;
+		this.permits = new Semaphore(maxInFlight);
+		selector = Selector.open();
+		channel = DatagramChannel.open();
+		channel.configureBlocking(false);
+		channel.bind(null);
+		channel.register(selector, SelectionKey.OP_READ);
+		tcpExecutor = Executors.newFixedThreadPool(TCP_THREADS, new ThreadFactoryBuilder().setDaemon(true).setNameFormat(getClass().getSimpleName() + "-TCP-%d").build());
+		ioThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				loop();
+			}
+		}, getClass().getSimpleName());
+		ioThread.setDaemon(true);
+		ioThread.start();
+	}
+
+	/** Returns the default name servers.
+	 *
+	 * @return the name servers specified by the system property {@value #SERVERS_PROPERTY}, if set, or
+	 * in <code>/etc/resolv.conf</code>; if no server is found, the local host.
+	 */
+	private static List<InetSocketAddress> defaultServers() {
+		final List<InetSocketAddress> servers = new ArrayList<>();
+		final String property = System.getProperty(SERVERS_PROPERTY);
+		if (property != null) {
+			for(final String server : property.split(",")) {
+				if (server.trim().length() == 0) continue;
+				final HostAndPort hostAndPort = HostAndPort.fromString(server.trim()).withDefaultPort(PORT);
+				servers.add(new InetSocketAddress(hostAndPort.getHost(), hostAndPort.getPort()));
+			}
+		}
+		else {
+			try (final BufferedReader reader = new BufferedReader(new FileReader("/etc/resolv.conf"))) {
+				for(String line; (line = reader.readLine()) != null;) {
+					final String[] token = line.trim().split("\\s+");
+					if (token.length >= 2 && "nameserver".equals(token[0])) servers.add(new InetSocketAddress(token[1], PORT));
+				}
+			}
+			catch(final IOException e) {
+				LOGGER.warn("Could not read /etc/resolv.conf", e);
+			}
+		}
+		if (servers.isEmpty()) servers.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), PORT));
+		LOGGER.info("Using name servers " + servers);
+		return servers;
+	}
+
+	@Override
+	public DnsCache cache() {
+		return cache;
+	}
+
+	/** Sets the address family whose records are requested first; records of the other family are requested only if
+	 * a host has no address of the preferred family, or if no answer about them can be obtained.
+	 *
+	 * @param preferIPv6 if true, <code>AAAA</code> records will be requested first; otherwise, <code>A</code> records will be requested first.
+	 */
+	public void preferIPv6(final boolean preferIPv6) {
+		this.preferIPv6 = preferIPv6;
+	}
+
+	@Override
+	public InetAddress[] resolve(final String hostname) throws UnknownHostException {
+		try {
+			return resolveAsync(hostname).get();
+		}
+		catch(final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new UnknownHostException("Interrupted while resolving " + hostname);
+		}
+		catch(final ExecutionException e) {
+			if (e.getCause() instanceof UnknownHostException) throw (UnknownHostException)e.getCause();
+			throw new UnknownHostException(e.getCause().toString());
+		}
+	}
+
+	/** Resolves a host asynchronously.
+	 *
+	 * <p>This method returns immediately if the answer is cached or if there are less than the maximum number of queries
+	 * in flight; otherwise, it blocks until a query completes. The returned future will be completed by an
+	 * {@link UnknownHostException} if the host does not exist or if no answer can be obtained.
+	 *
+	 * <p>Note that dependent actions of the returned future might be run by the I/O thread of this resolver: they must thus be quick,
+	 * and they must not block on this resolver.
+	 *
+	 * @param hostname the host to be resolved.
+	 * @return a future that will be completed by the addresses of {@code hostname}.
+	 */
+	public CompletableFuture<InetAddress[]> resolveAsync(final String hostname) {
+		if ("localhost".equals(hostname)) return CompletableFuture.completedFuture(Frontier.LOOPBACK);
+		if (RuntimeConfiguration.DOTTED_ADDRESS.matcher(hostname).matches() || hostname.startsWith("[")) {
+			try {
+				return CompletableFuture.completedFuture(InetAddress.getAllByName(hostname));
+			}
+			catch(final UnknownHostException e) {
+				return failed(e);
+			}
+		}
+
+		final String host = DnsCache.normalize(hostname);
+		final InetAddress[] cached = cache.get(host);
+		if (cached != null) return cached.length != 0 ? CompletableFuture.completedFuture(cached) : failed(new UnknownHostException(hostname));
+
+		final byte[] question;
+		try {
+			question = question(host, preferIPv6 ? TYPE_AAAA : TYPE_A);
+		}
+		catch(final UnknownHostException e) {
+			return failed(e);
+		}
+
+		final Query query = new Query(host, question);
+		final Query previous = pending.putIfAbsent(host, query);
+		if (previous != null) return previous.future;
+
+		try {
+			permits.acquire();
+		}
+		catch(final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			pending.remove(host, query);
+			query.future.completeExceptionally(new UnknownHostException("Interrupted while resolving " + hostname));
+			return query.future;
+		}
+
+		if (closed) {
+			finish(query);
+			query.future.completeExceptionally(new UnknownHostException("Resolver closed while resolving " + hostname));
+			return query.future;
+		}
+
+		toBeSent.add(query);
+		selector.wakeup();
+		return query.future;
+	}
+
+	private static CompletableFuture<InetAddress[]> failed(final Throwable t) {
+		final CompletableFuture<InetAddress[]> future = new CompletableFuture<>();
+		future.completeExceptionally(t);
+		return future;
+	}
+
+	/** Returns the question section of a query for the records of a given type of a host.
+	 *
+	 * @param host a downcased host without trailing dot.
+	 * @param type the record type ({@link #TYPE_A} or {@link #TYPE_AAAA}).
+	 * @return the question section.
+	 * @throws UnknownHostException if {@code host} is not a valid domain name.
+	 */
+	static byte[] question(final String host, final int type) throws UnknownHostException {
+		final int length = host.length();
+		if (length == 0 || length > 253) throw new UnknownHostException(host);
+		final byte[] question = new byte[length + 6];
+		int p = 0;
+		for(int start = 0, i = 0; i <= length; i++) {
+			if (i == length || host.charAt(i) == '.') {
+				if (i == start || i - start > 63) throw new UnknownHostException(host);
+				question[p++] = (byte)(i - start);
+				for(int j = start; j < i; j++) {
+					final char c = host.charAt(j);
+					if (c <= ' ' || c >= 0x7F) throw new UnknownHostException(host);
+					question[p++] = (byte)c;
+				}
+				start = i + 1;
+			}
+		}
+		question[p++] = 0;
+		question[p++] = 0;
+		question[p++] = (byte)type;
+		question[p++] = 0;
+		question[p++] = CLASS_IN;
+		return question;
+	}
+
+	/** Returns a query message.
+	 *
+	 * @param id the DNS identifier.
+	 * @param question the question section.
+	 * @return a query message with the recursion-desired bit set.
+	 */
+	private static ByteBuffer message(final int id, final byte[] question) {
+		final ByteBuffer message = ByteBuffer.allocate(HEADER_LENGTH + question.length);
+		message.putShort((short)id);
+		message.putShort((short)0x0100); // RD
+		message.putShort((short)1); // QDCOUNT
+		message.putShort((short)0).putShort((short)0).putShort((short)0);
+		message.put(question);
+		message.flip();
+		return message;
+	}
+
+	/** Skips a (possibly compressed) name.
+	 *
+	 * @param message a message.
+	 * @param p the starting position of a name.
+	 * @return the position following the name.
+	 */
+	private static int skipName(final ByteBuffer message, int p) {
+		for(;;) {
+			final int length = message.get(p) & 0xFF;
+			if (length == 0) return p + 1;
+			if ((length & 0xC0) == 0xC0) return p + 2;
+			p += length + 1;
+		}
+	}
+
+	/** Returns whether a response matches the question of a query (name comparison is case insensitive).
+	 *
+	 * @param message a response.
+	 * @param question the question section of the query.
+	 * @return whether {@code message} answers {@code question}.
+	 */
+	private static boolean matches(final ByteBuffer message, final byte[] question) {
+		if (message.limit() < HEADER_LENGTH + question.length || (message.getShort(4) & 0xFFFF) != 1) return false;
+		for(int i = question.length; i-- != 0;) {
+			final byte b = message.get(HEADER_LENGTH + i);
+			if ((b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b) != question[i]) return false;
+		}
+		return true;
+	}
+
+	/** Parses the <code>A</code> and <code>AAAA</code> records of the answer section of a response.
+	 *
+	 * @param host the host, which will be used for the returned addresses.
+	 * @param message a response.
+	 * @param ttl a one-element array that will contain the minimum TTL (in seconds) of the returned addresses.
+	 * @return the addresses in the answer section (possibly none).
+	 * @throws IndexOutOfBoundsException if the message is malformed.
+	 * @throws UnknownHostException if the message is malformed.
+	 */
+	private static InetAddress[] addresses(final String host, final ByteBuffer message, final long[] ttl) throws UnknownHostException {
+		final int questions = message.getShort(4) & 0xFFFF, answers = message.getShort(6) & 0xFFFF;
+		int p = HEADER_LENGTH;
+		for(int i = questions; i-- != 0;) p = skipName(message, p) + 4;
+		final List<InetAddress> addresses = new ArrayList<>();
+		long minTtl = Long.MAX_VALUE;
+		for(int i = answers; i-- != 0;) {
+			p = skipName(message, p);
+			final int type = message.getShort(p) & 0xFFFF, dnsClass = message.getShort(p + 2) & 0xFFFF, length = message.getShort(p + 8) & 0xFFFF;
+			final long recordTtl = message.getInt(p + 4) & 0xFFFFFFFFL;
+			p += 10;
+			if (dnsClass == CLASS_IN && (type == TYPE_A && length == 4 || type == TYPE_AAAA && length == 16)) {
+				final byte[] address = new byte[length];
+				for(int j = 0; j < length; j++) address[j] = message.get(p + j);
+				addresses.add(InetAddress.getByAddress(host, address));
+				minTtl = Math.min(minTtl, recordTtl);
+			}
+			p += length;
+		}
+		if (p > message.limit()) throw new IndexOutOfBoundsException();
+		ttl[0] = minTtl;
+		return addresses.toArray(new InetAddress[addresses.size()]);
+	}
+
+	/** The main loop of the I/O thread. */
+	private void loop() {
+		final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+		while(! closed) {
+			try {
+				final long now = System.currentTimeMillis();
+				for(Query query; (query = toBeSent.poll()) != null;) send(query, now);
+
+				while(! timeouts.isEmpty()) {
+					final Timeout t = timeouts.peek();
+					final Query query = t.query;
+					if (query.id == -1 || query.sent != t.sent) timeouts.remove(); // Stale
+					else if (t.deadline <= now) {
+						timeouts.remove();
+						id2Query[query.id] = null;
+						query.id = -1;
+						if (LOGGER.isDebugEnabled()) LOGGER.debug("Timeout for host {} from server {}", query.host, query.server);
+						retry(query, "Timeout while resolving ");
+					}
+					else break;
+				}
+
+				if (! toBeSent.isEmpty()) continue; // Retries
+				selector.select(timeouts.isEmpty() ? 0 : Math.max(1, timeouts.peek().deadline - now));
+				selector.selectedKeys().clear();
+
+				for(SocketAddress from; (from = channel.receive(buffer)) != null; buffer.clear()) {
+					buffer.flip();
+					receive(buffer, from);
+				}
+			}
+			catch(final Throwable t) {
+				if (! closed) LOGGER.error("Unexpected exception", t);
+			}
+		}
+	}
+
+	/** Sends a UDP query (I/O thread only).
+	 *
+	 * @param query the query.
+	 * @param now the current time.
+	 */
+	private void send(final Query query, final long now) {
+		int id = ThreadLocalRandom.current().nextInt(1 << 16);
+		while(id2Query[id] != null) id = id + 1 & 0xFFFF; // There are at most 2^15 queries in flight
+		id2Query[query.id = id] = query;
+		query.sent++;
+		query.server = servers[((query.host.hashCode() & 0x7FFFFFFF) % servers.length + query.attempt) % servers.length];
+		try {
+			channel.send(message(id, query.question), query.server);
+		}
+		catch(final IOException e) {
+			// Handled as a lost packet
+			if (LOGGER.isDebugEnabled()) LOGGER.debug("Error sending query for host " + query.host + " to server " + query.server, e);
+		}
+		timeouts.add(new Timeout(query, now + timeout));
+	}
+
+	/** Handles a UDP response (I/O thread only).
+	 *
+	 * @param message the response.
+	 * @param from the sender.
+	 */
+	private void receive(final ByteBuffer message, final SocketAddress from) {
+		if (message.limit() < HEADER_LENGTH) return;
+		final Query query = id2Query[message.getShort(0) & 0xFFFF];
+		// Spurious or late responses are ignored
+		if (query == null || (message.getShort(2) & 0x8000) == 0 || ! query.server.equals(from) || ! matches(message, query.question)) return;
+		id2Query[query.id] = null;
+		query.id = -1;
+
+		if ((message.getShort(2) & 0x0200) != 0) { // TC
+			tcpExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					tcp(query);
+				}
+			});
+		}
+		else answer(query, message);
+	}
+
+	/** Repeats a query using TCP (TCP threads only).
+	 *
+	 * @param query the query.
+	 */
+	private void tcp(final Query query) {
+		try (final Socket socket = new Socket()) {
+			socket.connect(query.server, (int)timeout);
+			socket.setSoTimeout((int)timeout);
+			final ByteBuffer request = message(ThreadLocalRandom.current().nextInt(1 << 16), query.question);
+			final DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
+			dos.writeShort(request.remaining());
+			dos.write(request.array(), 0, request.remaining());
+			dos.flush();
+			final DataInputStream dis = new DataInputStream(socket.getInputStream());
+			final byte[] response = new byte[dis.readUnsignedShort()];
+			dis.readFully(response);
+			final ByteBuffer message = ByteBuffer.wrap(response);
+			if (message.limit() < HEADER_LENGTH || message.getShort(0) != request.getShort(0) || ! matches(message, query.question)) throw new IOException("Mismatched TCP response");
+			answer(query, message);
+		}
+		catch(final IOException e) {
+			if (LOGGER.isDebugEnabled()) LOGGER.debug("TCP error for host " + query.host + " from server " + query.server, e);
+			retry(query, "TCP error while resolving ");
+		}
+	}
+
+	/** Handles a complete response.
+	 *
+	 * @param query the query.
+	 * @param message the response.
+	 */
+	private void answer(final Query query, final ByteBuffer message) {
+		final int rcode = message.getShort(2) & 0xF;
+		if (rcode == RCODE_NXDOMAIN) {
+			negative(query, "Nonexistent domain ");
+			return;
+		}
+		if (rcode != 0) {
+			retry(query, "Response code " + rcode + " while resolving ");
+			return;
+		}
+		final long[] ttl = new long[1];
+		final InetAddress[] addresses;
+		try {
+			addresses = addresses(query.host, message, ttl);
+		}
+		catch(final IndexOutOfBoundsException | UnknownHostException e) {
+			retry(query, "Malformed response while resolving ");
+			return;
+		}
+
+		if (addresses.length == 0) {
+			// No address of the preferred family: we ask for the other family
+			if (! fallback(query)) negative(query, "No address for ");
+			return;
+		}
+		cache.putPositive(query.host, addresses, ttl[0] * 1000);
+		finish(query);
+		query.future.complete(addresses);
+	}
+
+	/** Retries a query, unless the maximum number of attempts has been reached.
+	 *
+	 * @param query the query.
+	 * @param reason a message to use in the exception thrown if the query has failed.
+	 */
+	private void retry(final Query query, final String reason) {
+		if (++query.attempt < attempts && ! closed) send(query);
+		// The servers might fail only on the records of the preferred family: we ask for the other family
+		else if (closed || ! fallback(query)) {
+			finish(query);
+			query.future.completeExceptionally(new UnknownHostException(reason + query.host));
+		}
+	}
+
+	/** Repeats a query asking for the records of the nonpreferred family, unless this has been already done.
+	 *
+	 * @param query the query.
+	 * @return false if {@code query} was already asking for the records of the nonpreferred family.
+	 */
+	private boolean fallback(final Query query) {
+		if (query.fallback) return false;
+		final byte[] question = query.question;
+		question[question.length - 3] = (byte)(question[question.length - 3] == TYPE_A ? TYPE_AAAA : TYPE_A);
+		query.fallback = true;
+		query.attempt = 0;
+		send(query);
+		return true;
+	}
+
+	/** Schedules a query for sending by the I/O thread.
+	 *
+	 * @param query the query.
+	 */
+	private void send(final Query query) {
+		toBeSent.add(query);
+		if (Thread.currentThread() != ioThread) selector.wakeup();
+	}
+
+	/** Completes a query with a negative (cached) answer.
+	 *
+	 * @param query the query.
+	 * @param reason a message to use in the exception thrown.
+	 */
+	private void negative(final Query query, final String reason) {
+		cache.putNegative(query.host);
+		finish(query);
+		query.future.completeExceptionally(new UnknownHostException(reason + query.host));
+	}
+
+	/** Removes a query from the pending queries and releases its permit.
+	 *
+	 * @param query the query.
+	 */
+	private void finish(final Query query) {
+		pending.remove(query.host, query);
+		permits.release();
+	}
+
+	/** Closes this resolver. Pending queries are completed exceptionally.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) return;
+		closed = true;
+		selector.wakeup();
+		try {
+			ioThread.join();
+		}
+		catch(final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		tcpExecutor.shutdownNow();
+		channel.close();
+		selector.close();
+		for(final Query query : pending.values()) query.future.completeExceptionally(new UnknownHostException("Resolver closed while resolving " + query.host));
+		pending.clear();
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[servers: " + Arrays.toString(servers) + ", pending: " + pending.size() + ", cached: " + cache.size() + "]";
+	}
+}
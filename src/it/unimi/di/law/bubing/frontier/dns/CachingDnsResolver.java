@@ -0,0 +1,33 @@
+package it.unimi.di.law.bubing.frontier.dns;
+
+/*
+ * Copyright (C) 2012-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.http.conn.DnsResolver;
+
+//RELEASE-STATUS: DIST
+
+/** A {@link DnsResolver} keeping its answers in a {@link DnsCache}, which is configured by the
+ * {@link it.unimi.di.law.bubing.frontier.Frontier} and saved in its snapshots. */
+
+public interface CachingDnsResolver extends DnsResolver {
+
+	/** Returns the cache of this resolver.
+	 *
+	 * @return the cache of this resolver.
+	 */
+	public DnsCache cache();
+}
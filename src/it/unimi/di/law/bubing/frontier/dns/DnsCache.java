@@ -0,0 +1,240 @@
+package it.unimi.di.law.bubing.frontier.dns;
+
+/*
+ * Copyright (C) 2012-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+//RELEASE-STATUS: DIST
+
+/** A concurrent cache of DNS answers with expiration times, which can be saved and reloaded in a compact binary format.
+ *
+ * <p>Hosts are expected to be {@linkplain #normalize(String) normalized}. A cached answer is either positive (a nonempty list of addresses)
+ * or negative (the host does not exist). When the cache is full, expired entries are evicted; if this is not
+ * sufficient, the quarter of the entries that would expire first is evicted. Since entries are not refreshed on access,
+ * this approximates the eviction of the least recently resolved hosts without bookkeeping on {@link #get(String)}.
+ *
+ * <p>Expiration times are absolute (in milliseconds since the epoch), so entries saved by {@link #store(DataOutput)} and
+ * reloaded by {@link #load(DataInput)} after a restart expire at the same time they would have expired without the restart;
+ * entries already expired are not reloaded.
+ */
+
+public final class DnsCache {
+	/** A version number for the binary format. */
+	private static final int VERSION = 0;
+	/** The empty array returned for negative answers. */
+	private static final InetAddress[] NEGATIVE = new InetAddress[0];
+
+	/** A cache entry. */
+	private static final class Entry {
+		/** The addresses, or {@link DnsCache#NEGATIVE} for a negative entry. */
+		private final InetAddress[] addresses;
+		/** The expiration time. */
+		private final long expiry;
+
+		private Entry(final InetAddress[] addresses, final long expiry) {
+			this.addresses = addresses;
+			this.expiry = expiry;
+		}
+	}
+
+	/** The cache. */
+	private final ConcurrentHashMap<String, Entry> cache = new ConcurrentHashMap<>();
+	/** The maximum number of cache entries. */
+	private volatile int maxSize = 1 << 20;
+	/** The expiration time of positive answers, in milliseconds. */
+	private volatile long positiveTtl = 3600 * 1000;
+	/** The expiration time of negative answers, in milliseconds. */
+	private volatile long negativeTtl = 60 * 1000;
+
+	/** Normalizes a host so that it can be used as a key of this cache.
+	 *
+	 * @param host a host.
+	 * @return {@code host} downcased and without trailing dot.
+	 */
+	public static String normalize(final String host) {
+		return (host.endsWith(".") ? host.substring(0, host.length() - 1) : host).toLowerCase(Locale.ROOT);
+	}
+
+	/** Sets the cache parameters.
+	 *
+	 * @param maxSize the maximum number of cached entries.
+	 * @param positiveTtl the expiration time of positive answers, in milliseconds (answers with a shorter TTL will be cached for a shorter time).
+	 * @param negativeTtl the expiration time of negative answers, in milliseconds.
+	 */
+	public void configure(final int maxSize, final long positiveTtl, final long negativeTtl) {
+		this.maxSize = maxSize;
+		this.positiveTtl = positiveTtl;
+		this.negativeTtl = negativeTtl;
+	}
+
+	/** Returns the cached answer for a host.
+	 *
+	 * @param host a downcased host without trailing dot.
+	 * @return {@code null} if there is no valid cached answer for {@code host}; an empty array if {@code host} is cached as nonexistent;
+	 * the addresses of {@code host}, otherwise.
+	 */
+	public InetAddress[] get(final String host) {
+		final Entry entry = cache.get(host);
+		if (entry == null) return null;
+		if (entry.expiry > System.currentTimeMillis()) return entry.addresses;
+		cache.remove(host, entry);
+		return null;
+	}
+
+	/** Caches a positive answer.
+	 *
+	 * @param host a downcased host without trailing dot.
+	 * @param addresses the (nonempty) addresses of {@code host}.
+	 * @param ttl the TTL of the answer, in milliseconds (it will be limited by the expiration time for positive answers).
+	 */
+	public void putPositive(final String host, final InetAddress[] addresses, final long ttl) {
+		if (addresses.length == 0) throw new IllegalArgumentException();
+		put(host, new Entry(addresses, System.currentTimeMillis() + Math.min(positiveTtl, ttl)));
+	}
+
+	/** Caches a negative answer.
+	 *
+	 * @param host a downcased host without trailing dot.
+	 */
+	public void putNegative(final String host) {
+		put(host, new Entry(NEGATIVE, System.currentTimeMillis() + negativeTtl));
+	}
+
+	private void put(final String host, final Entry entry) {
+		final int maxSize = this.maxSize;
+		// Lengths must fit a byte in the binary format
+		if (maxSize <= 0 || host.length() > 255 || entry.addresses.length > 255) return;
+		if (cache.size() >= maxSize) {
+			final long now = System.currentTimeMillis();
+			for(final Iterator<Entry> iterator = cache.values().iterator(); iterator.hasNext();) if (iterator.next().expiry <= now) iterator.remove();
+			if (cache.size() >= maxSize) {
+				// We evict the entries expiring first; the cache may change concurrently, so the snapshot is approximate
+				final long[] expiry = new long[cache.size()];
+				int n = 0;
+				for(final Iterator<Entry> iterator = cache.values().iterator(); n < expiry.length && iterator.hasNext();) expiry[n++] = iterator.next().expiry;
+				final int toBeRemoved = n - maxSize * 3 / 4;
+				if (toBeRemoved > 0) {
+					Arrays.sort(expiry, 0, n);
+					final long threshold = expiry[toBeRemoved - 1];
+					for(final Iterator<Entry> iterator = cache.values().iterator(); iterator.hasNext();) if (iterator.next().expiry <= threshold) iterator.remove();
+				}
+			}
+		}
+		cache.put(host, entry);
+	}
+
+	/** Returns the number of entries in this cache (including expired entries not yet evicted).
+	 *
+	 * @return the number of entries in this cache.
+	 */
+	public int size() {
+		return cache.size();
+	}
+
+	/** Stores the valid entries of this cache.
+	 *
+	 * <p>The format is a version number followed by the number of entries and by the entries, each
+	 * given by the host length, the host bytes (in ISO-8859-1), the expiration time, the number of addresses (zero for negative entries) and,
+	 * for each address, its length followed by its bytes.
+	 *
+	 * @param out a data output.
+	 * @return the number of stored entries.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public int store(final DataOutput out) throws IOException {
+		final long now = System.currentTimeMillis();
+		int count = 0;
+		for(final Entry entry : cache.values()) if (entry.expiry > now) count++;
+		out.writeInt(VERSION);
+		out.writeInt(count);
+		// The cache may change concurrently: we write exactly count entries
+		final Iterator<Map.Entry<String, Entry>> iterator = cache.entrySet().iterator();
+		for(int i = 0; i < count;) {
+			final String host;
+			final Entry entry;
+			if (iterator.hasNext()) {
+				final Map.Entry<String, Entry> e = iterator.next();
+				host = e.getKey();
+				entry = e.getValue();
+				if (entry.expiry <= now) continue;
+			}
+			else {
+				// Entries removed concurrently: we pad with expired entries, which will be skipped by load()
+				host = "";
+				entry = new Entry(NEGATIVE, 0);
+			}
+			final byte[] h = host.getBytes(StandardCharsets.ISO_8859_1);
+			out.writeByte(h.length);
+			out.write(h);
+			out.writeLong(entry.expiry);
+			out.writeByte(entry.addresses.length);
+			for(final InetAddress address : entry.addresses) {
+				final byte[] a = address.getAddress();
+				out.writeByte(a.length);
+				out.write(a);
+			}
+			i++;
+		}
+		return count;
+	}
+
+	/** Loads into this cache entries previously {@linkplain #store(DataOutput) stored}. Expired entries are skipped.
+	 *
+	 * @param in a data input.
+	 * @return the number of loaded entries.
+	 * @throws IOException if an I/O error occurs or the format is not recognized.
+	 */
+	public int load(final DataInput in) throws IOException {
+		final int version = in.readInt();
+		if (version != VERSION) throw new IOException("Unknown DNS cache format version: " + version);
+		final long now = System.currentTimeMillis();
+		int loaded = 0;
+		for(int count = in.readInt(); count-- != 0;) {
+			final byte[] h = new byte[in.readUnsignedByte()];
+			in.readFully(h);
+			final String host = new String(h, StandardCharsets.ISO_8859_1);
+			final long expiry = in.readLong();
+			final int n = in.readUnsignedByte();
+			final InetAddress[] addresses = n == 0 ? NEGATIVE : new InetAddress[n];
+			for(int i = 0; i < n; i++) {
+				final byte[] a = new byte[in.readUnsignedByte()];
+				in.readFully(a);
+				try {
+					addresses[i] = InetAddress.getByAddress(host, a);
+				}
+				catch(final UnknownHostException e) {
+					throw new IOException("Illegal address length: " + a.length, e);
+				}
+			}
+			if (expiry > now && host.length() != 0) {
+				put(host, new Entry(addresses, expiry));
+				loaded++;
+			}
+		}
+		return loaded;
+	}
+}
@@ -21,22 +21,80 @@ import it.unimi.di.law.bubing.frontier.Frontier;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.Arrays;
 
-import org.apache.http.conn.DnsResolver;
-import org.xbill.DNS.Address;
+import org.xbill.DNS.AAAARecord;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.Lookup;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.TextParseException;
+import org.xbill.DNS.Type;
 
 //RELEASE-STATUS: DIST
 
-/** A resolver based on <a href="http://www.xbill.org/dnsjava/">dnsjava</a>. */
+/** A resolver based on <a href="http://www.xbill.org/dnsjava/">dnsjava</a>.
+ *
+ * <p>Positive answers are kept also in a {@linkplain #cache() cache} in front of the dnsjava cache: since the latter
+ * cannot be enumerated, this is the cache that is saved in the frontier snapshots. Negative answers are left to dnsjava, as
+ * they cannot be distinguished from failures. */
+
+public final class DnsJavaResolver implements CachingDnsResolver {
+	/** The cache of positive answers. */
+	private final DnsCache cache = new DnsCache();
+
+	@Override
+	public DnsCache cache() {
+		return cache;
+	}
 
-public final class DnsJavaResolver implements DnsResolver {
 	@Override
 	public InetAddress[] resolve(String hostname) throws UnknownHostException {
 		if ("localhost".equals(hostname)) return Frontier.LOOPBACK;
-		// DnsJava does not understand dotted-notation IP addresses with additional zeroes (e.g., 127.0.0.01).
-		if (RuntimeConfiguration.DOTTED_ADDRESS.matcher(hostname).matches()) return InetAddress.getAllByName(hostname);
+		// DnsJava does not understand dotted-notation IP addresses with additional zeroes (e.g., 127.0.0.01), nor bracketed IPv6 literals.
+		if (RuntimeConfiguration.DOTTED_ADDRESS.matcher(hostname).matches() || hostname.startsWith("[")) return InetAddress.getAllByName(hostname);
+		final String host = DnsCache.normalize(hostname);
+		final InetAddress[] cached = cache.get(host);
+		if (cached != null && cached.length != 0) return cached;
 		// This avoid expensive trials with domain suffixes (but must not be applied to dotted-notation IP addresses).
-		hostname = hostname.endsWith(".") ? hostname : hostname + ".";
-		return Address.getAllByName(hostname);
+		final String name = host + ".";
+		final Record[] records = lookup(name);
+		final InetAddress[] addresses = new InetAddress[records.length];
+		long minTtl = Long.MAX_VALUE;
+		for(int i = 0; i < records.length; i++) {
+			final Record record = records[i];
+			addresses[i] = InetAddress.getByAddress(name, (record instanceof ARecord ? ((ARecord)record).getAddress() : ((AAAARecord)record).getAddress()).getAddress());
+			minTtl = Math.min(minTtl, record.getTTL());
+		}
+		if (addresses.length != 0) cache.putPositive(host, addresses, minTtl * 1000);
+		return addresses;
+	}
+
+	/** Looks up the <code>A</code> and <code>AAAA</code> records of a name, as {@link org.xbill.DNS.Address#getAllByName(String)} does,
+	 * but returning the records, so that their TTL is available.
+	 *
+	 * @param name a fully qualified name.
+	 * @return the <code>A</code> records of {@code name} followed by its <code>AAAA</code> records.
+	 * @throws UnknownHostException if {@code name} has no <code>A</code> or <code>AAAA</code> record.
+	 */
+	private static Record[] lookup(final String name) throws UnknownHostException {
+		try {
+			final Lookup lookup = new Lookup(name, Type.A);
+			final Record[] a = lookup.run();
+			if (a == null) {
+				if (lookup.getResult() == Lookup.TYPE_NOT_FOUND) {
+					final Record[] aaaa = new Lookup(name, Type.AAAA).run();
+					if (aaaa != null) return aaaa;
+				}
+				throw new UnknownHostException(name);
+			}
+			final Record[] aaaa = new Lookup(name, Type.AAAA).run();
+			if (aaaa == null) return a;
+			final Record[] merged = Arrays.copyOf(a, a.length + aaaa.length);
+			System.arraycopy(aaaa, 0, merged, a.length, aaaa.length);
+			return merged;
+		}
+		catch(final TextParseException e) {
+			throw new UnknownHostException(name);
+		}
 	}
 }
@@ -23,10 +23,12 @@
 	<p><b>How visit states are born.</b>
 	URLs come out of the {@linkplain it.unimi.di.law.bubing.sieve.AbstractSieve sieve} and are accumulated in the {@link it.unimi.di.law.bubing.frontier.Frontier#readyURLs} queue.
 	URLs from the latter queue are read (by a process called distributor) and taken care of, one at a time.
+	There might be several distributors, each responsible for the schemes+authorities with a given hash: URLs are
+	routed to the distributor responsible for their scheme+authority.
 	Every time a URL is considered, the distributor must know if the URL belongs to an already-known
 	scheme+authority or not.
 	This is done using the {@link it.unimi.di.law.bubing.frontier.Distributor#schemeAuthority2VisitState} map that contains (as values) all
-	the visit states ever created.
+	the visit states ever created for the schemes+authorities of the distributor.
 	After a visit state is created, and in all moments of its life, new URL may arrive for that scheme+authority
 	and are enqueued to the visit state (or, possibly, to an on-disk virtualization of its tail, if the visit
 	state becomes too large; the virtualization aspects are not described in this document, but we invite
@@ -48,7 +50,7 @@
 	scheme+authority) and moreover enough time must have elapsed since the last fetch of a page for the same
 	workbench entry (i.e., for the same IP).
 	When both conditions are satisfied, the visit state is moved onto a queue called {@link it.unimi.di.law.bubing.frontier.Frontier#todo} (by
-	a special thread called {@link it.unimi.di.law.bubing.frontier.TodoThread}). At that point both the visit state and the workbench
+	special threads called {@link it.unimi.di.law.bubing.frontier.TodoThread}, one for each shard of the workbench). At that point both the visit state and the workbench
 	entry it belongs to are declared as being acquired.
 
 	<p><b>Fetching threads.</b>
@@ -0,0 +1,78 @@
+package it.unimi.di.law.bubing.frontier.priority;
+
+/*
+ * Copyright (C) 2012-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+//RELEASE-STATUS: DIST
+
+/** A {@link PathQueryPriority} favoring shallow path+queries.
+ *
+ * <p>The level of a path+query is its depth, that is, the number of slashes in its path minus one, increased by one if the
+ * path+query has a query, and limited by a given maximum depth. Thus, <code>/</code> and <code>/index.html</code> have
+ * level zero, <code>/a/</code> and <code>/?q=1</code> have level one, and so on. The depth of a path+query is a cheap proxy for
+ * the link depth of a page, as sites usually link their most important pages from the home page.
+ */
+public class DepthPathQueryPriority implements PathQueryPriority {
+	/** The default maximum depth. */
+	public static final int DEFAULT_MAX_DEPTH = 7;
+	/** The maximum depth; deeper path+queries have this level. */
+	private final int maxDepth;
+
+	/** Creates a priority favoring shallow path+queries.
+	 *
+	 * @param maxDepth the maximum depth; deeper path+queries will have this level.
+	 */
+	public DepthPathQueryPriority(final int maxDepth) {
+		if (maxDepth < 0) throw new IllegalArgumentException("Negative maximum depth: " + maxDepth);
+		this.maxDepth = maxDepth;
+	}
+
+	/** Creates a priority favoring shallow path+queries.
+	 *
+	 * @param maxDepth the maximum depth; deeper path+queries will have this level.
+	 */
+	public DepthPathQueryPriority(final String maxDepth) {
+		this(Integer.parseInt(maxDepth));
+	}
+
+	/** Creates a priority favoring shallow path+queries with maximum depth {@value #DEFAULT_MAX_DEPTH}. */
+	public DepthPathQueryPriority() {
+		this(DEFAULT_MAX_DEPTH);
+	}
+
+	@Override
+	public int levels() {
+		return maxDepth + 1;
+	}
+
+	@Override
+	public int level(final byte[] pathQuery) {
+		int depth = -1;
+		for(final byte b : pathQuery) {
+			if (b == '?') {
+				depth++;
+				break;
+			}
+			if (b == '/' && ++depth > maxDepth) break;
+		}
+		return Math.max(0, Math.min(maxDepth, depth));
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "(" + maxDepth + ")";
+	}
+}
@@ -0,0 +1,51 @@
+package it.unimi.di.law.bubing.frontier.priority;
+
+/*
+ * Copyright (C) 2012-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import it.unimi.di.law.bubing.frontier.PriorityPathQueryQueue;
+import it.unimi.di.law.bubing.frontier.VisitState;
+
+//RELEASE-STATUS: DIST
+
+/** A strategy assigning priority levels to the path+queries of a scheme+authority.
+ *
+ * <p>Path+queries of a {@link VisitState} are {@linkplain PriorityPathQueryQueue kept in memory} and fetched in order of level (path+queries
+ * with the same level are fetched in FIFO order). Moreover, when there is no more space in memory for a visit state, a new path+query
+ * takes the place of a path+query with a worse level, which is moved to the virtualizer instead. Thus, when
+ * {@link it.unimi.di.law.bubing.RuntimeConfiguration#maxUrlsPerSchemeAuthority} cuts a scheme+authority off,
+ * the fetched path+queries will be, as far as possible, the ones with the best levels.
+ *
+ * <p>Implementations are instantiated from a specification using an {@link it.unimi.dsi.lang.ObjectParser}, and they are
+ * used by a {@link VisitState} when the {@link it.unimi.di.law.bubing.frontier.Distributor} enqueues path+queries to it.
+ * Levels are saved in snapshots, so they are not recomputed when a crawl is restarted.
+ */
+public interface PathQueryPriority {
+
+	/** Returns the number of levels; levels are numbered from zero (the highest priority) to the number of levels minus one.
+	 * Since every level uses a separate queue, the number of levels should be small.
+	 *
+	 * @return the number of levels.
+	 */
+	int levels();
+
+	/** Returns the level of a path+query.
+	 *
+	 * @param pathQuery a path+query in byte-array representation.
+	 * @return the level of {@code pathQuery}, between zero (inclusive) and {@link #levels()} (exclusive).
+	 */
+	int level(byte[] pathQuery);
+}
@@ -0,0 +1,67 @@
+package it.unimi.di.law.bubing.frontier.priority;
+
+/*
+ * Copyright (C) 2012-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.regex.Pattern;
+
+import com.google.common.base.Charsets;
+
+//RELEASE-STATUS: DIST
+
+/** A {@link PathQueryPriority} based on a list of regular expressions.
+ *
+ * <p>The level of a path+query is the index of the first regular expression that can be {@linkplain java.util.regex.Matcher#find() found}
+ * in the path+query or, if there is no such expression, the number of regular expressions. For instance, the specification
+ * <code>PatternPathQueryPriority(^/[^/?]*$,html?$)</code> gives the highest priority to path+queries in the root directory,
+ * followed by HTML pages, followed by everything else. The specification is parsed by an {@link it.unimi.dsi.lang.ObjectParser},
+ * so commas and parentheses in regular expressions must be escaped.
+ */
+public class PatternPathQueryPriority implements PathQueryPriority {
+	/** The regular expressions, in order of decreasing priority. */
+	private final Pattern[] pattern;
+
+	/** Creates a priority based on regular expressions.
+	 *
+	 * @param regex some regular expressions, in order of decreasing priority.
+	 */
+	public PatternPathQueryPriority(final String... regex) {
+		pattern = new Pattern[regex.length];
+		for(int i = 0; i < regex.length; i++) pattern[i] = Pattern.compile(regex[i]);
+	}
+
+	@Override
+	public int levels() {
+		return pattern.length + 1;
+	}
+
+	@Override
+	public int level(final byte[] pathQuery) {
+		final String s = new String(pathQuery, Charsets.ISO_8859_1);
+		for(int i = 0; i < pattern.length; i++) if (pattern[i].matcher(s).find()) return i;
+		return pattern.length;
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder s = new StringBuilder(getClass().getSimpleName()).append('(');
+		for(int i = 0; i < pattern.length; i++) {
+			if (i != 0) s.append(',');
+			s.append(pattern[i]);
+		}
+		return s.append(')').toString();
+	}
+}
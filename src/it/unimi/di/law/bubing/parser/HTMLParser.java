@@ -5,6 +5,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.PrintStream;
 import java.lang.reflect.InvocationTargetException;
 import java.net.URI;
@@ -63,12 +64,16 @@ import com.martiansoftware.jsap.UnflaggedOption;
 import it.unimi.di.law.bubing.Agent;
 import it.unimi.di.law.bubing.util.BURL;
 import it.unimi.di.law.bubing.util.ByteArrayCharSequence;
+import it.unimi.di.law.bubing.util.ByteArrayPipe;
+import it.unimi.di.law.bubing.util.MutableURL;
 import it.unimi.di.law.bubing.util.Util;
 import it.unimi.di.law.warc.filters.URIResponse;
 import it.unimi.di.law.warc.records.WarcHeader;
 import it.unimi.di.law.warc.records.WarcRecord;
 import it.unimi.di.law.warc.util.StringHttpMessages;
+import it.unimi.dsi.fastutil.bytes.ByteArrays;
 import it.unimi.dsi.fastutil.io.InspectableFileCachedInputStream;
+import it.unimi.dsi.fastutil.objects.ObjectLinkedOpenCustomHashSet;
 import it.unimi.dsi.fastutil.objects.ObjectLinkedOpenHashSet;
 import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
 import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
@@ -149,6 +154,79 @@ public class HTMLParser<T> implements Parser<T> {
 		}
 	}
 
+	/** An implementation of a {@link Parser.LinkReceiver} that accumulates the URLs in a public set, using their
+	 * {@linkplain BURL#toByteArray(URI) byte-array representation}.
+	 *
+	 * <p>Links are {@linkplain MutableURL#resolve(MutableURL, CharSequence) resolved} directly into byte arrays, so in the common case
+	 * no {@link URI} is created during parsing; duplicate links are thus detected before any further processing.
+	 * The {@linkplain #iterator() iterator} returns (newly created) URIs for compatibility.
+	 */
+	public final static class ByteArraySetLinkReceiver implements LinkReceiver {
+		/** The set of URLs gathered so far, in byte-array representation. */
+		public final Set<byte[]> urls = new ObjectLinkedOpenCustomHashSet<>(ByteArrays.HASH_STRATEGY);
+		/** A reusable mutable URL used for resolution. */
+		private final MutableURL url = new MutableURL();
+		/** The last base URL passed to {@link #link(URI, String)}, as a mutable URL. */
+		private final MutableURL mutableBase = new MutableURL();
+		/** The last base URL passed to {@link #link(URI, String)}, or {@code null}. */
+		private URI base;
+
+		@Override
+		public void location(final URI location) {
+			urls.add(BURL.toByteArray(location));
+		}
+
+		@Override
+		public void metaLocation(final URI location) {
+			urls.add(BURL.toByteArray(location));
+		}
+
+		@Override
+		public void metaRefresh(final URI refresh) {
+			urls.add(BURL.toByteArray(refresh));
+		}
+
+		@Override
+		public void link(final URI link) {
+			urls.add(BURL.toByteArray(link));
+		}
+
+		@Override
+		public void link(final URI base, final String spec) {
+			// The base changes only because of BASE elements
+			if (base != this.base) mutableBase.set(this.base = base);
+			if (url.resolve(mutableBase, spec)) urls.add(url.toByteArray());
+			else LinkReceiver.super.link(base, spec);
+		}
+
+		@Override
+		public void init(final URI responseUrl) {
+			urls.clear();
+			base = null;
+		}
+
+		@Override
+		public Iterator<URI> iterator() {
+			final Iterator<byte[]> iterator = urls.iterator();
+			return new Iterator<URI>() {
+				@Override
+				public boolean hasNext() {
+					return iterator.hasNext();
+				}
+
+				@Override
+				public URI next() {
+					return BURL.fromNormalizedByteArray(iterator.next());
+				}
+			};
+		}
+
+		@Override
+		public int size() {
+			return urls.size();
+		}
+	}
+
 	/** A class computing the digest of a page.
 	 *
 	 * <p>The page is somewhat simplified before being passed (as a sequence of bytes obtained
@@ -448,8 +526,8 @@ public class HTMLParser<T> implements Parser<T> {
 		this(null, null, false, CHAR_BUFFER_SIZE);
 	}
 
-	/** Pre-process a string that represents a raw link found in the page, trying to derelativize it. If it succeeds, the
-	 *  resulting URL is passed to the link receiver.
+	/** Pre-process a string that represents a raw link found in the page, passing it to the {@linkplain LinkReceiver#link(URI, String) link receiver},
+	 *  which will try to derelativize it.
 	 *
 	 * @param linkReceiver the link receiver that will receive the resulting URL.
 	 * @param base the base URL to be used to derelativize the link.
@@ -457,9 +535,7 @@ public class HTMLParser<T> implements Parser<T> {
 	 */
 	protected void process(final LinkReceiver linkReceiver, final URI base, final String s) {
 		if (s == null) return;
-		final URI url = BURL.parse(s);
-		if (url == null) return;
-		linkReceiver.link(base.resolve(url));
+		linkReceiver.link(base, s);
 	}
 
 	@Override
@@ -492,6 +568,20 @@ public class HTMLParser<T> implements Parser<T> {
 				final String metaCharset = getCharsetName(inspectableStream.buffer, inspectableStream.inspectable);
 				if (metaCharset != null) guessedCharset = metaCharset;
 			}
+			else if (contentStream instanceof ByteArrayPipe.Source) {
+				// A streamed response: we wait for its first bytes
+				final ByteArrayPipe.Source source = (ByteArrayPipe.Source)contentStream;
+				final byte[] prefix;
+				try {
+					prefix = source.prefix();
+				}
+				catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+				}
+				final String metaCharset = getCharsetName(prefix, source.prefixLength());
+				if (metaCharset != null) guessedCharset = metaCharset;
+			}
 		}
 
 
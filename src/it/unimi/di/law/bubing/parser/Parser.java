@@ -22,6 +22,7 @@ import org.apache.http.HttpResponse;
  * limitations under the License.
  */
 
+import it.unimi.di.law.bubing.util.BURL;
 import it.unimi.di.law.warc.filters.Filter;
 import it.unimi.di.law.warc.filters.URIResponse;
 import it.unimi.dsi.fastutil.objects.ObjectSets;
@@ -77,6 +78,21 @@ public interface Parser<T> extends Filter<URIResponse> {
 		 */
 		public void link(URI uri);
 
+		/**
+		 * Handles a link given as a (possibly relative) reference.
+		 *
+		 * <p>The default implementation {@linkplain BURL#parse(String) parses} the reference, resolves it against the given
+		 * base and passes the result to {@link #link(URI)}. Implementations may override this method to avoid the creation of
+		 * {@link URI} objects (see {@link HTMLParser.ByteArraySetLinkReceiver}).
+		 *
+		 * @param base the base URL of the page being parsed.
+		 * @param spec a reference discovered during the parsing phase.
+		 */
+		public default void link(final URI base, final String spec) {
+			final URI url = BURL.parse(spec);
+			if (url != null) link(base.resolve(url));
+		}
+
 		/**
 		 * Initializes this receiver for a new page.
 		 *
@@ -30,6 +30,14 @@ public interface Store extends Closeable {
 
 	void store(final URI uri, final HttpResponse response, boolean isDuplicate, final byte[] contentDigest, final String guessedCharset) throws IOException, InterruptedException;
 
+	/** Stores the response to a conditional request stating that a page has not been modified since the last visit
+	 * (e.g., as a WARC <code>revisit</code> record).
+	 *
+	 * @param uri the URI of the page.
+	 * @param response the response (usually, <code>304 Not Modified</code>).
+	 */
+	void storeRevisit(final URI uri, final HttpResponse response) throws IOException, InterruptedException;
+
 	@Override
 	void close() throws IOException;
 }
@@ -69,6 +69,11 @@ public class UnbufferedFileStore implements Closeable, Store {
 		writer.write(record);
 	}
 
+	@Override
+	public synchronized void storeRevisit(final URI uri, final HttpResponse response) throws IOException, InterruptedException {
+		writer.write(HttpResponseWarcRecord.revisit(uri, response));
+	}
+
 	@Override
 	public synchronized void close() throws IOException {
 		writer.close();
@@ -74,6 +74,11 @@ public class WarcStore implements Closeable, Store {
 		writer.write(record);
 	}
 
+	@Override
+	public void storeRevisit(final URI uri, final HttpResponse response) throws IOException, InterruptedException {
+		writer.write(HttpResponseWarcRecord.revisit(uri, response));
+	}
+
 	@Override
 	public synchronized void close() throws IOException {
 		try {
@@ -430,8 +430,10 @@ public final class BURL {
 		for(atPosition = startOfAuthority; atPosition < length; atPosition++) if (schemeAuthority[atPosition] == (byte)'@') break;
 		final int startOfHost = atPosition != length ? atPosition + 1 : startOfAuthority;
 
-		int endOfHost;
-		for(endOfHost = startOfHost; endOfHost < length; endOfHost++) if (schemeAuthority[endOfHost] == (byte)':') break;
+		int endOfHost = startOfHost;
+		// IPv6 literals are enclosed in brackets, which we keep
+		if (startOfHost < length && schemeAuthority[startOfHost] == (byte)'[') while(endOfHost < length && schemeAuthority[endOfHost++] != (byte)']');
+		for(; endOfHost < length; endOfHost++) if (schemeAuthority[endOfHost] == (byte)':') break;
 		final char[] host = new char[endOfHost - startOfHost];
 		for(int i = startOfHost; i < endOfHost; i++) host[i - startOfHost] = (char)schemeAuthority[i];
 		return new String(host);
@@ -459,7 +461,9 @@ public final class BURL {
 	 */
 	public static final int lengthOfHost(final byte[] url, final int startOfHost) {
 		int endOfHost = startOfHost;
-		do endOfHost++; while(url[endOfHost] != (byte)':' && url[endOfHost] != (byte)'/');
+		// IPv6 addresses are enclosed in brackets, and contain colons
+		if (url[startOfHost] == (byte)'[') while(url[endOfHost++] != (byte)']');
+		else do endOfHost++; while(url[endOfHost] != (byte)':' && url[endOfHost] != (byte)'/');
 		return endOfHost - startOfHost;
 	}
 
@@ -0,0 +1,227 @@
+package it.unimi.di.law.bubing.util;
+
+/*
+ * Copyright (C) 2012-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import com.google.common.net.InetAddresses;
+import com.google.common.primitives.Ints;
+
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+
+//RELEASE-STATUS: DIST
+
+/** An immutable blacklist of hosts and IP addresses.
+ *
+ * <p>A blacklist contains:
+ * <ul>
+ * <li>exact hosts (e.g., <code>www.example.com</code>);
+ * <li>domains, specified with a leading dot or <code>*.</code> (e.g., <code>.example.com</code> or <code>*.example.com</code>), which
+ * match the domain itself and all its subdomains;
+ * <li>IPv4 and IPv6 addresses and CIDR ranges (e.g., <code>192.168.0.0/16</code> or <code>2001:db8::/32</code>).
+ * </ul>
+ *
+ * <p>Instances are immutable, and thus can be queried concurrently without any locking: methods such as {@link #addHosts(Iterable)}
+ * return a new blacklist, so the typical usage pattern is keeping the current blacklist in a {@code volatile} field
+ * that is replaced (under some form of mutual exclusion between writers) by an updated copy.
+ *
+ * <p>Host lookups compute the hash codes of the host and of its domain suffixes on the fly, and create a string only if
+ * one of the hashes matches; in particular, {@link #containsHost(byte[], int, int)} does not allocate objects for
+ * hosts that are not blacklisted. Addresses are looked up in a binary trie (one for IPv4, one for IPv6) stored in arrays, in which
+ * a CIDR range is a terminal node at the depth given by its prefix length.
+ */
+public final class BlackList {
+	/** The empty blacklist. */
+	public static final BlackList EMPTY = new BlackList(new ObjectOpenHashSet<String>(), new IntOpenHashSet(), new ObjectOpenHashSet<String>(), new IntOpenHashSet(), new int[4], new boolean[2], 2);
+
+	/** The blacklisted hosts. */
+	private final ObjectOpenHashSet<String> hosts;
+	/** The hash codes of {@link #hosts}. */
+	private final IntOpenHashSet hostHashes;
+	/** The blacklisted domains (without leading dot). */
+	private final ObjectOpenHashSet<String> domains;
+	/** The hash codes of {@link #domains}. */
+	private final IntOpenHashSet domainHashes;
+	/** The children of the nodes of the address trie: the children of node <var>x</var> are at positions 2<var>x</var>
+	 * (bit 0) and 2<var>x</var> + 1 (bit 1); zero means no child. Node 0 is the root of the IPv4 trie, node 1 the root of the IPv6 trie. */
+	private final int[] child;
+	/** Whether a node of the address trie is terminal, that is, whether all addresses under it are blacklisted. */
+	private final boolean[] terminal;
+	/** The number of nodes of the address trie. */
+	private final int nodes;
+
+	private BlackList(final ObjectOpenHashSet<String> hosts, final IntOpenHashSet hostHashes, final ObjectOpenHashSet<String> domains, final IntOpenHashSet domainHashes, final int[] child, final boolean[] terminal, final int nodes) {
+		this.hosts = hosts;
+		this.hostHashes = hostHashes;
+		this.domains = domains;
+		this.domainHashes = domainHashes;
+		this.child = child;
+		this.terminal = terminal;
+		this.nodes = nodes;
+	}
+
+	/** Returns a new blacklist containing the entries of this blacklist and some additional hosts or domains.
+	 *
+	 * @param specs an iterable over host specifications: either a host, or a domain prefixed by a dot or by <code>*.</code>;
+	 * specifications are trimmed and downcased, a trailing dot is removed, and empty specifications are ignored.
+	 * @return a new blacklist.
+	 */
+	public BlackList addHosts(final Iterable<String> specs) {
+		final ObjectOpenHashSet<String> hosts = this.hosts.clone(), domains = this.domains.clone();
+		final IntOpenHashSet hostHashes = this.hostHashes.clone(), domainHashes = this.domainHashes.clone();
+		for(final String s : specs) {
+			String spec = s.trim().toLowerCase(Locale.ROOT);
+			if (spec.endsWith(".")) spec = spec.substring(0, spec.length() - 1);
+			final boolean domain = spec.startsWith(".") || spec.startsWith("*.");
+			if (domain) spec = spec.substring(spec.indexOf('.') + 1);
+			if (spec.length() == 0) continue;
+			if (domain) {
+				domains.add(spec);
+				domainHashes.add(spec.hashCode());
+			}
+			else {
+				hosts.add(spec);
+				hostHashes.add(spec.hashCode());
+			}
+		}
+		return new BlackList(hosts, hostHashes, domains, domainHashes, child, terminal, nodes);
+	}
+
+	/** Returns a new blacklist containing the entries of this blacklist and some additional addresses or CIDR ranges.
+	 *
+	 * @param specs an iterable over IPv4 or IPv6 addresses in literal form, optionally followed by a slash and a prefix length;
+	 * specifications are trimmed, and empty specifications are ignored.
+	 * @return a new blacklist.
+	 * @throws IllegalArgumentException if some specification is malformed.
+	 */
+	public BlackList addAddresses(final Iterable<String> specs) {
+		int[] child = this.child.clone();
+		boolean[] terminal = this.terminal.clone();
+		int nodes = this.nodes;
+
+		for(final String s : specs) {
+			final String spec = s.trim();
+			if (spec.length() == 0) continue;
+			final int slash = spec.indexOf('/');
+			final byte[] address = parseAddress(slash == -1 ? spec : spec.substring(0, slash));
+			final int prefixLength;
+			try {
+				prefixLength = slash == -1 ? address.length * 8 : Integer.parseInt(spec.substring(slash + 1));
+			}
+			catch(final NumberFormatException e) {
+				throw new IllegalArgumentException("Malformed prefix length in " + spec, e);
+			}
+			if (prefixLength < 0 || prefixLength > address.length * 8) throw new IllegalArgumentException("Prefix length out of range in " + spec);
+
+			int node = address.length == 4 ? 0 : 1;
+			for(int i = 0; i < prefixLength && ! terminal[node]; i++) {
+				final int c = 2 * node + (address[i / 8] >>> 7 - i % 8 & 1);
+				if (child[c] == 0) {
+					if (nodes == terminal.length) {
+						terminal = Arrays.copyOf(terminal, 2 * nodes);
+						child = Arrays.copyOf(child, 4 * nodes);
+					}
+					child[c] = nodes++;
+				}
+				node = child[c];
+			}
+			terminal[node] = true;
+		}
+
+		return new BlackList(hosts, hostHashes, domains, domainHashes, child, terminal, nodes);
+	}
+
+	/** Parses an IP address in literal form.
+	 *
+	 * @param s an IPv4 or IPv6 address in literal form, or a single decimal integer representing an IPv4 address.
+	 * @return the address represented by {@code s}.
+	 * @throws IllegalArgumentException if {@code s} is malformed.
+	 */
+	private static byte[] parseAddress(final String s) {
+		int i;
+		for(i = s.length(); i-- != 0;) if (! Character.isDigit(s.charAt(i))) break;
+		if (i != -1) return InetAddresses.forString(s).getAddress();
+		final long address = Long.parseLong(s);
+		if (address > 0xFFFFFFFFL) throw new IllegalArgumentException("IPv4 address out of range: " + s);
+		return Ints.toByteArray((int)address);
+	}
+
+	/** Returns whether a host is blacklisted, either directly or because it belongs to a blacklisted domain.
+	 *
+	 * @param host a (downcased) host.
+	 * @return whether {@code host} is blacklisted.
+	 */
+	public boolean containsHost(final String host) {
+		if (hostHashes.isEmpty() && domainHashes.isEmpty()) return false;
+		// Hash codes of suffixes can be computed right to left
+		int h = 0, power = 1;
+		for(int i = host.length(); i-- != 0;) {
+			h += host.charAt(i) * power;
+			power *= 31;
+			if ((i == 0 || host.charAt(i - 1) == '.') && domainHashes.contains(h) && domains.contains(host.substring(i))) return true;
+		}
+		return hostHashes.contains(h) && hosts.contains(host);
+	}
+
+	/** Returns whether a host represented by a fragment of an ASCII byte array is blacklisted, either directly or because it belongs to a blacklisted domain.
+	 *
+	 * @param a a byte array (typically, the byte-array representation of a BUbiNG URL).
+	 * @param offset the starting position of the (downcased) host.
+	 * @param length the length of the host.
+	 * @return whether the specified host is blacklisted.
+	 */
+	public boolean containsHost(final byte[] a, final int offset, final int length) {
+		if (hostHashes.isEmpty() && domainHashes.isEmpty()) return false;
+		int h = 0, power = 1;
+		for(int i = offset + length; i-- != offset;) {
+			h += a[i] * power;
+			power *= 31;
+			if ((i == offset || a[i - 1] == '.') && domainHashes.contains(h) && domains.contains(Util.toString(a, i, offset + length - i))) return true;
+		}
+		return hostHashes.contains(h) && hosts.contains(Util.toString(a, offset, length));
+	}
+
+	/** Returns whether an IP address is blacklisted, either directly or because it belongs to a blacklisted CIDR range.
+	 *
+	 * @param address an IPv4 or IPv6 address.
+	 * @return whether {@code address} is blacklisted.
+	 */
+	public boolean containsAddress(final byte[] address) {
+		int node = address.length == 4 ? 0 : 1;
+		for(int i = 0; ! terminal[node]; i++) {
+			if (i == address.length * 8) return false;
+			node = child[2 * node + (address[i / 8] >>> 7 - i % 8 & 1)];
+			if (node == 0) return false;
+		}
+		return true;
+	}
+
+	/** Returns whether this blacklist is empty.
+	 *
+	 * @return whether this blacklist is empty.
+	 */
+	public boolean isEmpty() {
+		return hosts.isEmpty() && domains.isEmpty() && nodes == 2 && ! terminal[0] && ! terminal[1];
+	}
+
+	@Override
+	public String toString() {
+		return "[" + hosts.size() + " hosts, " + domains.size() + " domains, " + (nodes - 2) + " address trie nodes]";
+	}
+}
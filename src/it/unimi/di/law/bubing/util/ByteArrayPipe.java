@@ -0,0 +1,227 @@
+package it.unimi.di.law.bubing.util;
+
+/*
+ * Copyright (C) 2012-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+//RELEASE-STATUS: DIST
+
+/** A bounded pipe of bytes between a writing thread and a reading thread.
+ *
+ * <p>Bytes written to the {@linkplain #sink() sink} are stored in a circular buffer, and can be read from the
+ * {@linkplain #source() source}. Writes block when the buffer is full, and reads block when the buffer
+ * is empty, until the sink is {@linkplain OutputStream#close() closed}. Differently from
+ * {@link java.io.PipedInputStream}, the pipe does not keep track of the threads using it, so it can
+ * be used by pooled threads; moreover:
+ * <ul>
+ * <li>the first {@linkplain Source#prefix() bytes} written since the last {@linkplain #reset() reset} are kept aside, so that
+ * the reader can inspect them (e.g., to detect a character encoding) before consuming the stream;
+ * <li>if the source is {@linkplain InputStream#close() closed}, further writes are silently discarded, so a reader
+ * that stops reading early never blocks the writer;
+ * <li>the reader can {@linkplain #awaitClose() wait} for the sink to be closed.
+ * </ul>
+ *
+ * <p>Instances of this class can be reused after a {@link #reset()}.
+ */
+public class ByteArrayPipe {
+	/** The source of a pipe. */
+	public final class Source extends InputStream {
+		private Source() {}
+
+		@Override
+		public int read() throws IOException {
+			final byte[] b = new byte[1];
+			return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			return ByteArrayPipe.this.read(b, off, len);
+		}
+
+		@Override
+		public int available() {
+			synchronized(ByteArrayPipe.this) {
+				return size;
+			}
+		}
+
+		@Override
+		public void close() {
+			synchronized(ByteArrayPipe.this) {
+				sourceClosed = true;
+				size = 0;
+				ByteArrayPipe.this.notifyAll();
+			}
+		}
+
+		/** Waits until the prefix is complete (or the sink has been closed), and returns it.
+		 *
+		 * <p>Only the first {@link #prefixLength()} bytes of the returned array are valid. The array must not be modified.
+		 *
+		 * @return the array containing the prefix of the written bytes.
+		 */
+		public byte[] prefix() throws InterruptedException {
+			synchronized(ByteArrayPipe.this) {
+				while (prefixLength < prefix.length && ! sinkClosed && ! sourceClosed) ByteArrayPipe.this.wait();
+				return prefix;
+			}
+		}
+
+		/** Returns the number of valid bytes in the array returned by {@link #prefix()}.
+		 *
+		 * @return the number of valid bytes in the array returned by {@link #prefix()}.
+		 */
+		public int prefixLength() {
+			synchronized(ByteArrayPipe.this) {
+				return prefixLength;
+			}
+		}
+	}
+
+	/** The circular buffer. */
+	private final byte[] buffer;
+	/** The prefix of the written bytes (see {@link Source#prefix()}). */
+	private final byte[] prefix;
+	/** The number of valid bytes in {@link #prefix}. */
+	private int prefixLength;
+	/** The position in {@link #buffer} of the next byte to be read. */
+	private int start;
+	/** The number of bytes in {@link #buffer}. */
+	private int size;
+	/** Whether the sink has been closed. */
+	private boolean sinkClosed;
+	/** Whether the source has been closed. */
+	private boolean sourceClosed;
+	/** The source of this pipe. */
+	private final Source source;
+	/** The sink of this pipe. */
+	private final OutputStream sink;
+
+	/** Creates a new pipe.
+	 *
+	 * @param capacity the capacity of the pipe.
+	 * @param prefixCapacity the maximum length of the {@linkplain #prefix() prefix}.
+	 */
+	public ByteArrayPipe(final int capacity, final int prefixCapacity) {
+		if (capacity <= 0) throw new IllegalArgumentException("Nonpositive capacity: " + capacity);
+		buffer = new byte[capacity];
+		prefix = new byte[prefixCapacity];
+
+		source = new Source();
+
+		sink = new OutputStream() {
+			@Override
+			public void write(final int b) throws IOException {
+				write(new byte[] { (byte)b }, 0, 1);
+			}
+
+			@Override
+			public void write(final byte[] b, final int off, final int len) throws IOException {
+				ByteArrayPipe.this.write(b, off, len);
+			}
+
+			@Override
+			public void close() {
+				synchronized(ByteArrayPipe.this) {
+					sinkClosed = true;
+					ByteArrayPipe.this.notifyAll();
+				}
+			}
+		};
+	}
+
+	/** Resets this pipe, making it ready for a new writer and a new reader. */
+	public synchronized void reset() {
+		start = size = prefixLength = 0;
+		sinkClosed = sourceClosed = false;
+	}
+
+	/** Returns the source of this pipe.
+	 *
+	 * @return the source of this pipe.
+	 */
+	public Source source() {
+		return source;
+	}
+
+	/** Returns the sink of this pipe.
+	 *
+	 * @return the sink of this pipe.
+	 */
+	public OutputStream sink() {
+		return sink;
+	}
+
+	private synchronized int read(final byte[] b, final int off, final int len) throws IOException {
+		if (len == 0) return 0;
+		try {
+			while (size == 0 && ! sinkClosed && ! sourceClosed) wait();
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+		if (sourceClosed) throw new IOException("Source closed");
+		if (size == 0) return -1;
+
+		final int n = Math.min(len, size);
+		final int first = Math.min(n, buffer.length - start);
+		System.arraycopy(buffer, start, b, off, first);
+		System.arraycopy(buffer, 0, b, off + first, n - first);
+		start = (start + n) % buffer.length;
+		size -= n;
+		notifyAll();
+		return n;
+	}
+
+	private synchronized void write(final byte[] b, int off, int len) throws IOException {
+		if (sinkClosed) throw new IOException("Sink closed");
+		if (prefixLength < prefix.length) {
+			final int l = Math.min(len, prefix.length - prefixLength);
+			System.arraycopy(b, off, prefix, prefixLength, l);
+			prefixLength += l;
+			notifyAll();
+		}
+
+		while (len != 0) {
+			try {
+				while (size == buffer.length && ! sourceClosed) wait();
+			}
+			catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+			if (sourceClosed) return; // Nobody is going to read this
+			final int end = (start + size) % buffer.length;
+			final int n = Math.min(len, Math.min(buffer.length - size, buffer.length - end));
+			System.arraycopy(b, off, buffer, end, n);
+			size += n;
+			off += n;
+			len -= n;
+			notifyAll();
+		}
+	}
+
+	/** Waits until the sink of this pipe has been closed. */
+	public synchronized void awaitClose() throws InterruptedException {
+		while (! sinkClosed) wait();
+	}
+}
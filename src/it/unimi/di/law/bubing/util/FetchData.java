@@ -18,27 +18,42 @@ package it.unimi.di.law.bubing.util;
 
 import java.io.Closeable;
 import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
 import java.net.InetAddress;
 import java.net.URI;
-import java.nio.channels.ClosedChannelException;
+import java.nio.ByteBuffer;
 import java.security.NoSuchAlgorithmException;
-import java.util.Queue;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.ProtocolVersion;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.DeflateInputStream;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.HttpAsyncClient;
+import org.apache.http.nio.client.methods.AsyncByteConsumer;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.protocol.HttpContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -47,10 +62,13 @@ import com.google.common.net.HttpHeaders;
 
 import it.unimi.di.law.bubing.RuntimeConfiguration;
 import it.unimi.di.law.bubing.frontier.ParsingThread;
+import it.unimi.di.law.bubing.frontier.PerIPHttpClientConnectionManager;
 import it.unimi.di.law.bubing.frontier.VisitState;
 import it.unimi.di.law.bubing.parser.BinaryParser;
+import it.unimi.di.law.bubing.parser.Parser;
 import it.unimi.di.law.bubing.test.NamedGraphServerHttpProxy;
 import it.unimi.di.law.bubing.test.RandomNamedGraphServer;
+import it.unimi.di.law.warc.filters.Filter;
 import it.unimi.di.law.warc.filters.URIResponse;
 import it.unimi.di.law.warc.util.InspectableCachedHttpEntity;
 import it.unimi.dsi.fastutil.io.InspectableFileCachedInputStream;
@@ -68,6 +86,20 @@ import it.unimi.dsi.fastutil.io.InspectableFileCachedInputStream;
  * method is used to issue the request; after that, all data obtained as a {@linkplain #response() response} are available. All data is available until disposal, or until another
  * call to {@link #fetch(URI, HttpClient, RequestConfig, VisitState, boolean)}.
  *
+ * <p>Alternatively, {@link #fetch(URI, HttpAsyncClient, RequestConfig, HttpClientContext, VisitState, boolean, LockFreeQueue)} issues
+ * a non-blocking request: the content is cached by a {@link CachingAsyncByteConsumer} as it arrives, and
+ * this instance is enqueued to a result queue when the request is over.
+ *
+ * <p>If {@link RuntimeConfiguration#streamingParses} is positive, a response can be <em>streamed</em>: it is
+ * enqueued for parsing as soon as its headers have been received, and its content is made available
+ * through a {@link ByteArrayPipe} while it is being downloaded (and cached as usual); see
+ * {@link #fetch(URI, HttpClient, RequestConfig, VisitState, boolean, LockFreeQueue)}.
+ *
+ * <p>Content encoded with <code>gzip</code> or <code>deflate</code> by a synchronous fetch is decoded while it is being
+ * downloaded, and the related headers are removed from the response, so the cached content is always decoded;
+ * {@link #wireLength()} returns the number of bytes actually received. To avoid decompression bombs, the decoded
+ * content is truncated when it becomes {@link RuntimeConfiguration#decompressionMaxRatio} times larger than the encoded content.
+ *
  * <p>Note that since this object will be populated by one thread and used by another all fields
  * <strong>must</strong> be either <code>final</code>final or <code>volatile</code>. */
 
@@ -83,6 +115,15 @@ public class FetchData implements URIResponse, Closeable {
 		if (FAKE) FAKE_RESPONSE.setHeader(FAKE_CONTENT_TYPE);
 	}
 
+	/** An empty entity wrapped by {@link #wrappedEntity} when a response has no entity, so that no header of the previous response is reported. */
+	private static final HttpEntity EMPTY_ENTITY = new BasicHttpEntity();
+
+	/** The capacity of the pipe used to stream content to a parser. */
+	private static final int STREAMING_PIPE_SIZE = 64 * 1024;
+
+	/** The number of bytes of a streamed response that are made available for inspection before parsing (see {@link ByteArrayPipe.Source#prefix()}). */
+	private static final int STREAMING_PREFIX_SIZE = 8 * 1024;
+
 	/** The number of path elements for the hierarchical overflow files (see {@link it.unimi.di.law.bubing.util.Util#createHierarchicalTempFile(File, int, String, String)}). */
 	public static final int OVERFLOW_FILES_RANDOM_PATH_ELEMENTS = 1;
 
@@ -91,21 +132,22 @@ public class FetchData implements URIResponse, Closeable {
 	 * to a specific exception or to {@link #CANCELLED} depending on whether
 	 * the request {@linkplain #completed(Void) completed}, {@linkplain #failed(Exception) failed}
 	 * or was {@linkplain #cancelled() cancelled}. */
-	@SuppressWarnings("unused")
 	private static final class EnqueueFetchedHttpResponseFutureCallback implements FutureCallback<Void> {
 		/** A marker exception for {@linkplain FutureCallback#cancelled() cancelled} requests. */
 		private final static Exception CANCELLED = new Exception();
 		/** The {@link FetchData} that will be enqueued when the callback is invoked. */
 		private final FetchData fetchData;
 		/** The queue (to be set at each usage). */
-		public volatile Queue<FetchData> results;
+		public volatile LockFreeQueue<FetchData> results;
 
 		public EnqueueFetchedHttpResponseFutureCallback(final FetchData fetchData) {
 			this.fetchData = fetchData;
 		}
 
 		private void common() {
-			fetchData.endTime = System.currentTimeMillis();
+			fetchData.endTime = Math.max(System.currentTimeMillis(), fetchData.startTime); // Work around non-monotonicity of System.currentTimeMillis()
+			// The response of a streamed fetch belongs to the parsing thread (see awaitCompletion())
+			if (fetchData.response != null && ! fetchData.streaming) fetchData.response.setEntity(fetchData.wrappedEntity);
 			fetchData.httpGet.reset();
 		}
 
@@ -118,7 +160,8 @@ public class FetchData implements URIResponse, Closeable {
 		@Override
 		public void failed(final Exception ex) {
 			common();
-			fetchData.exception = ex instanceof ClosedChannelException && fetchData.truncated ? null : ex;
+			// Truncated responses, and responses whose body is skipped, are closed on purpose by CachingAsyncByteConsumer
+			fetchData.exception = fetchData.truncated || fetchData.bodySkipped ? null : ex;
 			results.add(fetchData);
 		}
 
@@ -130,6 +173,225 @@ public class FetchData implements URIResponse, Closeable {
 		}
 	}
 
+	/** An asynchronous consumer caching the response content in the {@link InspectableCachedHttpEntity} of a {@link FetchData}.
+	 * Responses are truncated at {@link RuntimeConfiguration#responseBodyMaxByteSize} bytes by closing the connection,
+	 * and a {@link TooSlowException} is thrown if the download becomes too slow, exactly as it happens with
+	 * {@link InspectableCachedHttpEntity#copyContent(long, long, long, long)}.
+	 *
+	 * <p>A consumer cannot be reused, as it keeps track of its completion and of the exception that made it fail:
+	 * a new instance must be created for each request. */
+	private static final class CachingAsyncByteConsumer extends AsyncByteConsumer<Void> {
+		/** The {@link FetchData} whose entity will cache the content. */
+		private final FetchData fetchData;
+
+		public CachingAsyncByteConsumer(final FetchData fetchData) {
+			this.fetchData = fetchData;
+		}
+
+		@Override
+		protected void onResponseReceived(final HttpResponse response) throws IOException {
+			fetchData.responseTime = System.currentTimeMillis();
+			fetchData.response = response;
+			final HttpEntity entity = response.getEntity();
+			if (entity == null) fetchData.noEntity();
+			else {
+				fetchData.wrappedEntity.setEntity(entity);
+				fetchData.bodySkipped = fetchData.rejectedByHeaders();
+			}
+		}
+
+		@Override
+		protected void onByteReceived(final ByteBuffer buffer, final IOControl ioControl) throws IOException {
+			if (fetchData.bodySkipped) {
+				ioControl.shutdown();
+				return;
+			}
+			if (fetchData.truncated) return;
+			if (fetchData.wrappedEntity.append(buffer, fetchData.rc.responseBodyMaxByteSize)) {
+				fetchData.truncated = true;
+				ioControl.shutdown();
+				return;
+			}
+			final long delay = System.currentTimeMillis() - fetchData.startTime;
+			final double bytesPerSecond = fetchData.wrappedEntity.getContentLength() / (delay / 1000.);
+			if (delay > fetchData.rc.connectionTimeout && bytesPerSecond < 10) throw new TooSlowException(bytesPerSecond + " B/s");
+		}
+
+		@Override
+		protected Void buildResult(final HttpContext context) {
+			return null;
+		}
+	}
+
+
+	/** An unchecked exception thrown when the content of a {@link HeaderOnlyHttpEntity} is accessed. */
+	private static final class ContentNotAvailableException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		private static final ContentNotAvailableException INSTANCE = new ContentNotAvailableException();
+
+		private ContentNotAvailableException() {
+			super("The content of the response is not available yet", null, false, false);
+		}
+	}
+
+	/** An entity exposing the metadata of another entity, but whose content cannot be accessed. It is used
+	 * to evaluate filters on a response when only its headers have been received. */
+	private static final class HeaderOnlyHttpEntity extends HttpEntityWrapper {
+		public HeaderOnlyHttpEntity(final HttpEntity wrappedEntity) {
+			super(wrappedEntity);
+		}
+
+		@Override
+		public InputStream getContent() {
+			throw ContentNotAvailableException.INSTANCE;
+		}
+
+		@Override
+		public void writeTo(final OutputStream outStream) {
+			throw ContentNotAvailableException.INSTANCE;
+		}
+	}
+
+	/** An entity decoding the content of another entity encoded with <code>gzip</code> or <code>deflate</code>.
+	 * The decoded content ends prematurely if it becomes too large with respect to the encoded content. */
+	static final class DecodingHttpEntity extends HttpEntityWrapper {
+		/** The decoded content must be larger than this number of bytes to be considered a decompression bomb. */
+		private static final long MIN_EXPANSION_THRESHOLD = 64 * 1024;
+		/** Whether the content is encoded with <code>gzip</code> (as opposed to <code>deflate</code>). */
+		private final boolean gzip;
+		/** The maximum ratio between the length of the decoded and of the encoded content. */
+		private final long maxRatio;
+		/** The encoded content, or {@code null} if the content has not been accessed yet. */
+		private CountingInputStream encoded;
+		/** The number of decoded bytes read so far. */
+		private long decodedLength;
+		/** Whether the decoded content was truncated because of {@link #maxRatio}. */
+		private boolean expansionExceeded;
+
+		public DecodingHttpEntity(final HttpEntity wrappedEntity, final boolean gzip, final long maxRatio) {
+			super(wrappedEntity);
+			this.gzip = gzip;
+			this.maxRatio = maxRatio;
+		}
+
+		@Override
+		public InputStream getContent() throws IOException {
+			encoded = new CountingInputStream(wrappedEntity.getContent());
+			final PushbackInputStream pushbackInputStream = new PushbackInputStream(encoded);
+			final int first = pushbackInputStream.read();
+			if (first == -1) return pushbackInputStream; // Empty content: there is nothing to decode (and no gzip header).
+			pushbackInputStream.unread(first);
+			final InputStream decoded = gzip ? new GZIPInputStream(pushbackInputStream) : new DeflateInputStream(pushbackInputStream);
+
+			return new FilterInputStream(decoded) {
+				@Override
+				public int read() throws IOException {
+					final byte[] b = new byte[1];
+					return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+				}
+
+				@Override
+				public int read(final byte[] b, final int off, final int len) throws IOException {
+					if (expansionExceeded) return -1;
+					final int r = super.read(b, off, len);
+					if (r > 0 && (decodedLength += r) > MIN_EXPANSION_THRESHOLD && decodedLength > maxRatio * encoded.getByteCount()) expansionExceeded = true;
+					return r;
+				}
+			};
+		}
+
+		@Override
+		public long getContentLength() {
+			return -1;
+		}
+
+		@Override
+		public Header getContentEncoding() {
+			return null;
+		}
+
+		@Override
+		public boolean isRepeatable() {
+			return false;
+		}
+
+		@Override
+		public void writeTo(final OutputStream outStream) throws IOException {
+			try(final InputStream content = getContent()) {
+				IOUtils.copy(content, outStream);
+			}
+		}
+
+		/** Returns the number of encoded bytes read so far.
+		 *
+		 * @return the number of encoded bytes read so far.
+		 */
+		public long encodedLength() {
+			return encoded == null ? 0 : encoded.getByteCount();
+		}
+
+		/** Returns whether the decoded content was truncated because it was too large with respect to the encoded content.
+		 *
+		 * @return whether the decoded content was truncated.
+		 */
+		public boolean expansionExceeded() {
+			return expansionExceeded;
+		}
+	}
+
+	/** Returns an entity decoding the content of the entity of a response, if it is encoded with a supported encoding.
+	 * In that case, the headers describing the encoded content are removed from the response.
+	 *
+	 * @param response a response.
+	 * @param maxRatio the maximum ratio between the length of the decoded and of the encoded content.
+	 * @return a {@link DecodingHttpEntity} decoding the entity of {@code response}, or {@code null} if the entity is not encoded
+	 * with a supported encoding.
+	 */
+	private static DecodingHttpEntity decodingEntity(final HttpResponse response, final long maxRatio) {
+		final Header contentEncoding = response.getEntity().getContentEncoding();
+		if (contentEncoding == null) return null;
+		final String encoding = contentEncoding.getValue().trim();
+		final boolean gzip = "gzip".equalsIgnoreCase(encoding) || "x-gzip".equalsIgnoreCase(encoding);
+		if (! gzip && ! "deflate".equalsIgnoreCase(encoding)) return null;
+
+		final DecodingHttpEntity decodingEntity = new DecodingHttpEntity(response.getEntity(), gzip, maxRatio);
+		// As HttpClient does when decoding transparently, as these headers refer to the encoded content.
+		response.removeHeaders(HttpHeaders.CONTENT_ENCODING);
+		response.removeHeaders(HttpHeaders.CONTENT_LENGTH);
+		response.removeHeaders(HttpHeaders.CONTENT_MD5);
+		return decodingEntity;
+	}
+
+	/** An entity exposing the metadata of another entity, whose content is streamed through a {@link ByteArrayPipe}. */
+	private static final class StreamingHttpEntity extends HttpEntityWrapper {
+		/** The source of the content. */
+		private final InputStream content;
+
+		public StreamingHttpEntity(final HttpEntity wrappedEntity, final InputStream content) {
+			super(wrappedEntity);
+			this.content = content;
+		}
+
+		@Override
+		public InputStream getContent() {
+			return content;
+		}
+
+		@Override
+		public boolean isRepeatable() {
+			return false;
+		}
+
+		@Override
+		public boolean isStreaming() {
+			return true;
+		}
+
+		@Override
+		public void writeTo(final OutputStream outStream) throws IOException {
+			IOUtils.copy(content, outStream);
+		}
+	}
 
 	/** The BUbiNG URL associated with this request. */
 	protected volatile URI url;
@@ -143,18 +405,36 @@ public class FetchData implements URIResponse, Closeable {
 	/** True if the last fetch was truncated because of exceedingly long response body. */
 	protected volatile boolean truncated;
 
+	/** True if the body of the last fetch was not downloaded because the headers sufficed to reject it (see {@link #rejectedByHeaders()}). */
+	protected volatile boolean bodySkipped;
+
+	/** The length of the encoded content received during the last fetch, or -1 if the content was not encoded. */
+	protected volatile long encodedLength;
+
+	/** True if the last fetch has been streamed. */
+	protected volatile boolean streaming;
+
+	/** The pipe used to stream content, or {@code null} if {@link RuntimeConfiguration#streamingParses} is zero. */
+	private final ByteArrayPipe pipe;
+
 	/** {@link System#currentTimeMillis()} when the GET request was issued. */
 	public volatile long startTime;
 
 	/** {@link System#currentTimeMillis()} when the GET request was completed. */
 	public volatile long endTime;
 
+	/** {@link System#currentTimeMillis()} when the headers of the response were received, or zero if no response was received. */
+	public volatile long responseTime;
+
 	/** The exception thrown in case of a failed fetch, or {@code null}. */
 	public volatile Throwable exception;
 
 	/** Whether we are fecthing a robots file. */
 	public boolean robots;
 
+	/** The validators of a previous visit of {@link #url}, used to issue a conditional request, or {@code null}; it must be set before each fetch. */
+	public volatile ValidatorMap.Validators validators;
+
 	/** The wrapped entity used to replace with an {@link InspectableFileCachedInputStream} the content. */
 	private final InspectableCachedHttpEntity wrappedEntity;
 
@@ -170,18 +450,15 @@ public class FetchData implements URIResponse, Closeable {
 	/** The binary parser associated with this fetched response. */
 	public final BinaryParser binaryParser;
 
-	/** The {@link CachingAsyncByteConsumer} associated with this request. */
-	//private final CachingAsyncByteConsumer cachingAsyncByteConsumer;
-
-	/** The {@link EnumConstantNotPresentException} associated with this request. */
-	//private final EnqueueFetchedHttpResponseFutureCallback enqueueFetchedHttpResponseFutureCallback;
+	/** The {@link EnqueueFetchedHttpResponseFutureCallback} associated with this request. */
+	private final EnqueueFetchedHttpResponseFutureCallback enqueueFetchedHttpResponseFutureCallback;
 
 	/** The request used by this response. */
 	private final HttpGet httpGet;
 
-	/** If true, this istance has been enqueued to the list of results and we are waiting
-	 * for the signal of the {@link ParsingThread} that is analyzing it. */
-	public volatile boolean inUse;
+	/** The queue to which the {@link ParsingThread} analyzing this instance will add it
+	 * when it has finished to use its contents. */
+	public volatile LockFreeQueue<FetchData> recycleQueue;
 
 	/** The {@link RuntimeConfiguration}, cached. */
 	private final RuntimeConfiguration rc;
@@ -198,9 +475,8 @@ public class FetchData implements URIResponse, Closeable {
 		httpGet = new HttpGet();
 		// TODO: This should be done more properly
 		binaryParser = new BinaryParser(rc.digestAlgorithm);
-		//context = new BasicHttpContext();
-		//cachingAsyncByteConsumer = new CachingAsyncByteConsumer(this);
-		//enqueueFetchedHttpResponseFutureCallback = new EnqueueFetchedHttpResponseFutureCallback(this);
+		enqueueFetchedHttpResponseFutureCallback = new EnqueueFetchedHttpResponseFutureCallback(this);
+		pipe = rc.streamingParses != 0 ? new ByteArrayPipe(STREAMING_PIPE_SIZE, STREAMING_PREFIX_SIZE) : null;
 	}
 
 	/** Returns (an approximation of) the length of the response (headers and body).
@@ -217,28 +493,45 @@ public class FetchData implements URIResponse, Closeable {
 		return length + wrappedEntity.getContentLength();
 	}
 
-	/* Fetches a given URL.
+	/** Returns (an approximation of) the number of bytes of the response (headers and body) actually received.
+	 *
+	 * <p>This is the same as {@link #length()}, unless the body was {@linkplain FetchData encoded}, in which
+	 * case the length of the encoded body is used instead of the length of the decoded body.
+	 *
+	 * @return (an approximation of) the number of bytes of the response actually received.
+	 */
+	public long wireLength() {
+		final long length = length();
+		return encodedLength < 0 ? length : length - wrappedEntity.getContentLength() + encodedLength;
+	}
+
+	/** Fetches asynchronously a given URL.
+	 *
+	 * <p>The method returns immediately; when the request is over, {@link #endTime} and {@link #exception} are set
+	 * and this fetched response is added to {@code results}. Responses truncated because of their length
+	 * are not considered failed.
 	 *
-	 * @param httpAsyncClient the asynchronous client that will be used to fetch {@code url}.
 	 * @param url the URL to be used to populate this response.
-	 * @param cookies cookies to be set when issuing the request, or {@code null} to set no cookies at all.
+	 * @param httpAsyncClient the asynchronous client that will be used to fetch {@code url}.
+	 * @param requestConfig the request configuration.
+	 * @param context the context of the request (usually, providing a cookie store).
 	 * @param visitState the {@link VisitState} associated with {@code url}.
-	 * @param results a queue that will be used to enqueue this fetched response after a request is completed, or {@code null} for no enqueueing.
-	 *
+	 * @param robots whether we are fetching a <code>robots.txt</code> file.
+	 * @param results a queue that will be used to enqueue this fetched response after a request is completed.
 	 * @return a {@link Future} waiting for the page to be downloaded.
 	 */
-	/* public Future<Void> fetch(final HttpAsyncClient httpAsyncClient, final RequestConfig requestConfig, final URI url, final Cookie[] cookies, final VisitState visitState, final boolean robots, final Queue<FetchData> results) throws IOException {
-		cookieStore.clear();
-		if (! robots && cookies != null) for(Cookie cookie: cookies) cookieStore.addCookie(cookie);
-
-		// check that all fields are cleared
+	public Future<Void> fetch(final URI url, final HttpAsyncClient httpAsyncClient, final RequestConfig requestConfig, final HttpClientContext context, final VisitState visitState, final boolean robots, final LockFreeQueue<FetchData> results) throws IOException {
+		// ALERT: check that all fields are cleared.
 		this.visitState = visitState;
 		this.url = url;
 		this.response = null;
 		this.exception = null;
 		this.truncated = false;
+		this.bodySkipped = false;
+		this.streaming = false;
+		this.encodedLength = -1;
+		this.responseTime = 0;
 		this.isDuplicate = false;
-		this.cookie = null;
 		this.robots = robots;
 		this.enqueueFetchedHttpResponseFutureCallback.results = results;
 
@@ -246,12 +539,23 @@ public class FetchData implements URIResponse, Closeable {
 
 		httpGet.reset();
 		httpGet.setURI(url);
-		if (requestConfig != null) httpGet.setConfig(requestConfig);
+		setConditionalHeaders();
+		if (requestConfig != null) {
+			httpGet.setConfig(requestConfig);
+			context.setRequestConfig(requestConfig);
+		}
+
 		wrappedEntity.clear(); // Reset backing file.
-  		startTime = System.currentTimeMillis();
+		startTime = System.currentTimeMillis();
 
-  		return httpAsyncClient.execute(HttpAsyncMethods.create(httpGet), cachingAsyncByteConsumer, context, results != null ? enqueueFetchedHttpResponseFutureCallback : null);
-	}*/
+		final String scheme = url.getScheme();
+		final int port = url.getPort() == -1 ? (scheme.equals("https") ? 443 : 80) : url.getPort();
+		final HttpHost httpHost = visitState != null ?
+			new HttpHost(InetAddress.getByAddress(visitState.ipAddress), url.getHost(), port, scheme) :
+			new HttpHost(url.getHost(), port, scheme);
+
+		return httpAsyncClient.execute(HttpAsyncMethods.create(httpHost, httpGet), new CachingAsyncByteConsumer(this), context, enqueueFetchedHttpResponseFutureCallback);
+	}
 
 	// TODO: PORTING: document
 	/* (non-Javadoc)
@@ -271,6 +575,16 @@ public class FetchData implements URIResponse, Closeable {
 		return this.response;
 	}
 
+	/** Sets the headers of a conditional request using {@link #validators}, or removes them if {@link #validators} is {@code null}. */
+	private void setConditionalHeaders() {
+		httpGet.removeHeaders(HttpHeaders.IF_NONE_MATCH);
+		httpGet.removeHeaders(HttpHeaders.IF_MODIFIED_SINCE);
+		final ValidatorMap.Validators validators = this.validators;
+		if (validators == null) return;
+		if (validators.eTag != null) httpGet.setHeader(HttpHeaders.IF_NONE_MATCH, validators.eTag);
+		if (validators.lastModified != null) httpGet.setHeader(HttpHeaders.IF_MODIFIED_SINCE, validators.lastModified);
+	}
+
 	/** Fetches a given URL.
 	 *
 	 * @param httpClient the client that will be used to fetch {@code url}.
@@ -278,18 +592,43 @@ public class FetchData implements URIResponse, Closeable {
 	 * @param visitState the {@link VisitState} associated with {@code url}.
 	 */
 	public void fetch(final URI url, final HttpClient httpClient, final RequestConfig requestConfig, final VisitState visitState, final boolean robots) throws IOException {
+		fetch(url, httpClient, requestConfig, visitState, robots, null);
+	}
+
+	/** Fetches a given URL, possibly streaming the response.
+	 *
+	 * <p>If {@code results} is not {@code null}, and the response {@linkplain #streamable() can be streamed}, as soon as
+	 * the headers have been received this fetched response is {@linkplain #streaming() marked as streaming} and
+	 * enqueued to {@code results}, and its content is written to a {@link ByteArrayPipe} (besides being cached) as it
+	 * is downloaded. The {@linkplain #response() response} is a copy of the original response, whose entity returns the source of
+	 * the pipe as its content: from then on, the response belongs to the parsing thread, and it is never modified by this method;
+	 * its entity will be replaced by the cached content in {@link #awaitCompletion()}.
+	 * Failures of a streamed fetch are recorded in {@link #exception}, as in the case of a regular fetch,
+	 * but they cannot be known until {@link #awaitCompletion()} returns.
+	 *
+	 * @param httpClient the client that will be used to fetch {@code url}.
+	 * @param url the URL to be used to populate this response.
+	 * @param visitState the {@link VisitState} associated with {@code url}.
+	 * @param results a queue to which this fetched response will be added if it is streamed, or {@code null}.
+	 */
+	public void fetch(final URI url, final HttpClient httpClient, final RequestConfig requestConfig, final VisitState visitState, final boolean robots, final LockFreeQueue<FetchData> results) throws IOException {
 		// ALERT: check that all fields are cleared.
 		this.visitState = visitState;
 		this.url = url;
 		this.response = null;
 		this.exception = null;
 		this.truncated = false;
+		this.bodySkipped = false;
+		this.streaming = false;
+		this.encodedLength = -1;
+		this.responseTime = 0;
 		this.isDuplicate = false;
 		this.robots = robots;
 
 		assert url.getHost() != null : url;
 
 		httpGet.setURI(url);
+		setConditionalHeaders();
 		if (requestConfig != null) httpGet.setConfig(requestConfig);
 
 		wrappedEntity.clear(); // Reset backing file.
@@ -319,30 +658,166 @@ public class FetchData implements URIResponse, Closeable {
 				final String scheme = uri.getScheme();
 				final int port = uri.getPort() == -1 ? (scheme.equals("https") ? 443 : 80) : uri.getPort();
  				final HttpHost httpHost = visitState != null ?
-					new HttpHost(InetAddress.getByAddress(visitState.workbenchEntry.ipAddress), uri.getHost(), port, scheme) :
+					new HttpHost(InetAddress.getByAddress(visitState.ipAddress), uri.getHost(), port, scheme) :
  					new HttpHost(uri.getHost(), port, scheme);
+				final HttpClientContext context = HttpClientContext.create();
+				// Connections created for this request will be throttled by the bucket of the workbench entry
+				if (visitState != null) context.setAttribute(PerIPHttpClientConnectionManager.IP_BANDWIDTH_BUCKET, visitState.workbenchEntry.bandwidthBucket);
  				httpClient.execute(httpHost, httpGet, response -> {
+					responseTime = System.currentTimeMillis();
 					FetchData.this.response = response;
-					final HttpEntity entity = response.getEntity();
-
-					if (entity == null) LOGGER.warn("Null entity for URL " + url);
+					if (response.getEntity() == null) noEntity();
 					else {
+						final DecodingHttpEntity decodingEntity = decodingEntity(response, rc.decompressionMaxRatio);
+						final HttpEntity entity = decodingEntity != null ? decodingEntity : response.getEntity();
 						wrappedEntity.setEntity(entity);
-						truncated = wrappedEntity.copyContent(rc.responseBodyMaxByteSize, startTime, rc.connectionTimeout, 10);
-						if (truncated) httpGet.abort();
+						if (bodySkipped = rejectedByHeaders()) httpGet.abort();
+						else {
+							if (results != null && streamable()) {
+								pipe.reset();
+								/* The client will consume the entity of the original response when we return,
+								 * so the parsing thread gets a copy, whose entity reads from the pipe. We must not
+								 * touch the copy after enqueueing it. */
+								final BasicHttpResponse streamedResponse = new BasicHttpResponse(response.getStatusLine());
+								streamedResponse.setHeaders(response.getAllHeaders());
+								streamedResponse.setEntity(new StreamingHttpEntity(entity, pipe.source()));
+								FetchData.this.response = streamedResponse;
+								streaming = true;
+								results.add(this);
+							}
+							try {
+								truncated = wrappedEntity.copyContent(rc.responseBodyMaxByteSize, startTime, rc.connectionTimeout, 10, streaming ? pipe.sink() : null);
+							}
+							finally {
+								if (decodingEntity != null) encodedLength = decodingEntity.encodedLength();
+							}
+							if (decodingEntity != null && decodingEntity.expansionExceeded()) {
+								LOGGER.warn("Decoded content of " + url + " truncated, as it is more than " + rc.decompressionMaxRatio + " times larger than the encoded content");
+								truncated = true;
+							}
+							if (truncated) httpGet.abort();
+						}
 					}
 					return null;
-				});
+				}, context);
 
- 				response.setEntity(wrappedEntity);
+ 				if (! streaming) response.setEntity(wrappedEntity);
  			}
  			catch(final IOException e) {
- 				exception = e instanceof ClientProtocolException ? e.getCause() : e;
+ 				// Aborting a request whose body is skipped might cause an exception
+ 				if (bodySkipped) response.setEntity(wrappedEntity);
+ 				if (! bodySkipped) exception = e instanceof ClientProtocolException ? e.getCause() : e;
+ 			}
+ 			catch(final RuntimeException e) {
+ 				// A streamed response has been already enqueued, so it must complete
+ 				if (! streaming) throw e;
+ 				exception = e;
  			}
  		}
 
 		endTime = Math.max(System.currentTimeMillis(), startTime); // Work around non-monotonicity of System.currentTimeMillis()
 		httpGet.reset(); // Release resources.
+		if (streaming) pipe.sink().close(); // Signals completion
+	}
+
+	/** Returns whether this fetched response has been streamed.
+	 *
+	 * @return true if this fetched response has been streamed.
+	 * @see #fetch(URI, HttpClient, RequestConfig, VisitState, boolean, LockFreeQueue)
+	 */
+	public boolean streaming() {
+		return streaming;
+	}
+
+	/** Waits for the completion of the download of a streamed response.
+	 *
+	 * <p>The source of the pipe is closed, so content not read yet is discarded. After this method returns,
+	 * the state of this fetched response is the same as that of a regular, non-streamed fetch:
+	 * in particular, the content of the {@linkplain #response() response} is the cached content.
+	 *
+	 * <p>This method must be called by the thread parsing the response, which is the only one modifying it after it has been streamed.
+	 */
+	public void awaitCompletion() throws InterruptedException {
+		if (! streaming) return;
+		pipe.source().close();
+		pipe.awaitClose();
+		// The fetching thread has completed the download, so the cached content is available.
+		response.setEntity(wrappedEntity);
+	}
+
+	/** Returns the result of a filter evaluated on this response using just its status line and headers.
+	 *
+	 * <p>This method must be called when {@link #response} has been set, but before its entity has been replaced by {@link #wrappedEntity}.
+	 *
+	 * @param filter a filter.
+	 * @return the result of {@code filter} on this response, or {@code null} if {@code filter} tried to access the
+	 * content, or threw an exception.
+	 */
+	private Boolean applyToHeaders(final Filter<URIResponse> filter) {
+		final HttpEntity entity = response.getEntity();
+		response.setEntity(new HeaderOnlyHttpEntity(entity));
+		try {
+			return Boolean.valueOf(filter.apply(this));
+		}
+		catch (final ContentNotAvailableException e) {
+			return null;
+		}
+		catch (final RuntimeException e) {
+			LOGGER.debug("Exception while evaluating filter " + filter + " on the headers of " + url, e);
+			return null;
+		}
+		finally {
+			response.setEntity(entity);
+		}
+	}
+
+	/** Handles a response without entity (e.g., a <code>304 Not Modified</code> response).
+	 *
+	 * <p>The {@link #wrappedEntity} is reset to an empty entity, so that the response will not carry
+	 * the content type or the encoding of the previous response fetched by this instance.
+	 */
+	private void noEntity() throws IOException {
+		wrappedEntity.setEntity(EMPTY_ENTITY);
+		// Responses to conditional requests have no entity by standard
+		if (response.getStatusLine().getStatusCode() != HttpStatus.SC_NOT_MODIFIED) LOGGER.warn("Null entity for URL " + url);
+	}
+
+	/** Returns whether the response can be streamed, that is, whether the {@linkplain RuntimeConfiguration#parseFilter parse filter}
+	 * accepts it and the {@linkplain RuntimeConfiguration#followFilter follow filter} and the {@linkplain RuntimeConfiguration#parsers parsers}
+	 * can be evaluated on the basis of its status line and headers only. In that case, a parsing thread can start to parse the
+	 * response before its content is available. <code>robots.txt</code> responses are never streamed.
+	 *
+	 * <p>This method must be called when {@link #response} has been set, but before its entity has been replaced by {@link #wrappedEntity}.
+	 *
+	 * @return true if the response can be streamed.
+	 */
+	private boolean streamable() {
+		if (robots || ! Boolean.TRUE.equals(applyToHeaders(rc.parseFilter)) || applyToHeaders(rc.followFilter) == null) return false;
+		for(final Parser<?> parser: rc.parsers) if (applyToHeaders(parser) == null) return false;
+		return true;
+	}
+
+	/** Returns whether the response can be discarded on the basis of its status line and headers only, that is,
+	 * whether both the {@linkplain RuntimeConfiguration#parseFilter parse filter} and the {@linkplain RuntimeConfiguration#storeFilter store filter}
+	 * reject it without looking at its content. In that case, the body would just be thrown away, and there is no need to download it.
+	 *
+	 * <p>Filters are evaluated on this response, with an entity whose content is not accessible: if a filter tries to access the
+	 * content, it cannot be decided using headers only, and this method returns false. <code>robots.txt</code> responses are never rejected.
+	 *
+	 * <p>This method must be called when {@link #response} has been set, but before its entity has been replaced by {@link #wrappedEntity}.
+	 *
+	 * @return true if the body of the response can be skipped.
+	 */
+	private boolean rejectedByHeaders() {
+		return ! robots && Boolean.FALSE.equals(applyToHeaders(rc.parseFilter)) && Boolean.FALSE.equals(applyToHeaders(rc.storeFilter));
+	}
+
+	/** Returns whether the body of the response was not downloaded because the headers sufficed to reject it.
+	 *
+	 * @return true if the body of the response was not downloaded.
+	 */
+	public boolean bodySkipped() {
+		return bodySkipped;
 	}
 
 	/**
@@ -0,0 +1,519 @@
+package it.unimi.di.law.bubing.util;
+
+/*
+ * Copyright (C) 2012-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.net.URI;
+import java.util.Arrays;
+
+import it.unimi.dsi.fastutil.bytes.ByteArrayList;
+import it.unimi.dsi.lang.MutableString;
+
+//RELEASE-STATUS: DIST
+
+/** A mutable, reusable byte-level representation of a BUbiNG URL, that is, of the ASCII byte-array representation of a {@linkplain BURL normalized} URL.
+ *
+ * <p>The main purpose of this class is {@linkplain #resolve(MutableURL, CharSequence) resolving} links found in pages
+ * without creating {@link URI} objects: {@link BURL#parse(MutableString)} and {@link URI#resolve(URI)} create several
+ * intermediate strings and URIs for each link, whereas an instance of this class resolves and normalizes a link
+ * directly into a reusable byte array, which can then be passed to the {@linkplain it.unimi.di.law.bubing.frontier.Frontier#enqueue(ByteArrayList) frontier}
+ * (and thus to the URL cache and to the sieve), {@linkplain RobotsFilter filtered by robots}, and so on.
+ *
+ * <p>The result of a successful resolution is guaranteed to be identical to the string representation of
+ * <code>base.resolve(BURL.parse(spec))</code>. To keep this guarantee without replicating all the quirks of {@link URI},
+ * the resolution handles only the common cases (HTTP and HTTPS URLs, references with a nonempty path,
+ * hostnames and IPv4 addresses without user information, and so on) and <em>fails</em> in all other cases:
+ * callers must then resort to {@link BURL#parse(MutableString)} and {@link URI#resolve(URI)}, which will also detect
+ * malformed references.
+ *
+ * <p>Instances of this class are not thread safe.
+ */
+public final class MutableURL {
+	private static final byte[] HEX_DIGIT = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F' };
+
+	/** The bytes of this URL. */
+	private byte[] a = new byte[128];
+	/** The number of valid bytes in {@link #a}. */
+	private int length;
+	/** The length of the scheme. */
+	private int lengthOfScheme;
+	/** The starting position of the host. */
+	private int startOfHost;
+	/** The end position (exclusive) of the host. */
+	private int endOfHost;
+	/** The starting position of the path+query (i.e., the slash). */
+	private int startOfPathQuery;
+	/** A buffer containing the preprocessed reference. */
+	private char[] spec = new char[128];
+	/** A buffer containing the path to be normalized. */
+	private char[] path = new char[128];
+	/** A stack containing the starting position of the normalized segments. */
+	private int[] segment = new int[16];
+
+	/** Creates an empty mutable URL. */
+	public MutableURL() {}
+
+	/** Sets the content of this mutable URL.
+	 *
+	 * @param url a BUbiNG URL.
+	 * @return this mutable URL.
+	 */
+	public MutableURL set(final URI url) {
+		final String s = url.toString();
+		length = 0;
+		ensureCapacity(s.length());
+		for(int i = 0; i < s.length(); i++) a[i] = (byte)s.charAt(i);
+		length = s.length();
+		locate();
+		return this;
+	}
+
+	/** Sets the content of this mutable URL.
+	 *
+	 * @param url the byte-array representation of a BUbiNG URL.
+	 * @return this mutable URL.
+	 */
+	public MutableURL set(final byte[] url) {
+		length = 0;
+		ensureCapacity(url.length);
+		System.arraycopy(url, 0, a, 0, url.length);
+		length = url.length;
+		locate();
+		return this;
+	}
+
+	/** Computes the positions of the components of a BUbiNG URL stored in {@link #a}. */
+	private void locate() {
+		int i = 0;
+		while(a[i] != ':') i++;
+		lengthOfScheme = i;
+		startOfPathQuery = i += 3;
+		while(startOfPathQuery < length && a[startOfPathQuery] != '/') startOfPathQuery++;
+		startOfHost = i;
+		for(int j = i; j < startOfPathQuery; j++) if (a[j] == '@') startOfHost = j + 1;
+		endOfHost = startOfHost;
+		if (endOfHost < startOfPathQuery && a[endOfHost] == '[') while(a[endOfHost++] != ']');
+		while(endOfHost < startOfPathQuery && a[endOfHost] != ':') endOfHost++;
+	}
+
+	/** Returns the backing array of this mutable URL.
+	 *
+	 * @return the backing array of this mutable URL; only the first {@link #length()} bytes are valid.
+	 */
+	public byte[] array() {
+		return a;
+	}
+
+	/** Returns the length of this mutable URL.
+	 *
+	 * @return the length of this mutable URL.
+	 */
+	public int length() {
+		return length;
+	}
+
+	/** Returns the starting position of the host.
+	 *
+	 * @return the starting position of the host.
+	 */
+	public int startOfHost() {
+		return startOfHost;
+	}
+
+	/** Returns the length of the host.
+	 *
+	 * @return the length of the host.
+	 */
+	public int lengthOfHost() {
+		return endOfHost - startOfHost;
+	}
+
+	/** Returns the starting position of the path+query, which is also the length of the scheme+authority.
+	 *
+	 * @return the starting position of the path+query.
+	 */
+	public int startOfPathQuery() {
+		return startOfPathQuery;
+	}
+
+	/** Returns the hash code of the host, computed as {@link String#hashCode()} would, so that
+	 * it is equal to <code>toURI().getHost().hashCode()</code>.
+	 *
+	 * @return the hash code of the host.
+	 */
+	public int hostHashCode() {
+		int h = 0;
+		for(int i = startOfHost; i < endOfHost; i++) h = 31 * h + a[i];
+		return h;
+	}
+
+	/** Returns a copy of the content of this mutable URL.
+	 *
+	 * @return a copy of the content of this mutable URL.
+	 */
+	public byte[] toByteArray() {
+		return Arrays.copyOf(a, length);
+	}
+
+	/** Copies the content of this mutable URL into a list.
+	 *
+	 * @param list a list that will contain the content of this mutable URL.
+	 * @return {@code list}.
+	 */
+	public ByteArrayList toByteArrayList(final ByteArrayList list) {
+		list.size(length);
+		System.arraycopy(a, 0, list.elements(), 0, length);
+		return list;
+	}
+
+	/** Returns this mutable URL as a {@link URI}.
+	 *
+	 * @return this mutable URL as a {@link URI}.
+	 */
+	public URI toURI() {
+		return URI.create(toString());
+	}
+
+	@Override
+	public String toString() {
+		return Util.toString(a, 0, length);
+	}
+
+	private void ensureCapacity(final int capacity) {
+		if (capacity > a.length) a = Arrays.copyOf(a, Math.max(capacity, 2 * a.length));
+	}
+
+	private void append(final byte b) {
+		if (length == a.length) a = Arrays.copyOf(a, 2 * a.length);
+		a[length++] = b;
+	}
+
+	/** Appends a byte as a percent escape.
+	 *
+	 * @param b a byte.
+	 */
+	private void appendEscaped(final int b) {
+		append((byte)'%');
+		append(HEX_DIGIT[b >> 4 & 0xF]);
+		append(HEX_DIGIT[b & 0xF]);
+	}
+
+	/** Appends characters of {@link #spec} or {@link #path}, replacing non-ASCII characters with %XX-encoded UTF-8 sequences.
+	 *
+	 * @param c a character array.
+	 * @param from the starting position (inclusive).
+	 * @param to the ending position (exclusive).
+	 */
+	private void appendSanitized(final char[] c, final int from, final int to) {
+		for(int i = from; i < to; i++) {
+			final char ch = c[i];
+			if (ch < 0x80) append((byte)ch);
+			else if (ch < 0x800) {
+				appendEscaped(0xC0 | ch >> 6);
+				appendEscaped(0x80 | ch & 0x3F);
+			}
+			else if (Character.isHighSurrogate(ch)) {
+				// Surrogates are always paired: see preprocess()
+				final int codePoint = Character.toCodePoint(ch, c[++i]);
+				appendEscaped(0xF0 | codePoint >> 18);
+				appendEscaped(0x80 | codePoint >> 12 & 0x3F);
+				appendEscaped(0x80 | codePoint >> 6 & 0x3F);
+				appendEscaped(0x80 | codePoint & 0x3F);
+			}
+			else {
+				appendEscaped(0xE0 | ch >> 12);
+				appendEscaped(0x80 | ch >> 6 & 0x3F);
+				appendEscaped(0x80 | ch & 0x3F);
+			}
+		}
+	}
+
+	private static boolean isHexDigit(final char c) {
+		return c >= '0' && c <= '9' || c >= 'A' && c <= 'F' || c >= 'a' && c <= 'f';
+	}
+
+	private static boolean isAlpha(final char c) {
+		return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z';
+	}
+
+	private static boolean isDigit(final char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	/** Stores in {@link #spec} a reference trimmed, with {@linkplain BURL#BAD_CHAR bad characters} substituted, with percent signs not followed
+	 * by two hexadecimal digits escaped, with hexadecimal digits of percent escapes upcased, and without fragment, as {@link BURL#parse(MutableString)} does.
+	 *
+	 * @param s a reference.
+	 * @return the length of the preprocessed reference, or -1 if the reference cannot be handled.
+	 */
+	private int preprocess(final CharSequence s) {
+		int start = 0, end = s.length();
+		while(start < end && s.charAt(start) <= ' ') start++;
+		while(end > start && s.charAt(end - 1) <= ' ') end--;
+
+		int n = 0;
+		boolean fragment = false;
+		for(int i = start; i < end; i++) {
+			final char ch = s.charAt(i);
+			if (ch < 0x80) {
+				if (ch == '#') {
+					// Fragments are discarded, but a second hash makes the reference malformed
+					if (fragment) return -1;
+					fragment = true;
+					continue;
+				}
+				if (ch < 0x20 && ch != '\t' || ch == 0x7F) return -1;
+			}
+			// These are not accepted by URI
+			else if (Character.isSpaceChar(ch) || Character.isISOControl(ch)) return -1;
+			else if (Character.isHighSurrogate(ch)) {
+				if (i + 1 == end || ! Character.isLowSurrogate(s.charAt(i + 1))) return -1;
+			}
+			else if (Character.isLowSurrogate(ch) && (i == start || ! Character.isHighSurrogate(s.charAt(i - 1)))) return -1;
+
+			if (fragment) continue;
+
+			if (n + 3 > spec.length) spec = Arrays.copyOf(spec, Math.max(n + 3, 2 * spec.length));
+
+			if (ch == '%') {
+				spec[n++] = '%';
+				if (i + 2 < end && isHexDigit(s.charAt(i + 1)) && isHexDigit(s.charAt(i + 2))) {
+					// BURL rejects escaped NULs
+					if (s.charAt(i + 1) == '0' && s.charAt(i + 2) == '0') return -1;
+					spec[n++] = Character.toUpperCase(s.charAt(++i));
+					spec[n++] = Character.toUpperCase(s.charAt(++i));
+				}
+				else {
+					spec[n++] = '2';
+					spec[n++] = '5';
+				}
+				continue;
+			}
+
+			int k;
+			for(k = BURL.BAD_CHAR.length; k-- != 0;) if (BURL.BAD_CHAR[k] == ch) break;
+			if (k == -1) spec[n++] = ch;
+			else {
+				final String substitute = BURL.BAD_CHAR_SUBSTITUTE[k];
+				substitute.getChars(0, substitute.length(), spec, n);
+				n += substitute.length();
+			}
+		}
+		return n;
+	}
+
+	/** Checks whether a range of {@link #spec} is a hostname, using the same rules as {@link URI}.
+	 *
+	 * @param start the starting position (inclusive).
+	 * @param n the ending position (exclusive).
+	 * @return true if the given range is a hostname.
+	 */
+	private boolean isHostname(final int start, final int n) {
+		final char[] c = spec;
+		int p = start, l = -1;
+		do {
+			// domainlabel = alphanum [ *( alphanum | "-" ) alphanum ]
+			if (p == n || ! isAlpha(c[p]) && ! isDigit(c[p])) break;
+			l = p;
+			int q = p;
+			while(q < n && (isAlpha(c[q]) || isDigit(c[q]) || c[q] == '-')) q++;
+			if (c[q - 1] == '-') return false;
+			p = q;
+			if (p < n && c[p] == '.') p++;
+			else break;
+		} while(p < n);
+		if (p < n || l < 0) return false;
+		// The rightmost label of a fully qualified hostname must start with an alphabetic character
+		return l == start || isAlpha(c[l]);
+	}
+
+	/** Checks whether a range of {@link #spec} is an IPv4 address made of four decimal components, each of at most three digits.
+	 *
+	 * @param start the starting position (inclusive).
+	 * @param n the ending position (exclusive).
+	 * @return true if the given range is an IPv4 address.
+	 */
+	private boolean isIPv4Address(final int start, final int n) {
+		final char[] c = spec;
+		int p = start;
+		for(int i = 0; i < 4; i++) {
+			if (i != 0) {
+				if (p == n || c[p] != '.') return false;
+				p++;
+			}
+			int value = 0, q = p;
+			while(q < n && q - p < 3 && isDigit(c[q])) value = value * 10 + c[q++] - '0';
+			if (q == p || value > 255) return false;
+			p = q;
+		}
+		return p == n;
+	}
+
+	/** Appends a normalized scheme+authority.
+	 *
+	 * @param https whether the scheme is HTTPS.
+	 * @param start the starting position of the authority in {@link #spec}.
+	 * @param end the ending position (exclusive) of the authority in {@link #spec}.
+	 * @param portAllowed whether the authority may specify a port.
+	 * @return true if the authority could be handled.
+	 */
+	private boolean appendSchemeAuthority(final boolean https, final int start, final int end, final boolean portAllowed) {
+		final char[] c = spec;
+		int endOfHost = start;
+		while(endOfHost < end && c[endOfHost] != ':') endOfHost++;
+		if (! isIPv4Address(start, endOfHost) && ! isHostname(start, endOfHost)) return false;
+
+		int port = -1;
+		if (endOfHost < end) {
+			if (end - endOfHost - 1 > 9 || ! portAllowed) return false;
+			for(int i = endOfHost + 1; i < end; i++) {
+				if (! isDigit(c[i])) return false;
+				port = (port == -1 ? 0 : port * 10) + c[i] - '0';
+			}
+			if (port == (https ? 443 : 80)) port = -1;
+		}
+
+		length = 0;
+		if (https) for(final char ch : "https://".toCharArray()) append((byte)ch);
+		else for(final char ch : "http://".toCharArray()) append((byte)ch);
+		lengthOfScheme = https ? 5 : 4;
+		startOfHost = length;
+		// Trailing dots are removed
+		for(int i = start; i < (c[endOfHost - 1] == '.' ? endOfHost - 1 : endOfHost); i++) append((byte)Character.toLowerCase(c[i]));
+		this.endOfHost = length;
+		if (port != -1) {
+			append((byte)':');
+			final String s = Integer.toString(port);
+			for(int i = 0; i < s.length(); i++) append((byte)s.charAt(i));
+		}
+		startOfPathQuery = length;
+		return true;
+	}
+
+	/** Appends a normalized path, removing dot segments and redundant slashes as {@link URI#normalize()} does.
+	 *
+	 * @param m the length of the path stored in {@link #path}, which must start with a slash.
+	 * @return true if the path could be handled (i.e., it does not contain <code>..</code> segments referring above the root).
+	 */
+	private boolean appendNormalizedPath(final int m) {
+		final char[] c = path;
+		append((byte)'/');
+		int depth = 0;
+		int i = 1;
+		while(i < m && c[i] == '/') i++;
+		while(i < m) {
+			int j = i;
+			while(j < m && c[j] != '/') j++;
+			final int l = j - i;
+			if (l == 1 && c[i] == '.') {} // Skip
+			else if (l == 2 && c[i] == '.' && c[i + 1] == '.') {
+				if (depth == 0) return false;
+				length = segment[--depth];
+			}
+			else {
+				if (depth == segment.length) segment = Arrays.copyOf(segment, 2 * depth);
+				segment[depth++] = length;
+				appendSanitized(c, i, j);
+				if (j < m) append((byte)'/');
+			}
+			i = j;
+			while(i < m && c[i] == '/') i++;
+		}
+		return true;
+	}
+
+	/** Resolves a reference found in a page and stores the resulting normalized URL in this mutable URL.
+	 *
+	 * <p>If this method returns true, the content of this mutable URL is equal to the
+	 * {@linkplain BURL#toByteArray(URI) byte-array representation} of <code>base.toURI().resolve(BURL.parse(spec))</code>;
+	 * otherwise, the content of this mutable URL is undefined, and the caller should resort to
+	 * {@link BURL#parse(MutableString)} and {@link URI#resolve(URI)}.
+	 *
+	 * @param base the base URL; it must be distinct from this mutable URL.
+	 * @param s a reference.
+	 * @return true if the reference could be resolved; false if it could not, either because it is malformed or because
+	 * it cannot be handled by this method.
+	 */
+	public boolean resolve(final MutableURL base, final CharSequence s) {
+		if (base == this) throw new IllegalArgumentException();
+		final int n = preprocess(s);
+		if (n <= 0) return false;
+		final char[] c = spec;
+
+		int p = 0;
+		while(p < n && c[p] != ':' && c[p] != '/' && c[p] != '?') p++;
+
+		int startOfPath;
+		if (p < n && c[p] == ':') {
+			// Absolute URL: only HTTP(S), with an authority, is handled
+			final boolean https;
+			if (p == 4 && (c[0] | 0x20) == 'h' && (c[1] | 0x20) == 't' && (c[2] | 0x20) == 't' && (c[3] | 0x20) == 'p') https = false;
+			else if (p == 5 && (c[0] | 0x20) == 'h' && (c[1] | 0x20) == 't' && (c[2] | 0x20) == 't' && (c[3] | 0x20) == 'p' && (c[4] | 0x20) == 's') https = true;
+			else return false;
+			if (p + 2 >= n || c[p + 1] != '/' || c[p + 2] != '/') return false;
+			startOfPath = p + 3;
+			while(startOfPath < n && c[startOfPath] != '/' && c[startOfPath] != '?') startOfPath++;
+			if (! appendSchemeAuthority(https, p + 3, startOfPath, true)) return false;
+		}
+		else if (n > 1 && c[0] == '/' && c[1] == '/') {
+			// Network-path reference: URI does not normalize ports if the scheme is missing
+			startOfPath = 2;
+			while(startOfPath < n && c[startOfPath] != '/' && c[startOfPath] != '?') startOfPath++;
+			if (! appendSchemeAuthority(base.lengthOfScheme == 5, 2, startOfPath, false)) return false;
+			if (base.lengthOfScheme != 4 && base.lengthOfScheme != 5) return false;
+		}
+		else {
+			// Relative reference: URI resolves references with an empty path in an unexpected way
+			if (c[0] == '?') return false;
+			startOfPath = 0;
+			length = 0;
+			ensureCapacity(base.startOfPathQuery);
+			System.arraycopy(base.a, 0, a, 0, base.startOfPathQuery);
+			length = base.startOfPathQuery;
+			lengthOfScheme = base.lengthOfScheme;
+			startOfHost = base.startOfHost;
+			endOfHost = base.endOfHost;
+			startOfPathQuery = base.startOfPathQuery;
+		}
+
+		int endOfPath = startOfPath;
+		while(endOfPath < n && c[endOfPath] != '?') endOfPath++;
+
+		// Build the path to be normalized
+		int m = 0;
+		if (startOfPath == 0 && c[0] != '/') {
+			// Merge with the directory of the base path
+			int endOfBaseDirectory = base.startOfPathQuery;
+			for(int i = base.startOfPathQuery; i < base.length && base.a[i] != '?'; i++) if (base.a[i] == '/') endOfBaseDirectory = i + 1;
+			m = endOfBaseDirectory - base.startOfPathQuery;
+			if (m + endOfPath > path.length) path = Arrays.copyOf(path, Math.max(m + endOfPath, 2 * path.length));
+			for(int i = 0; i < m; i++) path[i] = (char)base.a[base.startOfPathQuery + i];
+		}
+		else if (endOfPath - startOfPath > path.length) path = Arrays.copyOf(path, Math.max(endOfPath - startOfPath, 2 * path.length));
+
+		System.arraycopy(c, startOfPath, path, m, endOfPath - startOfPath);
+		m += endOfPath - startOfPath;
+
+		if (m == 0) append((byte)'/'); // Empty path in an absolute URL
+		else if (! appendNormalizedPath(m)) return false;
+
+		if (endOfPath < n) {
+			append((byte)'?');
+			appendSanitized(c, endOfPath + 1, n);
+		}
+		return true;
+	}
+}
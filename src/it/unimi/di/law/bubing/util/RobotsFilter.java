@@ -0,0 +1,452 @@
+package it.unimi.di.law.bubing.util;
+
+/*
+ * Copyright (C) 2012-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.URI;
+import java.util.Collection;
+
+import com.google.common.base.Charsets;
+
+import it.unimi.dsi.fastutil.bytes.ByteArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+//RELEASE-STATUS: DIST
+
+/** A compiled <code>robots.txt</code> filter working directly on the byte-array representation of normalized path+queries.
+ *
+ * <p>A filter is made of <code>Allow</code> and <code>Disallow</code> rules. Rules are patterns that must match a prefix
+ * of the path+query; a star (<code>*</code>) matches any sequence of characters, and a dollar (<code>$</code>) at the end
+ * of a pattern matches the end of the path+query. As suggested by <a href="https://www.rfc-editor.org/rfc/rfc9309">RFC 9309</a>,
+ * the matching rule with the longest pattern (ignoring trailing stars, which are irrelevant) decides whether a path+query is allowed;
+ * in case of ties, <code>Allow</code> rules win.
+ * A path+query matching no rule is allowed.
+ *
+ * <p>Patterns without stars are stored in a trie, which is visited once along the path+query; patterns containing
+ * stars (which are rare in practice) are matched one by one. Both structures are laid out in arrays,
+ * so {@link #apply(byte[], int, int)} does not allocate any object.
+ *
+ * <p>Patterns are normalized as BUbiNG normalizes URLs: non-ASCII characters are replaced by %XX-encoded UTF-8 sequences,
+ * {@linkplain BURL#BAD_CHAR bad characters} are replaced by their {@linkplain BURL#BAD_CHAR_SUBSTITUTE substitutes}, and
+ * the hexadecimal digits of percent escapes are upcased.
+ *
+ * <p>Instances of this class are immutable.
+ */
+public final class RobotsFilter implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	/** A singleton filter allowing everything. */
+	public static final RobotsFilter EMPTY = new RobotsFilter(new ObjectArrayList<Rule>());
+
+	/** The maximum number of rules returned by {@link #toString()}. */
+	public static final int MAX_TO_STRING_RULES = 30;
+
+	/** Flag of trie nodes ending a <code>Disallow</code> pattern. */
+	private static final byte DISALLOW_PREFIX = 1;
+	/** Flag of trie nodes ending an <code>Allow</code> pattern. */
+	private static final byte ALLOW_PREFIX = 2;
+	/** Flag of trie nodes ending a <code>Disallow</code> pattern followed by a dollar. */
+	private static final byte DISALLOW_EXACT = 4;
+	/** Flag of trie nodes ending an <code>Allow</code> pattern followed by a dollar. */
+	private static final byte ALLOW_EXACT = 8;
+
+	private static final char[] HEX_DIGIT = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F' };
+
+	/** The trie of patterns without stars, in breadth-first order (the root is node zero): the children of node <var>n</var>
+	 * are the nodes from <code>firstChild[<var>n</var>]</code> (inclusive) to <code>firstChild[<var>n</var> + 1]</code> (exclusive).
+	 * This array has one more element than the number of nodes. */
+	private final int[] firstChild;
+	/** For each node, the byte labelling the arc reaching the node (undefined for the root). */
+	private final byte[] label;
+	/** For each node, a combination of {@link #DISALLOW_PREFIX}, {@link #ALLOW_PREFIX}, {@link #DISALLOW_EXACT} and {@link #ALLOW_EXACT}. */
+	private final byte[] flags;
+	/** The patterns containing stars, without the final dollar (if any). */
+	private final byte[][] wildcard;
+	/** For each pattern in {@link #wildcard}, whether it is an <code>Allow</code> pattern. */
+	private final boolean[] wildcardAllow;
+	/** For each pattern in {@link #wildcard}, whether it was followed by a dollar. */
+	private final boolean[] wildcardExact;
+	/** For each pattern in {@link #wildcard}, its priority. */
+	private final int[] wildcardPriority;
+
+	/** A normalized rule. */
+	private static final class Rule {
+		/** The pattern, without the final dollar, if any, and without stars at the end if there is no final dollar. */
+		private final byte[] pattern;
+		/** Whether this is an <code>Allow</code> rule. */
+		private final boolean allow;
+		/** Whether the pattern was followed by a dollar. */
+		private final boolean exact;
+		/** The priority of this rule: the length of {@link #pattern}, plus one if the pattern was followed by a dollar. */
+		private final int priority;
+
+		private Rule(final String pattern, final boolean allow) {
+			final ByteArrayList normalized = normalize(pattern);
+			boolean exact = false;
+			if (normalized.size() != 0 && normalized.getByte(normalized.size() - 1) == '$') {
+				normalized.size(normalized.size() - 1);
+				exact = true;
+			}
+			// Trailing stars are irrelevant for patterns matching prefixes
+			else while(normalized.size() != 0 && normalized.getByte(normalized.size() - 1) == '*') normalized.size(normalized.size() - 1);
+			this.pattern = normalized.toByteArray();
+			this.allow = allow;
+			this.exact = exact;
+			this.priority = this.pattern.length + (exact ? 1 : 0);
+		}
+
+		private boolean isWildcard() {
+			for(final byte b : pattern) if (b == '*') return true;
+			return false;
+		}
+	}
+
+	/** A node of the trie built at compilation time. */
+	private static final class Node {
+		private final byte label;
+		private byte flags;
+		private final ObjectArrayList<Node> children = new ObjectArrayList<>();
+
+		private Node(final byte label) {
+			this.label = label;
+		}
+
+		private Node child(final byte label) {
+			for(final Node child : children) if (child.label == label) return child;
+			final Node child = new Node(label);
+			children.add(child);
+			return child;
+		}
+	}
+
+	private RobotsFilter(final ObjectArrayList<Rule> rules) {
+		final Node root = new Node((byte)0);
+		final ObjectArrayList<Rule> wildcardRules = new ObjectArrayList<>();
+		for(final Rule rule : rules) {
+			if (rule.isWildcard()) {
+				wildcardRules.add(rule);
+				continue;
+			}
+			Node node = root;
+			for(final byte b : rule.pattern) node = node.child(b);
+			node.flags |= rule.allow ? (rule.exact ? ALLOW_EXACT : ALLOW_PREFIX) : (rule.exact ? DISALLOW_EXACT : DISALLOW_PREFIX);
+		}
+
+		// Lay out the trie in breadth-first order
+		final ObjectArrayList<Node> queue = new ObjectArrayList<>();
+		queue.add(root);
+		for(int i = 0; i < queue.size(); i++) queue.addAll(queue.get(i).children);
+		final int nodes = queue.size();
+		firstChild = new int[nodes + 1];
+		label = new byte[nodes];
+		flags = new byte[nodes];
+		for(int i = 0, next = 1; i < nodes; i++) {
+			final Node node = queue.get(i);
+			label[i] = node.label;
+			flags[i] = node.flags;
+			firstChild[i] = next;
+			next += node.children.size();
+			firstChild[i + 1] = next;
+		}
+
+		final int n = wildcardRules.size();
+		wildcard = new byte[n][];
+		wildcardAllow = new boolean[n];
+		wildcardExact = new boolean[n];
+		wildcardPriority = new int[n];
+		for(int i = 0; i < n; i++) {
+			final Rule rule = wildcardRules.get(i);
+			wildcard[i] = rule.pattern;
+			wildcardAllow[i] = rule.allow;
+			wildcardExact[i] = rule.exact;
+			wildcardPriority[i] = rule.priority;
+		}
+	}
+
+	private RobotsFilter(final int[] firstChild, final byte[] label, final byte[] flags, final byte[][] wildcard, final boolean[] wildcardAllow, final boolean[] wildcardExact, final int[] wildcardPriority) {
+		this.firstChild = firstChild;
+		this.label = label;
+		this.flags = flags;
+		this.wildcard = wildcard;
+		this.wildcardAllow = wildcardAllow;
+		this.wildcardExact = wildcardExact;
+		this.wildcardPriority = wildcardPriority;
+	}
+
+	/** Compiles a robots filter.
+	 *
+	 * @param disallow the <code>Disallow</code> patterns; empty patterns are ignored.
+	 * @param allow the <code>Allow</code> patterns; empty patterns are ignored.
+	 * @return a filter implementing the given rules.
+	 */
+	public static RobotsFilter compile(final Collection<String> disallow, final Collection<String> allow) {
+		if (disallow.isEmpty()) return EMPTY; // Everything is allowed anyway
+		final ObjectArrayList<Rule> rules = new ObjectArrayList<>();
+		for(final String pattern : disallow) if (pattern.length() != 0) rules.add(new Rule(pattern, false));
+		for(final String pattern : allow) if (pattern.length() != 0) rules.add(new Rule(pattern, true));
+		return new RobotsFilter(rules);
+	}
+
+	/** Writes this filter in a compact binary format, which does not carry the overhead of Java serialization.
+	 *
+	 * <p>The format is given by the number of nodes of the trie, the array {@link #firstChild}, the labels and the flags of the nodes,
+	 * followed by the number of patterns with stars and, for each pattern, its length, its bytes, whether it is an <code>Allow</code> pattern,
+	 * whether it was followed by a dollar and its priority.
+	 *
+	 * @param out a data output.
+	 * @throws IOException if an I/O error occurs.
+	 * @see #read(DataInput)
+	 */
+	public void write(final DataOutput out) throws IOException {
+		final int nodes = label.length;
+		out.writeInt(nodes);
+		for(final int c : firstChild) out.writeInt(c);
+		out.write(label);
+		out.write(flags);
+		out.writeInt(wildcard.length);
+		for(int i = 0; i < wildcard.length; i++) {
+			out.writeInt(wildcard[i].length);
+			out.write(wildcard[i]);
+			out.writeBoolean(wildcardAllow[i]);
+			out.writeBoolean(wildcardExact[i]);
+			out.writeInt(wildcardPriority[i]);
+		}
+	}
+
+	/** Reads a filter {@linkplain #write(DataOutput) written in binary format}.
+	 *
+	 * @param in a data input.
+	 * @return the filter.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public static RobotsFilter read(final DataInput in) throws IOException {
+		final int nodes = in.readInt();
+		final int[] firstChild = new int[nodes + 1];
+		for(int i = 0; i <= nodes; i++) firstChild[i] = in.readInt();
+		final byte[] label = new byte[nodes], flags = new byte[nodes];
+		in.readFully(label);
+		in.readFully(flags);
+		final int n = in.readInt();
+		final byte[][] wildcard = new byte[n][];
+		final boolean[] wildcardAllow = new boolean[n], wildcardExact = new boolean[n];
+		final int[] wildcardPriority = new int[n];
+		for(int i = 0; i < n; i++) {
+			wildcard[i] = new byte[in.readInt()];
+			in.readFully(wildcard[i]);
+			wildcardAllow[i] = in.readBoolean();
+			wildcardExact[i] = in.readBoolean();
+			wildcardPriority[i] = in.readInt();
+		}
+		return new RobotsFilter(firstChild, label, flags, wildcard, wildcardAllow, wildcardExact, wildcardPriority);
+	}
+
+	/** Normalizes a pattern as described in the {@linkplain RobotsFilter class documentation}.
+	 *
+	 * @param pattern a pattern.
+	 * @return the normalized pattern as a list of bytes.
+	 */
+	private static ByteArrayList normalize(final String pattern) {
+		final ByteArrayList result = new ByteArrayList(pattern.length());
+		final byte[] utf8 = pattern.getBytes(Charsets.UTF_8);
+		for(int i = 0; i < utf8.length; i++) {
+			final int b = utf8[i] & 0xFF;
+			if (b >= 0x80) {
+				result.add((byte)'%');
+				result.add((byte)HEX_DIGIT[b >> 4]);
+				result.add((byte)HEX_DIGIT[b & 0xF]);
+			}
+			else if (b == '%' && i < utf8.length - 2 && isHexDigit(utf8[i + 1]) && isHexDigit(utf8[i + 2])) {
+				result.add((byte)'%');
+				result.add((byte)Character.toUpperCase(utf8[++i]));
+				result.add((byte)Character.toUpperCase(utf8[++i]));
+			}
+			else {
+				int k;
+				for(k = BURL.BAD_CHAR.length; k-- != 0;) if (BURL.BAD_CHAR[k] == b) break;
+				if (k == -1) result.add((byte)b);
+				else for(final char c : BURL.BAD_CHAR_SUBSTITUTE[k].toCharArray()) result.add((byte)c);
+			}
+		}
+		return result;
+	}
+
+	private static boolean isHexDigit(final byte c) {
+		return c >= '0' && c <= '9' || c >= 'A' && c <= 'F' || c >= 'a' && c <= 'f';
+	}
+
+	/** Checks whether a path+query passes this filter.
+	 *
+	 * @param pathQuery a byte array containing a normalized path+query (as returned, e.g., by {@link BURL#pathAndQueryAsByteArray(URI)}).
+	 * @param offset the starting position of the path+query in {@code pathQuery}.
+	 * @param length the length of the path+query.
+	 * @return true if the path+query passes this filter.
+	 */
+	public boolean apply(final byte[] pathQuery, final int offset, final int length) {
+		if (flags.length == 1 && flags[0] == 0 && wildcard.length == 0) return true; // No rules
+		// The priority and the kind of the best matching rule so far
+		int best = -1;
+		boolean allow = true;
+
+		// Visit the trie along the path+query
+		final int end = offset + length;
+		int node = 0;
+		for(int i = offset; ; i++) {
+			final int f = flags[node];
+			if (f != 0) {
+				final int depth = i - offset;
+				if ((f & (ALLOW_PREFIX | DISALLOW_PREFIX)) != 0) {
+					// Longer patterns always have higher priority
+					best = depth;
+					allow = (f & ALLOW_PREFIX) != 0;
+				}
+				if (i == end && (f & (ALLOW_EXACT | DISALLOW_EXACT)) != 0) {
+					best = depth + 1;
+					allow = (f & ALLOW_EXACT) != 0;
+				}
+			}
+			if (i == end) break;
+			final byte b = pathQuery[i];
+			int child = -1;
+			for(int c = firstChild[node], last = firstChild[node + 1]; c < last; c++) if (label[c] == b) {
+				child = c;
+				break;
+			}
+			if (child == -1) break;
+			node = child;
+		}
+
+		for(int i = wildcard.length; i-- != 0;) {
+			final int priority = wildcardPriority[i];
+			if ((priority > best || priority == best && wildcardAllow[i] && ! allow) && matches(wildcard[i], wildcardExact[i], pathQuery, offset, end)) {
+				best = priority;
+				allow = wildcardAllow[i];
+			}
+		}
+
+		return allow;
+	}
+
+	/** Checks whether a path+query passes this filter.
+	 *
+	 * @param pathQuery a normalized path+query (as returned, e.g., by {@link BURL#pathAndQueryAsByteArray(URI)}).
+	 * @return true if {@code pathQuery} passes this filter.
+	 */
+	public boolean apply(final byte[] pathQuery) {
+		return apply(pathQuery, 0, pathQuery.length);
+	}
+
+	/** Checks whether a URL passes this filter.
+	 *
+	 * <p>This method is a convenience method that allocates a byte-array representation
+	 * of the path+query of {@code url}: it should not be used on the critical path.
+	 *
+	 * @param url a BUbiNG URL.
+	 * @return true if the path+query of {@code url} passes this filter.
+	 */
+	public boolean apply(final URI url) {
+		return apply(BURL.pathAndQueryAsByteArray(url));
+	}
+
+	/** Checks whether a pattern with stars matches a path+query.
+	 *
+	 * <p>Since stars are the only metacharacter, a greedy match that backtracks only to the last star seen is correct.
+	 *
+	 * @param pattern a pattern.
+	 * @param exact whether the pattern must match the whole path+query, rather than a prefix.
+	 * @param a a byte array containing a path+query.
+	 * @param offset the starting position of the path+query in {@code a}.
+	 * @param end the end position (exclusive) of the path+query in {@code a}.
+	 * @return true if {@code pattern} matches the path+query.
+	 */
+	private static boolean matches(final byte[] pattern, final boolean exact, final byte[] a, final int offset, final int end) {
+		int p = 0, i = offset;
+		// The position in the pattern after the last star, and the position in the path+query it was matched to
+		int star = -1, mark = offset;
+		for(;;) {
+			if (p == pattern.length) {
+				if (! exact || i == end) return true;
+			}
+			else if (pattern[p] == '*') {
+				star = ++p;
+				mark = i;
+				continue;
+			}
+			else if (i < end && pattern[p] == a[i]) {
+				p++;
+				i++;
+				continue;
+			}
+			// Mismatch: let the last star match one more character, if possible
+			if (star == -1 || mark == end) return false;
+			p = star;
+			i = ++mark;
+		}
+	}
+
+	/** Returns the number of rules of this filter.
+	 *
+	 * @return the number of rules of this filter.
+	 */
+	public int size() {
+		int size = wildcard.length;
+		for(final byte f : flags) size += Integer.bitCount(f);
+		return size;
+	}
+
+	private void append(final StringBuilder stringBuilder, final String kind, final CharSequence pattern, final boolean exact) {
+		if (stringBuilder.length() > 1) stringBuilder.append(',');
+		stringBuilder.append(kind).append(" \"").append(pattern);
+		if (exact) stringBuilder.append('$');
+		stringBuilder.append('"');
+	}
+
+	/** Returns a description of at most {@value #MAX_TO_STRING_RULES} rules of this filter.
+	 *
+	 * @return a description of this filter.
+	 */
+	@Override
+	public String toString() {
+		final StringBuilder stringBuilder = new StringBuilder().append('[');
+		int rules = 0;
+		// Rebuild the patterns in the trie by a depth-first visit
+		final int[] stack = new int[flags.length];
+		final StringBuilder pattern = new StringBuilder();
+		final int[] depth = new int[flags.length];
+		int top = 0;
+		stack[top++] = 0;
+		while(top != 0 && rules < MAX_TO_STRING_RULES) {
+			final int node = stack[--top];
+			pattern.setLength(depth[node]);
+			if (node != 0) pattern.append((char)label[node]);
+			final int f = flags[node];
+			if ((f & DISALLOW_PREFIX) != 0 && rules++ < MAX_TO_STRING_RULES) append(stringBuilder, "Disallow", pattern, false);
+			if ((f & DISALLOW_EXACT) != 0 && rules++ < MAX_TO_STRING_RULES) append(stringBuilder, "Disallow", pattern, true);
+			if ((f & ALLOW_PREFIX) != 0 && rules++ < MAX_TO_STRING_RULES) append(stringBuilder, "Allow", pattern, false);
+			if ((f & ALLOW_EXACT) != 0 && rules++ < MAX_TO_STRING_RULES) append(stringBuilder, "Allow", pattern, true);
+			for(int c = firstChild[node + 1]; c-- != firstChild[node];) {
+				depth[c] = pattern.length();
+				stack[top++] = c;
+			}
+		}
+		for(int i = 0; i < wildcard.length && rules < MAX_TO_STRING_RULES; i++, rules++) append(stringBuilder, wildcardAllow[i] ? "Allow" : "Disallow", new String(wildcard[i], Charsets.US_ASCII), wildcardExact[i]);
+		if (rules < size()) stringBuilder.append(",...");
+		return stringBuilder.append(']').toString();
+	}
+}
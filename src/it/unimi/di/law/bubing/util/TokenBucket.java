@@ -0,0 +1,121 @@
+package it.unimi.di.law.bubing.util;
+
+/*
+ * Copyright (C) 2012-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+//RELEASE-STATUS: DIST
+
+/** A lock-free token bucket, used to limit bandwidth.
+ *
+ * <p>A token bucket is filled at a given rate, up to a given capacity (the <em>burst</em>); consumers
+ * take tokens from the bucket, waiting if there are not enough tokens. The rate is
+ * passed to each method, rather than being fixed at construction time, so that it can be changed at any time
+ * (e.g., by JMX) without any coordination, and so that many buckets sharing the same rate need not store it.
+ *
+ * <p>The implementation follows the <em>generic cell rate algorithm</em>: the only state is the
+ * time at which the bucket will be full again, which is updated with a compare-and-set. Tokens are
+ * {@linkplain #reserve(long, long) reserved} immediately, even if they are not available yet,
+ * and the caller is told how long it must wait before using them; in this way, threads are served in
+ * arrival order, and the bucket can also be used by threads that cannot wait (which just go into debt).
+ *
+ * <p>Instances of this class are thread safe, and use just a <code>long</code> field.
+ */
+public final class TokenBucket {
+	/** The default duration of a burst, in nanoseconds: the bucket contains at most the tokens accumulated in this time. */
+	public static final long DEFAULT_BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+
+	private static final AtomicLongFieldUpdater<TokenBucket> FULL_TIME_UPDATER = AtomicLongFieldUpdater.newUpdater(TokenBucket.class, "fullTime");
+
+	/** The time (in the {@link System#nanoTime()} scale) at which the bucket will be full again. */
+	private volatile long fullTime;
+	/** The duration of a burst, in nanoseconds. */
+	private final long burstNanos;
+
+	/** Creates a token bucket with a {@linkplain #DEFAULT_BURST_NANOS default burst}. */
+	public TokenBucket() {
+		this(DEFAULT_BURST_NANOS);
+	}
+
+	/** Creates a token bucket.
+	 *
+	 * @param burstNanos the burst duration, in nanoseconds: the bucket contains at most the tokens accumulated in this time.
+	 */
+	public TokenBucket(final long burstNanos) {
+		if (burstNanos < 0) throw new IllegalArgumentException("Negative burst duration: " + burstNanos);
+		this.burstNanos = burstNanos;
+		fullTime = System.nanoTime();
+	}
+
+	/** Reserves tokens, returning the time the caller must wait before using them.
+	 *
+	 * @param tokens the number of tokens to be reserved.
+	 * @param rate the rate at which the bucket is filled, in tokens per second; if zero or negative, there is no limit.
+	 * @return the number of nanoseconds the caller must wait before using the tokens (possibly zero).
+	 */
+	public long reserve(final long tokens, final long rate) {
+		if (rate <= 0) return 0;
+		final long cost = cost(tokens, rate);
+		final long now = System.nanoTime();
+		for(;;) {
+			final long fullTime = this.fullTime;
+			final long newFullTime = Math.max(fullTime, now) + cost;
+			if (FULL_TIME_UPDATER.compareAndSet(this, fullTime, newFullTime)) return Math.max(0, newFullTime - burstNanos - now);
+		}
+	}
+
+	/** Reserves tokens and waits until they can be used.
+	 *
+	 * @param tokens the number of tokens to be reserved.
+	 * @param rate the rate at which the bucket is filled, in tokens per second; if zero or negative, there is no limit.
+	 * @see #reserve(long, long)
+	 */
+	public void acquire(final long tokens, final long rate) throws InterruptedException {
+		sleep(reserve(tokens, rate));
+	}
+
+	/** Returns the time to wait until the bucket is no longer in debt, that is, until tokens can be reserved without waiting.
+	 *
+	 * @param rate the rate at which the bucket is filled, in tokens per second; if zero or negative, there is no limit.
+	 * @return the number of nanoseconds until the bucket is no longer in debt (possibly zero).
+	 */
+	public long debt(final long rate) {
+		if (rate <= 0) return 0;
+		return Math.max(0, fullTime - burstNanos - System.nanoTime());
+	}
+
+	/** Returns the time needed to accumulate a given number of tokens.
+	 *
+	 * @param tokens a number of tokens.
+	 * @param rate a positive rate, in tokens per second.
+	 * @return the number of nanoseconds needed to accumulate {@code tokens} tokens at {@code rate} tokens per second.
+	 */
+	private static long cost(final long tokens, final long rate) {
+		// Avoid overflow for large numbers of tokens
+		return tokens < Long.MAX_VALUE / 1000000000L ? tokens * 1000000000L / rate : (long)(tokens * 1E9 / rate);
+	}
+
+	/** Sleeps for a given number of nanoseconds.
+	 *
+	 * @param nanos the number of nanoseconds to sleep; if zero or negative, this method returns immediately.
+	 */
+	public static void sleep(final long nanos) throws InterruptedException {
+		if (nanos <= 0) return;
+		TimeUnit.NANOSECONDS.sleep(nanos);
+	}
+}
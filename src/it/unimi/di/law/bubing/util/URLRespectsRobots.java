@@ -41,7 +41,11 @@ import it.unimi.dsi.lang.MutableString;
 //RELEASE-STATUS: DIST
 
 /** A class providing static methods to parse <code>robots.txt</code> into arrays of char arrays and
- * handle robot filtering. */
+ * handle robot filtering.
+ *
+ * <p>The methods returning arrays of char arrays consider just <code>Disallow</code> rules, and interpret patterns literally.
+ * The methods returning a {@link RobotsFilter} consider also <code>Allow</code> rules and wildcards, and should be preferred:
+ * in particular, a {@link RobotsFilter} can be applied to the byte-array representation of a path+query without allocating objects. */
 
 public class URLRespectsRobots {
 	private final static Logger LOGGER = LoggerFactory.getLogger(URLRespectsRobots.class);
@@ -76,10 +80,65 @@ public class URLRespectsRobots {
 	 * @return an array of character arrays, which are prefixes of the URLs not to follow, in sorted order.
 	 */
 	public static char[][] parseRobotsReader(final Reader content, final String userAgent) throws IOException {
-		/* The set of disallowed paths specifically aimed at userAgent. */
-		Set<String> set = new ObjectOpenHashSet<>();
-		/* The set of disallowed paths specifically aimed at *. */
-		Set<String> setStar = new ObjectOpenHashSet<>();
+		return parseRobotsReader(content, userAgent, null);
+	}
+
+	/** Parses the argument as if it were the content of a <code>robots.txt</code> file,
+	 * and returns a sorted array of prefixes of URLs that the agent should not follow, storing
+	 * the <code>Crawl-delay</code> aimed at the agent, if any.
+	 *
+	 * @param content the content of the  <code>robots.txt</code> file.
+	 * @param userAgent the string representing the user agent of interest.
+	 * @param crawlDelay if not {@code null}, a one-element array whose only element will be set to the
+	 * <code>Crawl-delay</code> aimed at {@code userAgent} in milliseconds, or to zero if there is no such delay.
+	 * @return an array of character arrays, which are prefixes of the URLs not to follow, in sorted order.
+	 */
+	public static char[][] parseRobotsReader(final Reader content, final String userAgent, final long[] crawlDelay) throws IOException {
+		final Section section = parse(content, userAgent);
+		if (crawlDelay != null) crawlDelay[0] = Math.max(0, section.delay);
+		final Set<String> disallow = new ObjectOpenHashSet<>();
+		// Someone (erroneously) uses * to denote any suffix
+		for(final String disallowed : section.disallow) disallow.add(disallowed.endsWith("*") ? disallowed.substring(0, disallowed.length() - 1) : disallowed);
+		return toSortedPrefixFreeCharArrays(disallow);
+	}
+
+	/** Parses the argument as if it were the content of a <code>robots.txt</code> file,
+	 * and returns the corresponding compiled filter, storing the <code>Crawl-delay</code> aimed at the agent, if any.
+	 *
+	 * @param content the content of the  <code>robots.txt</code> file.
+	 * @param userAgent the string representing the user agent of interest.
+	 * @param crawlDelay if not {@code null}, a one-element array whose only element will be set to the
+	 * <code>Crawl-delay</code> aimed at {@code userAgent} in milliseconds, or to zero if there is no such delay.
+	 * @return a filter implementing the <code>Allow</code> and <code>Disallow</code> rules aimed at {@code userAgent}.
+	 */
+	public static RobotsFilter compileRobotsReader(final Reader content, final String userAgent, final long[] crawlDelay) throws IOException {
+		final Section section = parse(content, userAgent);
+		if (crawlDelay != null) crawlDelay[0] = Math.max(0, section.delay);
+		return RobotsFilter.compile(section.disallow, section.allow);
+	}
+
+	/** The rules of a section of a <code>robots.txt</code> file. */
+	private static final class Section {
+		/** The disallowed patterns. */
+		private final Set<String> disallow = new ObjectOpenHashSet<>();
+		/** The allowed patterns. */
+		private final Set<String> allow = new ObjectOpenHashSet<>();
+		/** The crawl delay in milliseconds, or -1. */
+		private long delay = -1;
+	}
+
+	/** Parses the argument as if it were the content of a <code>robots.txt</code> file,
+	 * and returns the section of interest for the agent.
+	 *
+	 * @param content the content of the  <code>robots.txt</code> file.
+	 * @param userAgent the string representing the user agent of interest.
+	 * @return the rules aimed at {@code userAgent}, if any, or the rules aimed at any agent.
+	 */
+	private static Section parse(final Reader content, final String userAgent) throws IOException {
+		/* The section specifically aimed at userAgent. */
+		final Section section = new Section();
+		/* The section aimed at *. */
+		final Section sectionStar = new Section();
 		/* True if the currently examined record is targetted to us. */
 		boolean doesMatter = false;
 		/* True if we have seen a section targetted to our agent. */
@@ -138,13 +197,32 @@ public class URLRespectsRobots {
 						token = st.nextToken();
 						//System.out.println(st.sval + " " + starSection + " " + set + " " + setStar);
 						if (token == StreamTokenizer.TT_EOL) {
-							if (doesMatter) set.clear();
-							else if (starSection) setStar.clear();
+							if (doesMatter) section.disallow.clear();
+							else if (starSection) sectionStar.disallow.clear();
 						} else if (token == StreamTokenizer.TT_WORD) {
-							String disallowed = st.sval;
-							if (disallowed.endsWith("*")) disallowed = disallowed.substring(0, disallowed.length()-1); // Someone (erroneously) uses * to denote any suffix
-							if (doesMatter) set.add(disallowed);
-							else if (starSection) setStar.add(disallowed);
+							if (doesMatter) section.disallow.add(st.sval);
+							else if (starSection) sectionStar.disallow.add(st.sval);
+						}
+						// Ignore the rest of the line
+						while (token != StreamTokenizer.TT_EOL && token != StreamTokenizer.TT_EOF)
+							token = st.nextToken();
+					} else if (st.sval.equalsIgnoreCase("allow:")) {
+						token = st.nextToken();
+						if (token == StreamTokenizer.TT_WORD) {
+							if (doesMatter) section.allow.add(st.sval);
+							else if (starSection) sectionStar.allow.add(st.sval);
+						}
+						// Ignore the rest of the line
+						while (token != StreamTokenizer.TT_EOL && token != StreamTokenizer.TT_EOF)
+							token = st.nextToken();
+					} else if (st.sval.equalsIgnoreCase("crawl-delay:")) {
+						token = st.nextToken();
+						if (token == StreamTokenizer.TT_WORD) {
+							final long value = parseCrawlDelay(st.sval);
+							if (value >= 0) {
+								if (doesMatter) section.delay = value;
+								else if (starSection) sectionStar.delay = value;
+							}
 						}
 						// Ignore the rest of the line
 						while (token != StreamTokenizer.TT_EOL && token != StreamTokenizer.TT_EOF)
@@ -158,9 +236,24 @@ public class URLRespectsRobots {
 			}
 		}
 
-		if (specific) return toSortedPrefixFreeCharArrays(set); // Some instructions specific to us
-		if (! specific && generic) return toSortedPrefixFreeCharArrays(setStar); // No specific instruction, but some generic ones
-		return toSortedPrefixFreeCharArrays(set);
+		if (specific) return section; // Some instructions specific to us
+		if (! specific && generic) return sectionStar; // No specific instruction, but some generic ones
+		return section;
+	}
+
+	/** Parses the value of a <code>Crawl-delay</code> directive.
+	 *
+	 * @param value the value of the directive, in (possibly fractional) seconds.
+	 * @return the delay in milliseconds, or -1 if {@code value} is not a valid delay.
+	 */
+	private static long parseCrawlDelay(final String value) {
+		try {
+			final double seconds = Double.parseDouble(value);
+			return seconds >= 0 && seconds < Long.MAX_VALUE / 1000 ? (long)(seconds * 1000) : -1;
+		}
+		catch (final NumberFormatException e) {
+			return -1;
+		}
 	}
 
 	/** Parses a <code>robots.txt</code> file contained in a {@link FetchData} and
@@ -175,19 +268,76 @@ public class URLRespectsRobots {
 	 * or {@code null}
 	 */
 	public static char[][] parseRobotsResponse(final URIResponse robotsResponse, final String userAgent) throws IOException {
-		final int status = robotsResponse.response().getStatusLine().getStatusCode();
-		if (status / 100 != 2) LOGGER.info("Got status " + status + " while fetching robots: URL was " + robotsResponse.uri());
+		return parseRobotsResponse(robotsResponse, userAgent, null);
+	}
+
+	/** Parses a <code>robots.txt</code> file contained in a {@link FetchData} as {@link #parseRobotsResponse(URIResponse, String)},
+	 * storing the <code>Crawl-delay</code> aimed at the agent, if any.
+	 *
+	 * @param robotsResponse the response containing <code>robots.txt</code>.
+	 * @param userAgent the string representing the user agent of interest.
+	 * @param crawlDelay if not {@code null}, a one-element array whose only element will be set to the
+	 * <code>Crawl-delay</code> aimed at {@code userAgent} in milliseconds, or to zero if there is no such delay.
+	 * @return an array of character arrays, which are prefixes of the URLs not to follow, in sorted order,
+	 * or {@code null}
+	 * @see #parseRobotsReader(Reader, String, long[])
+	 */
+	public static char[][] parseRobotsResponse(final URIResponse robotsResponse, final String userAgent, final long[] crawlDelay) throws IOException {
+		if (crawlDelay != null) crawlDelay[0] = 0;
+		final int status = status(robotsResponse);
 		if (status / 100 == 4 || status / 100 == 5) return EMPTY_ROBOTS_FILTER; // For status 4xx and 5xx, we consider everything allowed.
 		if (status / 100 != 2 && status / 100 != 3) return null; // For status 2xx and 3xx we parse the content. For the rest, we consider everything forbidden.
+		char[][] result = parseRobotsReader(reader(robotsResponse), userAgent, crawlDelay);
+		if (LOGGER.isDebugEnabled()) LOGGER.debug("Robots for {} successfully got with status {}: {}", robotsResponse.uri(), Integer.valueOf(status), toString(result));
+		return result;
+	}
+
+	/** Parses a <code>robots.txt</code> file contained in a {@link FetchData} and
+	 * returns the corresponding compiled filter, storing the <code>Crawl-delay</code> aimed at the agent, if any.
+	 * HTTP statuses are handled as in {@link #parseRobotsResponse(URIResponse, String)}, but
+	 * HTTP statuses of class 4xx generate {@link RobotsFilter#EMPTY}.
+	 *
+	 * @param robotsResponse the response containing <code>robots.txt</code>.
+	 * @param userAgent the string representing the user agent of interest.
+	 * @param crawlDelay if not {@code null}, a one-element array whose only element will be set to the
+	 * <code>Crawl-delay</code> aimed at {@code userAgent} in milliseconds, or to zero if there is no such delay.
+	 * @return a filter implementing the <code>Allow</code> and <code>Disallow</code> rules aimed at {@code userAgent}, or {@code null}.
+	 * @see #compileRobotsReader(Reader, String, long[])
+	 */
+	public static RobotsFilter compileRobotsResponse(final URIResponse robotsResponse, final String userAgent, final long[] crawlDelay) throws IOException {
+		if (crawlDelay != null) crawlDelay[0] = 0;
+		final int status = status(robotsResponse);
+		if (status / 100 == 4 || status / 100 == 5) return RobotsFilter.EMPTY; // For status 4xx and 5xx, we consider everything allowed.
+		if (status / 100 != 2 && status / 100 != 3) return null; // For status 2xx and 3xx we parse the content. For the rest, we consider everything forbidden.
+		final RobotsFilter result = compileRobotsReader(reader(robotsResponse), userAgent, crawlDelay);
+		if (LOGGER.isDebugEnabled()) LOGGER.debug("Robots for {} successfully got with status {}: {}", robotsResponse.uri(), Integer.valueOf(status), result);
+		return result;
+	}
+
+	/** Returns the status of a response containing <code>robots.txt</code>, logging statuses different from 2xx.
+	 *
+	 * @param robotsResponse the response containing <code>robots.txt</code>.
+	 * @return the status of {@code robotsResponse}.
+	 */
+	private static int status(final URIResponse robotsResponse) {
+		final int status = robotsResponse.response().getStatusLine().getStatusCode();
+		if (status / 100 != 2) LOGGER.info("Got status " + status + " while fetching robots: URL was " + robotsResponse.uri());
+		return status;
+	}
+
+	/** Returns a reader on the content of a response containing <code>robots.txt</code>.
+	 *
+	 * @param robotsResponse the response containing <code>robots.txt</code>.
+	 * @return a reader on the content of {@code robotsResponse}.
+	 */
+	private static Reader reader(final URIResponse robotsResponse) throws IOException {
 		// See if BOM is present and compute its length
 		BOMInputStream bomInputStream = new BOMInputStream(robotsResponse.response().getEntity().getContent(), true);
 		int bomLength = bomInputStream.hasBOM()? bomInputStream.getBOM().length() : 0;
 		// Skip BOM, if necessary
 		bomInputStream.skip(bomLength);
 		// Parse robots (BOM is ignored, robots are UTF-8, as suggested by https://developers.google.com/search/reference/robots_txt
-		char[][] result = parseRobotsReader(new InputStreamReader(bomInputStream, Charsets.UTF_8), userAgent);
-		if (LOGGER.isDebugEnabled()) LOGGER.debug("Robots for {} successfully got with status {}: {}", robotsResponse.uri(), Integer.valueOf(status), toString(result));
-		return result;
+		return new InputStreamReader(bomInputStream, Charsets.UTF_8);
 	}
 
 	private final static int compare(char[] left, String right) {
@@ -244,13 +394,13 @@ public class URLRespectsRobots {
 	}
 
 	public static void main(String arg[]) throws IOException {
-		char[][] robotsResult = URLRespectsRobots.parseRobotsReader(new FileReader(arg[0]), arg[1]);
-		for(char[] a: robotsResult) System.err.println(new String(a));
+		final RobotsFilter robotsResult = URLRespectsRobots.compileRobotsReader(new FileReader(arg[0]), arg[1], null);
+		System.err.println(robotsResult);
 		final FastBufferedReader in = new FastBufferedReader(new InputStreamReader(System.in, Charsets.US_ASCII));
 		final MutableString s = new MutableString();
 		while(in.readLine(s) != null) {
 			final URI uri = BURL.parse(s);
-			System.out.println(apply(robotsResult, uri) + "\t" + uri);
+			System.out.println(robotsResult.apply(uri) + "\t" + uri);
 		}
 		in.close();
 
@@ -0,0 +1,221 @@
+package it.unimi.di.law.bubing.util;
+
+/*
+ * Copyright (C) 2012-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+
+import com.google.common.net.HttpHeaders;
+
+import it.unimi.dsi.fastutil.io.FastBufferedInputStream;
+import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+
+//RELEASE-STATUS: DIST
+
+/** A compact, disk-based map from URLs to the validators (<code>ETag</code> and <code>Last-Modified</code> headers)
+ * returned by the last fetch of the URL, used to issue conditional requests when revisiting pages.
+ *
+ * <p>Validators are appended to a file by a {@link Writer} during a crawl: each record contains a 64-bit
+ * {@linkplain MurmurHash3 hash} of the URL followed by the two validators. The file can be later opened as a map:
+ * only the sorted hashes and the positions of the associated records are kept in memory (16 bytes per URL),
+ * and validators are read from disk on demand. If a URL appears more than once, the last record is used.
+ *
+ * <p>Since URLs are represented by hashes, collisions are possible, albeit unlikely; in that case, a conditional
+ * request will be issued using the validators of a different URL.
+ *
+ * <p>Instances of this class are thread safe.
+ */
+public class ValidatorMap implements Closeable {
+	/** The standard name of a validators file. */
+	public static final String VALIDATORS_NAME = "validators";
+	/** Validators longer than this number of characters will not be stored. */
+	private static final int MAX_VALIDATOR_LENGTH = 1024;
+	/** The maximum length of a record (a hash and two validators, each using at most three bytes per character plus two bytes for the length). */
+	private static final int MAX_RECORD_LENGTH = Long.BYTES + 2 * (2 + 3 * MAX_VALIDATOR_LENGTH);
+
+	/** The validators of a URL. */
+	public static final class Validators {
+		/** The value of the <code>ETag</code> header, or {@code null}. */
+		public final String eTag;
+		/** The value of the <code>Last-Modified</code> header, or {@code null}. */
+		public final String lastModified;
+
+		public Validators(final String eTag, final String lastModified) {
+			this.eTag = eTag;
+			this.lastModified = lastModified;
+		}
+
+		/** Returns the validators of a response.
+		 *
+		 * @param response a response.
+		 * @return the validators of {@code response}, or {@code null} if there are none.
+		 */
+		public static Validators of(final HttpResponse response) {
+			final String eTag = value(response.getFirstHeader(HttpHeaders.ETAG));
+			final String lastModified = value(response.getFirstHeader(HttpHeaders.LAST_MODIFIED));
+			return eTag == null && lastModified == null ? null : new Validators(eTag, lastModified);
+		}
+
+		private static String value(final Header header) {
+			return header == null || header.getValue().length() == 0 || header.getValue().length() > MAX_VALIDATOR_LENGTH ? null : header.getValue();
+		}
+
+		@Override
+		public String toString() {
+			return "[ETag: " + eTag + ", Last-Modified: " + lastModified + "]";
+		}
+	}
+
+	/** Writes validators to a file, so that it can be later opened as a {@link ValidatorMap}. */
+	public static final class Writer implements Closeable {
+		/** The stream used to write validators. */
+		private final DataOutputStream dos;
+
+		/** Creates a new writer.
+		 *
+		 * @param file the file to which validators will be written.
+		 * @param append whether to append validators to {@code file}, if it exists.
+		 */
+		public Writer(final File file, final boolean append) throws IOException {
+			dos = new DataOutputStream(new FastBufferedOutputStream(new FileOutputStream(file, append)));
+		}
+
+		/** Records the validators of a URL.
+		 *
+		 * @param url a URL.
+		 * @param validators the validators of {@code url}; if {@code null}, this method does nothing.
+		 */
+		public synchronized void add(final URI url, final Validators validators) throws IOException {
+			if (validators == null) return;
+			dos.writeLong(hash(url));
+			dos.writeUTF(validators.eTag == null ? "" : validators.eTag);
+			dos.writeUTF(validators.lastModified == null ? "" : validators.lastModified);
+		}
+
+		@Override
+		public synchronized void close() throws IOException {
+			dos.close();
+		}
+	}
+
+	/** The sorted hashes of the URLs in this map. */
+	private final long[] hash;
+	/** The positions in the file of the records associated with {@link #hash}. */
+	private final long[] position;
+	/** The channel used to read records. */
+	private final FileChannel channel;
+
+	/** Opens a file written by a {@link Writer} as a map.
+	 *
+	 * @param file a file written by a {@link Writer}.
+	 */
+	@SuppressWarnings("resource")
+	public ValidatorMap(final File file) throws IOException {
+		final LongArrayList hashes = new LongArrayList();
+		final LongArrayList positions = new LongArrayList();
+
+		final FastBufferedInputStream fbis = new FastBufferedInputStream(new FileInputStream(file));
+		try(final DataInputStream dis = new DataInputStream(fbis)) {
+			for(;;) {
+				final long position = fbis.position();
+				final long hash;
+				try {
+					hash = dis.readLong();
+				}
+				catch (final EOFException e) {
+					break;
+				}
+				dis.readUTF();
+				dis.readUTF();
+				hashes.add(hash);
+				positions.add(position);
+			}
+		}
+
+		final long[] hash = hashes.elements();
+		final long[] position = positions.elements();
+		final int n = hashes.size();
+		// Sorts by hash and then by position, so the last record for each hash comes last.
+		LongArrays.quickSort(hash, position, 0, n);
+		int j = 0;
+		for(int i = 0; i < n; i++) {
+			if (i < n - 1 && hash[i] == hash[i + 1]) continue;
+			hash[j] = hash[i];
+			position[j++] = position[i];
+		}
+
+		this.hash = LongArrays.trim(hash, j);
+		this.position = LongArrays.trim(position, j);
+		channel = new RandomAccessFile(file, "r").getChannel();
+	}
+
+	/** Returns the hash used to represent a URL.
+	 *
+	 * @param url a URL.
+	 * @return the hash of {@code url}.
+	 */
+	private static long hash(final URI url) {
+		return MurmurHash3.hash(BURL.toByteArray(url));
+	}
+
+	/** Returns the number of URLs in this map.
+	 *
+	 * @return the number of URLs in this map.
+	 */
+	public int size() {
+		return hash.length;
+	}
+
+	/** Returns the validators of a URL.
+	 *
+	 * @param url a URL.
+	 * @return the validators of {@code url}, or {@code null} if they are unknown.
+	 */
+	public Validators get(final URI url) throws IOException {
+		final int pos = LongArrays.binarySearch(hash, hash(url));
+		if (pos < 0) return null;
+		final ByteBuffer buffer = ByteBuffer.allocate(MAX_RECORD_LENGTH);
+		// Positional reads are thread safe
+		while (buffer.hasRemaining() && channel.read(buffer, position[pos] + buffer.position()) != -1);
+		final DataInputStream dis = new DataInputStream(new ByteArrayInputStream(buffer.array(), 0, buffer.position()));
+		dis.readLong();
+		final String eTag = dis.readUTF();
+		final String lastModified = dis.readUTF();
+		return new Validators(eTag.length() == 0 ? null : eTag, lastModified.length() == 0 ? null : lastModified);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
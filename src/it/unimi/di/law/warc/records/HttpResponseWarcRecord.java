@@ -48,13 +48,20 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.net.HttpHeaders;
 
-/** An implementation of {@link WarcRecord} corresponding to a {@link WarcRecord.Type#RESPONSE} record type. */
+/** An implementation of {@link WarcRecord} corresponding to a {@link WarcRecord.Type#RESPONSE} record type.
+ *
+ * <p>Instances of this class can also represent {@link WarcRecord.Type#REVISIT} records using the
+ * {@linkplain #REVISIT_SERVER_NOT_MODIFIED_PROFILE server-not-modified profile}, whose payload is the HTTP response
+ * (usually, a <code>304 Not Modified</code> one) obtained by a conditional request (see {@link #revisit(URI, HttpResponse)}). */
 public class HttpResponseWarcRecord extends AbstractWarcRecord implements HttpResponse, URIResponse {
 
 	private final static Logger LOGGER = LoggerFactory.getLogger(HttpResponseWarcRecord.class);
 
 	public static final String HTTP_RESPONSE_MSGTYPE = "application/http;msgtype=response";
 
+	/** The profile of revisit records stating that the server reported that the content was not modified. */
+	public static final String REVISIT_SERVER_NOT_MODIFIED_PROFILE = "http://netpreserve.org/warc/1.0/revisit/server-not-modified";
+
 	private final ProtocolVersion protocolVersion;
 	private final StatusLine statusLine;
 	private final HttpEntity entity;
@@ -66,7 +73,7 @@ public class HttpResponseWarcRecord extends AbstractWarcRecord implements HttpRe
 	 * @param response the response.
 	 */
 	public HttpResponseWarcRecord(final URI targetURI, final HttpResponse response) throws IOException {
-		this(null, targetURI, response, null);
+		this(null, targetURI, response, null, Type.RESPONSE);
 	}
 
 	/**
@@ -77,17 +84,32 @@ public class HttpResponseWarcRecord extends AbstractWarcRecord implements HttpRe
 	 * @param hef the {@link HttpEntityFactory} to be used to create the entity stored in the record, if {@code null} an {@link IdentityHttpEntityFactory} will be used.
 	 */
 	public HttpResponseWarcRecord(final URI targetURI, final HttpResponse response, final HttpEntityFactory hef) throws IOException {
-		this(null, targetURI, response, hef);
+		this(null, targetURI, response, hef, Type.RESPONSE);
+	}
+
+	/**
+	 * Builds a {@link WarcRecord.Type#REVISIT} record with {@linkplain #REVISIT_SERVER_NOT_MODIFIED_PROFILE server-not-modified profile}
+	 * given the response to a conditional request and the target URI.
+	 *
+	 * @param targetURI the target URI.
+	 * @param response the response.
+	 * @return a revisit record.
+	 */
+	public static HttpResponseWarcRecord revisit(final URI targetURI, final HttpResponse response) throws IOException {
+		final HttpResponseWarcRecord record = new HttpResponseWarcRecord(null, targetURI, response, null, Type.REVISIT);
+		record.warcHeaders.updateHeader(new WarcHeader(WarcHeader.Name.WARC_PROFILE, REVISIT_SERVER_NOT_MODIFIED_PROFILE));
+		return record;
 	}
 
 	public static HttpResponseWarcRecord fromPayload(final HeaderGroup warcHeaders, final BoundSessionInputBuffer payloadBuffer) throws IOException {
-		return new HttpResponseWarcRecord(warcHeaders, null, readPayload(payloadBuffer), IdentityHttpEntityFactory.INSTANCE);
+		final Header warcType = warcHeaders.getFirstHeader(WarcHeader.Name.WARC_TYPE.value);
+		return new HttpResponseWarcRecord(warcHeaders, null, readPayload(payloadBuffer), IdentityHttpEntityFactory.INSTANCE, warcType != null && Type.valueOf(warcType) == Type.REVISIT ? Type.REVISIT : Type.RESPONSE);
 	}
 
-	private HttpResponseWarcRecord(final HeaderGroup warcHeaders, final URI targetURI, final HttpResponse response, final HttpEntityFactory hef) throws IOException {
+	private HttpResponseWarcRecord(final HeaderGroup warcHeaders, final URI targetURI, final HttpResponse response, final HttpEntityFactory hef, final Type type) throws IOException {
 		super(targetURI, warcHeaders);
 		getWarcTargetURI(); // Check correct initialization
-		this.warcHeaders.updateHeader(Type.warcHeader(Type.RESPONSE));
+		this.warcHeaders.updateHeader(Type.warcHeader(type));
 		this.warcHeaders.updateHeader(new WarcHeader(WarcHeader.Name.CONTENT_TYPE, HTTP_RESPONSE_MSGTYPE));
 		this.protocolVersion = response.getProtocolVersion();
 		this.statusLine = response.getStatusLine();
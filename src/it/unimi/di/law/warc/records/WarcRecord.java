@@ -48,6 +48,9 @@ public interface WarcRecord {
 
 		REQUEST("request"),
 		RESPONSE("response"),
+		/** A revisit record; the only supported profile is {@linkplain HttpResponseWarcRecord#REVISIT_SERVER_NOT_MODIFIED_PROFILE server not modified},
+		 * and records are represented by {@link HttpResponseWarcRecord} instances. */
+		REVISIT("revisit"),
 		WARCINFO("warcinfo");
 
 		private final String value;
@@ -104,6 +107,8 @@ public interface WarcRecord {
 				return RESPONSE;
 			if (type.equals(REQUEST.value))
 				return REQUEST;
+			if (type.equals(REVISIT.value))
+				return REVISIT;
 			if (type.equals(WARCINFO.value))
 				return WARCINFO;
 			throw new IllegalArgumentException("Unrecognized type " + type);
@@ -121,6 +126,8 @@ public interface WarcRecord {
 				return RESPONSE_READ_PAYLOAD;
 			if (type.equals(REQUEST.value))
 				return REQUEST_READ_PAYLOAD;
+			if (type.equals(REVISIT.value))
+				return RESPONSE_READ_PAYLOAD;
 			if (type.equals(WARCINFO.value))
 				return WARCINFO_READ_PAYLOAD;
 			throw new IllegalArgumentException("Unrecognized type " + type);
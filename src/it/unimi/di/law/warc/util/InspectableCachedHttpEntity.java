@@ -23,6 +23,7 @@ import it.unimi.dsi.fastutil.io.InspectableFileCachedInputStream;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
 
 import org.apache.http.HttpEntity;
@@ -57,6 +58,16 @@ public class InspectableCachedHttpEntity extends HttpEntityWrapper {
 	}
 
 	public boolean copyContent(final long maxLength, final long startTime, final long minDelay, final long minBytesPerSecond) throws IOException, TooSlowException {
+		return copyContent(maxLength, startTime, minDelay, minBytesPerSecond, null);
+	}
+
+	/** Copies the content from the wrapped entity, as {@link #copyContent(long, long, long, long)}, and
+	 * also writes it to a given output stream as it arrives.
+	 *
+	 * @param tee an output stream to which the content will be written, or {@code null}.
+	 * @see #copyContent(long, long, long, long)
+	 */
+	public boolean copyContent(final long maxLength, final long startTime, final long minDelay, final long minBytesPerSecond, final OutputStream tee) throws IOException, TooSlowException {
 		if (this.wrappedEntity == THROW_AWAY_ENTITY) throw new IllegalStateException();
 		final InputStream content = this.wrappedEntity.getContent();
 
@@ -65,6 +76,7 @@ public class InspectableCachedHttpEntity extends HttpEntityWrapper {
 			for (int r; ((r = content.read(buffer, 0, (int)Math.min(BUFFER_SIZE, maxLength - count)))) != -1;) {
 				byteBuffer.clear().limit(r);
 				cachedContent.write(byteBuffer);
+				if (tee != null) tee.write(buffer, 0, r);
 				count += r;
 				if (count == maxLength) break;
 				final long delay = System.currentTimeMillis() - startTime;
@@ -76,6 +88,29 @@ public class InspectableCachedHttpEntity extends HttpEntityWrapper {
         return content.read(buffer, 0, 1) != -1;
 	}
 
+	/** Appends content received asynchronously, truncating it at a given maximum length.
+	 *
+	 * <p>This method is an alternative to {@link #copyContent(long, long, long, long)} when data is pushed
+	 * to this entity (e.g., by a non-blocking client) rather than pulled from the wrapped entity.
+	 *
+	 * @param content a buffer containing the next chunk of content; it will be completely consumed.
+	 * @param maxLength the maximum length of the content.
+	 * @return true if the content was truncated because it exceeded {@code maxLength}.
+	 */
+	public boolean append(final ByteBuffer content, final long maxLength) throws IOException {
+		if (this.wrappedEntity == THROW_AWAY_ENTITY) throw new IllegalStateException();
+		final long residual = maxLength - cachedContent.length();
+		if (content.remaining() <= residual) {
+			cachedContent.write(content);
+			return false;
+		}
+		final int limit = content.limit();
+		content.limit(content.position() + (int)Math.max(0, residual));
+		cachedContent.write(content);
+		content.limit(limit).position(limit);
+		return true;
+	}
+
 
 	public void clear() throws IOException {
 		this.cachedContent.clear();
@@ -0,0 +1,110 @@
+package it.unimi.di.law.bubing.frontier;
+
+/*
+ * Copyright (C) 2013-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static it.unimi.di.law.bubing.util.Helpers.bytes;
+import static org.junit.Assert.assertEquals;
+import it.unimi.di.law.bubing.RuntimeConfiguration;
+import it.unimi.di.law.bubing.util.Helpers;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.junit.Before;
+import org.junit.Test;
+
+//RELEASE-STATUS: DIST
+
+public class AdaptiveDelayTest {
+	private RuntimeConfiguration rc;
+	private VisitState visitState;
+	private WorkbenchEntry workbenchEntry;
+
+	@Before
+	public void setUp() throws ConfigurationException, IOException, IllegalArgumentException, ClassNotFoundException {
+		rc = Helpers.getTestConfiguration(this);
+		rc.schemeAuthorityDelay = 4000;
+		rc.ipDelay = 500;
+		rc.adaptiveDelayReferenceTime = 1000;
+		rc.adaptiveDelayMinRatio = 0.5;
+		rc.adaptiveDelayMaxRatio = 4;
+		rc.maxCrawlDelay = 60000;
+		workbenchEntry = new WorkbenchEntry(new byte[] { 127, 0, 0, 1 }, new AtomicLong());
+		visitState = new VisitState(null, bytes("http://example.com"));
+		visitState.workbenchEntry = workbenchEntry;
+	}
+
+	@Test
+	public void testScale() {
+		AdaptiveDelay.update(visitState, 2000);
+		assertEquals(2000, visitState.averageResponseTime, 0);
+		assertEquals(2000, workbenchEntry.averageResponseTime, 0);
+		assertEquals(8000, AdaptiveDelay.schemeAuthorityDelay(rc, visitState));
+		assertEquals(1000, AdaptiveDelay.ipDelay(rc, workbenchEntry));
+
+		// Moving average: 2000 + (1000 - 2000) / 4
+		AdaptiveDelay.update(visitState, 1000);
+		assertEquals(1750, visitState.averageResponseTime, 0);
+		assertEquals(7000, AdaptiveDelay.schemeAuthorityDelay(rc, visitState));
+	}
+
+	@Test
+	public void testClamp() {
+		// Very slow: clamped at the maximum ratio
+		visitState.averageResponseTime = workbenchEntry.averageResponseTime = 100000;
+		assertEquals(16000, AdaptiveDelay.schemeAuthorityDelay(rc, visitState));
+		assertEquals(2000, AdaptiveDelay.ipDelay(rc, workbenchEntry));
+
+		// Very fast: clamped at the minimum ratio
+		visitState.averageResponseTime = workbenchEntry.averageResponseTime = 1;
+		assertEquals(2000, AdaptiveDelay.schemeAuthorityDelay(rc, visitState));
+		assertEquals(250, AdaptiveDelay.ipDelay(rc, workbenchEntry));
+	}
+
+	@Test
+	public void testBaseDelay() {
+		// Unknown average
+		assertEquals(4000, AdaptiveDelay.schemeAuthorityDelay(rc, visitState));
+		assertEquals(500, AdaptiveDelay.ipDelay(rc, workbenchEntry));
+
+		// Static delays
+		rc.adaptiveDelayReferenceTime = 0;
+		visitState.averageResponseTime = workbenchEntry.averageResponseTime = 100000;
+		assertEquals(4000, AdaptiveDelay.schemeAuthorityDelay(rc, visitState));
+		assertEquals(500, AdaptiveDelay.ipDelay(rc, workbenchEntry));
+	}
+
+	@Test
+	public void testCrawlDelay() {
+		visitState.averageResponseTime = 2000;
+		// A Crawl-delay larger than the scaled delay takes precedence
+		visitState.crawlDelay = 10000;
+		assertEquals(10000, AdaptiveDelay.schemeAuthorityDelay(rc, visitState));
+		// A Crawl-delay smaller than the scaled delay is irrelevant
+		visitState.crawlDelay = 5000;
+		assertEquals(8000, AdaptiveDelay.schemeAuthorityDelay(rc, visitState));
+		// A Crawl-delay is truncated at maxCrawlDelay
+		visitState.crawlDelay = 1000000;
+		assertEquals(60000, AdaptiveDelay.schemeAuthorityDelay(rc, visitState));
+		rc.maxCrawlDelay = 0;
+		assertEquals(8000, AdaptiveDelay.schemeAuthorityDelay(rc, visitState));
+		// The Crawl-delay does not affect IP delays
+		workbenchEntry.averageResponseTime = 2000;
+		assertEquals(1000, AdaptiveDelay.ipDelay(rc, workbenchEntry));
+	}
+}
@@ -0,0 +1,291 @@
+package it.unimi.di.law.bubing.frontier;
+
+/*
+ * Copyright (C) 2012-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static it.unimi.di.law.bubing.util.Helpers.bytes;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import it.unimi.di.law.bubing.RuntimeConfiguration;
+import it.unimi.di.law.bubing.store.Store;
+import it.unimi.di.law.bubing.util.BURL;
+import it.unimi.di.law.bubing.util.FetchData;
+import it.unimi.di.law.bubing.util.Helpers;
+import it.unimi.di.law.bubing.util.LockFreeQueue;
+import it.unimi.di.law.bubing.util.RobotsFilter;
+import it.unimi.di.law.bubing.util.SimpleFixedHttpProxy;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.configuration.BaseConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+
+//RELEASE-STATUS: DIST
+
+public class AsyncFetchingThreadTest {
+	/** The number of path+queries served by {@link #proxy}. */
+	private static final int PATHS = 10000;
+	/** The maximum time we wait for something to happen. */
+	private static final long TIMEOUT = 20000;
+
+	private SimpleFixedHttpProxy proxy;
+	private RuntimeConfiguration rc;
+	private Frontier frontier;
+	private AsyncFetchingThread thread;
+
+	@Before
+	public void setUp() throws Exception {
+		proxy = new SimpleFixedHttpProxy();
+		for(int i = 0; i < PATHS; i++) proxy.add200(BURL.parse("http://foo.bar/" + i), "", "<html><body>Page " + i + "</body></html>");
+		proxy.add200(BURL.parse("http://foo.bar/large"), "", Strings.repeat("x", 20000));
+		proxy.addNon200(BURL.parse("http://foo.bar/broken"), "This is not a status line\n", "");
+		proxy.start();
+
+		final BaseConfiguration baseConfiguration = new BaseConfiguration();
+		baseConfiguration.setProperty("proxyPort", Integer.toString(proxy.port()));
+		baseConfiguration.setProperty("asyncFetching", "true");
+		baseConfiguration.setProperty("keepAliveTime", "60s");
+		baseConfiguration.setProperty("dnsPrefetchThreads", "0");
+		baseConfiguration.setProperty("sieveSize", "1Ki");
+		baseConfiguration.setProperty("urlCacheMaxByteSize", "1Mi");
+		rc = Helpers.getTestConfiguration(this, baseConfiguration, true);
+
+		final Store store = rc.storeClass.getConstructor(RuntimeConfiguration.class).newInstance(rc);
+		frontier = new Frontier(rc, store, null);
+		// We want to see the visit states released by the fetching thread
+		frontier.doneThread.stop = true;
+		frontier.doneThread.join();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (thread != null) {
+			thread.stop = true;
+			recycleAll();
+			thread.join(TIMEOUT);
+			thread.close();
+		}
+		if (frontier != null) {
+			while(frontier.done.poll() != null);
+			rc.stopping = true;
+			frontier.close();
+		}
+		if (proxy != null) proxy.stopService();
+	}
+
+	/** Returns an acquired visit state for <code>http://foo.bar/</code> containing some path+queries.
+	 *
+	 * @param pathQueries the path+queries.
+	 * @return a visit state ready to be fetched.
+	 */
+	private VisitState visitState(final String... pathQueries) {
+		final VisitState visitState = new VisitState(frontier, bytes("http://foo.bar"));
+		for(final String pathQuery : pathQueries) visitState.enqueuePathQuery(bytes(pathQuery));
+		visitState.ipAddress = new byte[] { 127, 0, 0, 1 };
+		visitState.workbenchEntry = new WorkbenchEntry(visitState.ipAddress, new AtomicLong());
+		visitState.robots = RobotsFilter.EMPTY;
+		visitState.acquired = true;
+		return visitState;
+	}
+
+	/** Returns the first path+queries served by {@link #proxy}.
+	 *
+	 * @param n the number of path+queries.
+	 * @return the first {@code n} path+queries.
+	 */
+	private static String[] pathQueries(final int n) {
+		final String[] pathQueries = new String[n];
+		for(int i = 0; i < n; i++) pathQueries[i] = "/" + i;
+		return pathQueries;
+	}
+
+	/** Starts {@link #thread}, using the current values of {@link #rc}. */
+	private void startThread() throws Exception {
+		thread = new AsyncFetchingThread(frontier);
+		thread.start();
+	}
+
+	/** Waits for an element of a queue.
+	 *
+	 * @param queue a queue.
+	 * @return the first element of {@code queue}.
+	 */
+	private static <T> T poll(final LockFreeQueue<T> queue) throws InterruptedException {
+		final long start = System.currentTimeMillis();
+		for(T t;;) {
+			if ((t = queue.poll()) != null) return t;
+			assertTrue("Timeout", System.currentTimeMillis() - start < TIMEOUT);
+			Thread.sleep(1);
+		}
+	}
+
+	/** Returns all fetched responses to their fetching thread, as a {@link ParsingThread} would do.
+	 *
+	 * @return the number of fetched responses returned.
+	 */
+	private int recycleAll() {
+		int recycled = 0;
+		for(FetchData fetchData; (fetchData = frontier.results.poll()) != null; recycled++) fetchData.recycleQueue.add(fetchData);
+		return recycled;
+	}
+
+	@Test
+	public void testKeepAlive() throws Exception {
+		rc.keepAliveTime = 200;
+		startThread();
+
+		final VisitState visitState = visitState(pathQueries(PATHS));
+		final long start = System.currentTimeMillis();
+		frontier.todo.add(visitState);
+
+		// We keep on returning fetched responses until the visit state is released
+		int fetched = 0;
+		VisitState released;
+		while((released = frontier.done.poll()) == null) {
+			final FetchData fetchData = frontier.results.poll();
+			if (fetchData == null) {
+				assertTrue("Timeout", System.currentTimeMillis() - start < TIMEOUT);
+				Thread.sleep(1);
+				continue;
+			}
+			assertNull(fetchData.exception);
+			assertSame(visitState, fetchData.visitState);
+			fetched++;
+			fetchData.recycleQueue.add(fetchData);
+		}
+
+		assertSame(visitState, released);
+		assertTrue(System.currentTimeMillis() - start >= rc.keepAliveTime);
+		// The slot has been used for several fetches of the same visit state
+		assertTrue(Integer.toString(fetched), fetched > 1);
+		assertTrue(Integer.toString(fetched), fetched < PATHS);
+		// Successfully fetched path+queries are dequeued
+		assertEquals(PATHS - fetched, visitState.size());
+		assertArrayEquals(bytes("/" + fetched), visitState.firstPath());
+		assertNull(frontier.results.poll());
+	}
+
+	@Test
+	public void testFailedFetch() throws Exception {
+		startThread();
+
+		final VisitState visitState = visitState("/broken", "/0");
+		frontier.todo.add(visitState);
+
+		final FetchData fetchData = poll(frontier.results);
+		assertSame(visitState, fetchData.visitState);
+		assertNotNull(fetchData.exception);
+		fetchData.recycleQueue.add(fetchData);
+
+		// The visit state is released in spite of the keep-alive time, and the path+query is left to the parsing thread
+		assertSame(visitState, poll(frontier.done));
+		assertEquals(2, visitState.size());
+		assertArrayEquals(bytes("/broken"), visitState.firstPath());
+		Thread.sleep(100);
+		assertNull(frontier.results.poll());
+	}
+
+	@Test
+	public void testThrottle() throws Exception {
+		rc.bandwidthPerIP = 1000;
+		startThread();
+
+		final VisitState visitState = visitState("/large", "/0");
+		frontier.todo.add(visitState);
+
+		final FetchData fetchData = poll(frontier.results);
+		assertNull(fetchData.exception);
+		assertTrue(Long.toString(fetchData.wireLength()), fetchData.wireLength() > 20000);
+		fetchData.recycleQueue.add(fetchData);
+
+		// The per-IP bucket is in debt: the next fetch is postponed, and the visit state is released in spite of the keep-alive time
+		assertSame(visitState, poll(frontier.done));
+		assertTrue(visitState.nextFetch - System.currentTimeMillis() > 5000);
+		assertEquals(1, visitState.size());
+		Thread.sleep(100);
+		assertNull(frontier.results.poll());
+	}
+
+	@Test
+	public void testFewerFetchingThreads() throws Exception {
+		rc.fetchingThreads = 2;
+		startThread();
+
+		frontier.todo.add(visitState(pathQueries(PATHS)));
+		frontier.todo.add(visitState(pathQueries(PATHS)));
+		final FetchData fetchData0 = poll(frontier.results);
+		final FetchData fetchData1 = poll(frontier.results);
+
+		// When the two responses are recycled, the visit states are released and one slot is disposed of
+		rc.fetchingThreads = 1;
+		rc.keepAliveTime = 1;
+		Thread.sleep(1);
+		fetchData0.recycleQueue.add(fetchData0);
+		fetchData1.recycleQueue.add(fetchData1);
+		poll(frontier.done);
+		poll(frontier.done);
+
+		frontier.todo.add(visitState(pathQueries(PATHS)));
+		frontier.todo.add(visitState(pathQueries(PATHS)));
+		// Just one request at a time
+		final FetchData fetchData2 = poll(frontier.results);
+		Thread.sleep(200);
+		assertNull(frontier.results.poll());
+		fetchData2.recycleQueue.add(fetchData2);
+		assertSame(fetchData2.visitState, poll(frontier.done));
+		assertSame(fetchData2, poll(frontier.results));
+	}
+
+	@Test
+	public void testStopWaitsForRecycling() throws Exception {
+		startThread();
+
+		final VisitState[] visitStates = new VisitState[3];
+		for(int i = 0; i < visitStates.length; i++) frontier.todo.add(visitStates[i] = visitState(pathQueries(PATHS)));
+
+		final FetchData[] fetchData = new FetchData[visitStates.length];
+		for(int i = 0; i < fetchData.length; i++) fetchData[i] = poll(frontier.results);
+
+		thread.stop = true;
+		// Outstanding responses have not been recycled yet
+		thread.join(200);
+		assertTrue(thread.isAlive());
+
+		for(int i = 0; i < fetchData.length - 1; i++) fetchData[i].recycleQueue.add(fetchData[i]);
+		for(int i = 0; i < fetchData.length - 1; i++) assertSame(fetchData[i].visitState, poll(frontier.done));
+		thread.join(200);
+		assertTrue(thread.isAlive());
+
+		final FetchData last = fetchData[fetchData.length - 1];
+		last.recycleQueue.add(last);
+		thread.join(TIMEOUT);
+		assertFalse(thread.isAlive());
+		assertSame(last.visitState, frontier.done.poll());
+
+		// No new requests have been issued after stopping
+		assertNull(frontier.results.poll());
+		for(final VisitState visitState : visitStates) assertEquals(PATHS - 1, visitState.size());
+	}
+}
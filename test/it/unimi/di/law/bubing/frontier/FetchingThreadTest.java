@@ -0,0 +1,73 @@
+package it.unimi.di.law.bubing.frontier;
+
+/*
+ * Copyright (C) 2013-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+//RELEASE-STATUS: DIST
+
+public class FetchingThreadTest {
+
+	@Test
+	public void testMayFetch() {
+		assertTrue(FetchingThread.mayFetch(0, 0, 1));
+		assertFalse(FetchingThread.mayFetch(0, 1, 1));
+		assertFalse(FetchingThread.mayFetch(1, 0, 1));
+		assertTrue(FetchingThread.mayFetch(5, 4, 10));
+		assertFalse(FetchingThread.mayFetch(5, 5, 10));
+		assertFalse(FetchingThread.mayFetch(Integer.MAX_VALUE, 1, Integer.MAX_VALUE));
+	}
+
+	/** Simulates a fetching thread with a pool of responses that are parsed (and possibly stored) with a delay. */
+	@Test
+	public void testCapHolds() {
+		final Random random = new Random(0);
+		for(int max = 1; max < 50; max++) {
+			for(int poolSize = 1; poolSize < 8; poolSize++) {
+				int stored = 0, pending = 0, fetched = 0;
+				for(int step = 0; step < 1000; step++) {
+					if (pending != 0 && (pending == poolSize || random.nextBoolean())) {
+						// A parsing thread stores a response
+						pending--;
+						if (random.nextInt(4) != 0) stored++;
+					}
+					else {
+						if (! FetchingThread.mayFetch(stored, pending, max)) {
+							// Wait for pending responses
+							while(pending != 0) {
+								pending--;
+								if (random.nextInt(4) != 0) stored++;
+							}
+							if (! FetchingThread.mayFetch(stored, 0, max)) break;
+						}
+						pending++;
+						fetched++;
+					}
+					assertTrue(stored + " > " + max, stored <= max);
+				}
+				while(pending-- != 0) stored++;
+				assertTrue(stored + " > " + max, stored <= max);
+				assertTrue(fetched >= max);
+			}
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package it.unimi.di.law.bubing.frontier;
+
+/*
+ * Copyright (C) 2012-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static it.unimi.di.law.bubing.util.Helpers.bytes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+//RELEASE-STATUS: DIST
+
+public class HostImportanceTest {
+
+	@Test
+	public void testSpendAndCredit() {
+		final HostImportance hostImportance = new HostImportance(1 << 20);
+		final byte[] a = bytes("http://a.com"), b = bytes("http://b.com"), c = bytes("http://c.com");
+		assertEquals(0, hostImportance.importance(a), 0);
+
+		// A page of a with no cash points to b and c
+		final float amount = hostImportance.spend(a, 1);
+		assertEquals(1, amount, 0);
+		hostImportance.credit(hostImportance.slot(b, 0, b.length), amount / 2);
+		hostImportance.credit(hostImportance.slot(c, 0, c.length), amount / 2);
+		assertEquals(.5, hostImportance.importance(b), 1E-6);
+		assertEquals(.5, hostImportance.importance(c), 1E-6);
+
+		// A page of b (one more page waiting) spends half of the cash of b
+		assertEquals(1.25, hostImportance.spend(b, 2), 1E-6);
+		// Spent cash goes to the history, so the importance does not change
+		assertEquals(.5, hostImportance.importance(b), 1E-6);
+		hostImportance.credit(hostImportance.slot(c, 0, c.length), 1.25f);
+		assertEquals(1.75, hostImportance.importance(c), 1E-6);
+		assertTrue(hostImportance.importance(c) > hostImportance.importance(b));
+	}
+
+	@Test
+	public void testSlot() {
+		final HostImportance hostImportance = new HostImportance(1024);
+		final byte[] url = bytes("http://a.com/index.html"), schemeAuthority = bytes("http://a.com");
+		assertEquals(hostImportance.slot(schemeAuthority, 0, schemeAuthority.length), hostImportance.slot(url, 0, schemeAuthority.length));
+		for(int i = 0; i < 1000; i++) {
+			final byte[] s = bytes("http://" + i + ".com");
+			final int slot = hostImportance.slot(s, 0, s.length);
+			assertTrue(slot >= 0 && slot < 128);
+		}
+	}
+
+	@Test
+	public void testConcurrentCredit() throws InterruptedException {
+		final HostImportance hostImportance = new HostImportance(64);
+		final Thread[] thread = new Thread[4];
+		for(int i = thread.length; i-- != 0;) {
+			thread[i] = new Thread(() -> { for(int j = 0; j < 100000; j++) hostImportance.credit(0, 1); });
+			thread[i].start();
+		}
+		for(final Thread t : thread) t.join();
+		// Slot zero accumulates the credits of all threads, without lost updates
+		float total = 0;
+		for(int i = 0; i < 1000 && total == 0; i++) {
+			final byte[] s = bytes("http://" + i + ".com");
+			if (hostImportance.slot(s, 0, s.length) == 0) total = hostImportance.importance(s);
+		}
+		assertEquals(thread.length * 100000, total, 0);
+	}
+}
@@ -0,0 +1,117 @@
+package it.unimi.di.law.bubing.frontier;
+
+/*
+ * Copyright (C) 2012-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static it.unimi.di.law.bubing.util.Helpers.bytes;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import org.junit.Test;
+
+//RELEASE-STATUS: DIST
+
+public class PathQueryQueueTest {
+
+	@Test
+	public void testFrontCoding() {
+		final PathQueryQueue queue = new PathQueryQueue();
+		final byte[] a = bytes("/a/b/c.html"), b = bytes("/a/b/d.html"), c = bytes("/x");
+		assertEquals(13, queue.enqueue(a));
+		assertEquals(2 + 6, queue.enqueue(b));
+		assertEquals(2 + 1, queue.enqueue(c));
+		assertEquals(3, queue.size());
+		assertEquals(13 + 8 + 3, queue.weight());
+
+		assertSame(a, queue.first());
+		assertEquals(13, queue.firstCost());
+		assertSame(a, queue.dequeue());
+		final byte[] first = queue.first();
+		assertArrayEquals(b, first);
+		assertEquals(8, queue.firstCost());
+		assertSame(first, queue.dequeue());
+		assertArrayEquals(c, queue.dequeue());
+		assertTrue(queue.isEmpty());
+		assertEquals(0, queue.weight());
+	}
+
+	@Test
+	public void testEnqueueFirst() {
+		final PathQueryQueue queue = new PathQueryQueue();
+		queue.enqueue(bytes("/a"));
+		queue.enqueue(bytes("/b"));
+		final int cost = queue.firstCost();
+		final byte[] first = queue.dequeue();
+		queue.enqueueFirst(VisitState.ROBOTS_PATH, 0);
+		queue.enqueueFirst(first, cost);
+		assertEquals(3, queue.size());
+		assertSame(first, queue.dequeue());
+		assertSame(VisitState.ROBOTS_PATH, queue.dequeue());
+		assertArrayEquals(bytes("/b"), queue.dequeue());
+		assertEquals(0, queue.weight());
+	}
+
+	@Test
+	public void testFootprint() {
+		final PathQueryQueue queue = new PathQueryQueue();
+		assertEquals(0, queue.footprint());
+		for(int i = 0; i < 10000; i++) queue.enqueue(bytes("/dir/" + i + ".html"));
+		final long full = queue.footprint();
+		assertTrue(full > PathQueryQueue.FIXED_FOOTPRINT + queue.weight());
+
+		// The buffer shrinks as the queue is drained
+		while(queue.size() > 10) queue.dequeue();
+		assertTrue(queue.footprint() < full / 100);
+		assertTrue(queue.footprint() <= PathQueryQueue.FIXED_FOOTPRINT + 3 * 64 + 4 * queue.weight());
+
+		// The buffer is released when the queue is empty
+		while(! queue.isEmpty()) queue.dequeue();
+		assertEquals(0, queue.footprint());
+		queue.enqueue(bytes("/a"));
+		assertArrayEquals(bytes("/a"), queue.dequeue());
+		assertEquals(0, queue.footprint());
+	}
+
+	@Test(expected=NoSuchElementException.class)
+	public void testEmpty() {
+		new PathQueryQueue().first();
+	}
+
+	@Test
+	public void testRandom() {
+		final Random random = new Random(0);
+		final PathQueryQueue queue = new PathQueryQueue();
+		final ArrayDeque<byte[]> reference = new ArrayDeque<>();
+		for(int i = 0; i < 100000; i++) {
+			if (random.nextInt(3) != 0) {
+				final byte[] pathQuery = bytes("/" + random.nextInt(10) + "/" + Integer.toString(random.nextInt(1 << (random.nextInt(20) + 1)), 36) + (random.nextBoolean() ? "" : "?q=" + random.nextInt(300)));
+				queue.enqueue(pathQuery);
+				reference.add(pathQuery);
+			}
+			else if (! reference.isEmpty()) assertArrayEquals(reference.remove(), queue.dequeue());
+			if (random.nextInt(1000) == 0) queue.trim();
+			assertEquals(reference.size(), queue.size());
+		}
+		while(! reference.isEmpty()) assertArrayEquals(reference.remove(), queue.dequeue());
+		assertEquals(0, queue.weight());
+	}
+}
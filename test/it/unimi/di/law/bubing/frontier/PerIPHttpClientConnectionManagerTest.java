@@ -0,0 +1,75 @@
+package it.unimi.di.law.bubing.frontier;
+
+/*
+ * Copyright (C) 2013-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.routing.HttpRoute;
+import org.junit.Test;
+
+//RELEASE-STATUS: DIST
+
+public class PerIPHttpClientConnectionManagerTest {
+
+	private static InetAddress address() throws UnknownHostException {
+		return InetAddress.getByAddress(new byte[] { 10, 0, 0, 1 });
+	}
+
+	@Test
+	public void testPlainRoutesShareIP() throws UnknownHostException {
+		final HttpRoute route0 = new HttpRoute(new HttpHost(address(), "www.example.com", 80, "http"), null, false);
+		final HttpRoute route1 = new HttpRoute(new HttpHost(address(), "example.org", 80, "http"), null, false);
+		assertFalse(route0.equals(route1));
+
+		final HttpRoute canonical0 = PerIPHttpClientConnectionManager.canonicalize(route0);
+		final HttpRoute canonical1 = PerIPHttpClientConnectionManager.canonicalize(route1);
+		assertEquals(canonical0, canonical1);
+		assertEquals(canonical0.hashCode(), canonical1.hashCode());
+		assertEquals("10.0.0.1", canonical0.getTargetHost().getHostName());
+		assertEquals(address(), canonical0.getTargetHost().getAddress());
+		assertEquals(80, canonical0.getTargetHost().getPort());
+		assertEquals("http", canonical0.getTargetHost().getSchemeName());
+
+		// Different ports are different routes
+		final HttpRoute route2 = new HttpRoute(new HttpHost(address(), "www.example.com", 8080, "http"), null, false);
+		assertFalse(canonical0.equals(PerIPHttpClientConnectionManager.canonicalize(route2)));
+	}
+
+	@Test
+	public void testTLSRouteIsUnchanged() throws UnknownHostException {
+		final HttpRoute route = new HttpRoute(new HttpHost(address(), "www.example.com", 443, "https"), null, true);
+		assertSame(route, PerIPHttpClientConnectionManager.canonicalize(route));
+	}
+
+	@Test
+	public void testProxiedRouteIsUnchanged() throws UnknownHostException {
+		final HttpRoute route = new HttpRoute(new HttpHost(address(), "www.example.com", 80, "http"), null, new HttpHost("proxy.example.com", 3128), false);
+		assertSame(route, PerIPHttpClientConnectionManager.canonicalize(route));
+	}
+
+	@Test
+	public void testRouteWithoutAddressIsUnchanged() {
+		final HttpRoute route = new HttpRoute(new HttpHost("www.example.com", 80, "http"), null, false);
+		assertSame(route, PerIPHttpClientConnectionManager.canonicalize(route));
+	}
+}
@@ -0,0 +1,231 @@
+package it.unimi.di.law.bubing.frontier;
+
+/*
+ * Copyright (C) 2012-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static it.unimi.di.law.bubing.util.Helpers.bytes;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import it.unimi.di.law.bubing.util.Util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayDeque;
+import java.util.Random;
+
+import org.junit.Test;
+
+//RELEASE-STATUS: DIST
+
+public class PriorityPathQueryQueueTest {
+
+	@Test
+	public void testLevels() {
+		final PriorityPathQueryQueue queue = new PriorityPathQueryQueue();
+		final byte[] a = bytes("/a/b/c"), b = bytes("/a/b"), c = bytes("/a"), d = bytes("/x/y");
+		queue.enqueue(a, 2);
+		// a is pinned, as it is the first path+query
+		queue.enqueue(b, 1);
+		queue.enqueue(c, 0);
+		queue.enqueue(d, 1);
+		assertEquals(4, queue.size());
+		assertSame(a, queue.dequeue());
+		assertArrayEquals(c, queue.dequeue());
+		assertArrayEquals(b, queue.dequeue());
+		assertArrayEquals(d, queue.dequeue());
+		assertTrue(queue.isEmpty());
+		assertEquals(0, queue.weight());
+	}
+
+	@Test
+	public void testFirstIsStable() {
+		final PriorityPathQueryQueue queue = new PriorityPathQueryQueue();
+		final byte[] a = bytes("/a/b/c");
+		queue.enqueue(a, 3);
+		for(int level = 3; level-- != 0;) {
+			queue.enqueue(bytes("/" + level), level);
+			assertSame(a, queue.first());
+		}
+		assertArrayEquals(bytes("/2"), queue.replaceWorse(bytes("/z"), 0));
+		assertSame(a, queue.first());
+		assertEquals(4, queue.size());
+		assertSame(a, queue.dequeue());
+		assertArrayEquals(bytes("/0"), queue.dequeue());
+		assertArrayEquals(bytes("/z"), queue.dequeue());
+		assertArrayEquals(bytes("/1"), queue.dequeue());
+	}
+
+	@Test
+	public void testReplaceWorse() {
+		final PriorityPathQueryQueue queue = new PriorityPathQueryQueue();
+		queue.enqueue(bytes("/first"), 0);
+		queue.enqueue(bytes("/a/b"), 2);
+		queue.enqueue(bytes("/a/c"), 2);
+		queue.enqueue(bytes("/a"), 1);
+		assertNull(queue.replaceWorse(bytes("/x/y"), 2));
+		assertArrayEquals(bytes("/a/b"), queue.replaceWorse(bytes("/x"), 1));
+		assertArrayEquals(bytes("/a/c"), queue.replaceWorse(bytes("/y"), 0));
+		assertNull(queue.replaceWorse(bytes("/z"), 1));
+		assertEquals(4, queue.size());
+		assertArrayEquals(bytes("/first"), queue.dequeue());
+		assertArrayEquals(bytes("/y"), queue.dequeue());
+		assertArrayEquals(bytes("/a"), queue.dequeue());
+		assertArrayEquals(bytes("/x"), queue.dequeue());
+		assertTrue(queue.isEmpty());
+		queue.trim();
+		assertNull(queue.replaceWorse(bytes("/z"), 0));
+		assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	public void testEnqueueFirst() {
+		final PriorityPathQueryQueue queue = new PriorityPathQueryQueue();
+		queue.enqueue(bytes("/a/b"), 1);
+		queue.enqueueFirst(VisitState.ROBOTS_PATH, 0);
+		queue.enqueue(bytes("/a"), 0);
+		assertSame(VisitState.ROBOTS_PATH, queue.dequeue());
+		assertArrayEquals(bytes("/a"), queue.dequeue());
+		assertArrayEquals(bytes("/a/b"), queue.dequeue());
+	}
+
+	@Test
+	public void testRandom() {
+		final Random random = new Random(0);
+		final PriorityPathQueryQueue queue = new PriorityPathQueryQueue();
+		final ArrayDeque<byte[]> reference = new ArrayDeque<>();
+		long weight = 0;
+		for(int i = 0; i < 100000; i++) {
+			if (random.nextInt(3) != 0) {
+				// Without priorities, we must behave like a FIFO queue
+				final byte[] pathQuery = bytes("/" + random.nextInt(10) + "/" + Integer.toString(random.nextInt(1 << (random.nextInt(20) + 1)), 36));
+				weight += queue.enqueue(pathQuery, 0);
+				reference.add(pathQuery);
+			}
+			else if (! reference.isEmpty()) {
+				weight -= queue.firstCost();
+				assertArrayEquals(reference.remove(), queue.dequeue());
+			}
+			if (random.nextInt(1000) == 0) queue.trim();
+			assertEquals(reference.size(), queue.size());
+			assertEquals(weight, queue.weight());
+		}
+	}
+
+	@Test
+	public void testRandomLevels() {
+		final Random random = new Random(0);
+		final PriorityPathQueryQueue queue = new PriorityPathQueryQueue();
+		final int levels = 5;
+		final int[] count = new int[levels];
+		int size = 0;
+		for(int i = 0; i < 100000; i++) {
+			if (random.nextInt(3) != 0) {
+				final int level = random.nextInt(levels);
+				final byte[] pathQuery = bytes("/" + level + "/" + random.nextInt(1000));
+				if (random.nextBoolean()) {
+					queue.enqueue(pathQuery, level);
+					count[level]++;
+					size++;
+				}
+				else {
+					final byte[] replaced = queue.replaceWorse(pathQuery, level);
+					if (replaced != null) {
+						final int replacedLevel = replaced[1] - '0';
+						assertTrue(replacedLevel > level);
+						count[replacedLevel]--;
+						count[level]++;
+					}
+				}
+			}
+			else if (size != 0) {
+				count[queue.dequeue()[1] - '0']--;
+				size--;
+			}
+			assertEquals(size, queue.size());
+		}
+
+		// The first path+query might have been pinned; the remaining ones come out in level order
+		if (size != 0) {
+			count[queue.dequeue()[1] - '0']--;
+			size--;
+		}
+		int previous = 0;
+		while(size-- != 0) {
+			final int level = queue.dequeue()[1] - '0';
+			assertTrue(level >= previous);
+			count[level]--;
+			previous = level;
+		}
+		for(final int c : count) assertEquals(0, c);
+	}
+
+	@Test
+	public void testWriteRead() throws IOException {
+		final PriorityPathQueryQueue queue = new PriorityPathQueryQueue();
+		final byte[] a = bytes("/a/b/c"), b = bytes("/a/b"), c = bytes("/a"), d = bytes("/x/y"), e = bytes("/x");
+		queue.enqueue(a, 2);
+		queue.enqueue(b, 1);
+		queue.enqueue(c, 0);
+		queue.enqueue(d, 3);
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try(final ObjectOutputStream oos = new ObjectOutputStream(out)) {
+			queue.write(oos);
+		}
+		assertTrue(queue.isEmpty());
+
+		final PriorityPathQueryQueue restored = new PriorityPathQueryQueue();
+		try(final ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+			restored.read(ois);
+		}
+		assertEquals(4, restored.size());
+		// Levels have been restored: a path+query with level 2 goes before the one with level 3
+		restored.enqueue(e, 2);
+		assertArrayEquals(a, restored.dequeue());
+		assertArrayEquals(c, restored.dequeue());
+		assertArrayEquals(b, restored.dequeue());
+		assertArrayEquals(e, restored.dequeue());
+		assertArrayEquals(d, restored.dequeue());
+		assertTrue(restored.isEmpty());
+	}
+
+	@Test
+	public void testReadWithoutLevels() throws IOException {
+		// The format used before levels were introduced
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try(final ObjectOutputStream oos = new ObjectOutputStream(out)) {
+			oos.writeInt(2);
+			Util.writeByteArray(bytes("/a"), oos);
+			Util.writeByteArray(bytes("/b"), oos);
+		}
+
+		final PriorityPathQueryQueue restored = new PriorityPathQueryQueue();
+		try(final ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+			restored.read(ois);
+		}
+		assertEquals(0, restored.firstLevel());
+		restored.enqueue(bytes("/c"), 1);
+		assertArrayEquals(bytes("/a"), restored.dequeue());
+		assertArrayEquals(bytes("/b"), restored.dequeue());
+		assertArrayEquals(bytes("/c"), restored.dequeue());
+	}
+}
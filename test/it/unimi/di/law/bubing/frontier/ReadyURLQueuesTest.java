@@ -0,0 +1,95 @@
+package it.unimi.di.law.bubing.frontier;
+
+/*
+ * Copyright (C) 2013-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import it.unimi.di.law.bubing.util.BURL;
+import it.unimi.di.law.bubing.util.ByteArrayDiskQueue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+//RELEASE-STATUS: DIST
+
+public class ReadyURLQueuesTest {
+
+	private static int shard(final String schemeAuthority, final int shards) {
+		final byte[] array = schemeAuthority.getBytes(Charsets.ISO_8859_1);
+		return ReadyURLQueues.shard(array, 0, array.length, shards);
+	}
+
+	@Test
+	public void testShardIsStable() {
+		// On-disk virtualizer queues are per shard, so these values must not change across releases
+		assertEquals(1, shard("http://law.di.unimi.it", 4));
+		assertEquals(2, shard("https://www.example.com", 4));
+		assertEquals(3, shard("http://example.org:8080", 4));
+		assertEquals(6, shard("http://law.di.unimi.it", 7));
+		assertEquals(0, shard("http://law.di.unimi.it", 1));
+
+		// The shard of a URL depends only on its scheme+authority
+		final ReadyURLQueues queues = new ReadyURLQueues(4);
+		for(int i = 0; i < 100; i++) queues.add(BURL.toByteArray(BURL.parse("http://law.di.unimi.it/" + i)));
+		assertEquals(100, queues.size(1));
+		assertEquals(100, queues.size());
+		for(int i = 0; i < 1000; i++) {
+			final byte[] url = BURL.toByteArray(BURL.parse("http://host" + i + ".example.com/path?query=" + i));
+			final byte[] schemeAuthority = BURL.schemeAndAuthorityAsByteArray(url);
+			final int shard = ReadyURLQueues.shard(schemeAuthority, 0, schemeAuthority.length, 4);
+			assertEquals(shard, ReadyURLQueues.shard(url, 0, BURL.startOfpathAndQuery(url), 4));
+			assertTrue(shard >= 0 && shard < 4);
+		}
+	}
+
+	@Test
+	public void testDrainTo() throws IOException {
+		final ReadyURLQueues queues = new ReadyURLQueues(4);
+		final Set<String> expected = new HashSet<>();
+		for(int i = 0; i < 1000; i++) {
+			final String url = "http://host" + i % 100 + ".example.com/" + i;
+			queues.add(BURL.toByteArray(BURL.parse(url)));
+			expected.add(url);
+		}
+
+		// Some URLs are processed before closing
+		for(int shard = 0; shard < queues.shards(); shard++)
+			for(int i = 0; i < 10; i++) expected.remove(BURL.fromNormalizedByteArray(queues.poll(shard)).toString());
+
+		final File file = File.createTempFile(ReadyURLQueuesTest.class.getSimpleName(), "ready");
+		file.deleteOnExit();
+		final ByteArrayDiskQueue readyURLs = ByteArrayDiskQueue.createNew(file, 1024, false);
+		assertEquals(expected.size(), queues.drainTo(readyURLs));
+		assertEquals(0, queues.size());
+		for(int shard = 0; shard < queues.shards(); shard++) assertNull(queues.poll(shard));
+
+		final Set<String> actual = new HashSet<>();
+		while(! readyURLs.isEmpty()) {
+			readyURLs.dequeue();
+			actual.add(BURL.fromNormalizedByteArray(readyURLs.buffer().toByteArray()).toString());
+		}
+		assertEquals(expected, actual);
+		readyURLs.close();
+	}
+}
@@ -16,11 +16,18 @@ package it.unimi.di.law.bubing.frontier;
  * limitations under the License.
  */
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import it.unimi.di.law.bubing.util.RobotsFilter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 
 import org.junit.Test;
 
@@ -70,4 +77,97 @@ public class VisitStateSetTest {
 		assertTrue(s.isEmpty());
 	}
 
+	@Test
+	public void testFreeze() {
+		final RobotsFilter robots = RobotsFilter.compile(Arrays.asList("/a"), Collections.<String>emptyList());
+		final VisitState[] visitState = new VisitState[2000];
+		final VisitStateSet s = new VisitStateSet();
+		for(int i = visitState.length; i-- != 0;) {
+			visitState[i] = new VisitState(null, Integer.toString(i).getBytes(Charsets.ISO_8859_1));
+			visitState[i].nextFetch = i;
+			visitState[i].ipAddress = new byte[] { 10, 0, (byte)(i >> 8), (byte)i };
+			visitState[i].robots = i % 3 == 0 ? null : i % 3 == 1 ? RobotsFilter.EMPTY : robots;
+			visitState[i].termCount.put((short)i, (short)1);
+			assertTrue(s.add(visitState[i]));
+		}
+
+		for(int i = 1500; i-- != 0;) assertTrue(s.freeze(visitState[i]));
+		assertFalse(s.freeze(visitState[0]));
+		assertEquals(2000, s.size());
+		assertEquals(1500, s.coldSize());
+		int hot = 0;
+		for(final VisitState v: s.visitStates()) if (v != null) hot++;
+		assertEquals(500, hot);
+
+		for(int i = 1000; i-- != 0;) {
+			final VisitState v = s.get(Integer.toString(i).getBytes(Charsets.ISO_8859_1));
+			assertNotSame(visitState[i], v);
+			assertArrayEquals(visitState[i].schemeAuthority, v.schemeAuthority);
+			assertEquals(i, v.nextFetch);
+			assertArrayEquals(visitState[i].ipAddress, v.ipAddress);
+			if (i % 3 == 0) assertNull(v.robots);
+			else if (i % 3 == 1) assertSame(RobotsFilter.EMPTY, v.robots);
+			else assertFalse(v.robots.apply("/a".getBytes(Charsets.ISO_8859_1)));
+			assertEquals(1, v.termCount.size());
+			assertEquals(1, v.termCount.get((short)i));
+			// Now it is hot
+			assertSame(v, s.get(Integer.toString(i).getBytes(Charsets.ISO_8859_1)));
+		}
+		assertEquals(2000, s.size());
+		assertEquals(500, s.coldSize());
+
+		assertEquals(200, s.removeCold(1200));
+		assertEquals(1800, s.size());
+		assertNull(s.get(Integer.toString(1100).getBytes(Charsets.ISO_8859_1)));
+		int cold = 0;
+		for(final Iterator<VisitState> iterator = s.coldVisitStates(); iterator.hasNext(); cold++) assertTrue(iterator.next().nextFetch >= 1200);
+		assertEquals(300, cold);
+	}
+
+	@Test
+	public void testContains() {
+		final VisitStateSet s = new VisitStateSet();
+		for(int i = 2000; i-- != 0;) {
+			final VisitState v = new VisitState(null, Integer.toString(i).getBytes(Charsets.ISO_8859_1));
+			v.ipAddress = new byte[] { 10, 0, (byte)(i >> 8), (byte)i };
+			assertTrue(s.add(v));
+			if (i % 2 == 0) assertTrue(s.freeze(v));
+		}
+
+		final byte[] url = "x2000/a".getBytes(Charsets.ISO_8859_1);
+		for(int i = 2000; i-- != 0;) {
+			final byte[] schemeAuthority = Integer.toString(i).getBytes(Charsets.ISO_8859_1);
+			System.arraycopy(schemeAuthority, 0, url, 1, schemeAuthority.length);
+			assertTrue(s.contains(url, 1, schemeAuthority.length));
+		}
+		assertFalse(s.contains(url, 0, 5));
+		assertFalse(s.contains(url, 1, 5));
+		// Cold visit states are not thawed
+		assertEquals(1000, s.coldSize());
+	}
+
+	@Test
+	public void testPacked() {
+		final VisitStateSet s = new VisitStateSet(), t = new VisitStateSet();
+		for(int i = 1000; i-- != 0;) {
+			final VisitState v = new VisitState(null, Integer.toString(i).getBytes(Charsets.ISO_8859_1));
+			v.nextFetch = i;
+			v.ipAddress = new byte[] { 10, 0, (byte)(i >> 8), (byte)i };
+			assertTrue(s.add(v));
+			assertTrue(s.freeze(v));
+		}
+
+		int packed = 0;
+		for(final Iterator<byte[]> iterator = s.packedColdVisitStates(); iterator.hasNext(); packed++) t.addPacked(iterator.next());
+		assertEquals(1000, packed);
+		assertEquals(1000, t.coldSize());
+		assertEquals(1000, t.size());
+
+		for(int i = 1000; i-- != 0;) {
+			final VisitState v = t.get(Integer.toString(i).getBytes(Charsets.ISO_8859_1));
+			assertEquals(i, v.nextFetch);
+			assertArrayEquals(new byte[] { 10, 0, (byte)(i >> 8), (byte)i }, v.ipAddress);
+		}
+		assertEquals(0, t.coldSize());
+	}
 }
@@ -0,0 +1,135 @@
+package it.unimi.di.law.bubing.frontier;
+
+/*
+ * Copyright (C) 2013-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
+
+import java.util.Iterator;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.net.InetAddresses;
+
+//RELEASE-STATUS: DIST
+
+public class WorkbenchTest {
+
+	/** Puts on a workbench a new workbench entry containing a single nonempty visit state.
+	 *
+	 * @param workbench a workbench.
+	 * @param i the index of the entry, used to build its IP address.
+	 * @param nextFetch the {@link VisitState#nextFetch} of the visit state.
+	 * @return the new workbench entry.
+	 */
+	private static WorkbenchEntry entry(final Workbench workbench, final int i, final long nextFetch) {
+		final byte[] address = new byte[] { 10, 0, (byte)(i >> 8), (byte)i };
+		final WorkbenchEntry entry = workbench.getWorkbenchEntry(address);
+		final VisitState visitState = new VisitState(null, ("http://host" + i).getBytes(Charsets.ISO_8859_1));
+		visitState.setWorkbenchEntry(address, entry);
+		visitState.forciblyEnqueueRobotsFirst();
+		visitState.nextFetch = nextFetch;
+		entry.add(visitState, workbench);
+		return entry;
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testNoShards() {
+		new Workbench(0);
+	}
+
+	@Test
+	public void testShardOrdering() throws InterruptedException {
+		final Random random = new Random(0);
+		final Workbench workbench = new Workbench(4);
+		assertEquals(4, workbench.shards());
+		final long now = System.currentTimeMillis();
+		final int[] shardSize = new int[workbench.shards()];
+		for(int i = 0; i < 1000; i++) {
+			final WorkbenchEntry entry = entry(workbench, i, now - 1 - random.nextInt(1000000));
+			assertSame(entry, workbench.getWorkbenchEntry(entry.ipAddress));
+			shardSize[workbench.shard(entry)]++;
+		}
+
+		for(int shard = 0; shard < workbench.shards(); shard++) {
+			assertTrue(shardSize[shard] > 0);
+			long previous = Long.MIN_VALUE;
+			for(int i = shardSize[shard]; i-- != 0;) {
+				final VisitState visitState = workbench.acquire(shard);
+				assertEquals(shard, workbench.shard(visitState.workbenchEntry));
+				assertTrue(visitState.nextFetch >= previous);
+				previous = visitState.nextFetch;
+			}
+		}
+		assertEquals(0, workbench.approximatedSize());
+		assertFalse(workbench.iterator().hasNext());
+	}
+
+	@Test
+	public void testIteratorAndSize() throws InterruptedException {
+		final Workbench workbench = new Workbench(3);
+		final ReferenceOpenHashSet<WorkbenchEntry> entries = new ReferenceOpenHashSet<>();
+		final long now = System.currentTimeMillis();
+		for(int i = 0; i < 100; i++) entries.add(entry(workbench, i, now - 1 - i));
+		assertEquals(100, workbench.approximatedSize());
+		assertEquals(100, workbench.numberOfWorkbenchEntries());
+
+		ReferenceOpenHashSet<WorkbenchEntry> onWorkbench = new ReferenceOpenHashSet<>();
+		for(final WorkbenchEntry entry : workbench) assertTrue(onWorkbench.add(entry));
+		assertEquals(entries, onWorkbench);
+
+		// Acquiring removes the entry from the workbench
+		final WorkbenchEntry acquired = workbench.acquire(1).workbenchEntry;
+		assertEquals(99, workbench.approximatedSize());
+		onWorkbench = new ReferenceOpenHashSet<>();
+		for(final Iterator<WorkbenchEntry> iterator = workbench.iterator(); iterator.hasNext();) assertTrue(onWorkbench.add(iterator.next()));
+		assertEquals(99, onWorkbench.size());
+		assertFalse(onWorkbench.contains(acquired));
+		// The entry is still known
+		assertEquals(100, workbench.numberOfWorkbenchEntries());
+	}
+
+	@Test
+	public void testPolitenessKey() {
+		// IPv4 addresses are keys by themselves
+		final byte[] ipv4 = InetAddresses.forString("192.0.2.1").getAddress();
+		assertSame(ipv4, Workbench.politenessKey(ipv4, 64));
+
+		final byte[] ipv6 = InetAddresses.forString("2001:db8:1234:5678:9abc:def0:1234:5678").getAddress();
+		assertArrayEquals(InetAddresses.forString("2001:db8:1234:5678::").getAddress(), Workbench.politenessKey(ipv6, 64));
+		assertArrayEquals(InetAddresses.forString("2001:db8:1234:5600::").getAddress(), Workbench.politenessKey(ipv6, 56));
+		assertArrayEquals(InetAddresses.forString("2001:db8:1234:5670::").getAddress(), Workbench.politenessKey(ipv6, 60));
+		assertArrayEquals(InetAddresses.forString("2001:db8:1234:5678:8000::").getAddress(), Workbench.politenessKey(ipv6, 65));
+		assertArrayEquals(new byte[16], Workbench.politenessKey(ipv6, 0));
+		assertSame(ipv6, Workbench.politenessKey(ipv6, 128));
+		// The address is not modified
+		assertArrayEquals(InetAddresses.forString("2001:db8:1234:5678:9abc:def0:1234:5678").getAddress(), ipv6);
+
+		// Addresses of the same network share the same workbench entry
+		final Workbench workbench = new Workbench();
+		final byte[] other = InetAddresses.forString("2001:db8:1234:5678::1").getAddress();
+		assertSame(workbench.getWorkbenchEntry(Workbench.politenessKey(ipv6, 64)), workbench.getWorkbenchEntry(Workbench.politenessKey(other, 64)));
+		assertNotSame(workbench.getWorkbenchEntry(Workbench.politenessKey(ipv6, 128)), workbench.getWorkbenchEntry(Workbench.politenessKey(other, 128)));
+	}
+}
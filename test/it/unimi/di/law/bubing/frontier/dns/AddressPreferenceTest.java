@@ -0,0 +1,68 @@
+package it.unimi.di.law.bubing.frontier.dns;
+
+/*
+ * Copyright (C) 2012-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+
+import org.junit.Test;
+
+import com.google.common.net.InetAddresses;
+
+//RELEASE-STATUS: DIST
+
+public class AddressPreferenceTest {
+	private static final InetAddress IPV4_1 = InetAddresses.forString("192.0.2.1");
+	private static final InetAddress IPV4_2 = InetAddresses.forString("192.0.2.2");
+	private static final InetAddress IPV6_1 = InetAddresses.forString("2001:db8::1");
+	private static final InetAddress IPV6_2 = InetAddresses.forString("2001:db8::2");
+
+	@Test
+	public void testSelect() {
+		final InetAddress[] both = { IPV6_1, IPV4_1, IPV6_2, IPV4_2 };
+		assertSame(IPV4_1, AddressPreference.IPV4.select(both));
+		assertSame(IPV4_1, AddressPreference.IPV4_ONLY.select(both));
+		assertSame(IPV6_1, AddressPreference.IPV6.select(both));
+		assertSame(IPV6_1, AddressPreference.IPV6_ONLY.select(both));
+
+		final InetAddress[] ipv4 = { IPV4_2, IPV4_1 };
+		assertSame(IPV4_2, AddressPreference.IPV4.select(ipv4));
+		assertSame(IPV4_2, AddressPreference.IPV6.select(ipv4));
+		assertSame(IPV4_2, AddressPreference.IPV4_ONLY.select(ipv4));
+		assertNull(AddressPreference.IPV6_ONLY.select(ipv4));
+
+		final InetAddress[] ipv6 = { IPV6_2, IPV6_1 };
+		assertSame(IPV6_2, AddressPreference.IPV4.select(ipv6));
+		assertSame(IPV6_2, AddressPreference.IPV6.select(ipv6));
+		assertNull(AddressPreference.IPV4_ONLY.select(ipv6));
+		assertSame(IPV6_2, AddressPreference.IPV6_ONLY.select(ipv6));
+
+		for(final AddressPreference preference : AddressPreference.values()) assertNull(preference.select(new InetAddress[0]));
+	}
+
+	@Test
+	public void testPrefersIPv6() {
+		assertFalse(AddressPreference.IPV4.prefersIPv6());
+		assertFalse(AddressPreference.IPV4_ONLY.prefersIPv6());
+		assertTrue(AddressPreference.IPV6.prefersIPv6());
+		assertTrue(AddressPreference.IPV6_ONLY.prefersIPv6());
+	}
+}
@@ -0,0 +1,190 @@
+package it.unimi.di.law.bubing.frontier.dns;
+
+/*
+ * Copyright (C) 2012-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+//RELEASE-STATUS: DIST
+
+public class AsyncDnsResolverTest {
+	private FakeDnsServer server;
+	private AsyncDnsResolver resolver;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new FakeDnsServer();
+		resolver = new AsyncDnsResolver(Collections.singletonList(server.address()), 64, 200, 3);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		resolver.close();
+		server.close();
+	}
+
+	@Test
+	public void testConcurrent() throws InterruptedException, ExecutionException {
+		for(int i = 0; i < 1000; i++) server.add("host" + i + ".example.com", "10.0." + (i >> 8) + "." + (i & 0xFF));
+		final List<CompletableFuture<InetAddress[]>> futures = new ArrayList<>();
+		for(int i = 0; i < 1000; i++) futures.add(resolver.resolveAsync("HOST" + i + ".example.com."));
+		for(int i = 0; i < 1000; i++) assertArrayEquals(new byte[] { 10, 0, (byte)(i >> 8), (byte)i }, futures.get(i).get()[0].getAddress());
+		assertEquals(1000, server.udpQueries.get());
+	}
+
+	@Test
+	public void testMultipleAddresses() throws UnknownHostException {
+		server.add("example.com", "1.2.3.4", "5.6.7.8");
+		final InetAddress[] addresses = resolver.resolve("example.com");
+		assertEquals(2, addresses.length);
+		assertArrayEquals(new byte[] { 5, 6, 7, 8 }, addresses[1].getAddress());
+		assertEquals("example.com", addresses[0].getHostName());
+	}
+
+	@Test(expected=UnknownHostException.class)
+	public void testNonexistent() throws UnknownHostException {
+		resolver.resolve("nonexistent.example.com");
+	}
+
+	@Test
+	public void testNegativeCache() {
+		for(int i = 0; i < 2; i++) {
+			try {
+				resolver.resolve("nonexistent.example.com");
+			}
+			catch(final UnknownHostException e) {}
+		}
+		assertEquals(1, server.udpQueries.get());
+	}
+
+	@Test
+	public void testCache() throws UnknownHostException {
+		server.add("example.com", "1.2.3.4");
+		resolver.resolve("example.com");
+		assertArrayEquals(new byte[] { 1, 2, 3, 4 }, resolver.resolve("Example.com")[0].getAddress());
+		assertEquals(1, server.udpQueries.get());
+		// No caching
+		resolver.cache().configure(0, 0, 0);
+		server.add("example.org", "4.3.2.1");
+		resolver.resolve("example.org");
+		assertArrayEquals(new byte[] { 4, 3, 2, 1 }, resolver.resolve("example.org")[0].getAddress());
+		assertEquals(3, server.udpQueries.get());
+	}
+
+	@Test
+	public void testRetry() throws UnknownHostException {
+		server.add("example.com", "1.2.3.4");
+		server.drop.set(2);
+		assertArrayEquals(new byte[] { 1, 2, 3, 4 }, resolver.resolve("example.com")[0].getAddress());
+		assertEquals(3, server.udpQueries.get());
+	}
+
+	@Test(expected=UnknownHostException.class)
+	public void testTimeout() throws UnknownHostException {
+		server.add("example.com", "1.2.3.4");
+		server.drop.set(3);
+		resolver.resolve("example.com");
+	}
+
+	@Test
+	public void testTcpFallback() throws UnknownHostException {
+		server.add("example.com", "1.2.3.4");
+		server.truncated.add("example.com");
+		assertArrayEquals(new byte[] { 1, 2, 3, 4 }, resolver.resolve("example.com")[0].getAddress());
+		assertEquals(1, server.udpQueries.get());
+		assertEquals(1, server.tcpQueries.get());
+	}
+
+	@Test
+	public void testLiterals() throws UnknownHostException {
+		assertArrayEquals(new byte[] { 127, 0, 0, 1 }, resolver.resolve("localhost")[0].getAddress());
+		assertArrayEquals(new byte[] { (byte)192, 0, 0, 1 }, resolver.resolve("192.0.0.1")[0].getAddress());
+		assertEquals(16, resolver.resolve("[2001:db8::1]")[0].getAddress().length);
+		assertEquals(0, server.udpQueries.get());
+	}
+
+	@Test
+	public void testIPv6() throws UnknownHostException {
+		server.add("example.com", "1.2.3.4", "2001:db8::1");
+		server.add("example.org", "2001:db8::2");
+		InetAddress[] addresses = resolver.resolve("example.com");
+		assertEquals(1, addresses.length);
+		assertEquals(4, addresses[0].getAddress().length);
+		assertEquals(0, server.aaaaQueries.get());
+
+		// No IPv4 address: we fall back to AAAA records
+		addresses = resolver.resolve("example.org");
+		assertEquals(1, addresses.length);
+		assertArrayEquals(InetAddress.getByName("2001:db8::2").getAddress(), addresses[0].getAddress());
+		assertEquals(1, server.aaaaQueries.get());
+		assertEquals(3, server.udpQueries.get());
+
+		resolver.preferIPv6(true);
+		server.add("example.net", "1.2.3.4", "2001:db8::3");
+		addresses = resolver.resolve("example.net");
+		assertEquals(1, addresses.length);
+		assertEquals(16, addresses[0].getAddress().length);
+		assertEquals(4, server.udpQueries.get());
+	}
+
+	@Test
+	public void testIPv6AfterFailure() throws UnknownHostException {
+		// The A queries fail: after all attempts, we fall back to AAAA records
+		server.add("example.com", "1.2.3.4", "2001:db8::1");
+		server.failA.add("example.com");
+		InetAddress[] addresses = resolver.resolve("example.com");
+		assertEquals(1, addresses.length);
+		assertArrayEquals(InetAddress.getByName("2001:db8::1").getAddress(), addresses[0].getAddress());
+		assertEquals(1, server.aaaaQueries.get());
+		assertEquals(4, server.udpQueries.get());
+
+		// The A queries time out
+		server.add("example.org", "1.2.3.4", "2001:db8::2");
+		server.drop.set(3);
+		addresses = resolver.resolve("example.org");
+		assertEquals(1, addresses.length);
+		assertArrayEquals(InetAddress.getByName("2001:db8::2").getAddress(), addresses[0].getAddress());
+		assertEquals(2, server.aaaaQueries.get());
+		assertEquals(8, server.udpQueries.get());
+	}
+
+	@Test
+	public void testMalformed() {
+		for(final String host : new String[] { "a..b", ".", "a b.com", "\u00e9.com" }) {
+			try {
+				resolver.resolve(host);
+				assertTrue(host, false);
+			}
+			catch(final UnknownHostException e) {}
+		}
+		assertEquals(0, server.udpQueries.get());
+	}
+}
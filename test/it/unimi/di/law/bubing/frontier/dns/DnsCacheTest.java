@@ -0,0 +1,96 @@
+package it.unimi.di.law.bubing.frontier.dns;
+
+/*
+ * Copyright (C) 2012-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+
+import org.junit.Test;
+
+import com.google.common.net.InetAddresses;
+
+//RELEASE-STATUS: DIST
+
+public class DnsCacheTest {
+
+	@Test
+	public void testStoreLoad() throws IOException, InterruptedException {
+		final DnsCache cache = new DnsCache();
+		cache.putPositive("example.com", new InetAddress[] { InetAddresses.forString("1.2.3.4"), InetAddresses.forString("2001:db8::1") }, 60000);
+		cache.putPositive("example.org", new InetAddress[] { InetAddresses.forString("5.6.7.8") }, 60000);
+		cache.putNegative("nonexistent.example.com");
+		cache.putPositive("expired.example.com", new InetAddress[] { InetAddresses.forString("9.9.9.9") }, 1);
+		Thread.sleep(10);
+
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		assertEquals(3, cache.store(new DataOutputStream(baos)));
+
+		final DnsCache restored = new DnsCache();
+		assertEquals(3, restored.load(new DataInputStream(new ByteArrayInputStream(baos.toByteArray()))));
+		final InetAddress[] addresses = restored.get("example.com");
+		assertEquals(2, addresses.length);
+		assertArrayEquals(InetAddresses.forString("2001:db8::1").getAddress(), addresses[1].getAddress());
+		assertEquals("example.com", addresses[0].getHostName());
+		assertArrayEquals(new byte[] { 5, 6, 7, 8 }, restored.get("example.org")[0].getAddress());
+		assertEquals(0, restored.get("nonexistent.example.com").length);
+		assertNull(restored.get("expired.example.com"));
+		assertNull(restored.get("unknown.example.com"));
+	}
+
+	@Test
+	public void testMaxSize() {
+		final DnsCache cache = new DnsCache();
+		cache.configure(100, 60000, 60000);
+		for(int i = 0; i < 1000; i++) cache.putNegative("host" + i + ".example.com");
+		assertEquals(0, cache.get("host999.example.com").length);
+		assertEquals(true, cache.size() <= 100);
+
+		cache.configure(0, 60000, 60000);
+		cache.putNegative("example.com");
+		assertNull(cache.get("example.com"));
+	}
+
+	@Test
+	public void testEvictsFirstExpiring() {
+		final DnsCache cache = new DnsCache();
+		cache.configure(100, Long.MAX_VALUE, 60000);
+		final InetAddress[] addresses = { InetAddresses.forString("1.2.3.4") };
+		// Long-lived entries first, so that insertion order and expiration order differ
+		for(int i = 0; i < 50; i++) cache.putPositive("long" + i + ".example.com", addresses, 3600000);
+		for(int i = 0; i < 1000; i++) cache.putPositive("short" + i + ".example.com", addresses, 60000);
+		assertEquals(true, cache.size() <= 100);
+		for(int i = 0; i < 50; i++) assertNotNull(cache.get("long" + i + ".example.com"));
+	}
+
+	@Test
+	public void testTtl() throws InterruptedException {
+		final DnsCache cache = new DnsCache();
+		cache.configure(100, 1, 60000);
+		cache.putPositive("example.com", new InetAddress[] { InetAddresses.forString("1.2.3.4") }, 60000);
+		Thread.sleep(10);
+		assertNull(cache.get("example.com"));
+	}
+}
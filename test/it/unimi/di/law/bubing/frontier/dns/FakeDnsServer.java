@@ -0,0 +1,226 @@
+package it.unimi.di.law.bubing.frontier.dns;
+
+/*
+ * Copyright (C) 2012-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.net.InetAddresses;
+
+//RELEASE-STATUS: DIST
+
+/** An in-process DNS server answering <code>A</code> and <code>AAAA</code> queries from a map, over UDP and TCP on the same loopback port.
+ *
+ * <p>Unknown hosts get a <code>NXDOMAIN</code> answer; known hosts without addresses of the requested family get an empty answer. It is possible to drop a given number of UDP queries,
+ * to force truncation of UDP answers for some hosts (so that the client must repeat the query over TCP), and to answer
+ * <code>SERVFAIL</code> to the <code>A</code> queries for some hosts. */
+
+public class FakeDnsServer implements Closeable {
+	/** The TTL of answers, in seconds. */
+	public static final int TTL = 60;
+
+	/** The map from (downcased) hosts to their addresses. */
+	public final Map<String, InetAddress[]> records = new ConcurrentHashMap<>();
+	/** Hosts whose UDP answers will be truncated. */
+	public final Set<String> truncated = ConcurrentHashMap.newKeySet();
+	/** Hosts whose <code>A</code> queries will get a <code>SERVFAIL</code> answer. */
+	public final Set<String> failA = ConcurrentHashMap.newKeySet();
+	/** The number of <code>AAAA</code> queries received. */
+	public final AtomicInteger aaaaQueries = new AtomicInteger();
+	/** The number of UDP queries received. */
+	public final AtomicInteger udpQueries = new AtomicInteger();
+	/** The number of TCP queries received. */
+	public final AtomicInteger tcpQueries = new AtomicInteger();
+	/** The number of UDP queries that will be dropped. */
+	public final AtomicInteger drop = new AtomicInteger();
+
+	private final DatagramSocket udpSocket;
+	private final ServerSocket tcpSocket;
+	private final Thread udpThread;
+	private final Thread tcpThread;
+	private volatile boolean closed;
+
+	public FakeDnsServer() throws IOException {
+		final InetAddress loopback = InetAddress.getLoopbackAddress();
+		// We need a port that is free both for UDP and TCP
+		DatagramSocket udp;
+		ServerSocket tcp;
+		for(;;) {
+			udp = new DatagramSocket(new InetSocketAddress(loopback, 0));
+			try {
+				tcp = new ServerSocket(udp.getLocalPort(), 50, loopback);
+				break;
+			}
+			catch(final IOException e) {
+				udp.close();
+			}
+		}
+		udpSocket = udp;
+		tcpSocket = tcp;
+
+		udpThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				final byte[] buffer = new byte[512];
+				while(! closed) {
+					try {
+						final DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+						udpSocket.receive(packet);
+						udpQueries.incrementAndGet();
+						if (drop.getAndDecrement() > 0) continue;
+						final byte[] response = response(packet.getData(), packet.getLength(), false);
+						if (response != null) udpSocket.send(new DatagramPacket(response, response.length, packet.getSocketAddress()));
+					}
+					catch(final IOException e) {
+						if (! closed) throw new RuntimeException(e);
+					}
+				}
+			}
+		}, getClass().getSimpleName() + "-UDP");
+
+		tcpThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while(! closed) {
+					try (final Socket socket = tcpSocket.accept()) {
+						tcpQueries.incrementAndGet();
+						final DataInputStream dis = new DataInputStream(socket.getInputStream());
+						final byte[] query = new byte[dis.readUnsignedShort()];
+						dis.readFully(query);
+						final byte[] response = response(query, query.length, true);
+						if (response == null) continue;
+						final DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
+						dos.writeShort(response.length);
+						dos.write(response);
+						dos.flush();
+					}
+					catch(final SocketException e) {
+						if (! closed) throw new RuntimeException(e);
+					}
+					catch(final IOException e) {
+						throw new RuntimeException(e);
+					}
+				}
+			}
+		}, getClass().getSimpleName() + "-TCP");
+
+		udpThread.setDaemon(true);
+		tcpThread.setDaemon(true);
+		udpThread.start();
+		tcpThread.start();
+	}
+
+	/** Adds a host to the server.
+	 *
+	 * @param host a host.
+	 * @param addresses its IPv4 or IPv6 addresses in textual form.
+	 * @return this server.
+	 */
+	public FakeDnsServer add(final String host, final String... addresses) {
+		final InetAddress[] a = new InetAddress[addresses.length];
+		for(int i = a.length; i-- != 0;) a[i] = InetAddresses.forString(addresses[i]);
+		records.put(host.toLowerCase(Locale.ROOT), a);
+		return this;
+	}
+
+	/** Returns the address of this server.
+	 *
+	 * @return the address of this server.
+	 */
+	public InetSocketAddress address() {
+		return new InetSocketAddress(udpSocket.getLocalAddress(), udpSocket.getLocalPort());
+	}
+
+	private byte[] response(final byte[] query, final int length, final boolean tcp) {
+		if (length < 12) return null;
+		// Parse the question name
+		final StringBuilder name = new StringBuilder();
+		int p = 12;
+		for(int l; p < length && (l = query[p] & 0xFF) != 0; p += l + 1) {
+			if (name.length() != 0) name.append('.');
+			name.append(new String(query, p + 1, l, StandardCharsets.US_ASCII));
+		}
+		p += 5; // Zero byte, type and class
+		if (p > length) return null;
+		final int type = (query[p - 4] & 0xFF) << 8 | query[p - 3] & 0xFF;
+		final int addressLength = type == 28 ? 16 : 4;
+		if (type == 28) aaaaQueries.incrementAndGet();
+
+		final String host = name.toString().toLowerCase(Locale.ROOT);
+		final InetAddress[] known = records.get(host);
+		InetAddress[] addresses = null;
+		if (known != null) {
+			int n = 0;
+			addresses = new InetAddress[known.length];
+			for(final InetAddress address : known) if (address.getAddress().length == addressLength) addresses[n++] = address;
+			addresses = Arrays.copyOf(addresses, n);
+		}
+		final boolean truncate = ! tcp && addresses != null && truncated.contains(host);
+		final boolean fail = type == 1 && failA.contains(host);
+		if (fail) addresses = new InetAddress[0];
+
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final DataOutputStream dos = new DataOutputStream(baos);
+		try {
+			dos.write(query, 0, 2); // ID
+			dos.writeShort(0x8180 | (truncate ? 0x0200 : 0) | (addresses == null ? 3 : fail ? 2 : 0)); // QR, RD, RA, TC, RCODE
+			dos.writeShort(1);
+			dos.writeShort(addresses == null || truncate ? 0 : addresses.length);
+			dos.writeShort(0);
+			dos.writeShort(0);
+			dos.write(query, 12, p - 12);
+			if (addresses != null && ! truncate) {
+				for(final InetAddress address : addresses) {
+					dos.writeShort(0xC00C); // Pointer to the question name
+					dos.writeShort(type); // A or AAAA
+					dos.writeShort(1); // IN
+					dos.writeInt(TTL);
+					dos.writeShort(addressLength);
+					dos.write(address.getAddress());
+				}
+			}
+		}
+		catch(final IOException cantHappen) {
+			throw new RuntimeException(cantHappen);
+		}
+		return baos.toByteArray();
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		udpSocket.close();
+		tcpSocket.close();
+	}
+}
@@ -0,0 +1,55 @@
+package it.unimi.di.law.bubing.frontier.priority;
+
+/*
+ * Copyright (C) 2012-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+//RELEASE-STATUS: DIST
+
+public class PathQueryPriorityTest {
+
+	private static int level(final PathQueryPriority priority, final String pathQuery) {
+		return priority.level(pathQuery.getBytes(Charsets.ISO_8859_1));
+	}
+
+	@Test
+	public void testDepth() {
+		final DepthPathQueryPriority priority = new DepthPathQueryPriority(3);
+		assertEquals(4, priority.levels());
+		assertEquals(0, level(priority, "/"));
+		assertEquals(0, level(priority, "/index.html"));
+		assertEquals(1, level(priority, "/a/"));
+		assertEquals(1, level(priority, "/?q=1"));
+		assertEquals(1, level(priority, "/a?q=/x/y/z"));
+		assertEquals(2, level(priority, "/a/b?q=1"));
+		assertEquals(3, level(priority, "/a/b/c/d/e/f"));
+	}
+
+	@Test
+	public void testPattern() {
+		final PatternPathQueryPriority priority = new PatternPathQueryPriority("^/[^/?]*$", "html?$");
+		assertEquals(3, priority.levels());
+		assertEquals(0, level(priority, "/index.html"));
+		assertEquals(1, level(priority, "/a/b.htm"));
+		assertEquals(2, level(priority, "/a/b.pdf"));
+		assertEquals(2, level(priority, "/?q=1"));
+	}
+}
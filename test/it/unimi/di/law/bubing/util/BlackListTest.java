@@ -0,0 +1,97 @@
+package it.unimi.di.law.bubing.util;
+
+/*
+ * Copyright (C) 2012-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+//RELEASE-STATUS: DIST
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class BlackListTest {
+
+	private static boolean containsHost(final BlackList blackList, final String host) {
+		final byte[] url = ("http://" + host + ":8080/").getBytes(Charsets.US_ASCII);
+		final boolean result = blackList.containsHost(host);
+		assertTrue(host, result == blackList.containsHost(url, 7, host.length()));
+		return result;
+	}
+
+	private static boolean containsAddress(final BlackList blackList, final String address) throws UnknownHostException {
+		return blackList.containsAddress(InetAddress.getByName(address).getAddress());
+	}
+
+	@Test
+	public void testHosts() {
+		final BlackList blackList = BlackList.EMPTY.addHosts(Arrays.asList("www.example.com", " Foo.ORG. ", ".bar.net", "*.baz.com", ""));
+		assertTrue(containsHost(blackList, "www.example.com"));
+		assertFalse(containsHost(blackList, "example.com"));
+		assertFalse(containsHost(blackList, "a.www.example.com"));
+		assertTrue(containsHost(blackList, "foo.org"));
+		assertTrue(containsHost(blackList, "bar.net"));
+		assertTrue(containsHost(blackList, "a.b.bar.net"));
+		assertFalse(containsHost(blackList, "foobar.net"));
+		assertTrue(containsHost(blackList, "x.baz.com"));
+		assertFalse(containsHost(blackList, "com"));
+		assertFalse(containsHost(BlackList.EMPTY, "www.example.com"));
+	}
+
+	@Test
+	public void testAddresses() throws UnknownHostException {
+		final BlackList blackList = BlackList.EMPTY.addAddresses(Arrays.asList("10.0.0.0/8", "192.168.1.1", "3232235778", "2001:db8::/32", "::1"));
+		assertTrue(containsAddress(blackList, "10.1.2.3"));
+		assertFalse(containsAddress(blackList, "11.0.0.0"));
+		assertTrue(containsAddress(blackList, "192.168.1.1"));
+		assertTrue(containsAddress(blackList, "192.168.1.2"));
+		assertFalse(containsAddress(blackList, "192.168.1.3"));
+		assertTrue(containsAddress(blackList, "2001:db8:1::1"));
+		assertFalse(containsAddress(blackList, "2001:db9::1"));
+		assertTrue(containsAddress(blackList, "::1"));
+		assertFalse(containsAddress(blackList, "::2"));
+		// IPv4 and IPv6 addresses are distinct
+		assertFalse(containsAddress(blackList, "::a00:1"));
+
+		assertTrue(containsAddress(BlackList.EMPTY.addAddresses(Arrays.asList("192.168.0.0/16", "192.168.1.0/24")), "192.168.2.1"));
+		assertTrue(containsAddress(BlackList.EMPTY.addAddresses(Arrays.asList("192.168.1.0/24", "192.168.0.0/16")), "192.168.2.1"));
+		assertTrue(containsAddress(BlackList.EMPTY.addAddresses(Arrays.asList("0.0.0.0/0")), "1.2.3.4"));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testMalformedAddress() {
+		BlackList.EMPTY.addAddresses(Arrays.asList("10.0.0.0/33"));
+	}
+
+	@Test
+	public void testCopyOnWrite() throws UnknownHostException {
+		final BlackList blackList = BlackList.EMPTY.addHosts(Arrays.asList("example.com"));
+		final BlackList updated = blackList.addHosts(Arrays.asList(".foo.org")).addAddresses(Arrays.asList("1.2.3.4"));
+		assertTrue(containsHost(updated, "example.com"));
+		assertTrue(containsHost(updated, "www.foo.org"));
+		assertTrue(containsAddress(updated, "1.2.3.4"));
+		assertFalse(containsHost(blackList, "www.foo.org"));
+		assertFalse(containsAddress(blackList, "1.2.3.4"));
+		assertTrue(BlackList.EMPTY.isEmpty());
+		assertFalse(updated.isEmpty());
+	}
+}
@@ -0,0 +1,108 @@
+package it.unimi.di.law.bubing.util;
+
+/*
+ * Copyright (C) 2012-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+//RELEASE-STATUS: DIST
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ByteArrayPipeTest {
+
+	private static Thread writer(final ByteArrayPipe pipe, final byte[] data, final long seed) {
+		final Thread thread = new Thread() {
+			@Override
+			public void run() {
+				final Random random = new Random(seed);
+				final OutputStream sink = pipe.sink();
+				try {
+					for(int pos = 0; pos < data.length;) {
+						final int len = Math.min(data.length - pos, random.nextInt(100));
+						sink.write(data, pos, len);
+						pos += len;
+					}
+					sink.close();
+				}
+				catch (final IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		thread.start();
+		return thread;
+	}
+
+	private static byte[] readFully(final InputStream source, final long seed) throws IOException {
+		final Random random = new Random(seed);
+		final ByteArrayOutputStream result = new ByteArrayOutputStream();
+		final byte[] b = new byte[100];
+		for(int r; (r = source.read(b, 0, 1 + random.nextInt(b.length))) != -1;) result.write(b, 0, r);
+		return result.toByteArray();
+	}
+
+	@Test
+	public void testTransfer() throws IOException, InterruptedException {
+		final Random random = new Random(0);
+		final ByteArrayPipe pipe = new ByteArrayPipe(17, 10);
+		for(int i = 0; i < 10; i++) {
+			final byte[] data = new byte[random.nextInt(10000)];
+			random.nextBytes(data);
+			pipe.reset();
+			final Thread writer = writer(pipe, data, i);
+			assertArrayEquals(data, readFully(pipe.source(), i));
+			assertEquals(-1, pipe.source().read());
+			writer.join();
+			pipe.awaitClose();
+			assertEquals(Math.min(10, data.length), pipe.source().prefixLength());
+			assertArrayEquals(Arrays.copyOf(data, pipe.source().prefixLength()), Arrays.copyOf(pipe.source().prefix(), pipe.source().prefixLength()));
+		}
+	}
+
+	@Test
+	public void testShortPrefix() throws IOException, InterruptedException {
+		final ByteArrayPipe pipe = new ByteArrayPipe(4, 10);
+		pipe.sink().write(new byte[] { 1, 2, 3 });
+		pipe.sink().close();
+		assertEquals(3, pipe.source().prefixLength());
+		assertArrayEquals(new byte[] { 1, 2, 3 }, Arrays.copyOf(pipe.source().prefix(), 3));
+		assertEquals(1, pipe.source().read());
+		assertEquals(2, pipe.source().read());
+		assertEquals(3, pipe.source().read());
+		assertEquals(-1, pipe.source().read());
+	}
+
+	@Test
+	public void testClosedSource() throws IOException, InterruptedException {
+		final ByteArrayPipe pipe = new ByteArrayPipe(8, 0);
+		final byte[] data = new byte[1000];
+		final Thread writer = writer(pipe, data, 0);
+		assertEquals(0, pipe.source().read());
+		pipe.source().close();
+		// The writer must not block
+		writer.join();
+		pipe.awaitClose();
+	}
+}
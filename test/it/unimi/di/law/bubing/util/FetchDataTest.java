@@ -18,18 +18,25 @@ package it.unimi.di.law.bubing.util;
 
 //RELEASE-STATUS: DIST
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import it.unimi.di.law.bubing.RuntimeConfiguration;
 import it.unimi.di.law.bubing.frontier.FetchingThread;
 import it.unimi.dsi.lang.MutableString;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.configuration.BaseConfiguration;
 import org.apache.commons.configuration.ConfigurationException;
@@ -40,17 +47,22 @@ import org.apache.http.client.CookieStore;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.config.RequestConfig.Builder;
+import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.cookie.Cookie;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.impl.NoConnectionReuseStrategy;
 import org.apache.http.impl.client.BasicCookieStore;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.cookie.BasicClientCookie;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
 
 public class FetchDataTest {
 	SimpleFixedHttpProxy proxy;
@@ -182,4 +194,166 @@ public class FetchDataTest {
 
 		fetchData.close();
 	}
+
+	/** Creates a configuration whose parse and store filters reject responses whose content type is not textual.
+	 *
+	 * @return a test configuration rejecting non-textual responses.
+	 */
+	private RuntimeConfiguration textOnlyConfiguration() throws ConfigurationException, IOException, IllegalArgumentException, ClassNotFoundException {
+		final BaseConfiguration baseConfiguration = new BaseConfiguration();
+		baseConfiguration.setProperty("parseFilter", "ContentTypeStartsWith(text/)");
+		baseConfiguration.setProperty("storeFilter", "ContentTypeStartsWith(text/)");
+		return Helpers.getTestConfiguration(this, baseConfiguration, true);
+	}
+
+	/** Sets up {@link #proxy} so that it serves a small textual response and a large binary response.
+	 *
+	 * @param text the URI of the textual response.
+	 * @param textContent the content of the textual response.
+	 * @param binary the URI of the binary response.
+	 * @param binaryContent the content of the binary response.
+	 */
+	private void startTextAndBinaryProxy(final URI text, final String textContent, final URI binary, final String binaryContent) throws IOException {
+		proxy = new SimpleFixedHttpProxy();
+		proxy.add200(text, "", textContent);
+		proxy.addNon200(binary,
+				"HTTP/1.1 200 OK\n" +
+				"Content-Type: application/octet-stream\n",
+				binaryContent
+		);
+		proxy.start();
+	}
+
+	@Test
+	public void testSyncBodySkipped() throws IOException, NoSuchAlgorithmException, IllegalArgumentException, ConfigurationException, ClassNotFoundException {
+		final URI text = BURL.parse(new MutableString("http://foo.bar/text.html"));
+		final URI binary = BURL.parse(new MutableString("http://foo.bar/binary.bin"));
+		final String textContent = "<html><body>Some text</body></html>";
+		final String binaryContent = Strings.repeat("x", 4 * 1024 * 1024);
+		startTextAndBinaryProxy(text, textContent, binary, binaryContent);
+
+		final HttpClient httpClient = getHttpClient(new HttpHost("localhost", proxy.port()), false);
+		final RuntimeConfiguration rc = textOnlyConfiguration();
+		final FetchData fetchData = new FetchData(rc);
+
+		// Filters rejecting the response on the basis of its headers: the body is not downloaded
+		fetchData.fetch(binary, httpClient, null, null, false);
+		assertTrue(fetchData.bodySkipped());
+		assertNull(fetchData.exception);
+		assertEquals(200, fetchData.response().getStatusLine().getStatusCode());
+		assertTrue(Long.toString(fetchData.wireLength()), fetchData.wireLength() < binaryContent.length() / 100);
+		assertEquals(0, fetchData.response().getEntity().getContentLength());
+		assertEquals("", IOUtils.toString(fetchData.response().getEntity().getContent(), Charsets.ISO_8859_1));
+
+		// Filters accepting the response: the body is downloaded, and the flag is reset
+		fetchData.fetch(text, httpClient, null, null, false);
+		assertFalse(fetchData.bodySkipped());
+		assertNull(fetchData.exception);
+		assertEquals(textContent, IOUtils.toString(fetchData.response().getEntity().getContent(), Charsets.ISO_8859_1));
+
+		// robots.txt responses are never skipped
+		fetchData.fetch(binary, httpClient, null, null, true);
+		assertFalse(fetchData.bodySkipped());
+		assertNull(fetchData.exception);
+		assertEquals(Math.min(binaryContent.length(), rc.responseBodyMaxByteSize), fetchData.response().getEntity().getContentLength());
+
+		fetchData.close();
+	}
+
+	/** Waits for an asynchronous fetch to be enqueued.
+	 *
+	 * @param results the queue passed to {@link FetchData#fetch(URI, org.apache.http.nio.client.HttpAsyncClient, RequestConfig, HttpClientContext, it.unimi.di.law.bubing.frontier.VisitState, boolean, LockFreeQueue)}.
+	 * @return the fetched response.
+	 */
+	private static FetchData awaitResult(final LockFreeQueue<FetchData> results) throws InterruptedException {
+		final long start = System.currentTimeMillis();
+		for(FetchData fetchData;;) {
+			if ((fetchData = results.poll()) != null) return fetchData;
+			assertTrue("Timeout while waiting for an asynchronous fetch", System.currentTimeMillis() - start < 10000);
+			Thread.sleep(10);
+		}
+	}
+
+	@Test
+	public void testAsyncBodySkipped() throws IOException, NoSuchAlgorithmException, IllegalArgumentException, ConfigurationException, ClassNotFoundException, InterruptedException {
+		final URI text = BURL.parse(new MutableString("http://foo.bar/text.html"));
+		final URI binary = BURL.parse(new MutableString("http://foo.bar/binary.bin"));
+		final String textContent = "<html><body>Some text</body></html>";
+		final String binaryContent = Strings.repeat("x", 4 * 1024 * 1024);
+		startTextAndBinaryProxy(text, textContent, binary, binaryContent);
+
+		final RequestConfig requestConfig = RequestConfig.custom().setProxy(new HttpHost("localhost", proxy.port())).setRedirectsEnabled(false).build();
+		final LockFreeQueue<FetchData> results = new LockFreeQueue<>();
+		final FetchData fetchData = new FetchData(textOnlyConfiguration());
+
+		try(final CloseableHttpAsyncClient httpAsyncClient = HttpAsyncClients.custom().setConnectionReuseStrategy(NoConnectionReuseStrategy.INSTANCE).build()) {
+			httpAsyncClient.start();
+
+			// Filters rejecting the response on the basis of its headers: the connection is closed as soon as the body starts
+			fetchData.fetch(binary, httpAsyncClient, requestConfig, HttpClientContext.create(), null, false, results);
+			assertSame(fetchData, awaitResult(results));
+			assertTrue(fetchData.bodySkipped());
+			assertNull(fetchData.exception);
+			assertEquals(200, fetchData.response().getStatusLine().getStatusCode());
+			assertTrue(Long.toString(fetchData.wireLength()), fetchData.wireLength() < binaryContent.length() / 100);
+			assertEquals(0, fetchData.response().getEntity().getContentLength());
+			assertEquals("", IOUtils.toString(fetchData.response().getEntity().getContent(), Charsets.ISO_8859_1));
+
+			// Filters accepting the response: the body is downloaded, and the shut-down exchange above does not affect this one
+			fetchData.fetch(text, httpAsyncClient, requestConfig, HttpClientContext.create(), null, false, results);
+			assertSame(fetchData, awaitResult(results));
+			assertFalse(fetchData.bodySkipped());
+			assertNull(fetchData.exception);
+			assertEquals(textContent, IOUtils.toString(fetchData.response().getEntity().getContent(), Charsets.ISO_8859_1));
+		}
+
+		fetchData.close();
+	}
+
+	/** Encodes some content.
+	 *
+	 * @param content the content.
+	 * @param gzip whether to use <code>gzip</code> (as opposed to <code>deflate</code>).
+	 * @return the encoded content.
+	 */
+	private static byte[] encode(final byte[] content, final boolean gzip) throws IOException {
+		final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		try(final OutputStream out = gzip ? new GZIPOutputStream(encoded) : new DeflaterOutputStream(encoded)) {
+			out.write(content);
+		}
+		return encoded.toByteArray();
+	}
+
+	@Test
+	public void testDecodingEntity() throws IOException {
+		final byte[] text = new byte[256 * 1024];
+		final Random random = new Random(0);
+		for(int i = 0; i < text.length; i++) text[i] = (byte)('a' + random.nextInt(26));
+		// Highly compressible, but below the minimum threshold for decompression bombs
+		final byte[] zeroes = new byte[32 * 1024];
+
+		for(final boolean gzip : new boolean[] { true, false }) {
+			for(final byte[] content : new byte[][] { text, zeroes }) {
+				final byte[] encoded = encode(content, gzip);
+				final FetchData.DecodingHttpEntity entity = new FetchData.DecodingHttpEntity(new ByteArrayEntity(encoded), gzip, 100);
+				assertArrayEquals(content, IOUtils.toByteArray(entity.getContent()));
+				assertFalse(entity.expansionExceeded());
+				assertEquals(encoded.length, entity.encodedLength());
+			}
+		}
+	}
+
+	@Test
+	public void testDecompressionBomb() throws IOException {
+		final byte[] bomb = new byte[16 * 1024 * 1024];
+		for(final boolean gzip : new boolean[] { true, false }) {
+			final byte[] encoded = encode(bomb, gzip);
+			final FetchData.DecodingHttpEntity entity = new FetchData.DecodingHttpEntity(new ByteArrayEntity(encoded), gzip, 100);
+			final byte[] decoded = IOUtils.toByteArray(entity.getContent());
+			assertTrue(entity.expansionExceeded());
+			assertTrue(decoded.length < bomb.length);
+			// The decoded content is cut as soon as the ratio is exceeded, modulo the size of the buffers
+			assertTrue(decoded.length + " > 100 * " + entity.encodedLength(), decoded.length <= 100 * entity.encodedLength() + 64 * 1024);
+		}
+	}
 }
@@ -31,6 +31,7 @@ import org.apache.commons.configuration.ConfigurationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Charsets;
 import com.google.common.io.Files;
 
 
@@ -115,4 +116,13 @@ public class Helpers {
 		return conf;
 	}
 
+	/** Returns the byte-array representation of a string in ISO-8859-1 (e.g., a path+query).
+	 *
+	 * @param s a string.
+	 * @return the bytes of {@code s} in ISO-8859-1.
+	 */
+	public static byte[] bytes(final String s) {
+		return s.getBytes(Charsets.ISO_8859_1);
+	}
+
 }
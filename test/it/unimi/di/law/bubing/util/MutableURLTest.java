@@ -0,0 +1,102 @@
+package it.unimi.di.law.bubing.util;
+
+/*
+ * Copyright (C) 2012-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+//RELEASE-STATUS: DIST
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class MutableURLTest {
+
+	private static String resolve(final String base, final String spec) {
+		final MutableURL url = new MutableURL();
+		return url.resolve(new MutableURL().set(URI.create(base)), spec) ? url.toString() : null;
+	}
+
+	@Test
+	public void testSet() {
+		final MutableURL url = new MutableURL().set(URI.create("http://user@example.com:8080/a?b"));
+		assertEquals("http://user@example.com:8080/a?b", url.toString());
+		assertEquals("example.com".hashCode(), url.hostHashCode());
+		assertEquals("example.com", new String(url.array(), url.startOfHost(), url.lengthOfHost(), java.nio.charset.StandardCharsets.US_ASCII));
+		assertEquals("http://user@example.com:8080".length(), url.startOfPathQuery());
+		assertArrayEquals(BURL.toByteArray(URI.create("http://user@example.com:8080/a?b")), url.toByteArray());
+		assertEquals(URI.create("http://user@example.com:8080/a?b"), url.toURI());
+
+		url.set(BURL.toByteArray(URI.create("https://[::1]:8443/")));
+		assertEquals("[::1]".hashCode(), url.hostHashCode());
+		assertEquals("https://[::1]:8443".length(), url.startOfPathQuery());
+	}
+
+	@Test
+	public void testResolve() {
+		final String base = "http://example.com/a/b/c?d";
+		assertEquals("http://example.com/a/b/x", resolve(base, "x"));
+		assertEquals("http://example.com/a/b/x", resolve(base, " x#y "));
+		assertEquals("http://example.com/a/x/", resolve(base, "./../x/"));
+		assertEquals("http://example.com/x", resolve(base, "/a/b/../../x"));
+		assertEquals("http://example.com/x?y=%20%C3%A9", resolve(base, "//Example.COM.//x?y= \u00e9"));
+		assertEquals("https://foo.org/", resolve(base, "HTTPS://FOO.ORG:443"));
+		assertEquals("http://foo.org:8080/a%25z/b%3C/c", resolve(base, "http://foo.org:08080/a%z\\b</c"));
+		assertEquals("http://example.com/a/b/%F0%9F%98%80%3F", resolve(base, "\ud83d\ude00%3f"));
+
+		// Cases left to BURL
+		assertEquals(null, resolve(base, ""));
+		assertEquals(null, resolve(base, "#x"));
+		assertEquals(null, resolve(base, "?x"));
+		assertEquals(null, resolve(base, "/.."));
+		assertEquals(null, resolve(base, "mailto:foo@bar.com"));
+		assertEquals(null, resolve(base, "http://user@foo.org/"));
+		assertEquals(null, resolve(base, "http://a_b.org/"));
+		assertEquals(null, resolve(base, "http://[::1]/"));
+		assertEquals(null, resolve(base, "x\ny"));
+		assertEquals(null, resolve(base, "x\ud800"));
+	}
+
+	@Test
+	public void testRandom() {
+		// Every resolution must be identical to that of BURL
+		final Random random = new Random(0);
+		final String[] base = { "http://example.com/", "http://example.com/a/b?c", "https://1.2.3.4:8443/a/" };
+		final String[] piece = { "a", "B", "/", "//", ".", "..", "?", "#", ":", "%", "%4a", "%g", "%00", " ", "\\", "@", "_", "-", "0", "9", "\u00e9", "\u00a0",
+				"http:", "HTTPS://", "http://example.com", "//foo.org", ":80", ":443", "1.2.3.4", "ex.", "[", "\ud83d\ude00" };
+		int resolved = 0;
+		for(int t = 0; t < 100000; t++) {
+			final StringBuilder spec = new StringBuilder();
+			for(int i = random.nextInt(6); i-- != 0;) spec.append(piece[random.nextInt(piece.length)]);
+			final URI baseURL = URI.create(base[random.nextInt(base.length)]);
+			final MutableURL url = new MutableURL();
+			if (url.resolve(new MutableURL().set(baseURL), spec)) {
+				final URI expected = BURL.parse(spec.toString());
+				assertTrue(spec.toString(), expected != null);
+				assertEquals(baseURL + " " + spec, baseURL.resolve(expected).toString(), url.toString());
+				assertEquals(baseURL.resolve(expected).getHost().hashCode(), url.hostHashCode());
+				resolved++;
+			}
+		}
+		assertTrue(Integer.toString(resolved), resolved > 10000);
+		assertFalse(new MutableURL().resolve(new MutableURL().set(URI.create(base[0])), " "));
+	}
+}
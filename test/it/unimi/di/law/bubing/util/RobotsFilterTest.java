@@ -0,0 +1,178 @@
+package it.unimi.di.law.bubing.util;
+
+/*
+ * Copyright (C) 2012-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+//RELEASE-STATUS: DIST
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URI;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+import it.unimi.dsi.fastutil.io.FastByteArrayInputStream;
+import it.unimi.dsi.fastutil.io.FastByteArrayOutputStream;
+
+public class RobotsFilterTest {
+
+	private static RobotsFilter compile(final String robots) throws IOException {
+		return URLRespectsRobots.compileRobotsReader(new StringReader(robots), "BUbiNG", null);
+	}
+
+	private static boolean apply(final RobotsFilter filter, final String pathQuery) {
+		return filter.apply(pathQuery.getBytes(Charsets.US_ASCII));
+	}
+
+	@Test
+	public void testEmpty() throws IOException {
+		assertSame(RobotsFilter.EMPTY, compile(""));
+		assertSame(RobotsFilter.EMPTY, compile("User-agent: *\nAllow: /a\n"));
+		assertTrue(apply(RobotsFilter.EMPTY, "/"));
+		assertTrue(apply(compile("User-agent: *\nDisallow:\n"), "/"));
+	}
+
+	@Test
+	public void testPrefixes() throws IOException {
+		RobotsFilter filter = compile("User-agent: *\nDisallow: /a\nDisallow: /a/a\nDisallow: /a/a\n");
+		assertTrue(apply(filter, "/"));
+		assertFalse(apply(filter, "/a"));
+		assertTrue(apply(filter, "/b"));
+		assertFalse(apply(filter, "/a/b"));
+		assertFalse(apply(filter, "/ab?c=d"));
+
+		filter = compile("User-agent: *\nDisallow: /\n\nUser-agent: Googlebot\nDisallow: /action\n");
+		assertFalse(apply(filter, "/doi/abs/10.1089/dna.2012.1756"));
+		assertTrue(apply(compile("User-agent: BUbiNG\nDisallow: /a\n\nUser-agent: *\nDisallow: /\n"), "/b"));
+	}
+
+	@Test
+	public void testAllow() throws IOException {
+		final RobotsFilter filter = compile("User-agent: *\nDisallow: /a\nAllow: /a/b\nDisallow: /a/b/c\nAllow: /x\nDisallow: /x\n");
+		assertFalse(apply(filter, "/a"));
+		assertFalse(apply(filter, "/a/c"));
+		assertTrue(apply(filter, "/a/b"));
+		assertTrue(apply(filter, "/a/bc"));
+		assertFalse(apply(filter, "/a/b/c"));
+		// In case of ties, Allow wins
+		assertTrue(apply(filter, "/x/y"));
+		assertTrue(apply(compile("User-agent: *\nAllow: /\nDisallow: /\n"), "/a"));
+	}
+
+	@Test
+	public void testWildcards() throws IOException {
+		RobotsFilter filter = compile("User-agent: *\nDisallow: /*buy_now*\n");
+		assertTrue(apply(filter, "/hi"));
+		assertFalse(apply(filter, "/hi_buy_now"));
+		assertFalse(apply(filter, "/buy_now_hi"));
+		assertFalse(apply(filter, "/buy_now/page"));
+		assertFalse(apply(filter, "/page/buy_now"));
+		assertTrue(apply(filter, "/page/buy/now"));
+
+		filter = compile("User-agent: *\nDisallow: /*.php$\nDisallow: /fish*.php\nAllow: /*.php$\n\n");
+		assertTrue(apply(filter, "/index.php"));
+		assertTrue(apply(filter, "/index.php?x=y"));
+		assertFalse(apply(filter, "/fish.php"));
+		assertFalse(apply(filter, "/fishheads/catfish.php?parameters"));
+		assertTrue(apply(filter, "/Fish.PHP"));
+
+		filter = compile("User-agent: *\nDisallow: /$\nDisallow: /a*b*c$\nAllow: /a*b*cd\n");
+		assertFalse(apply(filter, "/"));
+		assertTrue(apply(filter, "/index.html"));
+		assertFalse(apply(filter, "/abc"));
+		assertFalse(apply(filter, "/aabbcc"));
+		assertFalse(apply(filter, "/abcabc"));
+		assertTrue(apply(filter, "/abcab"));
+		assertTrue(apply(filter, "/abcd"));
+		assertTrue(apply(filter, "/abcdc"));
+
+		filter = compile("User-agent: *\nDisallow: *\n");
+		assertFalse(apply(filter, "/"));
+		assertFalse(apply(filter, "/a"));
+	}
+
+	@Test
+	public void testNormalization() throws IOException {
+		final RobotsFilter filter = compile("User-agent: *\nDisallow: /caf\u00e9\nDisallow: /%7ea\nDisallow: /x^y\n");
+		assertFalse(apply(filter, "/caf%C3%A9"));
+		assertFalse(apply(filter, "/%7Ea/b"));
+		assertFalse(apply(filter, "/x%5Ey"));
+		assertTrue(apply(filter, "/caf"));
+	}
+
+	@Test
+	public void testOffset() throws IOException {
+		final RobotsFilter filter = compile("User-agent: *\nDisallow: /a$\nDisallow: /b*c$\n");
+		final byte[] url = "http://example.com/a/bc".getBytes(Charsets.US_ASCII);
+		assertTrue(filter.apply(url, 18, 5));
+		assertFalse(filter.apply(url, 18, 2));
+		assertFalse(filter.apply(url, 20, 3));
+		assertTrue(filter.apply(url, 20, 2));
+		assertFalse(filter.apply(URI.create("http://example.com/a")));
+	}
+
+	@Test
+	public void testToString() throws IOException {
+		assertEquals("[]", RobotsFilter.EMPTY.toString());
+		assertEquals("[Disallow \"/a\",Allow \"/a/b$\",Disallow \"/*c\"]", compile("User-agent: *\nDisallow: /a\nAllow: /a/b$\nDisallow: /*c\n").toString());
+	}
+
+	@Test
+	public void testRandom() throws IOException {
+		// Literal rules must behave as the char-array filter
+		final Random random = new Random(0);
+		for(int t = 0; t < 100; t++) {
+			final StringBuilder robots = new StringBuilder("User-agent: *\n");
+			for(int i = random.nextInt(10); i-- != 0;) robots.append("Disallow: /").append(randomPath(random)).append('\n');
+			final char[][] legacy = URLRespectsRobots.parseRobotsReader(new StringReader(robots.toString()), "BUbiNG");
+			final RobotsFilter filter = compile(robots.toString());
+			for(int i = 0; i < 100; i++) {
+				final URI url = URI.create("http://example.com/" + randomPath(random));
+				assertEquals(robots + " " + url, URLRespectsRobots.apply(legacy, url), filter.apply(url));
+			}
+		}
+	}
+
+	@Test
+	public void testWriteRead() throws IOException {
+		final RobotsFilter filter = compile("User-agent: *\nDisallow: /a\nAllow: /a/b\nDisallow: /*.php$\nAllow: /x*y\n");
+		final FastByteArrayOutputStream fbaos = new FastByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(fbaos);
+		filter.write(out);
+		out.close();
+		final RobotsFilter copy = RobotsFilter.read(new DataInputStream(new FastByteArrayInputStream(fbaos.array, 0, fbaos.length)));
+		assertEquals(filter.size(), copy.size());
+		assertEquals(filter.toString(), copy.toString());
+		for(final String pathQuery : new String[] { "/", "/a", "/a/b", "/a/c", "/b.php", "/b.php?x", "/xay", "/xa" })
+			assertEquals(pathQuery, Boolean.valueOf(apply(filter, pathQuery)), Boolean.valueOf(apply(copy, pathQuery)));
+	}
+
+	private static String randomPath(final Random random) {
+		final char[] path = new char[random.nextInt(4)];
+		for(int i = 0; i < path.length; i++) path[i] = "ab/".charAt(random.nextInt(3));
+		return new String(path);
+	}
+}
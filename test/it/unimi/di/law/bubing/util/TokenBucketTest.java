@@ -0,0 +1,81 @@
+package it.unimi.di.law.bubing.util;
+
+/*
+ * Copyright (C) 2012-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+//RELEASE-STATUS: DIST
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TokenBucketTest {
+
+	@Test
+	public void testUnlimited() {
+		final TokenBucket tokenBucket = new TokenBucket();
+		for(int i = 0; i < 1000; i++) assertEquals(0, tokenBucket.reserve(1000000, 0));
+		assertEquals(0, tokenBucket.debt(0));
+	}
+
+	@Test
+	public void testBurstAndDebt() {
+		final TokenBucket tokenBucket = new TokenBucket(TimeUnit.SECONDS.toNanos(1));
+		// The bucket is initially full: a burst is served immediately
+		assertEquals(0, tokenBucket.reserve(1000, 1000));
+		// Then we must wait, more or less, one second per thousand tokens
+		final long wait = tokenBucket.reserve(2000, 1000);
+		assertTrue(Long.toString(wait), wait > TimeUnit.MILLISECONDS.toNanos(1900) && wait <= TimeUnit.SECONDS.toNanos(2));
+		final long debt = tokenBucket.debt(1000);
+		assertTrue(Long.toString(debt), debt > TimeUnit.MILLISECONDS.toNanos(1900) && debt <= wait);
+	}
+
+	@Test
+	public void testRate() throws InterruptedException {
+		final TokenBucket tokenBucket = new TokenBucket(0);
+		final long rate = 100000;
+		final long start = System.nanoTime();
+		for(int i = 0; i < 20; i++) tokenBucket.acquire(1000, rate);
+		final long elapsed = System.nanoTime() - start;
+		// 20000 tokens at 100000 tokens per second
+		assertTrue(Long.toString(elapsed), elapsed >= TimeUnit.MILLISECONDS.toNanos(190));
+	}
+
+	@Test
+	public void testConcurrent() throws InterruptedException {
+		final TokenBucket tokenBucket = new TokenBucket(0);
+		final long rate = 1000000;
+		final Thread[] thread = new Thread[4];
+		final long start = System.nanoTime();
+		for(int i = 0; i < thread.length; i++) (thread[i] = new Thread() {
+			@Override
+			public void run() {
+				try {
+					for(int j = 0; j < 50; j++) tokenBucket.acquire(1000, rate);
+				}
+				catch (final InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		}).start();
+		for(final Thread t : thread) t.join();
+		// 200000 tokens at 1000000 tokens per second
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 190);
+	}
+}
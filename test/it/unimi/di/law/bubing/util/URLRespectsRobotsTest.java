@@ -260,6 +260,27 @@ public class URLRespectsRobotsTest {
 		assertFalse(URLRespectsRobots.apply(robots, URI.create("http://example.com/")));
 	}
 
+	@Test
+	public void testCrawlDelay() throws IOException {
+		final long[] crawlDelay = new long[1];
+
+		URLRespectsRobots.parseRobotsReader(new StringReader("User-agent: *\nDisallow: /a\n"), "BUbiNG", crawlDelay);
+		assertEquals(0, crawlDelay[0]);
+
+		URLRespectsRobots.parseRobotsReader(new StringReader("User-agent: *\nCrawl-delay: 10\nDisallow: /a\n"), "BUbiNG", crawlDelay);
+		assertEquals(10000, crawlDelay[0]);
+
+		URLRespectsRobots.parseRobotsReader(new StringReader("User-agent: *\nCrawl-delay: 10\n\nUser-agent: BUbiNG\nCrawl-delay: 0.5\n"), "BUbiNG", crawlDelay);
+		assertEquals(500, crawlDelay[0]);
+
+		// A specific section without delay overrides the generic delay
+		URLRespectsRobots.parseRobotsReader(new StringReader("User-agent: *\nCrawl-delay: 10\n\nUser-agent: BUbiNG\nDisallow: /a\n"), "BUbiNG", crawlDelay);
+		assertEquals(0, crawlDelay[0]);
+
+		URLRespectsRobots.parseRobotsReader(new StringReader("User-agent: Googlebot\nCrawl-delay: 10\n\nUser-agent: *\nCrawl-delay: foo\n"), "BUbiNG", crawlDelay);
+		assertEquals(0, crawlDelay[0]);
+	}
+
 	@Test
 	public void testDisallowStar() throws IOException{
 		char[][] robots;
@@ -0,0 +1,72 @@
+package it.unimi.di.law.bubing.util;
+
+/*
+ * Copyright (C) 2012-2017 Paolo Boldi, Massimo Santini, and Sebastiano Vigna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+//RELEASE-STATUS: DIST
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Test;
+
+public class ValidatorMapTest {
+
+	@Test
+	public void testWriteAndGet() throws IOException {
+		final File file = File.createTempFile(ValidatorMapTest.class.getSimpleName(), "validators");
+		file.deleteOnExit();
+
+		try(final ValidatorMap.Writer writer = new ValidatorMap.Writer(file, false)) {
+			for(int i = 0; i < 1000; i++) writer.add(BURL.parse("http://example.com/" + i), new ValidatorMap.Validators(i % 2 == 0 ? "\"" + i + "\"" : null, i % 3 == 0 ? null : "Day " + i));
+			writer.add(BURL.parse("http://example.com/none"), null);
+		}
+		// Later records override earlier ones
+		try(final ValidatorMap.Writer writer = new ValidatorMap.Writer(file, true)) {
+			writer.add(BURL.parse("http://example.com/0"), new ValidatorMap.Validators("\"new\"", null));
+		}
+
+		try(final ValidatorMap validatorMap = new ValidatorMap(file)) {
+			assertEquals(1000, validatorMap.size());
+			for(int i = 1; i < 1000; i++) {
+				final ValidatorMap.Validators validators = validatorMap.get(BURL.parse("http://example.com/" + i));
+				assertEquals(i % 2 == 0 ? "\"" + i + "\"" : null, validators.eTag);
+				assertEquals(i % 3 == 0 ? null : "Day " + i, validators.lastModified);
+			}
+			assertEquals("\"new\"", validatorMap.get(BURL.parse("http://example.com/0")).eTag);
+			assertNull(validatorMap.get(BURL.parse("http://example.com/0")).lastModified);
+			assertNull(validatorMap.get(BURL.parse("http://example.com/none")));
+			assertNull(validatorMap.get(BURL.parse("http://example.com/1000")));
+		}
+	}
+
+	@Test
+	public void testOf() {
+		final BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+		assertNull(ValidatorMap.Validators.of(response));
+		response.addHeader("ETag", "W/\"xyz\"");
+		assertEquals("W/\"xyz\"", ValidatorMap.Validators.of(response).eTag);
+		assertNull(ValidatorMap.Validators.of(response).lastModified);
+		response.addHeader("Last-Modified", "Wed, 21 Oct 2015 07:28:00 GMT");
+		assertEquals("Wed, 21 Oct 2015 07:28:00 GMT", ValidatorMap.Validators.of(response).lastModified);
+	}
+}
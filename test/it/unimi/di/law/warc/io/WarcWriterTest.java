@@ -19,14 +19,18 @@ package it.unimi.di.law.warc.io;
 //RELEASE-STATUS: DIST
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import it.unimi.di.law.TestUtil;
 import it.unimi.di.law.warc.records.HttpRequestWarcRecord;
 import it.unimi.di.law.warc.records.HttpResponseWarcRecord;
 import it.unimi.di.law.warc.records.InfoWarcRecord;
 import it.unimi.di.law.warc.records.InputStreamTestMocks;
+import it.unimi.di.law.warc.records.WarcHeader;
 import it.unimi.di.law.warc.records.WarcRecord;
 import it.unimi.di.law.warc.util.BufferedHttpEntityFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -36,6 +40,10 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
 import org.junit.Test;
 
 public class WarcWriterTest {
@@ -80,6 +88,28 @@ public class WarcWriterTest {
 		assertEquals(InputStreamTestMocks.EMPTY_DIFFS, expected.headerDiffs(actual));
 	}
 
+	@SuppressWarnings("resource")
+	@Test
+	public void testRevisit() throws IOException, URISyntaxException {
+		final URI uri = new URI("http://this.is/a/revisit");
+		final BasicHttpResponse notModified = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_NOT_MODIFIED, "Not Modified");
+		notModified.addHeader("ETag", "\"abc\"");
+		notModified.setEntity(new ByteArrayEntity(new byte[0]));
+
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		new UncompressedWarcWriter(baos).write(HttpResponseWarcRecord.revisit(uri, notModified));
+
+		final WarcRecord record = new UncompressedWarcReader(new ByteArrayInputStream(baos.toByteArray())).read();
+		assertTrue(record instanceof HttpResponseWarcRecord);
+		final HttpResponseWarcRecord revisit = (HttpResponseWarcRecord)record;
+		assertEquals(WarcRecord.Type.REVISIT, revisit.getWarcType());
+		assertEquals(HttpResponseWarcRecord.REVISIT_SERVER_NOT_MODIFIED_PROFILE, revisit.getWarcHeader(WarcHeader.Name.WARC_PROFILE).getValue());
+		assertEquals(uri, revisit.getWarcTargetURI());
+		assertEquals(HttpStatus.SC_NOT_MODIFIED, revisit.getStatusLine().getStatusCode());
+		assertEquals("\"abc\"", revisit.getFirstHeader("ETag").getValue());
+		assertEquals(0, revisit.getEntity().getContentLength());
+	}
+
 	@SuppressWarnings("resource")
 	@Test
 	public void testMisc() throws IOException, WarcFormatException, InterruptedException {